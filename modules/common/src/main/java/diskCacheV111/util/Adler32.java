@@ -23,6 +23,54 @@ import java.security.MessageDigest;
 
 public class Adler32 extends MessageDigest
 {
+    /**
+     * Largest prime smaller than 65536.
+     */
+    private static final long BASE = 65521L;
+
+    /**
+     * Returns the adler32 value of the concatenation of two byte sequences,
+     * given the adler32 values of both sequences and the length of the second
+     * sequence.  This allows computing the checksum of a file from the
+     * checksums of its parts, irrespective of the order in which the parts
+     * were processed.
+     *
+     * @param adler1 adler32 value of the first sequence
+     * @param adler2 adler32 value of the second sequence
+     * @param length2 length of the second sequence in bytes
+     * @return adler32 value of the concatenated sequence
+     */
+    public static long combine(long adler1, long adler2, long length2)
+    {
+        long remainder = length2 % BASE;
+        long sum1 = adler1 & 0xffff;
+        long sum2 = (remainder * sum1) % BASE;
+        sum1 += (adler2 & 0xffff) + BASE - 1;
+        sum2 += ((adler1 >>> 16) & 0xffff) + ((adler2 >>> 16) & 0xffff) + BASE - remainder;
+        if (sum1 >= BASE) {
+            sum1 -= BASE;
+        }
+        if (sum1 >= BASE) {
+            sum1 -= BASE;
+        }
+        if (sum2 >= (BASE << 1)) {
+            sum2 -= (BASE << 1);
+        }
+        if (sum2 >= BASE) {
+            sum2 -= BASE;
+        }
+        return sum1 | (sum2 << 16);
+    }
+
+    /**
+     * Returns the adler32 value of a sequence of zeros.
+     *
+     * @param length number of zero bytes
+     */
+    public static long ofZeros(long length)
+    {
+        return ((length % BASE) << 16) | 1L;
+    }
 
    private final java.util.zip.Adler32 _zipAdler;
    private long _adler = 1L ;
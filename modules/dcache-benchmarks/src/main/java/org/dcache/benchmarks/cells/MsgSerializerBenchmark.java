@@ -0,0 +1,160 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2020 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.benchmarks.cells;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.concurrent.TimeUnit;
+
+import diskCacheV111.pools.PoolCostInfo;
+import diskCacheV111.pools.PoolV2Mode;
+import diskCacheV111.util.AccessLatency;
+import diskCacheV111.util.PnfsId;
+import diskCacheV111.util.RetentionPolicy;
+import diskCacheV111.vehicles.GenericStorageInfo;
+import diskCacheV111.vehicles.PoolManagerPoolUpMessage;
+import diskCacheV111.vehicles.StorageInfos;
+
+import dmg.cells.nucleus.MsgSerializerFst;
+import dmg.cells.nucleus.MsgSerializerJos;
+
+import org.dcache.namespace.FileAttribute;
+import org.dcache.util.Checksum;
+import org.dcache.util.ChecksumType;
+import org.dcache.vehicles.FileAttributes;
+import org.dcache.vehicles.PnfsGetFileAttributes;
+
+/**
+ * Compares the cost of encoding and decoding typical cell message payloads
+ * with the two serializers supported by the cell messaging layer.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {
+        /* FST uses reflection on JDK internals. */
+        "--add-opens=java.base/java.io=ALL-UNNAMED",
+        "--add-opens=java.base/java.lang=ALL-UNNAMED",
+        "--add-opens=java.base/java.math=ALL-UNNAMED",
+        "--add-opens=java.base/java.net=ALL-UNNAMED",
+        "--add-opens=java.base/java.text=ALL-UNNAMED",
+        "--add-opens=java.base/java.util=ALL-UNNAMED",
+        "--add-opens=java.base/java.util.concurrent=ALL-UNNAMED"})
+@State(Scope.Thread)
+public class MsgSerializerBenchmark
+{
+    @Param({"file-attributes", "pool-up"})
+    private String payload;
+
+    private Serializable message;
+    private byte[] fstEncoded;
+    private byte[] josEncoded;
+
+    @Setup(Level.Trial)
+    public void setUp()
+    {
+        switch (payload) {
+        case "file-attributes":
+            message = fileAttributesReply();
+            break;
+        case "pool-up":
+            message = poolUpMessage();
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown payload: " + payload);
+        }
+        fstEncoded = MsgSerializerFst.encode(message);
+        josEncoded = MsgSerializerJos.encode(message);
+    }
+
+    private static Serializable fileAttributesReply()
+    {
+        PnfsId id = new PnfsId("0000D0B1F5F7E8A44B6EA4B4F1A6C1D6E4F2");
+        PnfsGetFileAttributes message = new PnfsGetFileAttributes(id, EnumSet.allOf(FileAttribute.class));
+
+        FileAttributes attributes = new FileAttributes();
+        attributes.setPnfsId(id);
+        attributes.setSize(4_000_000_000L);
+        attributes.setAccessLatency(AccessLatency.NEARLINE);
+        attributes.setRetentionPolicy(RetentionPolicy.CUSTODIAL);
+        attributes.setOwner(1000);
+        attributes.setGroup(1000);
+        attributes.setMode(0644);
+        attributes.setCreationTime(System.currentTimeMillis());
+        attributes.setModificationTime(System.currentTimeMillis());
+        attributes.setAccessTime(System.currentTimeMillis());
+        attributes.setChangeTime(System.currentTimeMillis());
+        attributes.setLocations(Arrays.asList("pool-a", "pool-b"));
+        attributes.setChecksums(Collections.singleton(new Checksum(ChecksumType.ADLER32, "1f2e3d4c")));
+        StorageInfos.injectInto(GenericStorageInfo.valueOf("exp:raw@osm", "*"), attributes);
+        message.setFileAttributes(attributes);
+        return message;
+    }
+
+    private static Serializable poolUpMessage()
+    {
+        PoolCostInfo cost = new PoolCostInfo("pool-a", "regular");
+        cost.setSpaceUsage(100_000_000_000_000L, 10_000_000_000_000L, 0, 50_000_000_000_000L, 3600);
+        cost.setMoverCostFactor(0.5);
+        cost.setP2pServerQueueSizes(0, 10, 0);
+        cost.setP2pClientQueueSizes(0, 10, 0);
+        cost.addExtendedMoverQueueSizes("regular", 50, 100, 0, 40, 10);
+        cost.addExtendedMoverQueueSizes("wan", 5, 10, 0, 5, 0);
+        return new PoolManagerPoolUpMessage("pool-a", 42L, new PoolV2Mode(PoolV2Mode.ENABLED), cost);
+    }
+
+    @Benchmark
+    public byte[] encodeFst()
+    {
+        return MsgSerializerFst.encode(message);
+    }
+
+    @Benchmark
+    public byte[] encodeJos()
+    {
+        return MsgSerializerJos.encode(message);
+    }
+
+    @Benchmark
+    public Object decodeFst()
+    {
+        return MsgSerializerFst.decode(fstEncoded);
+    }
+
+    @Benchmark
+    public Object decodeJos()
+    {
+        return MsgSerializerJos.decode(josEncoded);
+    }
+}
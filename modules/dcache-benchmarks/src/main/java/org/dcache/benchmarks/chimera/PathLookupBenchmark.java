@@ -0,0 +1,124 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2020 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.benchmarks.chimera;
+
+import com.zaxxer.hikari.HikariDataSource;
+import liquibase.Liquibase;
+import liquibase.database.Database;
+import liquibase.database.DatabaseFactory;
+import liquibase.database.jvm.JdbcConnection;
+import liquibase.resource.ClassLoaderResourceAccessor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+
+import java.sql.Connection;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.dcache.chimera.FsFactory;
+import org.dcache.chimera.FsInode;
+import org.dcache.chimera.JdbcFs;
+
+/**
+ * Measures path resolution in Chimera, i.e. FsSqlDriver#path2inode as
+ * exposed through {@link JdbcFs#path2inode(String)}.  The name space is
+ * backed by an in-memory H2 database, so the numbers reflect the cost of
+ * the lookup logic and of the JDBC layer rather than of a real database
+ * server.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PathLookupBenchmark
+{
+    private static final int FILES_PER_DIRECTORY = 100;
+
+    @Param({"1", "8", "16"})
+    private int depth;
+
+    private HikariDataSource dataSource;
+    private JdbcFs fs;
+    private String directory;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception
+    {
+        dataSource = FsFactory.getDataSource("jdbc:h2:mem:chimera-bench", "sa", "");
+
+        try (Connection conn = dataSource.getConnection()) {
+            conn.setTransactionIsolation(Connection.TRANSACTION_READ_COMMITTED);
+            Database database = DatabaseFactory.getInstance()
+                    .findCorrectDatabaseImplementation(new JdbcConnection(conn));
+            Liquibase liquibase = new Liquibase("org/dcache/chimera/changelog/changelog-master.xml",
+                    new ClassLoaderResourceAccessor(), database);
+            liquibase.update("");
+        }
+
+        fs = new JdbcFs(dataSource, new DataSourceTransactionManager(dataSource));
+
+        FsInode inode = fs.path2inode("/");
+        StringBuilder path = new StringBuilder();
+        for (int i = 0; i < depth; i++) {
+            String name = "dir" + i;
+            inode = fs.mkdir(inode, name);
+            path.append('/').append(name);
+        }
+        for (int i = 0; i < FILES_PER_DIRECTORY; i++) {
+            fs.createFile(inode, "file" + i);
+        }
+        directory = path.toString();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception
+    {
+        fs.close();
+        /* The in-memory database is dropped with its last connection. */
+        dataSource.close();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public FsInode lookupFile() throws Exception
+    {
+        return fs.path2inode(directory + "/file" + ThreadLocalRandom.current().nextInt(FILES_PER_DIRECTORY));
+    }
+
+    @Benchmark
+    @Threads(4)
+    public FsInode lookupFileContended() throws Exception
+    {
+        return fs.path2inode(directory + "/file" + ThreadLocalRandom.current().nextInt(FILES_PER_DIRECTORY));
+    }
+}
@@ -0,0 +1,103 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2020 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.benchmarks.pool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import org.dcache.pool.movers.ChecksumChannel;
+import org.dcache.util.ChecksumType;
+
+/**
+ * Measures the overhead of on-the-fly checksum calculation in
+ * {@link ChecksumChannel}.  The inner channel discards all data, so the
+ * numbers reflect the cost of the digests and of the range book-keeping
+ * only.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class ChecksumChannelBenchmark
+{
+    @Param({"65536", "1048576"})
+    private int blockSize;
+
+    @Param({"ADLER32", "MD5", "ADLER32+MD5"})
+    private String types;
+
+    private Set<ChecksumType> checksumTypes;
+    private ByteBuffer buffer;
+    private ChecksumChannel channel;
+    private long offset;
+
+    @Setup(Level.Trial)
+    public void setUpTrial()
+    {
+        checksumTypes = Arrays.stream(types.split("\\+"))
+                .map(ChecksumType::getChecksumType)
+                .collect(Collectors.toCollection(() -> EnumSet.noneOf(ChecksumType.class)));
+        buffer = ByteBuffer.allocate(blockSize);
+        ThreadLocalRandom.current().ints(blockSize).forEach(i -> buffer.put((byte) i));
+    }
+
+    @Setup(Level.Iteration)
+    public void setUpIteration()
+    {
+        channel = new ChecksumChannel(new NullRepositoryChannel(), checksumTypes);
+        offset = 0;
+    }
+
+    @TearDown(Level.Iteration)
+    public void tearDownIteration() throws IOException
+    {
+        channel.getChecksums();
+        channel.close();
+    }
+
+    @Benchmark
+    public int sequentialWrite() throws IOException
+    {
+        buffer.clear();
+        int n = channel.write(buffer, offset);
+        offset += n;
+        return n;
+    }
+}
@@ -0,0 +1,147 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2020 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.benchmarks.pool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumSet;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.dcache.pool.repository.FileRepositoryChannel;
+import org.dcache.pool.repository.RepositoryChannel;
+
+import static org.dcache.util.ByteUnit.MiB;
+
+/**
+ * Measures the raw throughput of {@link FileRepositoryChannel}, the
+ * channel through which all movers access replica data on disk.  The data
+ * file lives in a temporary directory, so results depend on the file
+ * system hosting java.io.tmpdir.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class FileRepositoryChannelBenchmark
+{
+    private static final long FILE_SIZE = MiB.toBytes(64);
+
+    @Param({"4096", "65536", "1048576"})
+    private int blockSize;
+
+    @Param({"false", "true"})
+    private boolean direct;
+
+    private Path dir;
+    private RepositoryChannel writeChannel;
+    private RepositoryChannel readChannel;
+    private ByteBuffer buffer;
+    private long writeOffset;
+    private long readOffset;
+    private WritableByteChannel sink;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException
+    {
+        dir = Files.createTempDirectory("dcache-bench");
+
+        buffer = direct ? ByteBuffer.allocateDirect(blockSize) : ByteBuffer.allocate(blockSize);
+        ThreadLocalRandom.current().ints(blockSize).forEach(i -> buffer.put((byte) i));
+
+        Path readFile = dir.resolve("read");
+        try (RepositoryChannel channel = new FileRepositoryChannel(readFile,
+                EnumSet.of(StandardOpenOption.CREATE, StandardOpenOption.WRITE))) {
+            for (long position = 0; position < FILE_SIZE; position += blockSize) {
+                buffer.clear();
+                channel.write(buffer, position);
+            }
+        }
+
+        readChannel = new FileRepositoryChannel(readFile, EnumSet.of(StandardOpenOption.READ));
+        writeChannel = new FileRepositoryChannel(dir.resolve("write"),
+                EnumSet.of(StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE));
+        sink = Channels.newChannel(OutputStream.nullOutputStream());
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException
+    {
+        readChannel.close();
+        writeChannel.close();
+        Files.deleteIfExists(dir.resolve("read"));
+        Files.deleteIfExists(dir.resolve("write"));
+        Files.deleteIfExists(dir);
+    }
+
+    @Benchmark
+    public int sequentialWrite() throws IOException
+    {
+        buffer.clear();
+        int n = writeChannel.write(buffer, writeOffset);
+        writeOffset = (writeOffset + blockSize) % FILE_SIZE;
+        return n;
+    }
+
+    @Benchmark
+    public int sequentialRead() throws IOException
+    {
+        buffer.clear();
+        int n = readChannel.read(buffer, readOffset);
+        readOffset = (readOffset + blockSize) % FILE_SIZE;
+        return n;
+    }
+
+    @Benchmark
+    public int randomRead() throws IOException
+    {
+        buffer.clear();
+        long blocks = FILE_SIZE / blockSize;
+        return readChannel.read(buffer, ThreadLocalRandom.current().nextLong(blocks) * blockSize);
+    }
+
+    @Benchmark
+    public long transferTo() throws IOException
+    {
+        long n = readChannel.transferTo(readOffset, blockSize, sink);
+        readOffset = (readOffset + blockSize) % FILE_SIZE;
+        return n;
+    }
+}
@@ -0,0 +1,169 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2020 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.benchmarks.pool;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import org.dcache.pool.repository.RepositoryChannel;
+
+/**
+ * A RepositoryChannel that discards all written data while keeping track of
+ * the channel size.  Reads return zeros.  Allows measuring the cost of
+ * channel decorators without the cost of the underlying file system.
+ */
+class NullRepositoryChannel implements RepositoryChannel
+{
+    private long position;
+    private long size;
+    private boolean isOpen = true;
+
+    @Override
+    public int write(ByteBuffer buffer, long position)
+    {
+        int n = buffer.remaining();
+        buffer.position(buffer.limit());
+        size = Math.max(size, position + n);
+        return n;
+    }
+
+    @Override
+    public int read(ByteBuffer buffer, long position)
+    {
+        if (position >= size) {
+            return -1;
+        }
+        int n = (int) Math.min(buffer.remaining(), size - position);
+        for (int i = 0; i < n; i++) {
+            buffer.put((byte) 0);
+        }
+        return n;
+    }
+
+    @Override
+    public void sync()
+    {
+    }
+
+    @Override
+    public long transferTo(long position, long count, WritableByteChannel target) throws IOException
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException
+    {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length)
+    {
+        long n = 0;
+        for (int i = offset; i < offset + length; i++) {
+            n += write(srcs[i]);
+        }
+        return n;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs)
+    {
+        return write(srcs, 0, srcs.length);
+    }
+
+    @Override
+    public long read(ByteBuffer[] dsts, int offset, int length)
+    {
+        long n = 0;
+        for (int i = offset; i < offset + length; i++) {
+            int r = read(dsts[i]);
+            if (r < 0) {
+                return n == 0 ? -1 : n;
+            }
+            n += r;
+        }
+        return n;
+    }
+
+    @Override
+    public long read(ByteBuffer[] dsts)
+    {
+        return read(dsts, 0, dsts.length);
+    }
+
+    @Override
+    public int read(ByteBuffer dst)
+    {
+        int n = read(dst, position);
+        if (n > 0) {
+            position += n;
+        }
+        return n;
+    }
+
+    @Override
+    public int write(ByteBuffer src)
+    {
+        int n = write(src, position);
+        position += n;
+        return n;
+    }
+
+    @Override
+    public long position()
+    {
+        return position;
+    }
+
+    @Override
+    public RepositoryChannel position(long newPosition)
+    {
+        position = newPosition;
+        return this;
+    }
+
+    @Override
+    public long size()
+    {
+        return size;
+    }
+
+    @Override
+    public RepositoryChannel truncate(long size)
+    {
+        this.size = Math.min(this.size, size);
+        position = Math.min(position, size);
+        return this;
+    }
+
+    @Override
+    public boolean isOpen()
+    {
+        return isOpen;
+    }
+
+    @Override
+    public void close()
+    {
+        isOpen = false;
+    }
+}
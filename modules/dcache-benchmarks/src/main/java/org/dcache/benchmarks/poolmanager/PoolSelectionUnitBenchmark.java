@@ -0,0 +1,167 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2020 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.benchmarks.poolmanager;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import diskCacheV111.poolManager.PoolPreferenceLevel;
+import diskCacheV111.poolManager.PoolSelectionUnit.DirectionType;
+import diskCacheV111.poolManager.PoolSelectionUnitV2;
+import diskCacheV111.pools.PoolV2Mode;
+import diskCacheV111.vehicles.GenericStorageInfo;
+import diskCacheV111.vehicles.StorageInfos;
+
+import dmg.util.CommandException;
+import dmg.util.CommandInterpreter;
+
+import org.dcache.util.Args;
+import org.dcache.vehicles.FileAttributes;
+
+/**
+ * Measures {@link PoolSelectionUnitV2#match} for a configuration with one
+ * storage unit, unit group, pool group and link per experiment, which is
+ * the typical layout of a large site.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PoolSelectionUnitBenchmark
+{
+    private static final Predicate<String> NO_EXCLUDE = p -> false;
+
+    private static final int POOLS_PER_GROUP = 4;
+
+    @Param({"10", "2000"})
+    private int units;
+
+    @Param({"off", "on"})
+    private String regex;
+
+    private PoolSelectionUnitV2 psu;
+    private FileAttributes[] files;
+
+    @Setup(Level.Trial)
+    public void setUp() throws CommandException
+    {
+        psu = new PoolSelectionUnitV2();
+        CommandInterpreter ci = new CommandInterpreter(psu);
+
+        command(ci, "psu set regex " + regex);
+
+        command(ci, "psu create unit -net 10.0.0.0/255.0.0.0");
+        command(ci, "psu create unit -net 0.0.0.0/0.0.0.0");
+        command(ci, "psu create ugroup intern");
+        command(ci, "psu create ugroup world");
+        command(ci, "psu addto ugroup intern 10.0.0.0/255.0.0.0");
+        command(ci, "psu addto ugroup world 0.0.0.0/0.0.0.0");
+
+        command(ci, "psu create unit -protocol */*");
+        command(ci, "psu create ugroup any-protocol");
+        command(ci, "psu addto ugroup any-protocol */*");
+
+        command(ci, "psu create unit -store *@*");
+        command(ci, "psu create ugroup any-store");
+        command(ci, "psu addto ugroup any-store *@*");
+
+        files = new FileAttributes[units];
+        for (int i = 0; i < units; i++) {
+            String storageClass = "exp" + i + ":raw";
+            String name = "exp" + i;
+
+            command(ci, "psu create unit -store " + storageClass + "@osm");
+            command(ci, "psu create ugroup " + name + "-units");
+            command(ci, "psu addto ugroup " + name + "-units " + storageClass + "@osm");
+
+            command(ci, "psu create pgroup " + name + "-pools");
+            for (int j = 0; j < POOLS_PER_GROUP; j++) {
+                String pool = name + "-pool" + j;
+                command(ci, "psu create pool " + pool);
+                psu.getPool(pool).setPoolMode(new PoolV2Mode(PoolV2Mode.ENABLED));
+                psu.getPool(pool).setActive(true);
+                command(ci, "psu addto pgroup " + name + "-pools " + pool);
+            }
+
+            command(ci, "psu create link " + name + "-link " + name + "-units intern any-protocol");
+            command(ci, "psu set link " + name + "-link -readpref=20 -writepref=20 -cachepref=20 -p2ppref=-1");
+            command(ci, "psu addto link " + name + "-link " + name + "-pools");
+
+            FileAttributes attributes = new FileAttributes();
+            StorageInfos.injectInto(GenericStorageInfo.valueOf(storageClass + "@osm", "*"), attributes);
+            files[i] = attributes;
+        }
+
+        command(ci, "psu create pool default-pool");
+        psu.getPool("default-pool").setPoolMode(new PoolV2Mode(PoolV2Mode.ENABLED));
+        psu.getPool("default-pool").setActive(true);
+        command(ci, "psu create pgroup default-pools");
+        command(ci, "psu addto pgroup default-pools default-pool");
+        command(ci, "psu create link default-link any-store world any-protocol");
+        command(ci, "psu set link default-link -readpref=1 -writepref=1 -cachepref=1 -p2ppref=-1");
+        command(ci, "psu addto link default-link default-pools");
+    }
+
+    private static void command(CommandInterpreter ci, String command) throws CommandException
+    {
+        ci.command(new Args(command));
+    }
+
+    private FileAttributes randomFile()
+    {
+        return files[ThreadLocalRandom.current().nextInt(files.length)];
+    }
+
+    @Benchmark
+    @Threads(1)
+    public PoolPreferenceLevel[] matchRead()
+    {
+        return psu.match(DirectionType.READ, "10.1.2.3", "DCap/3", randomFile(), null, NO_EXCLUDE);
+    }
+
+    @Benchmark
+    @Threads(1)
+    public PoolPreferenceLevel[] matchWrite()
+    {
+        return psu.match(DirectionType.WRITE, "10.1.2.3", "DCap/3", randomFile(), null, NO_EXCLUDE);
+    }
+
+    @Benchmark
+    @Threads(4)
+    public PoolPreferenceLevel[] matchReadContended()
+    {
+        return psu.match(DirectionType.READ, "10.1.2.3", "DCap/3", randomFile(), null, NO_EXCLUDE);
+    }
+}
@@ -9,21 +9,118 @@ import java.nio.ByteBuffer;
 import java.util.List;
 
 import org.dcache.xrootd.core.XrootdException;
+import org.dcache.xrootd.protocol.messages.GenericReadRequestMessage.EmbeddedReadRequest;
 import org.dcache.xrootd.protocol.messages.ReadVRequest;
+import org.dcache.xrootd.protocol.messages.ReadVResponse;
 import org.dcache.xrootd.stream.AbstractChunkedReadvResponse;
 
+import static org.dcache.util.ByteUnit.KiB;
 import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_FileNotOpen;
 
+/**
+ * Vector read response that reads the embedded segments from the pool.
+ *
+ * Vector reads typically consist of many small segments, many of which are
+ * adjacent or close to each other in the file. Such segments are coalesced
+ * into runs that are read with a single positional read into one pooled
+ * buffer. The individual segments are then returned as slices of that
+ * buffer, avoiding both a system call and a buffer allocation per segment.
+ *
+ * A run never spans more than one response frame, thus no buffer is retained
+ * beyond the frame being assembled. Slices that have not been returned when
+ * the response is aborted are released when the response is closed.
+ */
 public class ChunkedFileDescriptorReadvResponse extends AbstractChunkedReadvResponse
 {
+    /**
+     * Segments separated by at most this many bytes are read together.
+     */
+    private static final int MAX_GAP = KiB.toBytes(4);
+
+    /**
+     * A contiguous range of a file covering one or more segments.
+     */
+    private static class Run
+    {
+        final int fd;
+        final long position;
+        final int first;
+        long end;
+        int last;
+
+        Run(int index, EmbeddedReadRequest segment)
+        {
+            fd = segment.getFileHandle();
+            position = segment.getOffset();
+            end = position + segment.BytesToRead();
+            first = last = index;
+        }
+
+        int length()
+        {
+            return (int) (end - position);
+        }
+    }
+
     private final List<FileDescriptor> descriptors;
 
+    private final EmbeddedReadRequest[] segments;
+
+    /**
+     * The run of each segment.
+     */
+    private final Run[] runs;
+
+    /**
+     * Slices of the current run that have not been returned yet.
+     */
+    private final ByteBuf[] prepared;
+
+    private Run current;
+
+    private int next;
+
     public ChunkedFileDescriptorReadvResponse(ReadVRequest request,
                                               int maxFrameSize,
                                               List<FileDescriptor> descriptors)
     {
         super(request, maxFrameSize);
         this.descriptors = descriptors;
+        segments = request.getReadRequestList();
+        runs = coalesce(segments, maxFrameSize);
+        prepared = new ByteBuf[segments.length];
+    }
+
+    /**
+     * Groups segments into runs. Segments of a run belong to the same file,
+     * are sorted by offset up to overlaps, are separated by at most MAX_GAP
+     * bytes and are sent in the same frame.
+     */
+    private static Run[] coalesce(EmbeddedReadRequest[] segments, int maxFrameSize)
+    {
+        Run[] runs = new Run[segments.length];
+        Run run = null;
+        long frameSize = 0;
+        for (int i = 0; i < segments.length; i++) {
+            EmbeddedReadRequest segment = segments[i];
+            long size = ReadVResponse.READ_LIST_HEADER_SIZE + segment.BytesToRead();
+            boolean isNewFrame = frameSize + size > maxFrameSize;
+            frameSize = isNewFrame ? size : frameSize + size;
+
+            long end = segment.getOffset() + segment.BytesToRead();
+            if (run != null && !isNewFrame
+                    && segment.getFileHandle() == run.fd
+                    && segment.getOffset() >= run.position
+                    && segment.getOffset() <= run.end + MAX_GAP
+                    && Math.max(run.end, end) - run.position <= maxFrameSize) {
+                run.end = Math.max(run.end, end);
+                run.last = i;
+            } else {
+                run = new Run(i, segment);
+            }
+            runs[i] = run;
+        }
+        return runs;
     }
 
     @Override
@@ -45,6 +142,82 @@ public class ChunkedFileDescriptorReadvResponse extends AbstractChunkedReadvResp
 
         FileDescriptor descriptor = descriptors.get(fd);
 
+        int index = indexOf(fd, position, length);
+        if (index < 0) {
+            return read(alloc, descriptor, position, length);
+        }
+        next = index + 1;
+
+        try {
+            if (prepared[index] == null) {
+                readRun(alloc, descriptor, runs[index]);
+            }
+            ByteBuf chunk = prepared[index];
+            prepared[index] = null;
+            return chunk;
+        } catch (RuntimeException | IOException e) {
+            releasePrepared();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the index of the segment being read, or -1 if it does not
+     * correspond to a segment of the request. Segments are normally read
+     * in order.
+     */
+    private int indexOf(int fd, long position, int length)
+    {
+        for (int i = next; i < segments.length; i++) {
+            EmbeddedReadRequest segment = segments[i];
+            if (segment.getFileHandle() == fd && segment.getOffset() == position
+                    && segment.BytesToRead() == length) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void readRun(ByteBufAllocator alloc, FileDescriptor descriptor, Run run)
+            throws IOException
+    {
+        releasePrepared();
+
+        ByteBuf buffer = read(alloc, descriptor, run.position, run.length());
+        try {
+            int available = buffer.writerIndex();
+            for (int i = run.first; i <= run.last; i++) {
+                int offset = (int) (segments[i].getOffset() - run.position);
+                int length = Math.max(0, Math.min(segments[i].BytesToRead(), available - offset));
+                prepared[i] = buffer.retainedSlice(Math.min(offset, available), length);
+            }
+            current = run;
+        } finally {
+            buffer.release();
+        }
+    }
+
+    @Override
+    public void close() throws Exception
+    {
+        releasePrepared();
+        super.close();
+    }
+
+    private void releasePrepared()
+    {
+        if (current != null) {
+            for (int i = current.first; i <= current.last; i++) {
+                ReferenceCountUtil.release(prepared[i]);
+                prepared[i] = null;
+            }
+            current = null;
+        }
+    }
+
+    private static ByteBuf read(ByteBufAllocator alloc, FileDescriptor descriptor,
+                                long position, int length) throws IOException
+    {
         ByteBuf chunk = alloc.ioBuffer(length);
         try {
             ByteBuffer buffer = chunk.nioBuffer(0, length);
@@ -0,0 +1,142 @@
+package org.dcache.xrootd.pool;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import org.dcache.xrootd.protocol.messages.GenericReadRequestMessage.EmbeddedReadRequest;
+import org.dcache.xrootd.protocol.messages.ReadVRequest;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ChunkedFileDescriptorReadvResponseTest
+{
+    private static final int MAX_FRAME_SIZE = 1 << 20;
+
+    private final ByteBufAllocator alloc = new UnpooledByteBufAllocator(false, true);
+
+    private FileDescriptor descriptor;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        descriptor = mock(FileDescriptor.class);
+        doAnswer(invocation -> {
+            ByteBuffer buffer = invocation.getArgument(0);
+            long position = invocation.getArgument(1);
+            while (buffer.hasRemaining()) {
+                buffer.put((byte) position++);
+            }
+            return null;
+        }).when(descriptor).read(any(ByteBuffer.class), anyLong());
+    }
+
+    @Test
+    public void shouldReadCloseSegmentsWithSingleRead() throws Exception
+    {
+        ChunkedFileDescriptorReadvResponse response =
+                response(segment(0, 0, 100), segment(0, 100, 100), segment(0, 300, 50));
+
+        assertSegment(response.read(alloc, 0, 0, 100), 0, 100);
+        assertSegment(response.read(alloc, 0, 100, 100), 100, 100);
+        assertSegment(response.read(alloc, 0, 300, 50), 300, 50);
+
+        verify(descriptor, times(1)).read(any(ByteBuffer.class), eq(0L));
+        verify(descriptor, times(1)).read(any(ByteBuffer.class), anyLong());
+    }
+
+    @Test
+    public void shouldReadDistantSegmentsSeparately() throws Exception
+    {
+        ChunkedFileDescriptorReadvResponse response =
+                response(segment(0, 0, 100), segment(0, 100_000, 100));
+
+        assertSegment(response.read(alloc, 0, 0, 100), 0, 100);
+        assertSegment(response.read(alloc, 0, 100_000, 100), 100_000, 100);
+
+        verify(descriptor, times(2)).read(any(ByteBuffer.class), anyLong());
+    }
+
+    @Test
+    public void shouldReadSegmentsOutOfOrderSeparately() throws Exception
+    {
+        ChunkedFileDescriptorReadvResponse response =
+                response(segment(0, 1000, 100), segment(0, 0, 100));
+
+        assertSegment(response.read(alloc, 0, 1000, 100), 1000, 100);
+        assertSegment(response.read(alloc, 0, 0, 100), 0, 100);
+
+        verify(descriptor, times(2)).read(any(ByteBuffer.class), anyLong());
+    }
+
+    @Test
+    public void shouldReleaseBufferWhenAllSegmentsAreReleased() throws Exception
+    {
+        ChunkedFileDescriptorReadvResponse response =
+                response(segment(0, 0, 100), segment(0, 100, 100));
+
+        ByteBuf first = response.read(alloc, 0, 0, 100);
+        ByteBuf buffer = first.unwrap();
+        first.release();
+        assertThat(buffer.refCnt(), is(1));
+
+        response.read(alloc, 0, 100, 100).release();
+        assertThat(buffer.refCnt(), is(0));
+    }
+
+    @Test
+    public void shouldReleasePreparedSegmentsOnClose() throws Exception
+    {
+        ChunkedFileDescriptorReadvResponse response =
+                response(segment(0, 0, 100), segment(0, 100, 100), segment(0, 200, 100));
+
+        ByteBuf first = response.read(alloc, 0, 0, 100);
+        ByteBuf buffer = first.unwrap();
+        first.release();
+        response.close();
+
+        assertThat(buffer.refCnt(), is(0));
+    }
+
+    private ChunkedFileDescriptorReadvResponse response(EmbeddedReadRequest... segments)
+    {
+        ReadVRequest request = mock(ReadVRequest.class);
+        when(request.getReadRequestList()).thenReturn(segments);
+        return new ChunkedFileDescriptorReadvResponse(request, MAX_FRAME_SIZE, List.of(descriptor));
+    }
+
+    private static EmbeddedReadRequest segment(int fd, long offset, int length)
+    {
+        EmbeddedReadRequest segment = mock(EmbeddedReadRequest.class);
+        when(segment.getFileHandle()).thenReturn(fd);
+        when(segment.getOffset()).thenReturn(offset);
+        when(segment.BytesToRead()).thenReturn(length);
+        return segment;
+    }
+
+    private static void assertSegment(ByteBuf chunk, long offset, int length)
+    {
+        try {
+            assertThat(chunk.readableBytes(), is(length));
+            for (int i = 0; i < length; i++) {
+                assertThat(chunk.getByte(chunk.readerIndex() + i), is((byte) (offset + i)));
+            }
+        } finally {
+            chunk.release();
+        }
+    }
+}
@@ -0,0 +1,492 @@
+package diskCacheV111.poolManager;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Sets;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.net.Inet4Address;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import diskCacheV111.poolManager.PoolSelectionUnit.DirectionType;
+import diskCacheV111.poolManager.PoolSelectionUnit.SelectionLink;
+
+import static diskCacheV111.poolManager.PoolSelectionUnit.UnitType.STORE;
+
+/**
+ * Immutable, indexed form of the configuration of a PoolSelectionUnitV2,
+ * used to match requests to links.
+ *
+ * A snapshot is compiled from the configuration the first time it is needed
+ * after the configuration changed and is then used without locking. Store,
+ * cache class and protocol units are resolved by hash lookups, store unit
+ * patterns are compiled once, net units are resolved through a binary trie,
+ * and the links of every unit are precomputed together with the pools they
+ * point to. Since the same combinations of units are requested over and over,
+ * the preference levels of links matching a combination are memoized.
+ *
+ * The state of the pools is not part of the snapshot, as it changes with
+ * every heartbeat, and has to be checked by the caller for every request.
+ */
+final class CompiledPoolSelection
+{
+    private static final Logger _log = LoggerFactory.getLogger(CompiledPoolSelection.class);
+
+    /** Maximum number of memoized unit combinations. */
+    private static final int CACHE_SIZE = 10_000;
+
+    /**
+     * A link together with the pools it points to.
+     */
+    static final class CompiledLink
+    {
+        private final Link _link;
+        private final List<Pool> _pools;
+        private final int _uGroupCount;
+
+        private CompiledLink(Link link)
+        {
+            _link = link;
+            _uGroupCount = link._uGroupList.size();
+            ImmutableList.Builder<Pool> pools = ImmutableList.builder();
+            for (PoolCore poolCore : link._poolList.values()) {
+                if (poolCore instanceof Pool) {
+                    pools.add((Pool) poolCore);
+                } else {
+                    pools.addAll(((PGroup) poolCore)._poolList.values());
+                }
+            }
+            _pools = pools.build();
+        }
+
+        Link getLink()
+        {
+            return _link;
+        }
+
+        List<Pool> getPools()
+        {
+            return _pools;
+        }
+    }
+
+    /**
+     * Store unit with its name compiled to a regular expression.
+     */
+    private static final class StorePattern
+    {
+        private final Unit _unit;
+        private final Pattern _pattern;
+        private final PatternSyntaxException _error;
+
+        private StorePattern(Unit unit)
+        {
+            Pattern pattern = null;
+            PatternSyntaxException error = null;
+            try {
+                pattern = Pattern.compile(unit.getName());
+            } catch (PatternSyntaxException e) {
+                error = e;
+            }
+            _unit = unit;
+            _pattern = pattern;
+            _error = error;
+        }
+
+        private boolean matches(String storeUnitName)
+        {
+            if (_pattern == null) {
+                throw new PatternSyntaxException(_error.getDescription(), _error.getPattern(), _error.getIndex());
+            }
+            return _pattern.matcher(storeUnitName).matches();
+        }
+    }
+
+    /**
+     * Binary trie of net units keyed by the bits of their subnet. Looking up
+     * an address returns the net unit with the longest matching prefix.
+     */
+    private static final class NetTrie
+    {
+        private static final class Node
+        {
+            private Node _zero;
+            private Node _one;
+            private NetUnit _unit;
+        }
+
+        private final Node _v4 = new Node();
+        private final Node _v6 = new Node();
+
+        private void add(NetUnit unit)
+        {
+            byte[] address = unit.getHostAddress().getAddress();
+            int prefix = address.length * 8 - unit.getHostBits();
+            Node node = (address.length == 4) ? _v4 : _v6;
+            for (int i = 0; i < prefix; i++) {
+                if (isSet(address, i)) {
+                    if (node._one == null) {
+                        node._one = new Node();
+                    }
+                    node = node._one;
+                } else {
+                    if (node._zero == null) {
+                        node._zero = new Node();
+                    }
+                    node = node._zero;
+                }
+            }
+            node._unit = unit;
+        }
+
+        private NetUnit match(InetAddress inetAddress)
+        {
+            byte[] address = inetAddress.getAddress();
+            Node node = (inetAddress instanceof Inet4Address) ? _v4 : _v6;
+            NetUnit unit = node._unit;
+            for (int i = 0; i < address.length * 8 && node != null; i++) {
+                node = isSet(address, i) ? node._one : node._zero;
+                if (node != null && node._unit != null) {
+                    unit = node._unit;
+                }
+            }
+            return unit;
+        }
+
+        private static boolean isSet(byte[] address, int bit)
+        {
+            return (address[bit / 8] & (0x80 >>> (bit % 8))) != 0;
+        }
+    }
+
+    /**
+     * Combination of units of a request.
+     */
+    private static final class Key
+    {
+        private final DirectionType _type;
+        private final String _store;
+        private final String _dcache;
+        private final String _net;
+        private final String _protocol;
+        private final String _linkGroup;
+
+        private Key(DirectionType type, String store, String dcache, String net, String protocol,
+                    String linkGroup)
+        {
+            _type = type;
+            _store = store;
+            _dcache = dcache;
+            _net = net;
+            _protocol = protocol;
+            _linkGroup = linkGroup;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return _type == other._type && _store.equals(other._store)
+                   && Objects.equals(_dcache, other._dcache)
+                   && Objects.equals(_net, other._net)
+                   && Objects.equals(_protocol, other._protocol)
+                   && Objects.equals(_linkGroup, other._linkGroup);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(_type, _store, _dcache, _net, _protocol, _linkGroup);
+        }
+    }
+
+    private final boolean _useRegex;
+    private final boolean _allPoolsActive;
+    private final Map<String, Unit> _units;
+    private final List<StorePattern> _storePatterns;
+    private final NetTrie _nets = new NetTrie();
+    private final Map<Unit, List<CompiledLink>> _linksByUnit = new IdentityHashMap<>();
+    private final Map<String, Set<SelectionLink>> _linkGroups = new HashMap<>();
+    private final Cache<Key, List<List<CompiledLink>>> _cache =
+            CacheBuilder.newBuilder().maximumSize(CACHE_SIZE).build();
+
+    /**
+     * Compiles the configuration. The caller must prevent concurrent
+     * modifications of the configuration.
+     */
+    CompiledPoolSelection(Map<String, Unit> units, Map<String, LinkGroup> linkGroups,
+                          Map<String, Link> links, NetHandler netHandler,
+                          boolean useRegex, boolean allPoolsActive)
+    {
+        _useRegex = useRegex;
+        _allPoolsActive = allPoolsActive;
+        _units = ImmutableMap.copyOf(units);
+
+        ImmutableList.Builder<StorePattern> patterns = ImmutableList.builder();
+        if (useRegex) {
+            for (Unit unit : units.values()) {
+                if (unit.getType() == STORE && !unit.getName().equals("*@*")) {
+                    patterns.add(new StorePattern(unit));
+                }
+            }
+        }
+        _storePatterns = patterns.build();
+
+        Collection<NetUnit> netUnits = netHandlerUnits(netHandler);
+        netUnits.forEach(_nets::add);
+
+        Map<Link, CompiledLink> compiledLinks = new IdentityHashMap<>();
+        for (Link link : links.values()) {
+            compiledLinks.put(link, new CompiledLink(link));
+        }
+        Collection<Unit> allUnits = new ArrayList<>(units.values());
+        allUnits.addAll(netUnits);
+        for (Unit unit : allUnits) {
+            Map<String, CompiledLink> unitLinks = new LinkedHashMap<>();
+            for (UGroup uGroup : unit._uGroupList.values()) {
+                for (Link link : uGroup._linkList.values()) {
+                    unitLinks.put(link.getName(), compiledLinks.computeIfAbsent(link, CompiledLink::new));
+                }
+            }
+            _linksByUnit.put(unit, ImmutableList.copyOf(unitLinks.values()));
+        }
+
+        for (LinkGroup linkGroup : linkGroups.values()) {
+            Set<SelectionLink> members = Sets.newIdentityHashSet();
+            members.addAll(linkGroup.getLinks());
+            _linkGroups.put(linkGroup.getName(), members);
+        }
+    }
+
+    /**
+     * Returns the net units known to the NetHandler. These may differ from
+     * the net units in the unit map when several units describe the same
+     * subnet, in which case the NetHandler only knows the last one created.
+     */
+    private static Collection<NetUnit> netHandlerUnits(NetHandler netHandler)
+    {
+        List<NetUnit> units = new ArrayList<>();
+        for (Map<Long, NetUnit> nets : netHandler._netList) {
+            if (nets != null) {
+                units.addAll(nets.values());
+            }
+        }
+        for (Map<?, NetUnit> nets : netHandler._netListV6) {
+            if (nets != null) {
+                units.addAll(nets.values());
+            }
+        }
+        return units;
+    }
+
+    boolean isAllPoolsActive()
+    {
+        return _allPoolsActive;
+    }
+
+    /**
+     * Returns the links matching the given units, grouped into levels of
+     * decreasing preference. Links with a preference below one are not
+     * included.
+     *
+     * @throws IllegalArgumentException if a unit or the link group is unknown
+     */
+    List<List<CompiledLink>> match(DirectionType type, String storeUnitName, String dCacheUnitName,
+                                   String netUnitName, String protocolUnitName, String linkGroupName)
+    {
+        Key key = new Key(type, storeUnitName, dCacheUnitName, netUnitName, protocolUnitName, linkGroupName);
+        List<List<CompiledLink>> levels = _cache.getIfPresent(key);
+        if (levels == null) {
+            levels = resolve(type, storeUnitName, dCacheUnitName, netUnitName, protocolUnitName, linkGroupName);
+            _cache.put(key, levels);
+        }
+        return levels;
+    }
+
+    private List<List<CompiledLink>> resolve(DirectionType type, String storeUnitName, String dCacheUnitName,
+                                             String netUnitName, String protocolUnitName, String linkGroupName)
+    {
+        List<Unit> list = new ArrayList<>();
+        list.add(findStoreUnit(storeUnitName));
+        if (protocolUnitName != null) {
+            Unit unit = findProtocolUnit(protocolUnitName);
+            if (unit == null) {
+                _log.debug("no matching protocol unit found for: {}", protocolUnitName);
+                throw new IllegalArgumentException("Unit not found : " + protocolUnitName);
+            }
+            list.add(unit);
+        }
+        if (dCacheUnitName != null) {
+            Unit unit = _units.get(dCacheUnitName);
+            if (unit == null) {
+                _log.debug("no matching dCache unit found for: {}", dCacheUnitName);
+                throw new IllegalArgumentException("Unit not found : " + dCacheUnitName);
+            }
+            list.add(unit);
+        }
+        if (netUnitName != null) {
+            try {
+                Unit unit = _nets.match(InetAddress.getByName(netUnitName));
+                if (unit == null) {
+                    _log.debug("no matching net unit found for: {}", netUnitName);
+                    throw new IllegalArgumentException("Unit not matched : " + netUnitName);
+                }
+                list.add(unit);
+            } catch (UnknownHostException uhe) {
+                throw new IllegalArgumentException("NetUnit not resolved : " + netUnitName);
+            }
+        }
+
+        Set<SelectionLink> linkGroup = null;
+        if (linkGroupName != null) {
+            linkGroup = _linkGroups.get(linkGroupName);
+            if (linkGroup == null) {
+                _log.debug("LinkGroup not found : {}", linkGroupName);
+                throw new IllegalArgumentException("LinkGroup not found : " + linkGroupName);
+            }
+        }
+
+        /* A link matches if all of its unit groups are matched by the units
+         * of the request.
+         */
+        Map<CompiledLink, Integer> hits = new IdentityHashMap<>();
+        for (Unit unit : list) {
+            for (CompiledLink link : _linksByUnit.getOrDefault(unit, ImmutableList.of())) {
+                if (linkGroup == null
+                        ? type == DirectionType.READ || link._link.getLinkGroup() == null
+                        : linkGroup.contains(link._link)) {
+                    hits.merge(link, 1, Integer::sum);
+                }
+            }
+        }
+        int fitCount = list.size();
+        List<CompiledLink> links = new ArrayList<>();
+        hits.forEach((link, count) -> {
+            if (count >= link._uGroupCount && link._uGroupCount <= fitCount) {
+                links.add(link);
+            }
+        });
+        LinkComparator comparator = new LinkComparator(type);
+        links.sort((a, b) -> comparator.compare(a._link, b._link));
+
+        ImmutableList.Builder<List<CompiledLink>> levels = ImmutableList.builder();
+        ImmutableList.Builder<CompiledLink> current = null;
+        int pref = -1;
+        for (CompiledLink link : links) {
+            int linkPref = getPreference(link._link, type);
+            if (linkPref < 1) {
+                continue;
+            }
+            if (linkPref != pref) {
+                if (current != null) {
+                    levels.add(current.build());
+                }
+                current = ImmutableList.builder();
+                pref = linkPref;
+            }
+            current.add(link);
+        }
+        if (current != null) {
+            levels.add(current.build());
+        }
+        return levels.build();
+    }
+
+    private static int getPreference(Link link, DirectionType type)
+    {
+        switch (type) {
+        case READ:
+            return link.getReadPref();
+        case CACHE:
+            return link.getCachePref();
+        case P2P:
+            return link.getP2pPref() < 0 ? link.getReadPref() : link.getP2pPref();
+        case WRITE:
+            return link.getWritePref();
+        default:
+            throw new IllegalArgumentException("Wrong direction type: " + type);
+        }
+    }
+
+    private Unit findStoreUnit(String storeUnitName)
+    {
+        if (_useRegex) {
+            String classCoverage = "*@" + storeUnitName;
+            for (StorePattern pattern : _storePatterns) {
+                if (!pattern._unit.getName().equals(classCoverage) && pattern.matches(storeUnitName)) {
+                    return pattern._unit;
+                }
+            }
+            Unit unit = _units.get(classCoverage);
+            if (unit == null || unit.getType() != STORE) {
+                unit = _units.get("*@*");
+            }
+            if (unit == null || unit.getType() != STORE) {
+                throw new IllegalArgumentException("Unit not found : " + storeUnitName);
+            }
+            return unit;
+        }
+
+        Unit unit = _units.get(storeUnitName);
+        if (unit == null) {
+            int ind = storeUnitName.lastIndexOf('@');
+            if ((ind > 0) && (ind < (storeUnitName.length() - 1))) {
+                unit = _units.get("*@" + storeUnitName.substring(ind + 1));
+                if (unit == null) {
+                    unit = _units.get("*@*");
+                    if (unit == null) {
+                        _log.debug("no matching storage unit found for: {}", storeUnitName);
+                        throw new IllegalArgumentException("Unit not found : " + storeUnitName);
+                    }
+                }
+            } else {
+                throw new IllegalArgumentException("IllegalUnitFormat : " + storeUnitName);
+            }
+        }
+        return unit;
+    }
+
+    /*
+     * Legal formats : <protocol>/<version>, tried as <protocol>/<version>,
+     * <protocol>/* and * / *
+     */
+    private Unit findProtocolUnit(String protocolUnitName)
+    {
+        if (protocolUnitName.isEmpty()) {
+            return null;
+        }
+        int position = protocolUnitName.indexOf('/');
+        if ((position < 0) || (position == 0) || (position == (protocolUnitName.length() - 1))) {
+            throw new IllegalArgumentException("Not a valid protocol specification : " + protocolUnitName);
+        }
+        Unit unit = _units.get(protocolUnitName);
+        if (unit == null) {
+            unit = _units.get(protocolUnitName.substring(0, position) + "/*");
+            if (unit == null) {
+                unit = _units.get("*/*");
+            }
+        }
+        return unit;
+    }
+}
@@ -7,14 +7,16 @@ import org.slf4j.LoggerFactory;
 import javax.annotation.Nullable;
 
 import java.io.IOException;
-import java.io.ObjectOutputStream;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.regex.Pattern;
 
 import diskCacheV111.pools.PoolCostInfo;
@@ -31,6 +33,7 @@ import dmg.util.command.Argument;
 import dmg.util.command.Command;
 
 import org.dcache.poolmanager.PoolInfo;
+import org.dcache.poolmanager.PoolMonitorDelta;
 import org.dcache.util.Args;
 
 public class CostModuleV1
@@ -45,10 +48,13 @@ public class CostModuleV1
 
     private static final long serialVersionUID = -267023006449629909L;
 
-    private final Map<String, Entry> _hash = new HashMap<>() ;
-    private boolean _cachedPercentileCostCutIsValid;
-    private double _cachedPercentileCostCut;
-    private double _cachedPercentileFraction;
+    /**
+     * Cost information of all pools. Entries are immutable and are replaced
+     * atomically; the sorted costs are updated while the key is being replaced
+     * so that both always describe the same set of entries.
+     */
+    private final Map<String, Entry> _hash = new ConcurrentHashMap<>();
+    private transient SortedCosts _sortedCosts = new SortedCosts();
 
     /**
      * Information about some specific pool.
@@ -59,19 +65,37 @@ public class CostModuleV1
 
        private final long timestamp;
        private final PoolCostInfo _info;
-       private double _fakeCpu = -1.0;
+       private final double _fakeCpu;
        private final ImmutableMap<String,String> _tagMap;
        private final CellAddressCore _address;
 
        public Entry(CellAddressCore address, PoolCostInfo info, Map<String,String> tagMap)
        {
-           timestamp = System.currentTimeMillis();
+           this(address, info, tagMap, System.currentTimeMillis());
+       }
+
+       public Entry(CellAddressCore address, PoolCostInfo info, Map<String,String> tagMap,
+                    long timestamp)
+       {
+           this(address, info, tagMap, timestamp, -1.0);
+       }
+
+       private Entry(CellAddressCore address, PoolCostInfo info, Map<String,String> tagMap,
+                     long timestamp, double fakeCpu)
+       {
+           this.timestamp = timestamp;
            _address = address;
            _info = info;
            _tagMap =
                (tagMap == null)
                ? ImmutableMap.of()
                : ImmutableMap.copyOf(tagMap);
+           _fakeCpu = fakeCpu;
+       }
+
+       public Entry withFakeCpu(double fakeCpu)
+       {
+           return new Entry(_address, _info, _tagMap, timestamp, fakeCpu);
        }
 
        public boolean isValid()
@@ -95,113 +119,134 @@ public class CostModuleV1
        }
    }
 
-    public synchronized void messageArrived(CellMessage envelope, PoolManagerPoolUpMessage msg)
+    /**
+     * Performance costs of all pools in ascending order. Kept up to date with
+     * every change to the pool entries such that percentiles are answered
+     * without sorting.
+     */
+    private static class SortedCosts
+    {
+        private double[] _costs = new double[64];
+        private int _size;
+
+        synchronized void replace(@Nullable Entry oldEntry, @Nullable Entry newEntry)
+        {
+            if (oldEntry != null) {
+                remove(getPerformanceCost(oldEntry.getPoolCostInfo()));
+            }
+            if (newEntry != null) {
+                add(getPerformanceCost(newEntry.getPoolCostInfo()));
+            }
+        }
+
+        synchronized double percentile(double fraction)
+        {
+            if (_size == 0) {
+                LOGGER.debug("no pools available");
+                return 0;
+            }
+            LOGGER.debug("{} pools available", _size);
+            return _costs[(int) Math.floor(fraction * _size)];
+        }
+
+        private void add(double cost)
+        {
+            int i = Arrays.binarySearch(_costs, 0, _size, cost);
+            if (i < 0) {
+                i = -i - 1;
+            }
+            if (_size == _costs.length) {
+                _costs = Arrays.copyOf(_costs, 2 * _size);
+            }
+            System.arraycopy(_costs, i, _costs, i + 1, _size - i);
+            _costs[i] = cost;
+            _size++;
+        }
+
+        private void remove(double cost)
+        {
+            int i = Arrays.binarySearch(_costs, 0, _size, cost);
+            if (i >= 0) {
+                System.arraycopy(_costs, i + 1, _costs, i, _size - i - 1);
+                _size--;
+            }
+        }
+    }
+
+    public void messageArrived(CellMessage envelope, PoolManagerPoolUpMessage msg)
     {
         CellAddressCore poolAddress = envelope.getSourceAddress();
         String poolName = msg.getPoolName();
         PoolV2Mode poolMode = msg.getPoolMode();
         PoolCostInfo newInfo = msg.getPoolCostInfo();
-        Entry poolEntry = _hash.get(poolName);
-        boolean isNewPool = poolEntry == null;
 
         /* Whether the pool mentioned in the message should be removed */
         boolean shouldRemovePool = poolMode.getMode() == PoolV2Mode.DISABLED ||
                 poolMode.isDisabled(PoolV2Mode.DISABLED_STRICT) ||
                 poolMode.isDisabled(PoolV2Mode.DISABLED_DEAD);
 
-        if( isNewPool || shouldRemovePool) {
-            _cachedPercentileCostCutIsValid = false;
-        } else {
-            PoolCostInfo currentInfo = poolEntry.getPoolCostInfo();
-            considerInvalidatingCache(currentInfo, newInfo);
-        }
-
         if (shouldRemovePool) {
-            _hash.remove(poolName);
+            _hash.computeIfPresent(poolName, (name, entry) -> replace(entry, null));
         } else if (newInfo != null) {
-            _hash.put(poolName, new Entry(poolAddress, newInfo, msg.getTagMap()));
+            Entry newEntry = new Entry(poolAddress, newInfo, msg.getTagMap());
+            _hash.compute(poolName, (name, entry) -> replace(entry, newEntry));
         }
     }
 
-    private void considerInvalidatingCache(PoolCostInfo currentInfo, PoolCostInfo newInfo)
+    /**
+     * Returns the cost information of all pools that sent a heartbeat at or
+     * after the given time. Heartbeats that are being processed concurrently
+     * may be missed, so callers should use overlapping intervals.
+     */
+    public List<PoolMonitorDelta.PoolUpdate> getPoolUpdatesSince(long time)
     {
-        if( !_cachedPercentileCostCutIsValid) {
-            return;
+        List<PoolMonitorDelta.PoolUpdate> updates = new ArrayList<>();
+        for (Entry entry : _hash.values()) {
+            if (entry.timestamp >= time) {
+                updates.add(new PoolMonitorDelta.PoolUpdate(entry.getPoolInfo(), entry.timestamp));
+            }
         }
-
-        double currentCost = getPerformanceCost(currentInfo);
-        double newCost = getPerformanceCost(newInfo);
-        considerInvalidatingCache(currentCost, newCost);
+        return updates;
     }
 
-    private void considerInvalidatingCache(double currentCost, PoolCostInfo newInfo)
+    /**
+     * Updates the cost information of a pool from an update published by pool
+     * manager. Updates that are not newer than the current information are
+     * ignored.
+     */
+    public void update(PoolMonitorDelta.PoolUpdate update)
     {
-        if( !_cachedPercentileCostCutIsValid) {
-            return;
-        }
-
-        double newCost = getPerformanceCost(newInfo);
-        considerInvalidatingCache(currentCost, newCost);
+        PoolInfo info = update.getPoolInfo();
+        _hash.compute(update.getName(),
+                      (name, entry) -> (entry != null && entry.timestamp >= update.getTimestamp())
+                                       ? entry
+                                       : replace(entry, new Entry(info.getAddress(), info.getCostInfo(),
+                                                                  info.getTags(), update.getTimestamp())));
     }
 
-    /* Check whether we should invalidate the cached.  We must do this when
-     * a pool changes its relationship to the cost threshold:
-     *       o  a pool with cost less than the cached value assumes a cost greater
-     *                  than the cached value,
-     *       o  a pool with cost greater than the cached value assumes a cost less
-     *                  than the cached value.
-     *       o  a pool with cost equal to the cached value assumes a cost less
-     *                  than or greater than the cached value.
+    /**
+     * Updates the sorted costs for replacing one entry with another. Must only be
+     * called while computing the new entry of a key.
      */
-    private void considerInvalidatingCache(double currentCost, double newCost)
+    private Entry replace(@Nullable Entry oldEntry, @Nullable Entry newEntry)
     {
-        if( Math.signum(currentCost-_cachedPercentileCostCut) !=
-            Math.signum(newCost-_cachedPercentileCostCut)) {
-            _cachedPercentileCostCutIsValid = false;
-        }
+        _sortedCosts.replace(oldEntry, newEntry);
+        return newEntry;
     }
 
-    private double getPerformanceCost(PoolCostInfo info)
+    private static double getPerformanceCost(PoolCostInfo info)
     {
         return info.getPerformanceCost();
     }
 
    @Override
-   public synchronized double getPoolsPercentilePerformanceCost(double fraction) {
+   public double getPoolsPercentilePerformanceCost(double fraction) {
 
        if( fraction <= 0 || fraction >= 1) {
            throw new IllegalArgumentException("supplied fraction (" + Double.toString( fraction) +") not between 0 and 1");
        }
 
-       if( !_cachedPercentileCostCutIsValid || _cachedPercentileFraction != fraction) {
-           _cachedPercentileCostCut = calculatePercentileCostCut(fraction);
-           _cachedPercentileFraction = fraction;
-           _cachedPercentileCostCutIsValid = true;
-       }
-
-       return _cachedPercentileCostCut;
-   }
-
-   private double calculatePercentileCostCut(double fraction)
-   {
-       if( _hash.isEmpty()) {
-           LOGGER.debug("no pools available");
-           return 0;
-       }
-
-       LOGGER.debug("{} pools available", _hash.size());
-
-       double[] poolCosts = new double[_hash.size()];
-
-       int idx=0;
-       for( Entry poolInfo : _hash.values()) {
-           poolCosts[idx] = getPerformanceCost(poolInfo.getPoolCostInfo());
-           idx++;
-       }
-
-       Arrays.sort(poolCosts);
-
-       return poolCosts [ (int) Math.floor(fraction * _hash.size())];
+       return _sortedCosts.percentile(fraction);
    }
 
     @Command(name = "cm set debug")
@@ -261,33 +306,31 @@ public class CostModuleV1
     }
 
    public static final String hh_cm_fake = "<poolName> [off] | [-cpu=<cpuCost>|off]" ;
-   public synchronized String ac_cm_fake_$_1_2( Args args ){
+   public String ac_cm_fake_$_1_2( Args args ){
       String poolName = args.argv(0) ;
-      Entry e = _hash.get(poolName);
+      boolean off = args.argc() > 1;
+      if( off && !args.argv(1).equals("off") ){
+          throw new
+          IllegalArgumentException("Unknown argument : "+args.argv(1));
+      }
+      String val = args.getOpt("cpu") ;
+      Entry e = _hash.computeIfPresent(poolName, (name, entry) ->
+              off ? entry.withFakeCpu(-1.0)
+                  : (val == null) ? entry : entry.withFakeCpu(Double.parseDouble(val)));
       if( e == null ) {
           throw new
                   IllegalArgumentException("Pool not found : " + poolName);
       }
 
-      if( args.argc() > 1 ){
-        if( args.argv(1).equals("off") ){
-           e._fakeCpu   = -1.0 ;
-        }else{
-           throw new
-           IllegalArgumentException("Unknown argument : "+args.argv(1));
-        }
+      if( off ){
         return "Faked Costs switched off for "+poolName ;
       }
-      String val = args.getOpt("cpu") ;
-      if( val != null ) {
-          e._fakeCpu = Double.parseDouble(val);
-      }
 
       return poolName+" -cpu="+e._fakeCpu ;
    }
 
    public static final String hh_xcm_ls = "";
-   public synchronized Object ac_xcm_ls_$_0(Args args)
+   public Object ac_xcm_ls_$_0(Args args)
    {
        CostModulePoolInfoTable reply = new CostModulePoolInfoTable();
        for (Entry e : _hash.values() ){
@@ -297,7 +340,7 @@ public class CostModuleV1
    }
 
    public static final String hh_cm_ls = " -t | -r <pattern> # list all pools";
-   public synchronized String ac_cm_ls_$_0_1(Args args)
+   public String ac_cm_ls_$_0_1(Args args)
    {
        StringBuilder sb = new StringBuilder();
        boolean useTime   = args.hasOption("t");
@@ -328,7 +371,7 @@ public class CostModuleV1
    }
 
     @Override
-    public synchronized Collection<PoolCostInfo> getPoolCostInfos()
+    public Collection<PoolCostInfo> getPoolCostInfos()
     {
         Collection<PoolCostInfo> costInfos = new ArrayList<>();
         for (Entry entry: _hash.values()) {
@@ -340,7 +383,7 @@ public class CostModuleV1
     }
 
     @Override @Nullable
-    public synchronized PoolCostInfo getPoolCostInfo(String poolName)
+    public PoolCostInfo getPoolCostInfo(String poolName)
     {
         Entry entry = _hash.get(poolName);
         if (entry != null && entry.isValid()) {
@@ -350,7 +393,7 @@ public class CostModuleV1
     }
 
     @Override @Nullable
-    public synchronized PoolInfo getPoolInfo(String pool)
+    public PoolInfo getPoolInfo(String pool)
     {
         Entry entry = _hash.get(pool);
         if (entry != null && entry.isValid()) {
@@ -360,7 +403,7 @@ public class CostModuleV1
     }
 
     @Override
-    public synchronized
+    public
         Map<String,PoolInfo> getPoolInfoAsMap(Iterable<String> pools)
     {
         Map<String,PoolInfo> map = new HashMap<>();
@@ -373,8 +416,10 @@ public class CostModuleV1
         return map;
     }
 
-    private synchronized void writeObject(ObjectOutputStream stream) throws IOException
+    private void readObject(ObjectInputStream stream) throws IOException, ClassNotFoundException
     {
-        stream.defaultWriteObject();
+        stream.defaultReadObject();
+        _sortedCosts = new SortedCosts();
+        _hash.values().forEach(entry -> _sortedCosts.replace(null, entry));
     }
-}
\ No newline at end of file
+}
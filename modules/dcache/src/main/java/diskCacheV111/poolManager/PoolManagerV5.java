@@ -21,6 +21,7 @@ import java.util.Set;
 import java.util.StringTokenizer;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.LongAdder;
 
@@ -63,6 +64,7 @@ import org.dcache.alarms.PredefinedAlarm;
 import org.dcache.cells.CellStub;
 import org.dcache.poolmanager.PoolInfo;
 import org.dcache.poolmanager.PoolLinkGroupInfo;
+import org.dcache.poolmanager.PoolMonitorDelta;
 import org.dcache.poolmanager.PoolSelector;
 import org.dcache.poolmanager.SelectedPool;
 import org.dcache.poolmanager.SerializablePoolMonitor;
@@ -72,6 +74,8 @@ import org.dcache.util.CDCExecutorServiceDecorator;
 import org.dcache.util.Version;
 import org.dcache.vehicles.FileAttributes;
 
+import static com.google.common.base.Preconditions.checkArgument;
+
 public class PoolManagerV5
     implements CellCommandListener, CellMessageReceiver, CellLifeCycleAware, CellInfoProvider, CellArgsAware
 {
@@ -105,6 +109,7 @@ public class PoolManagerV5
     private long _poolMonitorUpdatePeriod;
     private TimeUnit _poolMonitorUpdatePeriodUnit;
     private double _poolMonitorMaxUpdatesPerSecond;
+    private int _poolMonitorMaxDeltaUpdates;
 
     private Args _args;
 
@@ -174,6 +179,16 @@ public class PoolManagerV5
         _poolMonitorMaxUpdatesPerSecond = maxUpdatesPerSecond;
     }
 
+    /**
+     * Sets the number of consecutive delta updates published between two full pool
+     * monitor snapshots. Zero disables delta updates.
+     */
+    public void setPoolMonitorMaxDeltaUpdates(int maxDeltaUpdates)
+    {
+        checkArgument(maxDeltaUpdates >= 0, "Number of delta updates must not be negative");
+        _poolMonitorMaxDeltaUpdates = maxDeltaUpdates;
+    }
+
     public void init()
     {
         String watchdogParam = _args.getOpt("watchdog");
@@ -296,8 +311,20 @@ public class PoolManagerV5
         }
     }
 
+    /**
+     * Publishes the pool monitor on the pool monitor topic.
+     *
+     * Structural changes are published right away as a full snapshot. Otherwise the
+     * heartbeats received since the previous publication are published periodically
+     * as a delta, with a full snapshot being published every so often to allow
+     * subscribers that cannot apply deltas to catch up.
+     */
     private class PoolMonitorThread extends Thread
     {
+        private static final long DELTA_UPDATE_OVERLAP = 1000;
+
+        private final long epoch = ThreadLocalRandom.current().nextLong();
+
         private boolean isChanged;
 
         private final RateLimiter limiter = RateLimiter.create(_poolMonitorMaxUpdatesPerSecond);
@@ -306,27 +333,56 @@ public class PoolManagerV5
         public void run()
         {
             try {
+                long version = 0;
+                long lastPublished = 0;
+                int deltaUpdates = 0;
+                boolean isFullUpdate = true;
                 limiter.acquire();
                 while (!Thread.interrupted()) {
-                    if (_log.isDebugEnabled()) { // For RT 9250.
-                        if (_poolMonitor.getPoolSelectionUnit().getLinkGroups().isEmpty()) {
-                            _log.debug("notifying with PoolMonitor that has empty linkgroups");
+                    long now = System.currentTimeMillis();
+                    if (isFullUpdate || deltaUpdates >= _poolMonitorMaxDeltaUpdates) {
+                        if (_log.isDebugEnabled()) { // For RT 9250.
+                            if (_poolMonitor.getPoolSelectionUnit().getLinkGroups().isEmpty()) {
+                                _log.debug("notifying with PoolMonitor that has empty linkgroups");
+                            }
                         }
+                        _poolMonitor.setVersion(epoch, version + 1);
+                        _poolMonitorTopic.notify(_poolMonitor);
+                        deltaUpdates = 0;
+                    } else {
+                        /* Heartbeats are processed concurrently with collecting the updates,
+                         * hence the intervals overlap a little.
+                         */
+                        long since = lastPublished - DELTA_UPDATE_OVERLAP;
+                        PoolMonitorDelta delta = new PoolMonitorDelta(epoch, version, version + 1,
+                                                                      _poolMonitor.getPoolUpdatesSince(since));
+                        /* Snapshots fetched by subscribers that detected a gap must carry
+                         * the version of the latest delta, or they would be taken as outdated.
+                         */
+                        _poolMonitor.setVersion(epoch, version + 1);
+                        _poolMonitorTopic.notify(delta);
+                        deltaUpdates++;
                     }
-                    _poolMonitorTopic.notify(_poolMonitor);
-                    waitUntilNextUpdate();
+                    version++;
+                    lastPublished = now;
+                    isFullUpdate = waitUntilNextUpdate();
                     limiter.acquire();
                 }
             } catch (InterruptedException ignored) {
             }
         }
 
-        protected synchronized void waitUntilNextUpdate() throws InterruptedException
+        /**
+         * Returns true if a structural change triggered the update.
+         */
+        protected synchronized boolean waitUntilNextUpdate() throws InterruptedException
         {
             if (!isChanged) {
                 _poolMonitorUpdatePeriodUnit.timedWait(this, _poolMonitorUpdatePeriod);
             }
+            boolean wasChanged = isChanged;
             isChanged = false;
+            return wasChanged;
         }
 
         public synchronized void onChange()
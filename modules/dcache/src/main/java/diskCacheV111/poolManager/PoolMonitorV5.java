@@ -42,6 +42,7 @@ import org.dcache.namespace.FileType;
 import org.dcache.poolmanager.Partition;
 import org.dcache.poolmanager.PartitionManager;
 import org.dcache.poolmanager.PoolInfo;
+import org.dcache.poolmanager.PoolMonitorDelta;
 import org.dcache.poolmanager.PoolSelector;
 import org.dcache.poolmanager.SelectedPool;
 import org.dcache.poolmanager.SerializablePoolMonitor;
@@ -109,6 +110,26 @@ public class PoolMonitorV5
         _partitionManager = partitionManager;
     }
 
+    @Override
+    public List<PoolMonitorDelta.PoolUpdate> getPoolUpdatesSince(long time)
+    {
+        return (_costModule instanceof CostModuleV1)
+               ? ((CostModuleV1) _costModule).getPoolUpdatesSince(time)
+               : Collections.emptyList();
+    }
+
+    @Override
+    protected boolean apply(PoolMonitorDelta.PoolUpdate update)
+    {
+        SelectionPool pool = _selectionUnit.getPool(update.getName());
+        if (pool == null || !(_costModule instanceof CostModuleV1)) {
+            return false;
+        }
+        pool.setActive(true);
+        ((CostModuleV1) _costModule).update(update);
+        return true;
+    }
+
     @Override
     public PoolSelector getPoolSelector(FileAttributes fileAttributes,
                                         ProtocolInfo protocolInfo,
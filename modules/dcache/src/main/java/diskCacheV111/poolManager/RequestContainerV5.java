@@ -17,16 +17,17 @@ import java.time.format.DateTimeFormatter;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Deque;
+import java.util.EnumMap;
 import java.util.EnumSet;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
-import java.util.Objects;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.Executor;
 import java.util.regex.Pattern;
 import java.util.regex.PatternSyntaxException;
@@ -119,8 +120,32 @@ public class RequestContainerV5
 
     private static final DateTimeFormatter DATE_TIME_FORMAT = DateTimeFormatter.ofPattern("MM.dd HH:mm:ss");
 
-    private final Map<UOID, PoolRequestHandler>     _messageHash   = new HashMap<>() ;
-    private final Map<String, PoolRequestHandler>   _handlerHash   = new HashMap<>() ;
+    /**
+     * Handlers waiting for a reply, keyed by the UOID of the request sent
+     * on their behalf. Concurrent so that replies, staging and pool to pool
+     * requests of unrelated handlers do not contend on a single lock.
+     */
+    private final Map<UOID, PoolRequestHandler>     _messageHash   = new ConcurrentHashMap<>() ;
+
+    /**
+     * Active handlers, keyed by their canonical name. Adding a request to a
+     * handler is atomic with respect to the handler's removal because both
+     * happen under the map's lock for that key; listing never blocks.
+     */
+    private final Map<String, PoolRequestHandler>   _handlerHash   = new ConcurrentHashMap<>() ;
+
+    /**
+     * UOIDs of pending restore requests; a subset of the keys of
+     * _messageHash. Pool to pool transfers do not count towards the
+     * restore limit.
+     */
+    private final Set<UOID> _pendingRestores = ConcurrentHashMap.newKeySet();
+
+    /**
+     * Serializes the admission of restores so that the restore limit is
+     * enforced exactly.
+     */
+    private final Object _restoreLock = new Object();
 
     private CellStub _billing;
     private CellStub _poolStub;
@@ -259,18 +284,20 @@ public class RequestContainerV5
     public void messageArrived(CellMessage envelope, Object message)
     {
         UOID uoid = envelope.getLastUOID();
-        PoolRequestHandler handler;
-
-        synchronized (_messageHash) {
-            handler = _messageHash.remove(uoid);
-            if (handler == null) {
-                return;
-            }
+        PoolRequestHandler handler = removePendingResponse(uoid);
+        if (handler == null) {
+            return;
         }
 
         handler.mailForYou(message);
     }
 
+    private PoolRequestHandler removePendingResponse(UOID uoid)
+    {
+        _pendingRestores.remove(uoid);
+        return _messageHash.remove(uoid);
+    }
+
     @Override
     public void run()
     {
@@ -278,14 +305,8 @@ public class RequestContainerV5
             try {
                 Thread.sleep(_ticketInterval) ;
 
-                List<PoolRequestHandler> list;
-                synchronized (_handlerHash) {
-                    list = new ArrayList<>(_handlerHash.values());
-                }
-                for (PoolRequestHandler handler: list) {
-                    if (handler != null) {
-                        handler.alive();
-                    }
+                for (PoolRequestHandler handler: _handlerHash.values()) {
+                    handler.alive();
                 }
             } catch (InterruptedException e) {
                 break;
@@ -302,17 +323,7 @@ public class RequestContainerV5
     public void poolStatusChanged(String poolName, int poolStatus) {
         _log.info("Restore Manager : got 'poolRestarted' for {}", poolName);
         try {
-            List<PoolRequestHandler> list;
-            synchronized (_handlerHash) {
-                list = new ArrayList<>(_handlerHash.values());
-            }
-
-            for (PoolRequestHandler rph : list) {
-
-                if (rph == null) {
-                    continue;
-                }
-
+            for (PoolRequestHandler rph : _handlerHash.values()) {
 
                 switch( poolStatus ) {
                     case PoolStatusChangedMessage.UP:
@@ -359,6 +370,11 @@ public class RequestContainerV5
        pw.println( "Allow stage on cost : "+(def._stageOnCost ? "on":"off") ) ;
        pw.println( "      Restore Limit : "+(_maxRestore<0?"unlimited":(String.valueOf(_maxRestore))));
        pw.println( "   Restore Exceeded : "+_restoreExceeded ) ;
+       pw.println( "   Pending Restores : "+_pendingRestores.size() ) ;
+       pw.println( "  Pending Responses : "+_messageHash.size() ) ;
+       pw.println( "   Requests / State :" ) ;
+       getRequestCountByState().forEach((state, count) ->
+               pw.printf("%19s : %s%n", state, count));
        if( _suspendIncoming ) {
            pw.println("   Suspend Incoming : on (not persistent)");
        }
@@ -367,6 +383,24 @@ public class RequestContainerV5
        }
     }
 
+    /**
+     * Returns the number of active handlers and the number of client
+     * requests queued on them, per state of the handler.
+     */
+    private Map<RequestState, String> getRequestCountByState()
+    {
+        Map<RequestState, Integer> handlers = new EnumMap<>(RequestState.class);
+        Map<RequestState, Integer> requests = new EnumMap<>(RequestState.class);
+        for (PoolRequestHandler handler : _handlerHash.values()) {
+            RequestState state = handler._state;
+            handlers.merge(state, 1, Integer::sum);
+            requests.merge(state, handler.getMessageCount(), Integer::sum);
+        }
+        Map<RequestState, String> counts = new EnumMap<>(RequestState.class);
+        handlers.forEach((state, n) -> counts.put(state, n + " handlers, " + requests.get(state) + " requests"));
+        return counts;
+    }
+
     @Override
     public void printSetup(PrintWriter pw)
     {
@@ -544,28 +578,17 @@ public class RequestContainerV5
     {
        boolean forceAll = args.hasOption("force-all") ;
        if( args.argv(0).equals("*") ){
-          List<PoolRequestHandler> all;
-          //
-          // Remember : we are not allowed to call 'retry' as long
-          // as we  are holding the _handlerHash lock.
-          //
-          synchronized( _handlerHash ){
-             all = new ArrayList<>( _handlerHash.values() ) ;
-          }
-          for (PoolRequestHandler rph : all) {
+          for (PoolRequestHandler rph : _handlerHash.values()) {
               if( forceAll || ( rph._currentRc != 0 ) ) {
                   rph.retry();
               }
           }
        }else{
-          PoolRequestHandler rph;
-          synchronized( _handlerHash ){
-             rph = _handlerHash.get(args.argv(0));
-             if( rph == null ) {
-                 throw new
-                         IllegalArgumentException("Not found : " + args
-                         .argv(0));
-             }
+          PoolRequestHandler rph = _handlerHash.get(args.argv(0));
+          if( rph == null ) {
+              throw new
+                      IllegalArgumentException("Not found : " + args
+                      .argv(0));
           }
           rph.retry() ;
        }
@@ -598,10 +621,7 @@ public class RequestContainerV5
         {
             checkCommand(errorNumber >= 0, "Error number must be >= 0");
 
-            PoolRequestHandler rph;
-            synchronized (_handlerHash) {
-                rph = _handlerHash.get(id);
-            }
+            PoolRequestHandler rph = _handlerHash.get(id);
 
             checkCommand(rph != null, "Not found : %s", id);
 
@@ -618,16 +638,7 @@ public class RequestContainerV5
        boolean isLongListing = args.hasOption("l");
 
        if( !args.hasOption("w") ){
-          List<PoolRequestHandler>    allRequestHandlers;
-          synchronized( _handlerHash ){
-              allRequestHandlers = new ArrayList<>( _handlerHash.values() ) ;
-          }
-
-          for( PoolRequestHandler h : allRequestHandlers ){
-
-              if( h == null ) {
-                  continue;
-              }
+          for( PoolRequestHandler h : _handlerHash.values() ){
               String line = h.toString() ;
               if( ( pattern == null ) || pattern.matcher(line).matches() ) {
                   sb.append(line).append("\n");
@@ -642,19 +653,10 @@ public class RequestContainerV5
           }
        }else{
 
-           Map<UOID, PoolRequestHandler>  allPendingRequestHandlers   = new HashMap<>() ;
-          synchronized(_messageHash){
-              allPendingRequestHandlers.putAll( _messageHash ) ;
-          }
-
-          for (Map.Entry<UOID, PoolRequestHandler> requestHandler : allPendingRequestHandlers.entrySet()) {
+          for (Map.Entry<UOID, PoolRequestHandler> requestHandler : _messageHash.entrySet()) {
 
                 UOID uoid = requestHandler.getKey();
                 PoolRequestHandler h = requestHandler.getValue();
-
-                if (h == null) {
-                    continue;
-                }
                 String line = uoid.toString() + " " + h.toString();
                 if ((pattern == null) || pattern.matcher(line).matches()) {
                     sb.append(line).append("\n");
@@ -671,28 +673,16 @@ public class RequestContainerV5
     }
 
     public List<RestoreHandlerInfo> getRestoreHandlerInfo() {
-        List<RestoreHandlerInfo> requests;
-        synchronized (_handlerHash) {
-            requests = _handlerHash.values().stream().filter(Objects::nonNull).map(
-                            PoolRequestHandler::getRestoreHandlerInfo).collect(toList());
-        }
-        return requests;
+        return _handlerHash.values().stream()
+                .map(PoolRequestHandler::getRestoreHandlerInfo).collect(toList());
     }
 
     public static final String hh_xrc_ls = " # lists pending requests (binary)" ;
     public Object ac_xrc_ls( Args args ){
 
-       List<PoolRequestHandler> all;
-       synchronized( _handlerHash ){
-          all = new ArrayList<>( _handlerHash.values() ) ;
-       }
-
        List<RestoreHandlerInfo>          list = new ArrayList<>() ;
 
-       for( PoolRequestHandler h: all  ){
-          if( h  == null ) {
-              continue;
-          }
+       for( PoolRequestHandler h: _handlerHash.values() ){
           list.add( h.getRestoreHandlerInfo() ) ;
        }
        return list.toArray(RestoreHandlerInfo[]::new) ;
@@ -738,16 +728,24 @@ public class RequestContainerV5
         String canonicalName = pnfsId +"@"+netName+"-"+protocolName+(enforceP2P?"-p2p":"")
                         +(poolGroup == null ? "" : ("-pg-" + poolGroup));
 
-        PoolRequestHandler handler;
-
         _log.info( "Adding request for : {}", canonicalName ) ;
-        synchronized( _handlerHash ){
-           handler = _handlerHash.computeIfAbsent(canonicalName, n ->
-                           new PoolRequestHandler(pnfsId,
-                                                  poolGroup,
-                                                  n,
-                                                  allowedStates));
-           handler.addRequest(envelope) ;
+        boolean[] isFirstRequest = new boolean[1];
+        PoolRequestHandler handler = _handlerHash.compute(canonicalName, (n, h) -> {
+           if (h == null) {
+               h = new PoolRequestHandler(pnfsId,
+                                          poolGroup,
+                                          n,
+                                          allowedStates);
+           }
+           isFirstRequest[0] = h.addRequest(envelope) ;
+           return h;
+        });
+
+        /* The state engine may run in the calling thread and remove the
+         * handler, hence it must not be started within compute.
+         */
+        if (isFirstRequest[0]) {
+            handler.start();
         }
     }
 
@@ -892,9 +890,12 @@ public class RequestContainerV5
         // at any time.
         //...........................................................
         //
-        // add request is assumed to be synchronized by a higher level.
+        // add request is assumed to be called while holding the
+        // _handlerHash lock for this handler's name. Returns true
+        // if this was the first request, in which case the caller
+        // has to start the state engine once it released the lock.
         //
-        public void addRequest( CellMessage message ){
+        public boolean addRequest( CellMessage message ){
 
            PoolMgrSelectReadPoolMsg request =
                 (PoolMgrSelectReadPoolMsg)message.getMessageObject() ;
@@ -905,20 +906,22 @@ public class RequestContainerV5
 
                 message.revertDirection();
                 sendMessage(message);
-                return;
+                return false;
             }
 
-           _messages.add(message);
-           _stagingDenied = false;
+           synchronized (_messages) {
+               _messages.add(message);
+               _stagingDenied = false;
 
-           long ttl = message.getTtl();
-           if (ttl < Long.MAX_VALUE) {
-               long timeout = System.currentTimeMillis() + ttl;
-               _nextTtlTimeout = Math.min(_nextTtlTimeout, timeout);
+               long ttl = message.getTtl();
+               if (ttl < Long.MAX_VALUE) {
+                   long timeout = System.currentTimeMillis() + ttl;
+                   _nextTtlTimeout = Math.min(_nextTtlTimeout, timeout);
+               }
            }
 
            if (_poolSelector != null) {
-               return;
+               return false;
            }
 
            _linkGroup = request.getLinkGroup();
@@ -944,18 +947,25 @@ public class RequestContainerV5
                        _protocolInfo,
                        _linkGroup,
                        excluded);
-           //
-           //
-           //
+           return true;
+        }
+
+        public void start() {
            add(null) ;
         }
 
         public List<CellMessage> getMessages() {
-            synchronized( _handlerHash ){
+            synchronized( _messages ){
                 return new ArrayList<>(_messages);
             }
         }
 
+        public int getMessageCount() {
+            synchronized( _messages ){
+                return _messages.size();
+            }
+        }
+
         public String getPoolCandidate()
         {
             if (_poolCandidate != null) {
@@ -982,7 +992,7 @@ public class RequestContainerV5
 	public RestoreHandlerInfo getRestoreHandlerInfo(){
 	   return new RestoreHandlerInfo(
 	          _name,
-		  _messages.size(),
+		  getMessageCount(),
 		  _retryCounter ,
                   _started ,
 		  getPoolCandidateState() ,
@@ -992,7 +1002,7 @@ public class RequestContainerV5
 	}
         @Override
         public String toString(){
-           return _name+" m="+_messages.size()+" r="+
+           return _name+" m="+getMessageCount()+" r="+
                   _retryCounter+" ["+getPoolCandidateState()+"] ["+_status+"] "+
                   "{"+_currentRc+","+_currentRm+"}" ;
         }
@@ -1050,9 +1060,7 @@ public class RequestContainerV5
         //
         private void clearSteering() {
             if (_waitingFor != null) {
-                synchronized (_messageHash) {
-                  _messageHash.remove(_waitingFor);
-                }
+                removePendingResponse(_waitingFor);
                 _waitingFor = null;
             }
         }
@@ -1068,18 +1076,19 @@ public class RequestContainerV5
                     new CellPath(pool.address()),
                     new PoolFetchFileMessage(pool.name(), _fileAttributes)
             );
-            synchronized (_messageHash) {
-                if (_maxRestore >= 0 && _messageHash.size() >= _maxRestore) {
+            synchronized (_restoreLock) {
+                if (_maxRestore >= 0 && _pendingRestores.size() >= _maxRestore) {
                     return false;
                 }
                 if (_waitingFor != null) {
-                    _messageHash.remove(_waitingFor);
+                    removePendingResponse(_waitingFor);
                 }
                 _waitingFor = cellMessage.getUOID();
+                _pendingRestores.add(_waitingFor);
                 _messageHash.put(_waitingFor, this);
-                sendMessage(cellMessage);
-                _status = "Staging " + LocalDateTime.now().format(DATE_TIME_FORMAT);
             }
+            sendMessage(cellMessage);
+            _status = "Staging " + LocalDateTime.now().format(DATE_TIME_FORMAT);
             return true;
         }
 
@@ -1093,15 +1102,13 @@ public class RequestContainerV5
             CellMessage cellMessage =
                     new CellMessage(new CellPath(destPool.address()), pool2pool);
 
-            synchronized (_messageHash) {
-                if (_waitingFor != null) {
-                    _messageHash.remove(_waitingFor);
-                }
-                _waitingFor = cellMessage.getUOID();
-                _messageHash.put(_waitingFor, this);
-                sendMessage(cellMessage);
-                _status = "[P2P " + LocalDateTime.now().format(DATE_TIME_FORMAT) + "]";
+            if (_waitingFor != null) {
+                removePendingResponse(_waitingFor);
             }
+            _waitingFor = cellMessage.getUOID();
+            _messageHash.put(_waitingFor, this);
+            sendMessage(cellMessage);
+            _status = "[P2P " + LocalDateTime.now().format(DATE_TIME_FORMAT) + "]";
         }
 
         /**
@@ -1112,10 +1119,7 @@ public class RequestContainerV5
          */
         private void expireRequests()
         {
-            /* Access to _messages is controlled by a lock on
-             * _handlerHash.
-             */
-            synchronized (_handlerHash) {
+            synchronized (_messages) {
                 long now = System.currentTimeMillis();
                 _nextTtlTimeout = Long.MAX_VALUE;
 
@@ -1142,23 +1146,25 @@ public class RequestContainerV5
             }
             //
 
-            Iterator<CellMessage> messages = _messages.iterator();
-            for (int i = 0; (i < count) && messages.hasNext(); i++) {
-                CellMessage m =  messages.next();
-                PoolMgrSelectReadPoolMsg rpm =
-                    (PoolMgrSelectReadPoolMsg) m.getMessageObject();
-                rpm.setContext(_retryCounter + 1, _stageCandidate.orElse(null));
-                if (_currentRc == 0) {
-                    rpm.setPool( new diskCacheV111.vehicles.Pool(_poolCandidate.name(), _poolCandidate.info().getAddress(), _poolCandidate.assumption()));
-                    rpm.setSucceeded();
-                } else {
-                    rpm.setFailed(_currentRc, _currentRm);
+            synchronized (_messages) {
+                Iterator<CellMessage> messages = _messages.iterator();
+                for (int i = 0; (i < count) && messages.hasNext(); i++) {
+                    CellMessage m =  messages.next();
+                    PoolMgrSelectReadPoolMsg rpm =
+                        (PoolMgrSelectReadPoolMsg) m.getMessageObject();
+                    rpm.setContext(_retryCounter + 1, _stageCandidate.orElse(null));
+                    if (_currentRc == 0) {
+                        rpm.setPool( new diskCacheV111.vehicles.Pool(_poolCandidate.name(), _poolCandidate.info().getAddress(), _poolCandidate.assumption()));
+                        rpm.setSucceeded();
+                    } else {
+                        rpm.setFailed(_currentRc, _currentRm);
+                    }
+                    m.revertDirection();
+                    sendMessage(m);
+                    messages.remove();
                 }
-                m.revertDirection();
-                sendMessage(m);
-                messages.remove();
+                return messages.hasNext();
             }
-            return messages.hasNext();
         }
         //
         // and the heart ...
@@ -1265,7 +1271,7 @@ public class RequestContainerV5
             /* Staging is allowed if just one of the requests has
              * permission to stage.
              */
-            for (CellMessage envelope: _messages) {
+            for (CellMessage envelope: getMessages()) {
                 try {
                     PoolMgrSelectReadPoolMsg msg =
                         (PoolMgrSelectReadPoolMsg) envelope.getMessageObject();
@@ -1743,12 +1749,10 @@ public class RequestContainerV5
 
                     clearSteering();
                     //
-                    // it is essential that we are not within any other
-                    // lock when trying to get the handlerHash lock.
+                    // once removed, no further requests are added to
+                    // this handler, so all of them are answered below.
                     //
-                    synchronized (_handlerHash) {
-                        _handlerHash.remove(_name);
-                    }
+                    _handlerHash.remove(_name, this);
                     while (answerRequest(MAX_REQUEST_CLUMPING)) {
                         setError(CacheException.OUT_OF_DATE,
                                  "Request clumping limit reached");
@@ -2124,13 +2128,9 @@ public class RequestContainerV5
                         long now = System.currentTimeMillis();
 
                         // Determine which pools to query
-                        List<PoolRequestHandler> list;
-                        synchronized (_handlerHash) {
-                            list = new ArrayList<>(_handlerHash.values());
-                        }
                         Multimap<CellAddressCore, PoolRequestHandler> p2pRequests = ArrayListMultimap.create();
                         Multimap<CellAddressCore, PoolRequestHandler> stageRequests = ArrayListMultimap.create();
-                        for (PoolRequestHandler handler : list) {
+                        for (PoolRequestHandler handler : _handlerHash.values()) {
                             if (handler._started < now - _checkFilePingTimer) {
                                 SelectedPool pool;
                                 switch (handler._state) {
@@ -23,7 +23,7 @@ import io.netty.handler.codec.http.HttpRequest;
 import io.netty.handler.codec.http.HttpResponseStatus;
 import io.netty.handler.codec.http.LastHttpContent;
 import io.netty.handler.codec.http.QueryStringDecoder;
-import io.netty.handler.stream.ChunkedInput;
+import io.netty.handler.ssl.SslHandler;
 import io.netty.handler.timeout.IdleState;
 import io.netty.handler.timeout.IdleStateEvent;
 import org.slf4j.Logger;
@@ -54,8 +54,11 @@ import diskCacheV111.vehicles.HttpProtocolInfo;
 import dmg.util.HttpException;
 
 import org.dcache.namespace.FileAttribute;
+import org.dcache.pool.movers.ChecksumChannel;
 import org.dcache.pool.movers.NettyTransferService;
+import org.dcache.pool.repository.FileRepositoryChannel;
 import org.dcache.pool.repository.OutOfDiskException;
+import org.dcache.pool.repository.RepositoryChannel;
 import org.dcache.util.Checksum;
 import org.dcache.util.ChecksumType;
 import org.dcache.util.Checksums;
@@ -383,7 +386,8 @@ public class HttpPoolRequestHandler extends HttpRequestHandler
      *
      * Finds the correct mover channel using the UUID in the
      * GET. Range queries are supported. The file will be sent to the
-     * remote peer in chunks to avoid server side memory issues.
+     * remote peer using zero-copy transfers if possible, and in chunks
+     * otherwise to avoid server side memory issues.
      */
     @Override
     protected ChannelFuture doOnGet(ChannelHandlerContext context,
@@ -426,7 +430,7 @@ public class HttpPoolRequestHandler extends HttpRequestHandler
              */
             context.write(new HttpGetResponse(fileSize, file, digest))
                     .addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
-            context.write(read(file, 0, fileSize - 1))
+            context.write(read(context, file, 0, fileSize - 1))
                     .addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
             return context.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
         } else if (ranges.size() == 1) {
@@ -437,7 +441,7 @@ public class HttpPoolRequestHandler extends HttpRequestHandler
             context.write(new HttpPartialContentResponse(range.getLower(), range.getUpper(),
                                                          fileSize, digest))
                     .addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
-            context.write(read(file, range.getLower(), range.getUpper()))
+            context.write(read(context, file, range.getLower(), range.getUpper()))
                     .addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
             return context.writeAndFlush(LastHttpContent.EMPTY_LAST_CONTENT);
         } else {
@@ -465,7 +469,7 @@ public class HttpPoolRequestHandler extends HttpRequestHandler
                 HttpByteRange range = ranges.get(i);
                 context.write(fragmentMarkers[i])
                         .addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
-                context.write(read(file, range.getLower(), range.getUpper()))
+                context.write(read(context, file, range.getLower(), range.getUpper()))
                         .addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
             }
             return context.writeAndFlush(new DefaultLastHttpContent(endMarker));
@@ -698,28 +702,48 @@ public class HttpPoolRequestHandler extends HttpRequestHandler
 
     /**
      * Read the resources requested in HTTP-request from the pool. Return a
-     * ChunkedInput pointing to the requested portions of the file.
+     * FileRegion or a ChunkedInput pointing to the requested portions of the
+     * file.
      *
      * Renew the keep-alive heartbeat, meaning that the last transferred time
      * will be updated, resetting the keep-alive timeout.
      *
+     * @param context the context of the connection the file is sent over
      * @param file the mover channel to read from
      * @param lowerRange The lower delimiter of the requested byte range of the
      *                   file
      * @param upperRange The upper delimiter of the requested byte range of the
      *                   file
-     * @return ChunkedInput View upon the file suitable for sending with
-     *         netty and representing the requested parts.
+     * @return FileRegion or ChunkedInput View upon the file suitable for
+     *         sending with netty and representing the requested parts.
      */
-    private ChunkedInput read(NettyTransferService<HttpProtocolInfo>.NettyMoverChannel file,
-                              long lowerRange, long upperRange)
+    private Object read(ChannelHandlerContext context,
+                        NettyTransferService<HttpProtocolInfo>.NettyMoverChannel file,
+                        long lowerRange, long upperRange)
     {
         /* need to count position 0 as well */
         long length = (upperRange - lowerRange) + 1;
 
+        if (isZeroCopyPossible(context, file)) {
+            return new RepositoryFileRegion(file, lowerRange, length);
+        }
         return new ReusableChunkedNioFile(file, lowerRange, length, _chunkSize);
     }
 
+    /**
+     * Whether the file may be sent as a FileRegion, allowing the kernel to
+     * copy data from the file to the socket without passing it through user
+     * space. This is not possible if TLS has to encrypt the data or if the
+     * channel is wrapped by a checksum calculation, and it is of no benefit
+     * unless the data is in a local file.
+     */
+    private static boolean isZeroCopyPossible(ChannelHandlerContext context, RepositoryChannel file)
+    {
+        return context.pipeline().get(SslHandler.class) == null
+                && file.optionallyAs(FileRepositoryChannel.class).isPresent()
+                && !file.optionallyAs(ChecksumChannel.class).isPresent();
+    }
+
     private static String buildDigest(NettyTransferService<HttpProtocolInfo>.NettyMoverChannel file)
     {
         FileAttributes attributes = file.getFileAttributes();
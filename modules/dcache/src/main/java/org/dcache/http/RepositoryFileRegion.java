@@ -0,0 +1,154 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2020 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.http;
+
+import io.netty.channel.FileRegion;
+import io.netty.util.AbstractReferenceCounted;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.channels.WritableByteChannel;
+
+import org.dcache.pool.repository.RepositoryChannel;
+
+/**
+ * A {@link FileRegion} backed by a {@link RepositoryChannel}.
+ *
+ * Netty writes a FileRegion by calling {@link RepositoryChannel#transferTo}
+ * with the socket as the target. For a file on a local file system, this
+ * allows the kernel to send the data without copying it through user space.
+ *
+ * Like {@link ReusableChunkedNioFile}, releasing the region does not close
+ * the repository channel, as the mover may be reused by subsequent requests.
+ */
+public class RepositoryFileRegion extends AbstractReferenceCounted implements FileRegion
+{
+    private final RepositoryChannel _channel;
+    private final long _position;
+    private final long _count;
+
+    private long _transferred;
+
+    public RepositoryFileRegion(RepositoryChannel channel, long position, long count)
+    {
+        if (channel == null) {
+            throw new NullPointerException("Channel must not be null");
+        }
+
+        if (position < 0) {
+            throw new IllegalArgumentException("position: " + position +
+                                               " (expected: 0 or greater)");
+        }
+
+        if (count < 0) {
+            throw new IllegalArgumentException("count: " + count +
+                                               " (expected: 0 or greater)");
+        }
+
+        _channel = channel;
+        _position = position;
+        _count = count;
+    }
+
+    @Override
+    public long position()
+    {
+        return _position;
+    }
+
+    @Override
+    public long count()
+    {
+        return _count;
+    }
+
+    @Deprecated
+    @Override
+    public long transfered()
+    {
+        return _transferred;
+    }
+
+    @Override
+    public long transferred()
+    {
+        return _transferred;
+    }
+
+    @Override
+    public long transferTo(WritableByteChannel target, long position) throws IOException
+    {
+        long count = _count - position;
+        if (count < 0 || position < 0) {
+            throw new IllegalArgumentException("position out of range: " + position +
+                                               " (expected: 0 - " + (_count - 1) + ')');
+        }
+        if (count == 0) {
+            return 0L;
+        }
+
+        long written = _channel.transferTo(_position + position, count, target);
+        if (written > 0) {
+            _transferred += written;
+        } else if (written == 0 && _channel.size() < _position + _count) {
+            throw new EOFException("File is shorter than expected: " + _channel.size() +
+                                   " < " + (_position + _count));
+        }
+        return written;
+    }
+
+    @Override
+    protected void deallocate()
+    {
+        /* the repository channel is closed by the mover */
+    }
+
+    @Override
+    public RepositoryFileRegion retain()
+    {
+        super.retain();
+        return this;
+    }
+
+    @Override
+    public RepositoryFileRegion retain(int increment)
+    {
+        super.retain(increment);
+        return this;
+    }
+
+    @Override
+    public RepositoryFileRegion touch()
+    {
+        return this;
+    }
+
+    @Override
+    public RepositoryFileRegion touch(Object hint)
+    {
+        return this;
+    }
+
+    /**
+     * Returns the repository channel. Used for unit testing.
+     */
+    RepositoryChannel getChannel()
+    {
+        return _channel;
+    }
+}
@@ -98,6 +98,7 @@ import org.dcache.pool.nearline.NearlineStorageHandler;
 import org.dcache.pool.nearline.json.NearlineData;
 import org.dcache.pool.p2p.json.P2PData;
 import org.dcache.pool.repository.Repository;
+import org.dcache.pool.repository.json.BlockCacheData;
 import org.dcache.pool.repository.json.RepositoryData;
 import org.dcache.util.FieldSort;
 import org.dcache.vehicles.pool.CacheEntryInfoMessage;
@@ -215,6 +216,7 @@ public final class PoolInfoRequestHandler implements CellMessageReceiver,
     }
 
     private StatisticsListener                          statisticsListener;
+    private PoolDataBeanProvider<BlockCacheData>        blockCache;
     private PoolDataBeanProvider<ChecksumModuleData>    checksumModule;
     private PoolDataBeanProvider<FlushControllerData>   flushController;
     private PoolDataBeanProvider<HSMFlushQManagerData>  hsmFlushQueueManager;
@@ -244,6 +246,7 @@ public final class PoolInfoRequestHandler implements CellMessageReceiver,
 
                 request.setCellData(getCellInfoRequest());
                 request.setDetailsData(pool.getDataObject());
+                request.setBlockCacheData(blockCache.getDataObject());
                 request.setCsmData(checksumModule.getDataObject());
                 request.setFlushData(flushController.getDataObject());
                 request.setHsmFlushQMData(hsmFlushQueueManager.getDataObject());
@@ -480,6 +483,11 @@ public final class PoolInfoRequestHandler implements CellMessageReceiver,
         this.supplier = supplier;
     }
 
+    @Required
+    public void setBlockCache(PoolDataBeanProvider<BlockCacheData> provider) {
+        blockCache = provider;
+    }
+
     @Required
     public void setChecksumModule(PoolDataBeanProvider<ChecksumModuleData> provider) {
         checksumModule = provider;
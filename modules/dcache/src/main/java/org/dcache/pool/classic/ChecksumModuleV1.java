@@ -64,6 +64,8 @@ import org.dcache.pool.repository.RepositoryChannel;
 import org.dcache.util.Checksum;
 import org.dcache.util.ChecksumType;
 import org.dcache.pool.classic.json.ChecksumModuleData;
+import org.dcache.pool.movers.ThrottledRepositoryChannel;
+import org.dcache.pool.movers.TokenBucket;
 import org.dcache.pool.repository.FileStore;
 import org.dcache.pool.repository.ReplicaRecord;
 
@@ -512,11 +514,17 @@ public class ChecksumModuleV1
         }
     }
 
-    public Iterable<Checksum> verifyChecksumWithThroughputLimit(ReplicaDescriptor handle)
+    /**
+     * Verifies the checksums of a replica, charging the bytes read to the
+     * given bucket. Reading blocks whenever the bucket is in debt, thus
+     * the verification is limited to the rate of the bucket.
+     */
+    public Iterable<Checksum> verifyChecksum(ReplicaDescriptor handle, TokenBucket budget)
             throws IOException, InterruptedException, NoSuchAlgorithmException, CacheException
     {
-        try (RepositoryChannel channel = handle.createChannel()) {
-            return verifyChecksum(channel, handle.getChecksums(), getThroughputLimit());
+        try (RepositoryChannel channel =
+                     new ThrottledRepositoryChannel(handle.createChannel(), List.of(budget))) {
+            return verifyChecksum(channel, handle.getChecksums(), Double.POSITIVE_INFINITY);
         }
     }
 
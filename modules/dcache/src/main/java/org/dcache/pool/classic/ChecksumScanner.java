@@ -1,23 +1,38 @@
 package org.dcache.pool.classic;
 
+import com.google.common.base.Throwables;
 import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.IOException;
+import java.net.URI;
 import java.nio.charset.Charset;
 import java.nio.file.Files;
 import java.nio.file.NoSuchFileException;
+import java.nio.file.Paths;
 import java.security.NoSuchAlgorithmException;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.Date;
 import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.ToLongFunction;
 
 import diskCacheV111.util.CacheException;
 import diskCacheV111.util.FileCorruptedCacheException;
@@ -33,6 +48,8 @@ import dmg.util.command.Command;
 
 import org.dcache.alarms.AlarmMarkerFactory;
 import org.dcache.alarms.PredefinedAlarm;
+import org.dcache.pool.movers.TokenBucket;
+import org.dcache.pool.repository.FileStore;
 import org.dcache.pool.repository.ReplicaState;
 import org.dcache.pool.repository.ReplicaDescriptor;
 import org.dcache.pool.repository.Repository;
@@ -41,6 +58,7 @@ import org.dcache.util.Checksum;
 
 import static java.util.Objects.requireNonNull;
 import static dmg.util.CommandException.checkCommand;
+import static org.dcache.util.ByteUnit.BYTES;
 import static org.dcache.util.Exceptions.messageOrClassName;
 
 public class ChecksumScanner
@@ -55,7 +73,10 @@ public class ChecksumScanner
 
     private Repository _repository;
     private ChecksumModuleV1 _csm;
+    private FileStore _fileStore;
+    private IoQueueManager _ioQueueManager;
     private String poolName;
+    private int _scrubberThreads = 1;
 
     private File _scrubberStateFile;
 
@@ -100,6 +121,31 @@ public class ChecksumScanner
         _scrubberStateFile = path;
     }
 
+    /**
+     * Sets the file store used to order files by their location on disk.
+     */
+    public void setFileStore(FileStore fileStore)
+    {
+        _fileStore = fileStore;
+    }
+
+    /**
+     * Sets the mover queues used to adapt the number of scrubber threads
+     * to the mover load.
+     */
+    public void setIoQueueManager(IoQueueManager ioQueueManager)
+    {
+        _ioQueueManager = ioQueueManager;
+    }
+
+    /**
+     * Sets the maximum number of files verified concurrently by the scrubber.
+     */
+    public void setScrubberThreads(int threads)
+    {
+        _scrubberThreads = threads;
+    }
+
     public void setPoolName(String poolName) {
         this.poolName = poolName;
     }
@@ -235,10 +281,27 @@ public class ChecksumScanner
         private final long FAILURE_RATELIMIT_DELAY =
             TimeUnit.SECONDS.toMillis(10);
 
-        private volatile int _badCount;
+        /**
+         * Number of files in PNFS ID order that are reordered by their
+         * location on disk and verified in parallel. The scrubber state
+         * is only advanced past a batch once all its files are verified.
+         */
+        private static final int BATCH_SIZE = 1000;
+
+        private final AtomicInteger _badCount = new AtomicInteger();
         private volatile int _numFiles;
-        private volatile int _totalCount;
-        private volatile int _unableCount;
+        private final AtomicInteger _totalCount = new AtomicInteger();
+        private final AtomicInteger _unableCount = new AtomicInteger();
+        private final LongAdder _bytesVerified = new LongAdder();
+        private volatile long _scanStart;
+
+        /**
+         * Limits the combined throughput of all scrubber threads.
+         */
+        private final TokenBucket _budget = new TokenBucket(0);
+
+        private final Object _workerLock = new Object();
+        private int _runningWorkers;
 
         private PnfsId _lastFileChecked;
         private long _lastCheckpoint;
@@ -369,11 +432,13 @@ public class ChecksumScanner
                     try {
                         PnfsId[] toScan = getFilesToVerify();
                         _numFiles = toScan.length;
-                        _badCount = 0;
-                        _totalCount = 0;
-                        _unableCount = 0;
+                        _badCount.set(0);
+                        _totalCount.set(0);
+                        _unableCount.set(0);
+                        _bytesVerified.reset();
+                        _scanStart = System.currentTimeMillis();
                         scanFiles(toScan);
-                        if (_badCount > 0) {
+                        if (_badCount.get() > 0) {
                             _log.warn("Finished scrubbing. Found {} bad files of {}",
                                        _badCount, _numFiles);
                         }
@@ -444,58 +509,206 @@ public class ChecksumScanner
         private void scanFiles(PnfsId[] repository)
                 throws InterruptedException, NoSuchAlgorithmException, IOException
         {
-            for (PnfsId id : repository) {
-                try {
-                    if (_repository.getState(id) == ReplicaState.CACHED ||
-                        _repository.getState(id) == ReplicaState.PRECIOUS) {
-                        ReplicaDescriptor handle =
-                            _repository.openEntry(id, EnumSet.of(OpenFlags.NOATIME));
-                        try {
-                            _csm.verifyChecksumWithThroughputLimit(handle);
-                        } finally {
-                            handle.close();
-                        }
+            ExecutorService executor = Executors.newFixedThreadPool(_scrubberThreads,
+                    new ThreadFactoryBuilder().setNameFormat("Scrubber-%d").build());
+            try {
+                for (int i = 0; i < repository.length; i += BATCH_SIZE) {
+                    PnfsId[] batch = Arrays.copyOfRange(repository, i, Math.min(i + BATCH_SIZE, repository.length));
+                    scanBatch(executor, inDiskOrder(batch));
+                    _lastFileChecked = batch[batch.length - 1];
+                    checkpointIfNeeded();
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+            _lastFileChecked = null;
+        }
+
+        private void scanBatch(ExecutorService executor, PnfsId[] batch)
+                throws InterruptedException, NoSuchAlgorithmException, IOException
+        {
+            List<Future<Void>> futures = new ArrayList<>(batch.length);
+            try {
+                for (PnfsId id : batch) {
+                    acquireWorker();
+                    try {
+                        futures.add(executor.submit(() -> {
+                            try {
+                                scanFile(id);
+                                return null;
+                            } finally {
+                                releaseWorker();
+                            }
+                        }));
+                    } catch (RuntimeException e) {
+                        releaseWorker();
+                        throw e;
                     }
-                } catch (FileCorruptedCacheException e) {
-                    _badCount++;
-                    _log.error(AlarmMarkerFactory.getMarker(PredefinedAlarm.CHECKSUM,
-                                                            id.toString(),
-                                                            poolName),
-                                    "Marking {} on {} as BROKEN: {}",
-                                    id,
-                                    poolName,
-                                    e.getMessage());
+                }
+                for (Future<Void> future : futures) {
                     try {
-                        _repository.setState(id, ReplicaState.BROKEN,
-                                "scrubber found checksum inconsistency");
-                    } catch (CacheException f) {
-                        _log.warn("Failed to mark {} as BROKEN: {}", id, f.getMessage());
+                        future.get();
+                    } catch (ExecutionException e) {
+                        Throwable cause = e.getCause();
+                        Throwables.throwIfInstanceOf(cause, IOException.class);
+                        Throwables.throwIfInstanceOf(cause, InterruptedException.class);
+                        Throwables.throwIfInstanceOf(cause, NoSuchAlgorithmException.class);
+                        Throwables.throwIfUnchecked(cause);
+                        throw new RuntimeException(cause);
                     }
-                } catch (IOException e) {
-                    _unableCount++;
-                    throw new IOException("Unable to read " + id + ": " + messageOrClassName(e), e);
-                } catch (FileNotInCacheException | NotInTrashCacheException e) {
-                    /* It was removed before we could get it. No problem.
-                     */
-                } catch (CacheException e) {
-                    _log.warn("Scrubber unable to verify {}: {}", id, e.getMessage());
-                    _unableCount++;
                 }
-                _lastFileChecked = id;
-                _totalCount++;
-                checkpointIfNeeded();
+            } finally {
+                futures.forEach(f -> f.cancel(true));
             }
-            _lastFileChecked = null;
+        }
+
+        /**
+         * Returns the number of files that may be verified concurrently. The
+         * configured number of scrubber threads is reduced in proportion to
+         * the fraction of mover slots in use, thus the scrubber backs off
+         * while the pool is busy serving transfers.
+         */
+        private int getAllowedWorkers()
+        {
+            int threads = _scrubberThreads;
+            if (threads <= 1 || _ioQueueManager == null) {
+                return 1;
+            }
+            int active = 0;
+            int max = 0;
+            for (MoverRequestScheduler queue : _ioQueueManager.queues()) {
+                active += queue.getActiveJobs();
+                max += queue.getMaxActiveJobs();
+            }
+            double load = (max == 0) ? 0 : Math.min(1.0, (double) active / max);
+            return Math.max(1, (int) Math.ceil(threads * (1 - load)));
+        }
+
+        private void acquireWorker() throws InterruptedException
+        {
+            synchronized (_workerLock) {
+                while (_runningWorkers >= getAllowedWorkers()) {
+                    _workerLock.wait(1000);
+                }
+                _runningWorkers++;
+            }
+        }
+
+        private void releaseWorker()
+        {
+            synchronized (_workerLock) {
+                _runningWorkers--;
+                _workerLock.notifyAll();
+            }
+        }
+
+        private int getRunningWorkers()
+        {
+            synchronized (_workerLock) {
+                return _runningWorkers;
+            }
+        }
+
+        private PnfsId[] inDiskOrder(PnfsId[] ids)
+        {
+            return (_fileStore == null) ? ids : ChecksumScanner.inDiskOrder(ids, this::getInode);
+        }
+
+        private long getInode(PnfsId id)
+        {
+            try {
+                URI uri = _fileStore.get(id);
+                if ("file".equals(uri.getScheme())) {
+                    Object inode = Files.getAttribute(Paths.get(uri), "unix:ino");
+                    if (inode instanceof Long) {
+                        return (Long) inode;
+                    }
+                }
+            } catch (IOException | RuntimeException e) {
+                _log.debug("Unable to determine inode of {}: {}", id, messageOrClassName(e));
+            }
+            return 0;
+        }
+
+        private void scanFile(PnfsId id)
+                throws InterruptedException, NoSuchAlgorithmException, IOException
+        {
+            try {
+                if (_repository.getState(id) == ReplicaState.CACHED ||
+                    _repository.getState(id) == ReplicaState.PRECIOUS) {
+                    ReplicaDescriptor handle =
+                        _repository.openEntry(id, EnumSet.of(OpenFlags.NOATIME));
+                    try {
+                        double limit = _csm.getThroughputLimit();
+                        _budget.setRate(Double.isInfinite(limit) ? 0 : (long) limit);
+                        _csm.verifyChecksum(handle, _budget);
+                        _bytesVerified.add(handle.getReplicaSize());
+                    } finally {
+                        handle.close();
+                    }
+                }
+            } catch (FileCorruptedCacheException e) {
+                _badCount.incrementAndGet();
+                _log.error(AlarmMarkerFactory.getMarker(PredefinedAlarm.CHECKSUM,
+                                                        id.toString(),
+                                                        poolName),
+                                "Marking {} on {} as BROKEN: {}",
+                                id,
+                                poolName,
+                                e.getMessage());
+                try {
+                    _repository.setState(id, ReplicaState.BROKEN,
+                            "scrubber found checksum inconsistency");
+                } catch (CacheException f) {
+                    _log.warn("Failed to mark {} as BROKEN: {}", id, f.getMessage());
+                }
+            } catch (IOException e) {
+                _unableCount.incrementAndGet();
+                throw new IOException("Unable to read " + id + ": " + messageOrClassName(e), e);
+            } catch (FileNotInCacheException | NotInTrashCacheException e) {
+                /* It was removed before we could get it. No problem.
+                 */
+            } catch (CacheException e) {
+                _log.warn("Scrubber unable to verify {}: {}", id, e.getMessage());
+                _unableCount.incrementAndGet();
+            }
+            _totalCount.incrementAndGet();
         }
 
         @Override
         public String toString()
         {
+            int total = _totalCount.get();
+            long elapsed = System.currentTimeMillis() - _scanStart;
+            String rate = (isActive() && elapsed > 0)
+                    ? String.format(", %.1f files/s, %.1f MiB/s, %d threads busy",
+                                    total * 1000.0 / elapsed,
+                                    BYTES.toMiB(_bytesVerified.sum() * 1000.0 / elapsed),
+                                    getRunningWorkers())
+                    : "";
             return super.toString() + " processed "
-                + _totalCount + " of " + _numFiles + " files: "
+                + total + " of " + _numFiles + " files: "
                 + _badCount + " corrupt, "
-                + _unableCount + " unable to check";
+                + _unableCount + " unable to check"
+                + rate;
+        }
+    }
+
+    /**
+     * Orders files by inode number, if known. On common file systems
+     * inode numbers correlate with the location of the file on disk,
+     * so this reduces seeks on rotating media. The sort is stable, thus
+     * files without an inode number (zero) keep their PNFS ID order.
+     */
+    static PnfsId[] inDiskOrder(PnfsId[] ids, ToLongFunction<PnfsId> inodeOf)
+    {
+        Map<PnfsId,Long> inodes = new HashMap<>();
+        for (PnfsId id : ids) {
+            inodes.put(id, inodeOf.applyAsLong(id));
         }
+        PnfsId[] sorted = ids.clone();
+        Arrays.sort(sorted, Comparator.comparingLong(inodes::get));
+        return sorted;
     }
 
     private abstract static class Singleton
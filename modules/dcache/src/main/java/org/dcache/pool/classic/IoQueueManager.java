@@ -33,11 +33,14 @@ import dmg.util.command.Option;
 import org.dcache.pool.FaultEvent;
 import org.dcache.pool.FaultListener;
 import org.dcache.pool.classic.MoverRequestScheduler.Order;
+import org.dcache.util.ByteSizeParser;
+import org.dcache.util.ColumnWriter;
 import org.dcache.util.IoPriority;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static dmg.util.CommandException.checkCommand;
 import static java.util.stream.Collectors.joining;
+import static org.dcache.util.ByteUnits.isoSymbol;
 
 public class IoQueueManager
         implements FaultListener, CellCommandListener, CellSetupProvider
@@ -167,6 +170,13 @@ public class IoQueueManager
     {
         queues().forEach(q -> pw.println("mover queue create " + q.getName() + " -order=" + q.getOrder()));
         queues().forEach(q -> pw.println("mover set max active -queue=" + q.getName() + " " + q.getMaxActiveJobs()));
+        queues().stream()
+                .filter(q -> q.getBandwidth() > 0)
+                .forEach(q -> pw.println("mover set bandwidth -queue=" + q.getName() + " " + q.getBandwidth()));
+        queues().stream()
+                .filter(q -> q.getMoverBandwidth() > 0)
+                .forEach(q -> pw.println("mover set bandwidth -queue=" + q.getName()
+                        + " -per-mover " + q.getMoverBandwidth()));
         queues().stream()
                 .filter(q -> q.hasNonDefaultLastAccessed() || q.hasNonDefaultTotal())
                 .forEach(q -> pw.println("jtm set timeout -queue=" + q.getName()
@@ -261,6 +271,81 @@ public class IoQueueManager
         }
     }
 
+    @AffectsSetup
+    @Command(name = "mover set bandwidth",
+            hint = "limit the bandwidth of a mover queue",
+            description = "Limit the rate at which the movers of a queue read from or write to " +
+                          "the pool, either in total or for each mover. Both limits apply at the " +
+                          "same time. Changes affect running movers only if they opened their " +
+                          "file while a limit was set.\n\n" +
+                          "The limits are only enforced for movers with a thread of their own, " +
+                          "such as those of the FTP and DCAP doors. Movers that serve several " +
+                          "transfers from a shared thread, such as those of the HTTP, xrootd " +
+                          "and NFS doors, are neither delayed nor counted against the limits.\n\n" +
+                          "The limit is given in bytes per second, optionally followed by a " +
+                          "unit such as KiB, MiB or GiB. A limit of zero removes the limit.")
+    public class MoverSetBandwidthCommand implements Callable<String>
+    {
+        @Argument(metaVar = "bytesPerSecond",
+                usage = "The bandwidth limit.")
+        String limit;
+
+        @Option(name = "queue", metaVar = "queueName",
+                usage = "Specify the mover queue name to operate on. If unspecified, " +
+                        "the default mover queue is assumed.")
+        String queueName;
+
+        @Option(name = "per-mover",
+                usage = "Limit the bandwidth of each mover rather than the total " +
+                        "bandwidth of the queue.")
+        boolean perMover;
+
+        @Override
+        public String call() throws CommandException
+        {
+            MoverRequestScheduler js = queueName == null ? defaultQueue : queuesByName.get(queueName);
+            checkCommand(js != null, "Not found : %s", queueName);
+
+            long bandwidth;
+            try {
+                bandwidth = ByteSizeParser.using(isoSymbol()).parse(limit);
+            } catch (NumberFormatException e) {
+                throw new CommandException("Invalid bandwidth: " + limit);
+            }
+            checkCommand(bandwidth >= 0, "Bandwidth must not be negative");
+
+            if (perMover) {
+                js.setMoverBandwidth(bandwidth);
+            } else {
+                js.setBandwidth(bandwidth);
+            }
+            return "";
+        }
+    }
+
+    @Command(name = "mover queue bandwidth",
+            hint = "show bandwidth of mover queues",
+            description = "Show the bandwidth limits of the mover queues of this pool. All " +
+                          "values are in bytes per second; a limit of zero means no limit.")
+    public class MoverQueueBandwidthCommand implements Callable<String>
+    {
+        @Override
+        public String call()
+        {
+            ColumnWriter writer = new ColumnWriter()
+                    .header("QUEUE").left("queue").space()
+                    .header("LIMIT").right("limit").space()
+                    .header("PER MOVER").right("perMover");
+            for (MoverRequestScheduler queue : queues()) {
+                writer.row()
+                        .value("queue", queue.getName())
+                        .value("limit", queue.getBandwidth())
+                        .value("perMover", queue.getMoverBandwidth());
+            }
+            return writer.toString();
+        }
+    }
+
     @AffectsSetup
     @Command(name = "p2p set max active",
             hint = "set maximum number of active pool-to-pool transfers",
@@ -1,5 +1,6 @@
 package org.dcache.pool.classic;
 
+import com.google.common.collect.ImmutableList;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -36,6 +37,7 @@ import org.dcache.pool.FaultAction;
 import org.dcache.pool.FaultEvent;
 import org.dcache.pool.FaultListener;
 import org.dcache.pool.movers.Mover;
+import org.dcache.pool.movers.TokenBucket;
 import org.dcache.pool.movers.json.MoverData;
 import org.dcache.util.AdjustableSemaphore;
 import org.dcache.util.IoPrioritizable;
@@ -133,6 +135,17 @@ public class MoverRequestScheduler
 
     private boolean _loggedQueuingMovers;
 
+    /**
+     * Limits the total bandwidth of all movers of this queue.
+     */
+    private final TokenBucket _bandwidth = new TokenBucket(0);
+
+    /**
+     * Bandwidth limit of each mover in bytes per second, or zero for no
+     * limit.
+     */
+    private volatile long _moverBandwidth;
+
     public enum Order
     {
         FIFO, LIFO
@@ -247,7 +260,9 @@ public class MoverRequestScheduler
         return new PrioritizedRequest(_queueId << 24 | nextId(),
                                       doorUniqueId,
                                       moverSupplier.createMover(),
-                                      priority);
+                                      priority,
+                                      _bandwidth,
+                                      _moverBandwidth);
     }
 
     /**
@@ -392,6 +407,48 @@ public class MoverRequestScheduler
         }
     }
 
+    /**
+     * Returns the limit of the total bandwidth of all movers of this queue in
+     * bytes per second, or zero if there is no limit.
+     */
+    public long getBandwidth()
+    {
+        return _bandwidth.getRate();
+    }
+
+    /**
+     * Limits the total bandwidth of all movers of this queue. Running movers
+     * are only affected if they opened their file while a limit was set.
+     *
+     * @param bandwidth limit in bytes per second, or zero for no limit
+     */
+    public void setBandwidth(long bandwidth)
+    {
+        _bandwidth.setRate(bandwidth);
+    }
+
+    /**
+     * Returns the limit of the bandwidth of each mover of this queue in bytes
+     * per second, or zero if there is no limit.
+     */
+    public long getMoverBandwidth()
+    {
+        return _moverBandwidth;
+    }
+
+    /**
+     * Limits the bandwidth of each mover of this queue. Running movers are
+     * only affected if they opened their file while a limit was set.
+     *
+     * @param bandwidth limit in bytes per second, or zero for no limit
+     */
+    public void setMoverBandwidth(long bandwidth)
+    {
+        checkArgument(bandwidth >= 0, "Bandwidth must not be negative");
+        _moverBandwidth = bandwidth;
+        _jobs.values().forEach(r -> r.setBandwidth(bandwidth));
+    }
+
     /**
      * Get number of requests waiting for execution.
      *
@@ -658,10 +715,18 @@ public class MoverRequestScheduler
 
         private Cancellable _cancellable;
 
-        PrioritizedRequest(int id, String doorUniqueId, Mover<?> mover, IoPriority p)
+        /**
+         * Limits the bandwidth of this mover.
+         */
+        private final TokenBucket _bandwidth;
+
+        PrioritizedRequest(int id, String doorUniqueId, Mover<?> mover, IoPriority p,
+                           TokenBucket queueBandwidth, long moverBandwidth)
         {
             _id = id;
             _mover = mover;
+            _bandwidth = new TokenBucket(moverBandwidth);
+            _mover.setBandwidthLimits(ImmutableList.of(queueBandwidth, _bandwidth));
             _priority = p;
             _ctime = System.nanoTime();
             _submitTime = System.currentTimeMillis();
@@ -675,6 +740,11 @@ public class MoverRequestScheduler
             return Integer.compare(_id, o._id);
         }
 
+        void setBandwidth(long bandwidth)
+        {
+            _bandwidth.setRate(bandwidth);
+        }
+
         public Mover<?> getMover()
         {
             return _mover;
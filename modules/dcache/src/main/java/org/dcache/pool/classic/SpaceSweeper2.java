@@ -1,22 +1,26 @@
 package org.dcache.pool.classic;
 
 import com.google.common.base.Preconditions;
+import com.google.common.primitives.Doubles;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Required;
 
+import javax.annotation.concurrent.GuardedBy;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.time.Instant;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
-import java.util.ArrayList;
-import java.util.Comparator;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
-import java.util.SortedSet;
-import java.util.TreeSet;
 import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
 
 import diskCacheV111.util.CacheException;
 import diskCacheV111.util.FileNotInCacheException;
@@ -25,6 +29,7 @@ import diskCacheV111.vehicles.StorageInfos;
 
 import dmg.cells.nucleus.CellCommandListener;
 import dmg.cells.nucleus.CellSetupProvider;
+import dmg.util.CommandException;
 import dmg.util.Formats;
 import dmg.util.command.Argument;
 import dmg.util.command.Command;
@@ -33,11 +38,16 @@ import dmg.util.command.Option;
 
 import org.dcache.namespace.FileAttribute;
 import org.dcache.pool.PoolDataBeanProvider;
+import org.dcache.pool.classic.eviction.EvictionCandidate;
+import org.dcache.pool.classic.eviction.EvictionPolicies;
+import org.dcache.pool.classic.eviction.EvictionPolicy;
+import org.dcache.pool.classic.eviction.EvictionSimulator;
 import org.dcache.pool.classic.json.SweeperData;
 import org.dcache.pool.repository.Account;
 import org.dcache.pool.repository.CacheEntry;
 import org.dcache.pool.repository.EntryChangeEvent;
 import org.dcache.pool.repository.IllegalTransitionException;
+import org.dcache.pool.repository.ReplicaIndex;
 import org.dcache.pool.repository.ReplicaState;
 import org.dcache.pool.repository.Repository;
 import org.dcache.pool.repository.SpaceSweeperPolicy;
@@ -47,7 +57,9 @@ import org.dcache.pool.repository.StickyChangeEvent;
 import org.dcache.util.histograms.CountingHistogram;
 import org.dcache.vehicles.FileAttributes;
 
-import static java.util.Comparator.naturalOrder;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static org.dcache.util.Exceptions.messageOrClassName;
 
 public class SpaceSweeper2
     implements Runnable, CellCommandListener, StateChangeListener, CellSetupProvider,
@@ -58,14 +70,79 @@ public class SpaceSweeper2
     private static final DateTimeFormatter ISO8601_FORMAT =
             DateTimeFormatter.ofPattern("yyyy-MM-dd'T'HH:mm:ss").withZone(ZoneId.systemDefault());
 
-    private final LruQueue<PnfsId> _queue = new LruQueue<>();
+    /**
+     * How long the time of the least recently used file may be cached.
+     */
+    private static final long LRU_REFRESH_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * How long the statistics served by getDataObject may be cached.
+     */
+    private static final long STATISTICS_REFRESH_INTERVAL = TimeUnit.MINUTES.toMillis(1);
+
+    /**
+     * Number of pages in which sweeper ls selects the removable files.
+     */
+    private static final int LIST_PAGES = 16;
 
     private Repository _repository;
 
+    private ReplicaIndex _index;
+
+    private final Object _lruLock = new Object();
+
+    /**
+     * Last access time of the least recently used removable file, or zero
+     * if there are no removable files.
+     */
+    @GuardedBy("_lruLock")
+    private long _lru;
+
+    @GuardedBy("_lruLock")
+    private long _lruUpdatedAt;
+
+    /**
+     * Whether a thread is scanning the replica index for the eldest
+     * removable file.
+     */
+    @GuardedBy("_lruLock")
+    private boolean _isScanningLru;
+
+    /**
+     * Last access time of the least recently used file that became
+     * removable during the current scan, or Long.MAX_VALUE.
+     */
+    @GuardedBy("_lruLock")
+    private long _lruDuringScan;
+
     private Account _account;
     private Thread _thread;
     private double _margin = 0.0;
 
+    private volatile EvictionPolicy _policy = EvictionPolicies.create("lru");
+
+    private final Object _statisticsLock = new Object();
+
+    /**
+     * Histogram of the time since the last access of removable files.
+     */
+    @GuardedBy("_statisticsLock")
+    private CountingHistogram _lastAccessHistogram;
+
+    @GuardedBy("_statisticsLock")
+    private int _removableCount;
+
+    @GuardedBy("_statisticsLock")
+    private long _statisticsUpdatedAt;
+
+    private final Object _traceLock = new Object();
+
+    /**
+     * Writer for the access trace, or null if no trace is recorded.
+     */
+    @GuardedBy("_traceLock")
+    private BufferedWriter _trace;
+
     public SpaceSweeper2()
     {
     }
@@ -73,6 +150,7 @@ public class SpaceSweeper2
     public void printSetup(PrintWriter pw)
     {
         pw.println("sweeper reclaim margin " + _margin);
+        pw.println("sweeper set policy " + _policy.getName());
     }
 
     @Required
@@ -82,6 +160,12 @@ public class SpaceSweeper2
         _repository.addListener(this);
     }
 
+    @Required
+    public void setReplicaIndex(ReplicaIndex index)
+    {
+        _index = index;
+    }
+
     @Required
     public void setAccount(Account account)
     {
@@ -98,6 +182,17 @@ public class SpaceSweeper2
         _margin = margin;
     }
 
+    /**
+     * Sets the eviction policy by name. The new policy starts without any
+     * access history.
+     */
+    public void setPolicy(String name)
+    {
+        if (!name.equals(_policy.getName())) {
+            _policy = EvictionPolicies.create(name);
+        }
+    }
+
     public void start()
     {
         _thread = new Thread(this, "sweeper");
@@ -108,6 +203,7 @@ public class SpaceSweeper2
     {
         _thread.interrupt();
         _thread.join(1000);
+        stopTrace();
     }
 
     /**
@@ -121,6 +217,11 @@ public class SpaceSweeper2
         return entry.getState() == ReplicaState.CACHED && !entry.isSticky();
     }
 
+    private static boolean isRemovable(ReplicaIndex.Entry entry)
+    {
+        return entry.getState() == ReplicaState.CACHED && !entry.isSticky();
+    }
+
     @Override
     public double getMargin()
     {
@@ -128,92 +229,157 @@ public class SpaceSweeper2
     }
 
     /**
-     * Returns the pnfsid of the eldest removable entry.
+     * Returns the last access time of the eldest removable entry.
+     *
+     * Finding the eldest entry requires a scan of the replica index, hence
+     * the result is cached for a while. Entries that become removable are
+     * accounted for immediately, while the removal of the eldest entry is
+     * only noticed when the cached value is refreshed. The scan is done
+     * without holding any lock, such that state changes are not delayed;
+     * while one thread scans, others get the cached value.
      */
-    private synchronized PnfsId getEldest()
+    @Override
+    public long getLru()
     {
-        return _queue.getLeastRecentlyUsedElement();
+        long now = System.currentTimeMillis();
+        synchronized (_lruLock) {
+            if (_isScanningLru || now - _lruUpdatedAt <= LRU_REFRESH_INTERVAL) {
+                return _lru;
+            }
+            _isScanningLru = true;
+            _lruDuringScan = Long.MAX_VALUE;
+        }
+
+        long[] lru = { Long.MAX_VALUE };
+        boolean isComplete = false;
+        try {
+            _index.forEach(entry -> {
+                if (isRemovable(entry)) {
+                    lru[0] = Math.min(lru[0], entry.getLastAccessTime());
+                }
+            });
+            isComplete = true;
+        } finally {
+            synchronized (_lruLock) {
+                _isScanningLru = false;
+                if (isComplete) {
+                    long eldest = Math.min(lru[0], _lruDuringScan);
+                    _lru = (eldest == Long.MAX_VALUE) ? 0 : eldest;
+                    _lruUpdatedAt = now;
+                }
+            }
+        }
+        synchronized (_lruLock) {
+            return _lru;
+        }
     }
 
     /**
-     * Returns the last access time of the eldest removable entry.
+     * Returns the removable entries to evict first according to the
+     * eviction policy, continuing after the given candidate of a previous
+     * selection, such that their combined size is at least {@code bytes}
+     * (or all remaining removable entries if there are not enough).
      */
-    @Override
-    public long getLru()
+    private List<EvictionCandidate> select(EvictionPolicy policy, long bytes, EvictionCandidate after)
     {
-        return _queue.getTimeOfLeastRecentlyUsedElement();
+        return policy.select(action -> _index.forEach(entry -> {
+            if (isRemovable(entry)) {
+                action.accept(new EvictionCandidate(entry.getPnfsId(), entry.getReplicaSize(),
+                                                    entry.getLastAccessTime()));
+            }
+        }), bytes, after);
     }
 
     /**
-     * Add entry to the queue unless it is already on the queue.
-     *
-     * @throws IllegalArgumentException if entry is precious or not cached
+     * Wakes up the sweeper thread if the entry is removable.
      */
-    private synchronized void add(CacheEntry entry)
+    private void update(CacheEntry entry)
     {
-        if (!isRemovable(entry)) {
-            throw new IllegalArgumentException("Cannot add a precious or un-cached file to the sweeper queue.");
-        }
-
-        PnfsId id = entry.getPnfsId();
-        if (_queue.add(id, entry.getLastAccessTime())) {
-            _log.debug("Added {} to sweeper", id);
+        if (isRemovable(entry)) {
+            long time = entry.getLastAccessTime();
+            synchronized (_lruLock) {
+                if (_lru == 0 || time < _lru) {
+                    _lru = time;
+                }
+                if (_isScanningLru) {
+                    _lruDuringScan = Math.min(_lruDuringScan, time);
+                }
+            }
             /* The sweeper thread may be waiting for more files to
              * delete.
              */
-            notifyAll();
+            synchronized (this) {
+                notifyAll();
+            }
         }
     }
 
-    /** Remove entry from the queue.
-     */
-    private synchronized boolean remove(CacheEntry entry)
+    private static boolean isNewData(ReplicaState state)
     {
-        PnfsId id = entry.getPnfsId();
-        if (_queue.remove(id)) {
-            _log.debug("Removed {} from sweeper", id);
-            return true;
-        }
-        return false;
+        return state == ReplicaState.FROM_CLIENT || state == ReplicaState.FROM_STORE
+               || state == ReplicaState.FROM_POOL;
     }
 
     @Override
-    public synchronized void stateChanged(StateChangeEvent event)
+    public void stateChanged(StateChangeEvent event)
     {
         CacheEntry entry = event.getNewEntry();
-        switch (event.getNewState()) {
-        case REMOVED:
-        case DESTROYED:
-            remove(entry);
-            break;
-
-        default:
-            if (isRemovable(entry)) {
-                add(entry);
-            } else {
-                remove(entry);
-            }
-            break;
+        ReplicaState state = event.getNewState();
+        if (isNewData(event.getOldState())
+            && (state == ReplicaState.CACHED || state == ReplicaState.PRECIOUS)) {
+            _policy.added(entry.getPnfsId(), entry.getReplicaSize());
+            trace(entry);
+        } else if (state == ReplicaState.REMOVED || state == ReplicaState.DESTROYED) {
+            _policy.removed(event.getPnfsId());
         }
+        update(entry);
     }
 
     @Override
-    public synchronized void stickyChanged(StickyChangeEvent event)
+    public void stickyChanged(StickyChangeEvent event)
     {
-        CacheEntry entry = event.getNewEntry();
-        if (isRemovable(entry)) {
-            add(entry);
-        } else {
-            remove(entry);
-        }
+        update(event.getNewEntry());
     }
 
     @Override
-    public synchronized void accessTimeChanged(EntryChangeEvent event)
+    public void accessTimeChanged(EntryChangeEvent event)
     {
         CacheEntry entry = event.getNewEntry();
-        if (remove(entry)) {
-            add(entry);
+        _policy.accessed(entry.getPnfsId(), entry.getReplicaSize());
+        trace(entry);
+        update(entry);
+    }
+
+    /**
+     * Appends a reference to the access trace, if one is recorded.
+     */
+    private void trace(CacheEntry entry)
+    {
+        synchronized (_traceLock) {
+            if (_trace != null) {
+                String line = entry.getLastAccessTime() + " " + entry.getPnfsId() + " " + entry.getReplicaSize();
+                try {
+                    _trace.write(line);
+                    _trace.newLine();
+                } catch (IOException e) {
+                    _log.error("Failed to write sweeper trace, stopping trace: {}", messageOrClassName(e));
+                    stopTrace();
+                }
+            }
+        }
+    }
+
+    private void stopTrace()
+    {
+        synchronized (_traceLock) {
+            if (_trace != null) {
+                try {
+                    _trace.close();
+                } catch (IOException e) {
+                    _log.warn("Failed to close sweeper trace: {}", messageOrClassName(e));
+                }
+                _trace = null;
+            }
         }
     }
 
@@ -237,6 +403,107 @@ public class SpaceSweeper2
         }
     }
 
+    @AffectsSetup
+    @Command(name = "sweeper set policy", hint = "select eviction policy",
+            description = "Select the policy that decides which removable files the " +
+                    "sweeper deletes first:\n\n" +
+                    "  lru      least recently used files first\n" +
+                    "  arc      adaptive replacement cache, balancing files read once " +
+                    "and files read repeatedly\n" +
+                    "  tinylfu  least frequently used files first, with frequencies " +
+                    "estimated by a decaying sketch\n" +
+                    "  gdsf     greedy dual size frequency, preferring to keep small, " +
+                    "frequently read files\n\n" +
+                    "Apart from lru, the policies learn from file access while the pool " +
+                    "is running. A newly selected policy starts without any history. Use " +
+                    "'sweeper simulate' to compare the policies on a recorded trace.")
+    public class SweeperSetPolicyCommand implements Callable<String>
+    {
+        @Argument(valueSpec = "lru|arc|tinylfu|gdsf")
+        String policy;
+
+        @Override
+        public String call() throws CommandException
+        {
+            try {
+                setPolicy(policy);
+            } catch (IllegalArgumentException e) {
+                throw new CommandException(e.getMessage());
+            }
+            return "Eviction policy is now " + _policy.getName() + ".";
+        }
+    }
+
+    @Command(name = "sweeper trace start", hint = "record file access",
+            description = "Append every read and every write of a file to the given " +
+                    "trace file. Each line holds the access time, the PNFS ID and the " +
+                    "size of the file. The trace can be replayed with 'sweeper simulate'.")
+    public class SweeperTraceStartCommand implements Callable<String>
+    {
+        @Argument(usage = "Trace file.")
+        File file;
+
+        @Override
+        public String call() throws CommandException, IOException
+        {
+            synchronized (_traceLock) {
+                CommandException.checkCommand(_trace == null, "A trace is already recorded.");
+                _trace = Files.newBufferedWriter(file.toPath(), StandardCharsets.US_ASCII, CREATE, APPEND);
+            }
+            return "Recording file access to " + file + ".";
+        }
+    }
+
+    @Command(name = "sweeper trace stop", hint = "stop recording file access")
+    public class SweeperTraceStopCommand implements Callable<String>
+    {
+        @Override
+        public String call()
+        {
+            stopTrace();
+            return "";
+        }
+    }
+
+    @Command(name = "sweeper simulate", hint = "simulate hit ratio of eviction policies",
+            description = "Replay a trace recorded with 'sweeper trace start' and report " +
+                    "the hit ratio a pool of the given size would achieve with each " +
+                    "eviction policy. A reference to a file that was not on the simulated " +
+                    "pool is a miss.")
+    public class SweeperSimulateCommand extends DelayedCommand<String>
+    {
+        @Option(name = "policy", valueSpec = "lru|arc|tinylfu|gdsf",
+                usage = "Only simulate this policy.")
+        String policy;
+
+        @Option(name = "size", usage = "Size of the simulated pool in bytes. " +
+                "Defaults to the size of this pool.")
+        Long size;
+
+        @Argument(usage = "Trace file.")
+        File file;
+
+        @Override
+        protected String execute() throws CommandException, IOException
+        {
+            long capacity = (size != null) ? size : _account.getTotal();
+            CommandException.checkCommand(capacity > 0, "Size must be positive.");
+            List<String> names = (policy != null) ? List.of(policy) : EvictionPolicies.NAMES;
+            EvictionSimulator simulator = new EvictionSimulator(capacity);
+            StringBuilder sb = new StringBuilder();
+            for (String name : names) {
+                EvictionPolicy evictionPolicy;
+                try {
+                    evictionPolicy = EvictionPolicies.create(name);
+                } catch (IllegalArgumentException e) {
+                    throw new CommandException(e.getMessage());
+                }
+                sb.append(simulator.run(evictionPolicy, file.toPath())).append('\n');
+            }
+            return sb.toString();
+        }
+    }
+
     @Command(name = "sweeper purge", hint = "Purges all removable files from pool",
             description = "Initiate a sweeper thread (in this pool) to delete " +
                     "all marked removable files from the pool. Note that, if a " +
@@ -289,7 +556,9 @@ public class SpaceSweeper2
         }
     }
 
-    @Command(name = "sweeper ls", hint = "list sweeper queue")
+    @Command(name = "sweeper ls", hint = "list sweeper queue",
+            description = "List removable files in the order in which the sweeper " +
+                    "deletes them according to the eviction policy.")
     public class SweeperLsCommand extends DelayedCommand<String>
     {
         @Option(name = "l", usage = "Show creation and last access times.")
@@ -302,13 +571,27 @@ public class SpaceSweeper2
         protected String execute()
                 throws CacheException, InterruptedException
         {
+            /* The files are selected page by page, such that only one
+             * page of candidates is held at a time.
+             */
+            EvictionPolicy policy = _policy;
+            long pageSize = Math.max(_account.getRemovable() / LIST_PAGES, 1);
             StringBuilder sb = new StringBuilder();
-            List<PnfsId> list;
-            synchronized (SpaceSweeper2.this) {
-                list = _queue.values();
-            }
             int i = 0;
-            for (PnfsId id : list) {
+            EvictionCandidate cursor = null;
+            List<EvictionCandidate> page;
+            while (!(page = select(policy, pageSize, cursor)).isEmpty()) {
+                cursor = page.get(page.size() - 1);
+                i = list(sb, page, i);
+            }
+            return sb.toString();
+        }
+
+        private int list(StringBuilder sb, List<EvictionCandidate> candidates, int i)
+                throws CacheException, InterruptedException
+        {
+            for (EvictionCandidate candidate : candidates) {
+                PnfsId id = candidate.getPnfsId();
                 try {
                     CacheEntry entry = _repository.getEntry(id);
                     if (showVerbose) {
@@ -334,55 +617,75 @@ public class SpaceSweeper2
                     // Ignored
                 }
             }
-            return sb.toString();
+            return i;
         }
     }
 
     @Override
     public SweeperData getDataObject()
     {
-        CountingHistogram histogram =
-                        SweeperData.createUnconfiguredLastAccessHistogram();
-
-        SweeperData info = new SweeperData(histogram);
-        info.setLabel("Space Sweeper v2");
+        SweeperData info;
+        synchronized (_statisticsLock) {
+            long now = System.currentTimeMillis();
+            if (_lastAccessHistogram == null || now - _statisticsUpdatedAt > STATISTICS_REFRESH_INTERVAL) {
+                updateStatistics();
+                _statisticsUpdatedAt = now;
+            }
+            info = new SweeperData(_lastAccessHistogram);
+            info.setLruQueueSize(_removableCount);
+        }
+        info.setLabel("Space Sweeper v2 (" + _policy.getName() + ")");
         info.setMargin(_margin);
+        info.setLruTimestamp(System.currentTimeMillis() - getLru());
+        return info;
+    }
 
-        List<PnfsId> list;
-
-        synchronized (this) {
-            list = _queue.values();
-            info.setLruQueueSize(_queue.values().size());
-            info.setLruTimestamp(System.currentTimeMillis() - getLru());
-        }
+    /**
+     * Recomputes the statistics served by getDataObject with a single scan
+     * of the replica index. The order of the eviction policy is not needed
+     * for this, hence the policy is not consulted.
+     */
+    @GuardedBy("_statisticsLock")
+    private void updateStatistics()
+    {
+        CountingHistogram histogram =
+                        SweeperData.createUnconfiguredLastAccessHistogram();
 
-        List<Double> fileLifetime = new ArrayList<>();
-        long now = System.currentTimeMillis();
+        /* Lifetimes are collected in a primitive array to avoid boxing
+         * each of them.
+         */
+        double[][] fileLifetime = { new double[1024] };
+        int[] count = { 0 };
+        long[] now = { System.currentTimeMillis() };
 
-        for (PnfsId id : list) {
-            Long lastAccess = _queue.timeStamps.get(id);
-            if (lastAccess == null) {
-                continue;
+        _index.forEach(entry -> {
+            if (!isRemovable(entry)) {
+                return;
             }
-            long lvalue = now - lastAccess;
+            long lastAccess = entry.getLastAccessTime();
+            long lvalue = now[0] - lastAccess;
             if (lvalue < 0L) {
-                now = System.currentTimeMillis();
-                lvalue = now - lastAccess;
+                now[0] = System.currentTimeMillis();
+                lvalue = now[0] - lastAccess;
                 if (lvalue < 0L) {
                     _log.warn("repository last access time for {}"
                                               + " is later than current "
                                               + "system time - now {}, "
                                               + "last access {}",
-                              id, now, lastAccess);
+                              entry.getPnfsId(), now[0], lastAccess);
                 }
             }
-            fileLifetime.add((double)lvalue);
-        }
+            if (count[0] == fileLifetime[0].length) {
+                fileLifetime[0] = Arrays.copyOf(fileLifetime[0], count[0] * 2);
+            }
+            fileLifetime[0][count[0]++] = lvalue;
+        });
 
-        histogram.setData(fileLifetime);
+        histogram.setData(Doubles.asList(fileLifetime[0]).subList(0, count[0]));
         histogram.configure();
 
-        return info;
+        _lastAccessHistogram = histogram;
+        _removableCount = count[0];
     }
 
     private String getTimeString(long secin)
@@ -428,48 +731,69 @@ public class SpaceSweeper2
     {
         _log.debug("Sweeper tries to reclaim {} bytes.", amount);
 
-        /* We copy the entries into a tmp list to avoid
-         * ConcurrentModificationException.
-         */
-        List<PnfsId> tmpList = _queue.values();
-
-        /* Delete the files.
+        /* Files are selected from the replica index in batches that are
+         * just large enough to free the remaining amount. If files turn
+         * out not to be removable, the next batch continues in eviction
+         * order after the last file of the previous batch.
          */
+        EvictionPolicy policy = _policy;
         long deleted = 0;
-        for (PnfsId id: tmpList) {
-            try {
-                CacheEntry entry = _repository.getEntry(id);
-
-                // Removing an open file will not free space until
-                // the file is closed, so we skip it this time around.
-                if (entry.getLinkCount() > 0) {
-                    _log.debug("File skipped by sweeper (in use): {}", entry);
-                    continue;
-                }
-                if (!isRemovable(entry)) {
-                    _log.debug("File skipped by sweeper (not removable): {}", entry);
-                    continue;
-                }
-
-                long size = entry.getReplicaSize();
-                _log.debug("Sweeper removes {}.", id);
-                _repository.setState(id, ReplicaState.REMOVED, why);
-                deleted += size;
-            } catch (IllegalTransitionException | FileNotInCacheException e) {
-                /* Normal if file got removed just as we wanted to
-                 * remove it ourselves.
-                 */
-            } catch (CacheException e) {
-                _log.error(e.getMessage());
-            }
-            if (deleted >= amount) {
+        EvictionCandidate cursor = null;
+        while (deleted < amount) {
+            List<EvictionCandidate> candidates = select(policy, amount - deleted, cursor);
+            if (candidates.isEmpty()) {
                 break;
             }
+            for (EvictionCandidate candidate : candidates) {
+                cursor = candidate;
+                if (reclaim(candidate.getPnfsId(), why)) {
+                    policy.evicted(candidate);
+                    deleted += candidate.getSize();
+                    if (deleted >= amount) {
+                        break;
+                    }
+                }
+            }
         }
 
         return deleted;
     }
 
+    /**
+     * Removes a file if it is still removable and not in use.
+     *
+     * @return true if the file was removed, false otherwise
+     */
+    private boolean reclaim(PnfsId id, String why)
+        throws InterruptedException
+    {
+        try {
+            CacheEntry entry = _repository.getEntry(id);
+
+            // Removing an open file will not free space until
+            // the file is closed, so we skip it this time around.
+            if (entry.getLinkCount() > 0) {
+                _log.debug("File skipped by sweeper (in use): {}", entry);
+                return false;
+            }
+            if (!isRemovable(entry)) {
+                _log.debug("File skipped by sweeper (not removable): {}", entry);
+                return false;
+            }
+
+            _log.debug("Sweeper removes {}.", id);
+            _repository.setState(id, ReplicaState.REMOVED, why);
+            return true;
+        } catch (IllegalTransitionException | FileNotInCacheException e) {
+            /* Normal if file got removed just as we wanted to
+             * remove it ourselves.
+             */
+        } catch (CacheException e) {
+            _log.error(e.getMessage());
+        }
+        return false;
+    }
+
     private synchronized long getMarginalBytes()
     {
         double reclaim = _repository.getSpaceRecord().getTotalSpace() * _margin;
@@ -481,18 +805,20 @@ public class SpaceSweeper2
     /**
      * Blocks until the requested space is larger than the free space
      * and removable space exists. Returns the number of requested
-     * space exceeding the amount of free space.
+     * space exceeding the amount of free space. Space of replicas
+     * waiting to be deleted is considered free, as it will become
+     * available without evicting further replicas.
      */
     public long waitForRequests()
         throws InterruptedException
     {
         Account account = _account;
         synchronized (account) {
-            while (account.getRequested() <= account.getFree() ||
+            while (account.getRequested() <= account.getFree() + account.getDeleting() ||
                    account.getRemovable() == 0) {
                 account.wait();
             }
-            return getMarginalBytes() + account.getRequested() - account.getFree();
+            return getMarginalBytes() + account.getRequested() - account.getFree() - account.getDeleting();
         }
     }
 
@@ -525,67 +851,4 @@ public class SpaceSweeper2
             _repository.removeListener(this);
         }
     }
-
-    /**
-     * Queue of keys ordered by a timestamp.
-     */
-    private static class LruQueue<T extends Comparable<T>>
-    {
-        /**
-         * Tracks the time stamp of each element in the queue.
-         */
-        private final Map<T, Long> timeStamps = new HashMap<>();
-
-        /**
-         * Elements sorted by access time and value.
-         * <p>
-         * The comparator uses {@code timeStamps} to look up the time of keys. A compound comparator is used
-         * to ensure consistency with equals (otherwise two keys with the same time would be collapsed to
-         * a single element in the set).
-         * <p>
-         * Any element inserted into this set must have its access time recorded in {@code timeStamps}
-         * before being inserted into the set. The time must not change while the key is in the set.
-         */
-        private final SortedSet<T> queue =
-                new TreeSet<>(Comparator.<T, Long>comparing(k -> timeStamps.getOrDefault(k, 0L)).thenComparing(naturalOrder()));
-
-        public synchronized boolean add(T key, long time)
-        {
-            if (timeStamps.putIfAbsent(key, time) == null) {
-                queue.add(key);
-                return true;
-            }
-            return false;
-        }
-
-        public synchronized boolean remove(T key)
-        {
-            if (queue.remove(key)) {
-                timeStamps.remove(key);
-                return true;
-            }
-            return false;
-        }
-
-        public synchronized T getLeastRecentlyUsedElement()
-        {
-            if (queue.isEmpty()) {
-                return null;
-            }
-            return queue.first();
-        }
-
-        public synchronized long getTimeOfLeastRecentlyUsedElement()
-        {
-            if (queue.isEmpty()) {
-                return 0;
-            }
-            return timeStamps.get(queue.first());
-        }
-
-        public synchronized List<T> values()
-        {
-            return new ArrayList<>(queue);
-        }
-    }
 }
@@ -0,0 +1,203 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2020 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.pool.classic.eviction;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import diskCacheV111.util.PnfsId;
+
+/**
+ * Adaptive Replacement Cache eviction.
+ *
+ * ARC divides the replicas into those referenced once recently (T1) and
+ * those referenced at least twice (T2), and remembers the IDs of replicas
+ * recently evicted from either list (the ghost lists B1 and B2). A
+ * reference to a replica in B1 suggests that T1 is too small, while a
+ * reference to a replica in B2 suggests that T2 is too small, and the
+ * target size of T1 is adapted accordingly. When space is needed, the
+ * least recently used replica of T1 is evicted if T1 exceeds its target;
+ * otherwise the least recently used replica of T2 is evicted.
+ *
+ * Since replicas are evicted by the sweeper rather than on insertion, the
+ * lists are not kept in order. LRU order within T1 and T2 is derived from
+ * the last access time of the replicas, and membership in T2 from a
+ * frequency sketch of fixed size: replicas with an estimated frequency of
+ * at least two belong to T2. Thus T2 costs no memory per replica, at the
+ * price of occasionally placing a replica in the wrong list, and replicas
+ * drop back to T1 as the sketch ages. Replicas not referenced since the
+ * policy was created belong to T1. The ghost lists hold at most as many
+ * IDs as there are removable replicas, and never more than {@value
+ * #MAX_GHOSTS}. Sizes of the lists are counted in replicas.
+ */
+public class ArcEvictionPolicy implements EvictionPolicy
+{
+    public static final String NAME = "arc";
+
+    private static final int MIN_GHOSTS = 1024;
+
+    private static final int MAX_GHOSTS = 1 << 16;
+
+    /** Estimated references of each replica; T2 if at least two. */
+    private final FrequencySketch sketch;
+
+    /** Recently evicted from T1 (B1), in order of eviction. */
+    private final Map<PnfsId, Boolean> recentGhosts = new LinkedHashMap<>();
+
+    /** Recently evicted from T2 (B2), in order of eviction. */
+    private final Map<PnfsId, Boolean> frequentGhosts = new LinkedHashMap<>();
+
+    /** Target size of T1. */
+    private double target;
+
+    /** Number of removable replicas during the last selection. */
+    private int capacity = MIN_GHOSTS;
+
+    public ArcEvictionPolicy(int width)
+    {
+        sketch = new FrequencySketch(width);
+    }
+
+    @Override
+    public String getName()
+    {
+        return NAME;
+    }
+
+    @Override
+    public synchronized void added(PnfsId id, long size)
+    {
+        sketch.increment(id);
+        if (recentGhosts.remove(id) != null) {
+            target = Math.min(capacity, target + Math.max(1.0, frequentGhosts.size() / (double) (recentGhosts.size() + 1)));
+            promote(id);
+        } else if (frequentGhosts.remove(id) != null) {
+            target = Math.max(0, target - Math.max(1.0, recentGhosts.size() / (double) (frequentGhosts.size() + 1)));
+            promote(id);
+        }
+    }
+
+    @Override
+    public void accessed(PnfsId id, long size)
+    {
+        sketch.increment(id);
+    }
+
+    @Override
+    public synchronized void removed(PnfsId id)
+    {
+        Map<PnfsId, Boolean> ghosts = isFrequent(id) ? frequentGhosts : recentGhosts;
+        ghosts.put(id, Boolean.TRUE);
+        trim(ghosts);
+    }
+
+    private boolean isFrequent(PnfsId id)
+    {
+        return sketch.frequency(id) >= 2;
+    }
+
+    /**
+     * Moves a replica found in a ghost list to T2, even if its earlier
+     * references have decayed from the sketch.
+     */
+    private void promote(PnfsId id)
+    {
+        while (!isFrequent(id)) {
+            sketch.increment(id);
+        }
+    }
+
+    @Override
+    public void evicted(EvictionCandidate candidate)
+    {
+    }
+
+    private void trim(Map<PnfsId, Boolean> ghosts)
+    {
+        int max = Math.min(Math.max(capacity, MIN_GHOSTS), MAX_GHOSTS);
+        while (ghosts.size() > max) {
+            ghosts.remove(ghosts.keySet().iterator().next());
+        }
+    }
+
+    private synchronized double getTarget()
+    {
+        return target;
+    }
+
+    private synchronized void setCapacity(int capacity)
+    {
+        this.capacity = capacity;
+        target = Math.min(target, capacity);
+    }
+
+    @Override
+    public List<EvictionCandidate> select(CandidateSource removable, long bytes,
+                                          EvictionCandidate after)
+    {
+        /* The merged order is resumed by resuming the order of T1 and T2
+         * after the last candidate taken from each.
+         */
+        EvictionCandidate[] resumePoints =
+                (after != null && after.getResumePoints() != null)
+                ? after.getResumePoints()
+                : new EvictionCandidate[2];
+        BoundedSelection recent =
+                new BoundedSelection(LruEvictionPolicy.LRU_ORDER, bytes, resumePoints[0]);
+        BoundedSelection frequentSelection =
+                new BoundedSelection(LruEvictionPolicy.LRU_ORDER, bytes, resumePoints[1]);
+        int[] sizes = { 0, 0 };
+        removable.forEach(candidate -> {
+            if (isFrequent(candidate.getPnfsId())) {
+                frequentSelection.offer(candidate);
+                sizes[1]++;
+            } else {
+                recent.offer(candidate);
+                sizes[0]++;
+            }
+        });
+        setCapacity(sizes[0] + sizes[1]);
+        double target = getTarget();
+
+        List<EvictionCandidate> fromRecent = recent.result();
+        List<EvictionCandidate> fromFrequent = frequentSelection.result();
+        List<EvictionCandidate> result = new ArrayList<>(fromRecent.size() + fromFrequent.size());
+        int i = 0;
+        int j = 0;
+        int recentSize = sizes[0];
+        long total = 0;
+        while (total < bytes && (i < fromRecent.size() || j < fromFrequent.size())) {
+            EvictionCandidate candidate;
+            if (j == fromFrequent.size() || i < fromRecent.size() && recentSize > target) {
+                candidate = fromRecent.get(i++);
+                recentSize--;
+                resumePoints = new EvictionCandidate[] { candidate.copy(), resumePoints[1] };
+            } else {
+                candidate = fromFrequent.get(j++);
+                resumePoints = new EvictionCandidate[] { resumePoints[0], candidate.copy() };
+            }
+            candidate.setScore(result.size());
+            candidate.setResumePoints(resumePoints);
+            result.add(candidate);
+            total += candidate.getSize();
+        }
+        return result;
+    }
+}
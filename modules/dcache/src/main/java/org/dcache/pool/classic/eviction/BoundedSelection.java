@@ -0,0 +1,80 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2020 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.pool.classic.eviction;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Selects the smallest candidates according to some order such that their
+ * combined size is at least a given number of bytes.
+ *
+ * Only the selected candidates are kept in memory, thus a selection over
+ * all replicas of a pool needs memory proportional to the number of
+ * replicas to evict rather than the number of replicas on the pool.
+ */
+class BoundedSelection
+{
+    private final Comparator<EvictionCandidate> order;
+    private final long bytes;
+    private final EvictionCandidate after;
+    private final PriorityQueue<EvictionCandidate> selected;
+    private long total;
+
+    /**
+     * Creates a selection of candidates ordered after {@code after}, or of
+     * all candidates if {@code after} is null.
+     */
+    BoundedSelection(Comparator<EvictionCandidate> order, long bytes, EvictionCandidate after)
+    {
+        this.order = order;
+        this.bytes = bytes;
+        this.after = after;
+        this.selected = new PriorityQueue<>(order.reversed());
+    }
+
+    void offer(EvictionCandidate candidate)
+    {
+        if (bytes <= 0) {
+            return;
+        }
+        if (after != null && order.compare(candidate, after) <= 0) {
+            return;
+        }
+        if (total >= bytes && order.compare(candidate, selected.peek()) >= 0) {
+            return;
+        }
+        selected.add(candidate);
+        total += candidate.getSize();
+        while (total - selected.peek().getSize() >= bytes) {
+            total -= selected.poll().getSize();
+        }
+    }
+
+    /**
+     * Returns the selected candidates in ascending order.
+     */
+    List<EvictionCandidate> result()
+    {
+        List<EvictionCandidate> result = new ArrayList<>(selected);
+        result.sort(order);
+        return result;
+    }
+}
@@ -0,0 +1,98 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2020 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.pool.classic.eviction;
+
+import diskCacheV111.util.PnfsId;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A removable replica considered for eviction.
+ *
+ * The score is assigned by the eviction policy that selected the
+ * candidate. Candidates with a lower score are evicted first.
+ */
+public class EvictionCandidate
+{
+    private final PnfsId id;
+    private final long size;
+    private final long lastAccessTime;
+    private double score;
+
+    /**
+     * For policies merging several orders, the last candidate taken from
+     * each order up to and including this candidate.
+     */
+    private EvictionCandidate[] resumePoints;
+
+    public EvictionCandidate(PnfsId id, long size, long lastAccessTime)
+    {
+        this.id = requireNonNull(id);
+        this.size = size;
+        this.lastAccessTime = lastAccessTime;
+    }
+
+    public PnfsId getPnfsId()
+    {
+        return id;
+    }
+
+    public long getSize()
+    {
+        return size;
+    }
+
+    public long getLastAccessTime()
+    {
+        return lastAccessTime;
+    }
+
+    public double getScore()
+    {
+        return score;
+    }
+
+    void setScore(double score)
+    {
+        this.score = score;
+    }
+
+    EvictionCandidate[] getResumePoints()
+    {
+        return resumePoints;
+    }
+
+    void setResumePoints(EvictionCandidate[] resumePoints)
+    {
+        this.resumePoints = resumePoints;
+    }
+
+    /**
+     * Returns a copy of this candidate without score and resume points.
+     */
+    EvictionCandidate copy()
+    {
+        return new EvictionCandidate(id, size, lastAccessTime);
+    }
+
+    @Override
+    public String toString()
+    {
+        return id + " " + size + " " + lastAccessTime + " " + score;
+    }
+}
@@ -0,0 +1,64 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2020 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.pool.classic.eviction;
+
+import com.google.common.collect.ImmutableList;
+
+import java.util.List;
+
+/**
+ * Factory for the eviction policies supported by the sweeper.
+ */
+public class EvictionPolicies
+{
+    /**
+     * Width of the frequency sketches, which is large enough for the
+     * access history of a few hundred thousand replicas.
+     */
+    private static final int SKETCH_WIDTH = 1 << 18;
+
+    public static final List<String> NAMES = ImmutableList.of(
+            LruEvictionPolicy.NAME, ArcEvictionPolicy.NAME,
+            TinyLfuEvictionPolicy.NAME, GdsfEvictionPolicy.NAME);
+
+    private EvictionPolicies()
+    {
+    }
+
+    /**
+     * Returns a new policy without any access history.
+     *
+     * @throws IllegalArgumentException if the name is not one of {@link #NAMES}
+     */
+    public static EvictionPolicy create(String name)
+    {
+        switch (name) {
+        case LruEvictionPolicy.NAME:
+            return new LruEvictionPolicy();
+        case ArcEvictionPolicy.NAME:
+            return new ArcEvictionPolicy(SKETCH_WIDTH);
+        case TinyLfuEvictionPolicy.NAME:
+            return new TinyLfuEvictionPolicy(SKETCH_WIDTH);
+        case GdsfEvictionPolicy.NAME:
+            return new GdsfEvictionPolicy(SKETCH_WIDTH);
+        default:
+            throw new IllegalArgumentException("Unknown eviction policy: " + name
+                                               + " (expected one of " + NAMES + ")");
+        }
+    }
+}
@@ -0,0 +1,93 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2020 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.pool.classic.eviction;
+
+import javax.annotation.Nullable;
+
+import java.util.List;
+import java.util.function.Consumer;
+
+import diskCacheV111.util.PnfsId;
+
+/**
+ * Decides which removable replicas the sweeper evicts.
+ *
+ * A policy is told about every reference to a replica and about every
+ * replica that leaves the pool. From this history it orders removable
+ * replicas when the sweeper needs space. Implementations must be thread
+ * safe, as references are reported by the threads of the repository while
+ * the sweeper selects candidates.
+ */
+public interface EvictionPolicy
+{
+    /**
+     * Source of the removable replicas of a pool.
+     */
+    @FunctionalInterface
+    interface CandidateSource
+    {
+        void forEach(Consumer<EvictionCandidate> action);
+    }
+
+    /**
+     * Returns the name by which the policy is selected.
+     */
+    String getName();
+
+    /**
+     * Called when a new replica was written to the pool.
+     */
+    void added(PnfsId id, long size);
+
+    /**
+     * Called when an existing replica was read.
+     */
+    void accessed(PnfsId id, long size);
+
+    /**
+     * Called when a replica was removed from the pool, whether by the
+     * sweeper or otherwise.
+     */
+    void removed(PnfsId id);
+
+    /**
+     * Called after the sweeper evicted a candidate returned by
+     * {@link #select}.
+     */
+    void evicted(EvictionCandidate candidate);
+
+    /**
+     * Returns the removable replicas to evict first, in eviction order, such
+     * that their combined size is at least {@code bytes} (or all removable
+     * replicas if there are not enough).
+     */
+    default List<EvictionCandidate> select(CandidateSource removable, long bytes)
+    {
+        return select(removable, bytes, null);
+    }
+
+    /**
+     * Like {@link #select(CandidateSource, long)}, but continues a previous
+     * selection: replicas ordered at or before {@code after}, a candidate
+     * returned by a previous selection, are not selected. This allows a
+     * caller to move past candidates it could not evict without remembering
+     * them.
+     */
+    List<EvictionCandidate> select(CandidateSource removable, long bytes,
+                                   @Nullable EvictionCandidate after);
+}
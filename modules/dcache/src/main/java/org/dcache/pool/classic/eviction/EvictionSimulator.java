@@ -0,0 +1,172 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2020 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.pool.classic.eviction;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+import diskCacheV111.util.PnfsId;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Replays a recorded access trace against an eviction policy to determine
+ * the hit ratio a pool of a given size would achieve with that policy.
+ *
+ * A trace holds one reference per line, consisting of the time in
+ * milliseconds, the PNFS ID and the size of the replica, separated by
+ * white space. The first reference to a replica and any reference to a
+ * replica that was evicted are misses; all other references are hits.
+ * When the simulated pool is full, the policy is asked to evict replicas.
+ * To keep the simulation of long traces tractable, at least one percent
+ * of the pool size is freed every time, similar to a sweeper margin.
+ */
+public class EvictionSimulator
+{
+    private final long capacity;
+
+    public EvictionSimulator(long capacity)
+    {
+        checkArgument(capacity > 0, "Size must be positive");
+        this.capacity = capacity;
+    }
+
+    public Result run(EvictionPolicy policy, Path trace) throws IOException
+    {
+        Map<PnfsId, long[]> resident = new HashMap<>();
+        EvictionPolicy.CandidateSource source = action ->
+                resident.forEach((id, e) -> action.accept(new EvictionCandidate(id, e[0], e[1])));
+        Result result = new Result(policy.getName());
+        long used = 0;
+
+        try (BufferedReader reader = Files.newBufferedReader(trace, StandardCharsets.US_ASCII)) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\\s+");
+                long time;
+                PnfsId id;
+                long size;
+                try {
+                    checkArgument(fields.length == 3, "expected three fields");
+                    time = Long.parseLong(fields[0]);
+                    id = new PnfsId(fields[1]);
+                    size = Long.parseLong(fields[2]);
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Invalid trace " + trace + " at line " + lineNumber + ": "
+                                          + e.getMessage(), e);
+                }
+
+                long[] entry = resident.get(id);
+                if (entry != null) {
+                    entry[1] = time;
+                    result.hit(size);
+                    policy.accessed(id, size);
+                } else {
+                    resident.put(id, new long[] { size, time });
+                    used += size;
+                    result.miss(size);
+                    policy.added(id, size);
+                    if (used > capacity) {
+                        long bytes = used - capacity + capacity / 100;
+                        for (EvictionCandidate candidate : policy.select(source, bytes)) {
+                            resident.remove(candidate.getPnfsId());
+                            used -= candidate.getSize();
+                            policy.removed(candidate.getPnfsId());
+                            policy.evicted(candidate);
+                        }
+                    }
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Hit ratio of a simulation.
+     */
+    public static class Result
+    {
+        private final String policy;
+        private long requests;
+        private long hits;
+        private long bytes;
+        private long bytesHit;
+
+        private Result(String policy)
+        {
+            this.policy = policy;
+        }
+
+        private void hit(long size)
+        {
+            requests++;
+            hits++;
+            bytes += size;
+            bytesHit += size;
+        }
+
+        private void miss(long size)
+        {
+            requests++;
+            bytes += size;
+        }
+
+        public String getPolicy()
+        {
+            return policy;
+        }
+
+        public long getRequests()
+        {
+            return requests;
+        }
+
+        public long getHits()
+        {
+            return hits;
+        }
+
+        public double getHitRatio()
+        {
+            return (requests == 0) ? 0 : hits / (double) requests;
+        }
+
+        public double getByteHitRatio()
+        {
+            return (bytes == 0) ? 0 : bytesHit / (double) bytes;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%-8s %10d requests %10d hits  hit ratio %5.1f%%  byte hit ratio %5.1f%%",
+                                 policy, requests, hits, 100 * getHitRatio(), 100 * getByteHitRatio());
+        }
+    }
+}
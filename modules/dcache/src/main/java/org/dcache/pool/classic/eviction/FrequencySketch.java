@@ -0,0 +1,116 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2020 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.pool.classic.eviction;
+
+import diskCacheV111.util.PnfsId;
+
+/**
+ * Approximate access frequency of replicas, as used by TinyLFU.
+ *
+ * The sketch is a count-min sketch with four rows of saturating counters.
+ * Its memory use is fixed and independent of the number of replicas, at
+ * the price of occasionally overestimating the frequency of a replica.
+ * Once the number of recorded references reaches ten times the width of
+ * the sketch, all counters are halved. Thus the frequencies decay and
+ * replicas that were popular a long time ago do not stay in the pool
+ * forever.
+ */
+class FrequencySketch
+{
+    private static final int ROWS = 4;
+    private static final int MAX_COUNT = 255;
+    private static final int[] SEEDS = { 0x97cb3127, 0xc2b2ae35, 0x85ebca6b, 0x27d4eb2f };
+
+    private final byte[][] counters;
+    private final int shift;
+    private final int sampleSize;
+    private int samples;
+
+    /**
+     * @param width number of counters per row, rounded up to a power of two
+     */
+    FrequencySketch(int width)
+    {
+        int size = Integer.highestOneBit(Math.max(width - 1, 1)) << 1;
+        counters = new byte[ROWS][size];
+        shift = Integer.numberOfLeadingZeros(size) + 1;
+        sampleSize = 10 * size;
+    }
+
+    private static int spread(PnfsId id)
+    {
+        int h = id.hashCode();
+        h ^= h >>> 16;
+        h *= 0x85ebca6b;
+        h ^= h >>> 13;
+        h *= 0xc2b2ae35;
+        return h ^ (h >>> 16);
+    }
+
+    private int index(int hash, int row)
+    {
+        return (hash * SEEDS[row]) >>> shift;
+    }
+
+    /**
+     * Records a reference to a replica.
+     */
+    synchronized void increment(PnfsId id)
+    {
+        int hash = spread(id);
+        int min = Integer.MAX_VALUE;
+        for (int row = 0; row < ROWS; row++) {
+            min = Math.min(min, counters[row][index(hash, row)] & 0xff);
+        }
+        if (min < MAX_COUNT) {
+            /* Conservative update: only increment the smallest counters. */
+            for (int row = 0; row < ROWS; row++) {
+                int i = index(hash, row);
+                if ((counters[row][i] & 0xff) == min) {
+                    counters[row][i]++;
+                }
+            }
+        }
+        if (++samples >= sampleSize) {
+            reset();
+        }
+    }
+
+    /**
+     * Returns the estimated number of references to a replica.
+     */
+    synchronized int frequency(PnfsId id)
+    {
+        int hash = spread(id);
+        int min = Integer.MAX_VALUE;
+        for (int row = 0; row < ROWS; row++) {
+            min = Math.min(min, counters[row][index(hash, row)] & 0xff);
+        }
+        return min;
+    }
+
+    private void reset()
+    {
+        for (byte[] row : counters) {
+            for (int i = 0; i < row.length; i++) {
+                row[i] = (byte) ((row[i] & 0xff) >>> 1);
+            }
+        }
+        samples /= 2;
+    }
+}
@@ -0,0 +1,143 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2020 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.pool.classic.eviction;
+
+import javax.annotation.concurrent.GuardedBy;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import diskCacheV111.util.PnfsId;
+
+/**
+ * Greedy-Dual-Size-Frequency eviction.
+ *
+ * Every replica has a priority H = L + F / S, where F is its estimated
+ * access frequency, S its size and L an inflation value. Replicas with the
+ * lowest priority are evicted first, and L is raised to the priority of
+ * each evicted replica. Thus small, frequently read replicas are kept in
+ * favour of large replicas read once, while the inflation lets the
+ * priority of replicas that are no longer read fall behind that of
+ * replicas read recently. The cost of fetching a replica is assumed to be
+ * the same for all replicas, which maximizes the number of hits rather
+ * than the number of bytes served from the pool.
+ *
+ * No state is kept per replica. The frequency is taken from a sketch of
+ * fixed size, and counts at least one. Rather than remembering the value
+ * of L at the last reference to each replica, the policy remembers when L
+ * was raised and looks up the value at the last access time of the
+ * replica. Only the last {@value #MAX_INFLATION_STEPS} steps are kept; L
+ * is taken to be zero for replicas last read before the oldest step. A
+ * replica not referenced since the policy was created thus has a priority
+ * of at most 1 / S, so that the largest such replicas are evicted first.
+ */
+public class GdsfEvictionPolicy implements EvictionPolicy
+{
+    public static final String NAME = "gdsf";
+
+    private static final int MAX_INFLATION_STEPS = 4096;
+
+    private static final Comparator<EvictionCandidate> ORDER =
+            Comparator.comparingDouble(EvictionCandidate::getScore)
+                    .thenComparing(LruEvictionPolicy.LRU_ORDER);
+
+    private final FrequencySketch sketch;
+
+    /**
+     * Value of L for replicas last accessed at or after a given time.
+     */
+    private final NavigableMap<Long, Double> inflationSteps = new ConcurrentSkipListMap<>();
+
+    @GuardedBy("this")
+    private int steps;
+
+    @GuardedBy("this")
+    private double inflation;
+
+    /**
+     * Last access time of the most recently accessed candidate of the last
+     * selection. Serves as the time at which L is raised by an eviction.
+     */
+    private volatile long clock;
+
+    public GdsfEvictionPolicy(int width)
+    {
+        sketch = new FrequencySketch(width);
+    }
+
+    @Override
+    public String getName()
+    {
+        return NAME;
+    }
+
+    @Override
+    public void added(PnfsId id, long size)
+    {
+        sketch.increment(id);
+    }
+
+    @Override
+    public void accessed(PnfsId id, long size)
+    {
+        sketch.increment(id);
+    }
+
+    @Override
+    public void removed(PnfsId id)
+    {
+    }
+
+    @Override
+    public synchronized void evicted(EvictionCandidate candidate)
+    {
+        if (candidate.getScore() > inflation) {
+            inflation = candidate.getScore();
+            if (inflationSteps.put(clock, inflation) == null && ++steps > MAX_INFLATION_STEPS) {
+                inflationSteps.pollFirstEntry();
+                steps--;
+            }
+        }
+    }
+
+    private double inflationAt(long time)
+    {
+        Map.Entry<Long, Double> step = inflationSteps.floorEntry(time);
+        return (step == null) ? 0 : step.getValue();
+    }
+
+    @Override
+    public List<EvictionCandidate> select(CandidateSource removable, long bytes,
+                                          EvictionCandidate after)
+    {
+        BoundedSelection selection = new BoundedSelection(ORDER, bytes, after);
+        long[] newest = { clock };
+        removable.forEach(candidate -> {
+            long time = candidate.getLastAccessTime();
+            int frequency = Math.max(sketch.frequency(candidate.getPnfsId()), 1);
+            candidate.setScore(inflationAt(time) + frequency / (double) Math.max(candidate.getSize(), 1));
+            newest[0] = Math.max(newest[0], time);
+            selection.offer(candidate);
+        });
+        clock = newest[0];
+        return selection.result();
+    }
+}
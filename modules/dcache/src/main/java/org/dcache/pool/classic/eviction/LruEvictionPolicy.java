@@ -0,0 +1,76 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2020 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.pool.classic.eviction;
+
+import java.util.Comparator;
+import java.util.List;
+
+import diskCacheV111.util.PnfsId;
+
+/**
+ * Evicts the least recently used replicas first.
+ *
+ * The policy keeps no state of its own; the order is derived from the
+ * last access time of the replicas.
+ */
+public class LruEvictionPolicy implements EvictionPolicy
+{
+    public static final String NAME = "lru";
+
+    static final Comparator<EvictionCandidate> LRU_ORDER =
+            Comparator.comparingLong(EvictionCandidate::getLastAccessTime)
+                    .thenComparing(EvictionCandidate::getPnfsId);
+
+    @Override
+    public String getName()
+    {
+        return NAME;
+    }
+
+    @Override
+    public void added(PnfsId id, long size)
+    {
+    }
+
+    @Override
+    public void accessed(PnfsId id, long size)
+    {
+    }
+
+    @Override
+    public void removed(PnfsId id)
+    {
+    }
+
+    @Override
+    public void evicted(EvictionCandidate candidate)
+    {
+    }
+
+    @Override
+    public List<EvictionCandidate> select(CandidateSource removable, long bytes,
+                                          EvictionCandidate after)
+    {
+        BoundedSelection selection = new BoundedSelection(LRU_ORDER, bytes, after);
+        removable.forEach(candidate -> {
+            candidate.setScore(candidate.getLastAccessTime());
+            selection.offer(candidate);
+        });
+        return selection.result();
+    }
+}
@@ -0,0 +1,89 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2020 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.pool.classic.eviction;
+
+import java.util.Comparator;
+import java.util.List;
+
+import diskCacheV111.util.PnfsId;
+
+/**
+ * Evicts the least frequently used replicas first.
+ *
+ * Frequencies are estimated by the compact, decaying sketch of TinyLFU,
+ * thus the policy needs a fixed amount of memory regardless of the number
+ * of replicas. Replicas with the same estimated frequency are evicted in
+ * LRU order. Since every replica must be admitted to the pool, the
+ * admission filter of TinyLFU is not used; a one-time scan of large files
+ * is nevertheless evicted before files that are read repeatedly.
+ */
+public class TinyLfuEvictionPolicy implements EvictionPolicy
+{
+    public static final String NAME = "tinylfu";
+
+    private static final Comparator<EvictionCandidate> ORDER =
+            Comparator.comparingDouble(EvictionCandidate::getScore)
+                    .thenComparing(LruEvictionPolicy.LRU_ORDER);
+
+    private final FrequencySketch sketch;
+
+    public TinyLfuEvictionPolicy(int width)
+    {
+        sketch = new FrequencySketch(width);
+    }
+
+    @Override
+    public String getName()
+    {
+        return NAME;
+    }
+
+    @Override
+    public void added(PnfsId id, long size)
+    {
+        sketch.increment(id);
+    }
+
+    @Override
+    public void accessed(PnfsId id, long size)
+    {
+        sketch.increment(id);
+    }
+
+    @Override
+    public void removed(PnfsId id)
+    {
+    }
+
+    @Override
+    public void evicted(EvictionCandidate candidate)
+    {
+    }
+
+    @Override
+    public List<EvictionCandidate> select(CandidateSource removable, long bytes,
+                                          EvictionCandidate after)
+    {
+        BoundedSelection selection = new BoundedSelection(ORDER, bytes, after);
+        removable.forEach(candidate -> {
+            candidate.setScore(sketch.frequency(candidate.getPnfsId()));
+            selection.offer(candidate);
+        });
+        return selection.result();
+    }
+}
@@ -77,6 +77,7 @@ import org.dcache.pool.classic.json.TransferServicesData;
 import org.dcache.pool.migration.json.MigrationData;
 import org.dcache.pool.nearline.json.StorageHandlerData;
 import org.dcache.pool.p2p.json.P2PData;
+import org.dcache.pool.repository.json.BlockCacheData;
 import org.dcache.pool.repository.json.RepositoryData;
 import org.dcache.pool.statistics.StorageUnitSpaceStatistics;
 
@@ -89,6 +90,7 @@ public class PoolData implements Serializable {
 
     private List<String>          poolGroups = new ArrayList<>();
     private Set<String>           links = new HashSet<>();
+    private BlockCacheData        blockCacheData = new BlockCacheData();
     private CellData              cellData = new CellData();
     private ChecksumModuleData    csmData = new ChecksumModuleData();
     private PoolDataDetails       detailsData = new PoolDataDetails();
@@ -104,6 +106,10 @@ public class PoolData implements Serializable {
 
     private Map<String, StorageUnitSpaceStatistics> spaceByStorageUnit = new HashMap<>();
 
+    public BlockCacheData getBlockCacheData() {
+        return blockCacheData;
+    }
+
     public CellData getCellData() {
         return cellData;
     }
@@ -164,6 +170,10 @@ public class PoolData implements Serializable {
         return transferServicesData;
     }
 
+    public void setBlockCacheData(BlockCacheData blockCacheData) {
+        this.blockCacheData = blockCacheData;
+    }
+
     public void setCellData(CellData cellData) {
         this.cellData = cellData;
     }
@@ -33,6 +33,7 @@ import java.nio.file.OpenOption;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 
@@ -84,6 +85,7 @@ public abstract class AbstractMover<P extends ProtocolInfo, M extends AbstractMo
     private final Set<Checksum> _checksums = new HashSet<>();
     private volatile ChecksumChannel _checksumChannel;
     private volatile Optional<RepositoryChannel> _channel = Optional.empty();
+    private volatile List<TokenBucket> _bandwidthLimits = Collections.emptyList();
 
     public AbstractMover(ReplicaDescriptor handle, PoolIoFileMessage message, CellPath pathToDoor,
                          TransferService<M> transferService)
@@ -303,6 +305,10 @@ public abstract class AbstractMover<P extends ProtocolInfo, M extends AbstractMo
                     + messageOrClassName(e), e);
         }
 
+        if (isThrottlingSupported() && _bandwidthLimits.stream().anyMatch(b -> b.getRate() > 0)) {
+            channel = new ThrottledRepositoryChannel(channel, _bandwidthLimits);
+        }
+
         synchronized (_checksumTypes) {
             _checksumChannel = channel.optionallyAs(ChecksumChannel.class).orElse(null);
             if (_checksumChannel != null) {
@@ -334,6 +340,23 @@ public abstract class AbstractMover<P extends ProtocolInfo, M extends AbstractMo
         return channel;
     }
 
+    @Override
+    public void setBandwidthLimits(List<TokenBucket> buckets)
+    {
+        _bandwidthLimits = buckets;
+    }
+
+    /**
+     * Whether the thread performing IO on the channel returned by {@link
+     * #openChannel} may be delayed to enforce bandwidth limits. Movers
+     * serving several transfers from the same thread must return false, in
+     * which case bandwidth limits do not apply to them.
+     */
+    protected boolean isThrottlingSupported()
+    {
+        return false;
+    }
+
     @Override
     public Optional<RepositoryChannel> getChannel()
     {
@@ -0,0 +1,121 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2020 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.pool.movers;
+
+import javax.annotation.concurrent.GuardedBy;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.TreeMap;
+
+import diskCacheV111.util.Adler32;
+
+import org.dcache.util.Checksum;
+import org.dcache.util.ChecksumType;
+
+/**
+ * Computes the ADLER32 checksum of data that is written in arbitrary order.
+ *
+ * The checksum of each written range is computed on its own and merged with
+ * the checksums of adjacent ranges as soon as they become contiguous. As two
+ * ADLER32 values can be combined knowing only the length of the second range,
+ * the data never has to be read back, irrespective of the order in which it
+ * arrives. Gaps are treated as zeros, as they would be in a sparse file.
+ *
+ * The checksum of a range is computed without holding a lock, thus several
+ * streams writing to the same file compute their checksums in parallel.
+ * Callers must ensure that ranges do not overlap.
+ */
+class Adler32Combiner
+{
+    private static class Segment
+    {
+        final long length;
+        final long value;
+
+        Segment(long length, long value)
+        {
+            this.length = length;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Checksummed ranges indexed by their offset. Adjacent ranges are always
+     * merged.
+     */
+    @GuardedBy("this")
+    private final TreeMap<Long, Segment> segments = new TreeMap<>();
+
+    /**
+     * Adds the remaining content of {@code data}, located at {@code position}
+     * in the file, to the checksum. Upon return, the buffer's position is at
+     * its limit.
+     */
+    void update(long position, ByteBuffer data)
+    {
+        long length = data.remaining();
+        if (length > 0) {
+            java.util.zip.Adler32 adler = new java.util.zip.Adler32();
+            adler.update(data);
+            add(position, length, adler.getValue());
+        }
+    }
+
+    private synchronized void add(long position, long length, long value)
+    {
+        Map.Entry<Long, Segment> before = segments.lowerEntry(position);
+        if (before != null && before.getKey() + before.getValue().length == position) {
+            Segment segment = segments.remove(before.getKey());
+            value = Adler32.combine(segment.value, value, length);
+            length += segment.length;
+            position = before.getKey();
+        }
+
+        Segment after = segments.remove(position + length);
+        if (after != null) {
+            value = Adler32.combine(value, after.value, after.length);
+            length += after.length;
+        }
+
+        segments.put(position, new Segment(length, value));
+    }
+
+    /**
+     * Returns the checksum of the first {@code size} bytes of the file.
+     * Ranges that have not been written are treated as zeros.
+     */
+    synchronized Checksum getChecksum(long size)
+    {
+        long value = 1L;
+        long offset = 0L;
+        for (Map.Entry<Long, Segment> entry : segments.entrySet()) {
+            long position = entry.getKey();
+            Segment segment = entry.getValue();
+            if (position > offset) {
+                value = Adler32.combine(value, Adler32.ofZeros(position - offset), position - offset);
+            }
+            value = Adler32.combine(value, segment.value, segment.length);
+            offset = position + segment.length;
+        }
+        if (size > offset) {
+            value = Adler32.combine(value, Adler32.ofZeros(size - offset), size - offset);
+        }
+        return new Checksum(ChecksumType.ADLER32, String.format("%08x", value));
+    }
+}
@@ -8,6 +8,7 @@ import com.google.common.collect.TreeRangeSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 
 import java.io.IOException;
@@ -16,10 +17,11 @@ import java.nio.ByteBuffer;
 import java.nio.channels.ReadableByteChannel;
 import java.security.MessageDigest;
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Executor;
 import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantReadWriteLock;
 import java.util.stream.Collectors;
@@ -38,6 +40,15 @@ import static org.dcache.util.Exceptions.messageOrClassName;
  * A wrapper for RepositoryChannel that computes a digest
  * on the fly during write as long as all writes are
  * sequential.
+ *
+ * ADLER32 is the exception: its value is computed for each written range
+ * and the partial values are combined by an {@link Adler32Combiner}. It is
+ * thus computed on the fly irrespective of the order in which data is
+ * written, without reading any data back from the inner channel.
+ *
+ * If an executor is provided and more than one digest is computed, the
+ * digests are updated concurrently by a {@link DigestPipeline} rather than
+ * one after the other by the writing thread.
  */
 public class ChecksumChannel extends ForwardingRepositoryChannel
 {
@@ -55,6 +66,28 @@ public class ChecksumChannel extends ForwardingRepositoryChannel
      */
     private final List<MessageDigest> _digests;
 
+    /**
+     * Computes the ADLER32 checksum from written ranges, or null if no
+     * ADLER32 checksum is computed. Only set once, by addAdler32 while
+     * holding _dataRangeSet; volatile as it is also read without that lock.
+     */
+    @Nullable
+    private volatile Adler32Combiner _adler32;
+
+    /**
+     * Executor for updating digests concurrently, or null if digests are
+     * updated by the writing thread.
+     */
+    @Nullable
+    private final Executor _digestExecutor;
+
+    /**
+     * Pipeline updating all of _digests, or null if digests are updated
+     * by the writing thread.
+     */
+    @GuardedBy("_digests")
+    private DigestPipeline _pipeline;
+
     /**
      * Cached checksum after getChecksums is called the first time.
      */
@@ -113,11 +146,27 @@ public class ChecksumChannel extends ForwardingRepositoryChannel
     ByteBuffer _zerosBuffer = ZERO_BUFFER.duplicate();
 
     public ChecksumChannel(RepositoryChannel inner, Set<ChecksumType> types)
+    {
+        this(inner, types, null);
+    }
+
+    /**
+     * Creates a ChecksumChannel that uses {@code digestExecutor} to update the
+     * digests concurrently whenever more than one checksum type is computed.
+     */
+    public ChecksumChannel(RepositoryChannel inner, Set<ChecksumType> types,
+                           @Nullable Executor digestExecutor)
     {
         _channel = inner;
+        _digestExecutor = digestExecutor;
         _digests = types.stream()
+                .filter(t -> t != ChecksumType.ADLER32)
                 .map(t -> t.createMessageDigest())
                 .collect(Collectors.toList());
+        _adler32 = types.contains(ChecksumType.ADLER32) ? new Adler32Combiner() : null;
+        synchronized (_digests) {
+            updatePipeline();
+        }
     }
 
     /**
@@ -132,6 +181,11 @@ public class ChecksumChannel extends ForwardingRepositoryChannel
      */
     public void addType(ChecksumType type) throws IOException
     {
+        if (type == ChecksumType.ADLER32) {
+            addAdler32();
+            return;
+        }
+
         synchronized (_digests) {
             if (_digests.stream()
                     .map(MessageDigest::getAlgorithm)
@@ -140,7 +194,7 @@ public class ChecksumChannel extends ForwardingRepositoryChannel
 
                 if (_isChecksumViable) {
                     try {
-                        updateFromChannel(Collections.singleton(digest), 0L, _nextChecksumOffset);
+                        updateFromChannel((p, b) -> digest.update(b), 0L, _nextChecksumOffset);
                     } catch (IOException e) {
                         throw new IOException("Failed when reading received data: "
                                 + messageOrClassName(e), e);
@@ -148,10 +202,64 @@ public class ChecksumChannel extends ForwardingRepositoryChannel
                 }
 
                 _digests.add(digest);
+                if (_pipeline != null) {
+                    _pipeline.add(digest);
+                } else {
+                    updatePipeline();
+                }
             }
         }
     }
 
+    /**
+     * Starts computing the ADLER32 checksum, unless already doing so. Data
+     * that has been written before is read back once.
+     */
+    private void addAdler32() throws IOException
+    {
+        synchronized (_dataRangeSet) {
+            if (_adler32 != null) {
+                return;
+            }
+
+            Adler32Combiner adler32 = new Adler32Combiner();
+            if (_isChecksumViable) {
+                try {
+                    for (Range<Long> range : _dataRangeSet.asRanges()) {
+                        synchronized (_digests) {
+                            updateFromChannel(adler32::update, range.lowerEndpoint(),
+                                    range.upperEndpoint() - range.lowerEndpoint());
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new IOException("Failed when reading received data: "
+                            + messageOrClassName(e), e);
+                }
+            }
+            _adler32 = adler32;
+        }
+
+        synchronized (_digests) {
+            updatePipeline();
+        }
+    }
+
+    /**
+     * Creates the pipeline once the writing thread would otherwise have to
+     * compute more than one checksum. The ADLER32 checksum is always computed
+     * by the writing thread, thus it may proceed concurrently with a single
+     * digest in the pipeline.
+     */
+    @GuardedBy("_digests")
+    private void updatePipeline()
+    {
+        int checksums = _digests.size() + (_adler32 == null ? 0 : 1);
+        if (_digestExecutor != null && _pipeline == null && !_digests.isEmpty() && checksums > 1) {
+            _pipeline = new DigestPipeline(_digestExecutor);
+            _digests.forEach(_pipeline::add);
+        }
+    }
+
     @Override
     protected RepositoryChannel delegate() {
         return _channel;
@@ -267,13 +375,22 @@ public class ChecksumChannel extends ForwardingRepositoryChannel
             synchronized (_digests) {
                 try {
 
-                    if (_dataRangeSet.asRanges().size() != 1 || _nextChecksumOffset == 0) {
+                    if (!_digests.isEmpty() &&
+                            (_dataRangeSet.asRanges().size() != 1 || _nextChecksumOffset == 0)) {
                         feedZerosToDigesterForRangeGaps();
                     }
 
-                    return _digests.stream()
+                    if (_pipeline != null) {
+                        _pipeline.await();
+                    }
+
+                    Set<Checksum> checksums = _digests.stream()
                             .map(Checksum::new)
-                            .collect(Collectors.toSet());
+                            .collect(Collectors.toCollection(HashSet::new));
+                    if (_adler32 != null) {
+                        checksums.add(_adler32.getChecksum(size()));
+                    }
+                    return checksums;
                 } catch (IOException e) {
                     _log.info("Unable to generate checksum of sparse file: {}", e.toString());
                     return Collections.emptySet();
@@ -334,6 +451,7 @@ public class ChecksumChannel extends ForwardingRepositoryChannel
 
         Range<Long> writeRange = Range.closed(position, position + buffer.remaining() - 1).canonical(DiscreteDomain.longs());
         Range<Long> fileStartRange;
+        Adler32Combiner adler32;
 
         synchronized (_dataRangeSet) {
 
@@ -348,21 +466,37 @@ public class ChecksumChannel extends ForwardingRepositoryChannel
             boolean canCalculateChecksum = position == 0 || (fileStartRange != null && fileStartRange.upperEndpoint() == position);
 
             _dataRangeSet.add(writeRange);
-            if (!canCalculateChecksum) {
-                return;
-            }
+            adler32 = _adler32;
 
             // get it again as we may have merged two segments
-            fileStartRange = _dataRangeSet.rangeContaining(0L);
+            fileStartRange = canCalculateChecksum ? _dataRangeSet.rangeContaining(0L) : null;
+        }
+
+        if (adler32 != null) {
+            adler32.update(position, buffer.duplicate());
+        }
+
+        if (fileStartRange == null) {
+            return;
         }
 
         synchronized (_digests) {
+            if (_digests.isEmpty()) {
+                /*
+                 * Nothing to digest, but keep track of the contiguous range
+                 * in case a digest is added later.
+                 */
+                _nextChecksumOffset = Math.max(_nextChecksumOffset, fileStartRange.upperEndpoint());
+                _digests.notifyAll();
+                return;
+            }
+
             /*
              * we are one of the threads which got the merge into continues block.
              * Nevertheless, there may be a different thread which needs to update
              * ahead of us. Wait for our turn.
              */
-            while(_nextChecksumOffset != position) {
+            while(_nextChecksumOffset < position) {
                 try {
                     _digests.wait();
                 } catch (InterruptedException e) {
@@ -370,6 +504,15 @@ public class ChecksumChannel extends ForwardingRepositoryChannel
                 }
             }
 
+            /*
+             * While no digest was registered, a thread ahead of us may have
+             * already accounted for our range, in which case it was read back
+             * when the digest was added.
+             */
+            if (_nextChecksumOffset > position) {
+                return;
+            }
+
             long bytesToRead = fileStartRange.upperEndpoint() - position;
 
             // update current buffer and then keep procesing following blocks, if any
@@ -377,11 +520,10 @@ public class ChecksumChannel extends ForwardingRepositoryChannel
             // update offset prior digest calculation as digests#update will update position in the buffer
             _nextChecksumOffset += buffer.remaining();
 
-            _digests.forEach(d -> d.update(buffer.duplicate()));
-
             long expectedOffsetAfterRead = _nextChecksumOffset + bytesToRead;
             try {
-                updateFromChannel(_digests, _nextChecksumOffset, bytesToRead);
+                updateDigests(buffer.duplicate());
+                updateFromChannel((p, b) -> updateDigests(b), _nextChecksumOffset, bytesToRead);
             } finally {
                 _nextChecksumOffset = expectedOffsetAfterRead;
                 _digests.notifyAll();
@@ -389,8 +531,32 @@ public class ChecksumChannel extends ForwardingRepositoryChannel
         }
     }
 
+    /**
+     * Updates all digests with the remaining content of the buffer.
+     */
+    @GuardedBy("_digests")
+    private void updateDigests(ByteBuffer buffer) throws IOException
+    {
+        if (_pipeline != null) {
+            try {
+                _pipeline.update(buffer);
+            } catch (IOException e) {
+                _isChecksumViable = false;
+                throw e;
+            }
+        } else {
+            _digests.forEach(d -> d.update(buffer.duplicate()));
+        }
+    }
+
+    @FunctionalInterface
+    private interface DigestUpdate
+    {
+        void update(long position, ByteBuffer buffer) throws IOException;
+    }
+
     @GuardedBy("_digests")
-    private void updateFromChannel(Collection<MessageDigest> digests, long offset, long bytesToRead)
+    private void updateFromChannel(DigestUpdate update, long offset, long bytesToRead)
             throws IOException
     {
         try {
@@ -405,7 +571,7 @@ public class ChecksumChannel extends ForwardingRepositoryChannel
 
                 _readBackBuffer.flip();
 
-                digests.forEach(d -> d.update(_readBackBuffer.asReadOnlyBuffer()));
+                update.update(offset, _readBackBuffer.asReadOnlyBuffer());
 
                 bytesToRead -= bytesRead;
                 offset += bytesRead;
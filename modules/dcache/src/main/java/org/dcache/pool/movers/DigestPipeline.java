@@ -0,0 +1,174 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2020 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.pool.movers;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.dcache.util.SequentialExecutor;
+
+import static org.dcache.util.ByteUnit.KiB;
+
+/**
+ * Updates several MessageDigests concurrently.
+ *
+ * Data passed to {@link #update} is copied into one of a small number of
+ * reusable buffers and handed to one sequential task per digest. Threads are
+ * sourced from a shared executor, thus the time needed to compute all
+ * digests is that of the slowest digest rather than the sum of all of them.
+ * Once all buffers are in use, {@link #update} blocks until the slowest
+ * digest has released one, which bounds the memory used per pipeline.
+ *
+ * The class is not thread safe: calls to {@link #add}, {@link #update} and
+ * {@link #await} must be serialized by the caller.
+ */
+class DigestPipeline
+{
+    private static final int BUFFER_SIZE = KiB.toBytes(256);
+    private static final int MAX_BUFFERS = 8;
+
+    private final Executor executor;
+
+    private final List<Stage> stages = new ArrayList<>();
+
+    /** Permits correspond to buffers that are not being digested. */
+    private final Semaphore available = new Semaphore(MAX_BUFFERS);
+
+    /** Buffers that have been allocated before and are free for reuse. */
+    private final Queue<ByteBuffer> freeBuffers = new ConcurrentLinkedQueue<>();
+
+    private volatile RuntimeException failure;
+
+    private static class Stage
+    {
+        final MessageDigest digest;
+        final Executor executor;
+
+        Stage(MessageDigest digest, Executor executor)
+        {
+            this.digest = digest;
+            this.executor = executor;
+        }
+    }
+
+    DigestPipeline(Executor executor)
+    {
+        this.executor = executor;
+    }
+
+    /**
+     * Adds a digest to the pipeline. The digest is only updated with data
+     * passed to {@link #update} after this call.
+     */
+    void add(MessageDigest digest)
+    {
+        stages.add(new Stage(digest, new SequentialExecutor(executor)));
+    }
+
+    /**
+     * Submits the remaining content of {@code data} to all digests. Upon
+     * return, the buffer's position is at its limit, but the digests may not
+     * have seen the data yet.
+     *
+     * @throws InterruptedIOException if interrupted while waiting for a free
+     * buffer
+     */
+    void update(ByteBuffer data) throws InterruptedIOException
+    {
+        while (data.hasRemaining()) {
+            ByteBuffer buffer = acquire();
+
+            int length = Math.min(data.remaining(), buffer.capacity());
+            ByteBuffer chunk = data.duplicate();
+            chunk.limit(chunk.position() + length);
+            buffer.clear();
+            buffer.put(chunk).flip();
+            data.position(data.position() + length);
+
+            AtomicInteger pending = new AtomicInteger(stages.size());
+            for (Stage stage : stages) {
+                try {
+                    stage.executor.execute(() -> {
+                        try {
+                            stage.digest.update(buffer.asReadOnlyBuffer());
+                        } catch (RuntimeException e) {
+                            failure = e;
+                        } finally {
+                            if (pending.decrementAndGet() == 0) {
+                                release(buffer);
+                            }
+                        }
+                    });
+                } catch (RejectedExecutionException e) {
+                    failure = e;
+                    if (pending.decrementAndGet() == 0) {
+                        release(buffer);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Waits until all digests have been updated with all submitted data.
+     *
+     * @throws InterruptedIOException if interrupted while waiting
+     * @throws IOException if updating a digest failed
+     */
+    void await() throws IOException
+    {
+        try {
+            available.acquire(MAX_BUFFERS);
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while waiting for checksum computation.");
+        }
+        available.release(MAX_BUFFERS);
+
+        RuntimeException e = failure;
+        if (e != null) {
+            throw new IOException("Checksum computation failed: " + e, e);
+        }
+    }
+
+    private ByteBuffer acquire() throws InterruptedIOException
+    {
+        try {
+            available.acquire();
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while waiting for checksum computation.");
+        }
+        ByteBuffer buffer = freeBuffers.poll();
+        return buffer == null ? ByteBuffer.allocate(BUFFER_SIZE) : buffer;
+    }
+
+    private void release(ByteBuffer buffer)
+    {
+        freeBuffers.add(buffer);
+        available.release();
+    }
+}
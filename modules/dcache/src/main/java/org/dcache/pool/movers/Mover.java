@@ -22,6 +22,7 @@ import javax.security.auth.Subject;
 
 import java.nio.channels.CompletionHandler;
 import java.nio.file.OpenOption;
+import java.util.List;
 import java.util.Optional;
 import java.util.Set;
 
@@ -163,6 +164,15 @@ public interface Mover<T extends ProtocolInfo>
      */
     String getTransferPath();
 
+    /**
+     * Sets the token buckets limiting the bandwidth of the channel opened by
+     * this mover. Must be called before the transfer is initiated. The
+     * buckets only apply if at least one of them has a limit when the
+     * channel is opened, and are ignored by movers that serve several
+     * transfers from a shared thread.
+     */
+    void setBandwidthLimits(List<TokenBucket> buckets);
+
     /**
      * Initiates the actual transfer phase. The operation is asynchronous. Completion
      * is signaled through the <code>completionHandler</code>.
@@ -66,6 +66,13 @@ public class MoverProtocolMover extends AbstractMover<ProtocolInfo, MoverProtoco
         return _moverProtocol;
     }
 
+    @Override
+    protected boolean isThrottlingSupported()
+    {
+        /* Each mover has a thread of its own. */
+        return true;
+    }
+
     @Override
     protected String getStatus()
     {
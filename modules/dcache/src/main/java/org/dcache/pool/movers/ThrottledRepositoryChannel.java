@@ -0,0 +1,156 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2020 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.pool.movers;
+
+import com.google.common.collect.ImmutableList;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.dcache.pool.repository.ForwardingRepositoryChannel;
+import org.dcache.pool.repository.RepositoryChannel;
+
+/**
+ * A RepositoryChannel that charges all data read or written to a list of
+ * {@link TokenBucket}s.
+ *
+ * The calling thread is delayed after each operation until all buckets are
+ * out of debt, thus limiting the bandwidth of the channel to that of the
+ * most restrictive bucket. The channel must therefore only be used by
+ * threads that serve a single transfer.
+ */
+public class ThrottledRepositoryChannel extends ForwardingRepositoryChannel
+{
+    private final RepositoryChannel inner;
+    private final List<TokenBucket> buckets;
+
+    public ThrottledRepositoryChannel(RepositoryChannel inner, List<TokenBucket> buckets)
+    {
+        this.inner = inner;
+        this.buckets = ImmutableList.copyOf(buckets);
+    }
+
+    @Override
+    protected RepositoryChannel delegate()
+    {
+        return inner;
+    }
+
+    private void charge(long bytes) throws InterruptedIOException
+    {
+        if (bytes > 0) {
+            long delay = 0;
+            for (TokenBucket bucket : buckets) {
+                delay = Math.max(delay, bucket.take(bytes));
+            }
+            if (delay > 0) {
+                try {
+                    TimeUnit.NANOSECONDS.sleep(delay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while throttled");
+                }
+            }
+        }
+    }
+
+    @Override
+    public int write(ByteBuffer buffer, long position) throws IOException
+    {
+        int count = super.write(buffer, position);
+        charge(count);
+        return count;
+    }
+
+    @Override
+    public int read(ByteBuffer buffer, long position) throws IOException
+    {
+        int count = super.read(buffer, position);
+        charge(count);
+        return count;
+    }
+
+    @Override
+    public long transferTo(long position, long count, WritableByteChannel target) throws IOException
+    {
+        long transferred = super.transferTo(position, count, target);
+        charge(transferred);
+        return transferred;
+    }
+
+    @Override
+    public long transferFrom(ReadableByteChannel src, long position, long count) throws IOException
+    {
+        long transferred = super.transferFrom(src, position, count);
+        charge(transferred);
+        return transferred;
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException
+    {
+        int count = super.read(dst);
+        charge(count);
+        return count;
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException
+    {
+        int count = super.write(src);
+        charge(count);
+        return count;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException
+    {
+        long count = super.write(srcs, offset, length);
+        charge(count);
+        return count;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs) throws IOException
+    {
+        long count = super.write(srcs);
+        charge(count);
+        return count;
+    }
+
+    @Override
+    public long read(ByteBuffer[] dsts, int offset, int length) throws IOException
+    {
+        long count = super.read(dsts, offset, length);
+        charge(count);
+        return count;
+    }
+
+    @Override
+    public long read(ByteBuffer[] dsts) throws IOException
+    {
+        long count = super.read(dsts);
+        charge(count);
+        return count;
+    }
+}
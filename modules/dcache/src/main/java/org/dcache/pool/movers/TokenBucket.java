@@ -0,0 +1,133 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2020 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.pool.movers;
+
+import javax.annotation.concurrent.GuardedBy;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A token bucket limiting the rate at which bytes are transferred.
+ *
+ * The bucket is refilled at the configured rate and holds at most one
+ * second worth of tokens, which allows short bursts after idle periods.
+ * Transfers take tokens after the fact and may leave the bucket in debt; a
+ * caller is told how long to wait for the debt to be paid off before it
+ * continues. The rate may be changed at any time. A rate of zero disables
+ * the limit, but the bucket keeps measuring the throughput.
+ */
+public class TokenBucket
+{
+    private static final long WINDOW = TimeUnit.SECONDS.toNanos(1);
+
+    @GuardedBy("this")
+    private long rate;
+
+    @GuardedBy("this")
+    private double tokens;
+
+    @GuardedBy("this")
+    private long lastRefill = System.nanoTime();
+
+    @GuardedBy("this")
+    private long windowStart = lastRefill;
+
+    @GuardedBy("this")
+    private long windowBytes;
+
+    @GuardedBy("this")
+    private long lastWindowBytes;
+
+    @GuardedBy("this")
+    private long total;
+
+    /**
+     * @param rate limit in bytes per second, or zero for no limit
+     */
+    public TokenBucket(long rate)
+    {
+        setRate(rate);
+    }
+
+    /**
+     * Sets the limit in bytes per second, or zero for no limit.
+     */
+    public synchronized void setRate(long rate)
+    {
+        checkArgument(rate >= 0, "Rate must not be negative");
+        this.rate = rate;
+        this.tokens = Math.min(tokens, rate);
+    }
+
+    public synchronized long getRate()
+    {
+        return rate;
+    }
+
+    /**
+     * Takes tokens for bytes that were transferred and returns the number
+     * of nanoseconds the caller has to wait before the next transfer.
+     */
+    public synchronized long take(long bytes)
+    {
+        long now = System.nanoTime();
+        roll(now);
+        windowBytes += bytes;
+        total += bytes;
+
+        if (rate == 0) {
+            lastRefill = now;
+            return 0;
+        }
+
+        tokens = Math.min(rate, tokens + (now - lastRefill) * (double) rate / WINDOW);
+        lastRefill = now;
+        tokens -= bytes;
+        return tokens >= 0 ? 0 : (long) (-tokens * WINDOW / rate);
+    }
+
+    @GuardedBy("this")
+    private void roll(long now)
+    {
+        long elapsed = now - windowStart;
+        if (elapsed >= WINDOW) {
+            lastWindowBytes = elapsed < 2 * WINDOW ? windowBytes : 0;
+            windowBytes = 0;
+            windowStart = now - elapsed % WINDOW;
+        }
+    }
+
+    /**
+     * Returns the number of bytes transferred during the last second.
+     */
+    public synchronized long getThroughput()
+    {
+        roll(System.nanoTime());
+        return lastWindowBytes;
+    }
+
+    /**
+     * Returns the total number of bytes transferred.
+     */
+    public synchronized long getTotal()
+    {
+        return total;
+    }
+}
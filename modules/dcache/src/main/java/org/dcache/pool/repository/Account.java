@@ -19,6 +19,7 @@ public class Account
     private long _precious;
     private long _removable;
     private long _requested;
+    private long _deleting;
     private long _timeOfLastFree;
 
     public synchronized long getTotal()
@@ -51,6 +52,16 @@ public class Account
         return _requested;
     }
 
+    /**
+     * Returns the space of replicas that have been removed, but that have
+     * not yet been deleted. The space is still accounted as used and
+     * becomes free once the replicas have been deleted.
+     */
+    public synchronized long getDeleting()
+    {
+        return _deleting;
+    }
+
     public synchronized long getTimeOfLastFree()
     {
         return _timeOfLastFree;
@@ -96,7 +107,7 @@ public class Account
         }
         _requested += request;
         try {
-            while (request > getFree() && request <= getFree() + getRemovable()) {
+            while (request > getFree() && request <= getFree() + getRemovable() + getDeleting()) {
                 notifyAll();
                 wait();
             }
@@ -187,6 +198,16 @@ public class Account
         notifyAll();
     }
 
+    public synchronized void adjustDeleting(PnfsId id, long delta)
+    {
+        long deleting = _deleting + delta;
+        if (deleting < 0) {
+            throw new IllegalArgumentException("Negative space pending deletion is not allowed.");
+        }
+        _deleting = deleting;
+        notifyAll();
+    }
+
     public synchronized SpaceRecord getSpaceRecord()
     {
         return new SpaceRecord(_total, getFree(), _precious, _removable, 0);
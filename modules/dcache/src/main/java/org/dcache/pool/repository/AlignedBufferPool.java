@@ -0,0 +1,108 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2020 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.pool.repository;
+
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import dmg.cells.nucleus.CellInfoProvider;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A bounded pool of direct buffers whose addresses are aligned as required
+ * for direct IO. Buffers are allocated on demand until the memory limit is
+ * reached and are reused afterwards.
+ */
+public class AlignedBufferPool implements CellInfoProvider
+{
+    /**
+     * Alignment of the buffers in bytes. Sufficient for file systems with a
+     * logical block size of up to a page.
+     */
+    public static final int ALIGNMENT = 4096;
+
+    private final int bufferSize;
+    private final int maxBuffers;
+
+    private final Queue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger allocated = new AtomicInteger();
+    private final AtomicInteger inUse = new AtomicInteger();
+    private final LongAdder exhausted = new LongAdder();
+
+    /**
+     * @param bufferSize size of each buffer in bytes; must be a multiple of
+     * {@link #ALIGNMENT}
+     * @param maxMemory upper limit of memory used by all buffers in bytes
+     */
+    public AlignedBufferPool(int bufferSize, long maxMemory)
+    {
+        checkArgument(bufferSize > 0 && bufferSize % ALIGNMENT == 0,
+                      "Buffer size must be a positive multiple of %s", ALIGNMENT);
+        checkArgument(maxMemory >= 0, "Memory limit must not be negative");
+        this.bufferSize = bufferSize;
+        this.maxBuffers = (int) Math.min(Integer.MAX_VALUE, maxMemory / bufferSize);
+    }
+
+    public int getBufferSize()
+    {
+        return bufferSize;
+    }
+
+    /**
+     * Returns a cleared, aligned buffer or null if the memory limit has been
+     * reached.
+     */
+    public ByteBuffer tryAcquire()
+    {
+        ByteBuffer buffer = free.poll();
+        if (buffer == null) {
+            int count;
+            do {
+                count = allocated.get();
+                if (count >= maxBuffers) {
+                    exhausted.increment();
+                    return null;
+                }
+            } while (!allocated.compareAndSet(count, count + 1));
+            buffer = ByteBuffer.allocateDirect(bufferSize + ALIGNMENT - 1).alignedSlice(ALIGNMENT);
+        }
+        inUse.incrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    public void release(ByteBuffer buffer)
+    {
+        inUse.decrementAndGet();
+        free.add(buffer);
+    }
+
+    @Override
+    public void getInfo(PrintWriter pw)
+    {
+        pw.println("Direct IO buffers");
+        pw.println("    Buffers in use: " + inUse.get() + " of " + maxBuffers
+                + " (" + bufferSize + " bytes each, " + allocated.get() + " allocated)");
+        pw.println("    Pool exhausted: " + exhausted.sum());
+    }
+}
@@ -0,0 +1,267 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2020 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.pool.repository;
+
+import javax.annotation.concurrent.GuardedBy;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A {@link FileRepositoryChannel} that batches concurrent positional reads
+ * and writes.
+ *
+ * Movers such as NFS and xrootd issue many small positional reads and writes
+ * on the same file from different threads. Up to {@link #MAX_BATCHES}
+ * threads issue their requests directly. Requests that arrive while that
+ * many batches are in progress are queued, and the next thread to find a
+ * free slot processes all queued requests as one batch: requests for
+ * adjacent ranges are merged into a single read or write through a direct
+ * buffer taken from a shared pool. Thus a lightly used channel adds no
+ * latency and does not serialize requests, while a busy channel issues
+ * fewer, larger system calls.
+ *
+ * Merge buffers are only held while a batch is processed. If the pool is
+ * exhausted, the requests of a batch are issued one at a time.
+ *
+ * All other operations are passed to the file channel directly.
+ */
+public class BatchingFileRepositoryChannel extends FileRepositoryChannel
+{
+    /**
+     * Maximum number of batches processed concurrently on one channel.
+     */
+    private static final int MAX_BATCHES = 4;
+
+    private static final Comparator<Request> BY_POSITION =
+            Comparator.comparingLong(r -> r.position);
+
+    private static class Request
+    {
+        final ByteBuffer buffer;
+        final long position;
+        final int length;
+        int result;
+        IOException error;
+        boolean isDone;
+
+        Request(ByteBuffer buffer, long position)
+        {
+            this.buffer = buffer;
+            this.position = position;
+            this.length = buffer.remaining();
+        }
+
+        long end()
+        {
+            return position + length;
+        }
+    }
+
+    private final AlignedBufferPool _bufferPool;
+
+    private final Object _lock = new Object();
+
+    @GuardedBy("_lock")
+    private final List<Request> _reads = new ArrayList<>();
+
+    @GuardedBy("_lock")
+    private final List<Request> _writes = new ArrayList<>();
+
+    @GuardedBy("_lock")
+    private int _batches;
+
+    /**
+     * @param bufferPool pool of buffers used for merging requests; the buffer
+     * size limits the size of a merged request. If null, requests are not
+     * merged.
+     */
+    public BatchingFileRepositoryChannel(Path path, Set<? extends OpenOption> openOptions,
+                                         AlignedBufferPool bufferPool)
+            throws FileNotFoundException, IOException
+    {
+        super(path, openOptions);
+        _bufferPool = bufferPool;
+    }
+
+    @Override
+    public int read(ByteBuffer buffer, long position) throws IOException
+    {
+        if (position < 0) {
+            throw new IllegalArgumentException("Negative position");
+        }
+        return submit(_reads, new Request(buffer, position));
+    }
+
+    @Override
+    public int write(ByteBuffer buffer, long position) throws IOException
+    {
+        if (position < 0) {
+            throw new IllegalArgumentException("Negative position");
+        }
+        return submit(_writes, new Request(buffer, position));
+    }
+
+    private int submit(List<Request> queue, Request request) throws IOException
+    {
+        List<Request> writes;
+        List<Request> reads;
+        boolean isInterrupted = false;
+        synchronized (_lock) {
+            queue.add(request);
+            while (_batches >= MAX_BATCHES && !request.isDone) {
+                try {
+                    _lock.wait();
+                } catch (InterruptedException e) {
+                    /* The request may be processed at any time, thus we cannot
+                     * return before it has been processed.
+                     */
+                    isInterrupted = true;
+                }
+            }
+            if (!request.isDone) {
+                _batches++;
+                writes = new ArrayList<>(_writes);
+                reads = new ArrayList<>(_reads);
+                _writes.clear();
+                _reads.clear();
+            } else {
+                writes = null;
+                reads = null;
+            }
+        }
+
+        if (writes != null) {
+            ByteBuffer buffer = (_bufferPool != null && writes.size() + reads.size() > 1)
+                    ? _bufferPool.tryAcquire() : null;
+            try {
+                /* Writes first, so reads of a batch observe concurrent writes. */
+                process(writes, true, buffer);
+                process(reads, false, buffer);
+            } finally {
+                if (buffer != null) {
+                    _bufferPool.release(buffer);
+                }
+                synchronized (_lock) {
+                    _batches--;
+                    writes.forEach(r -> r.isDone = true);
+                    reads.forEach(r -> r.isDone = true);
+                    _lock.notifyAll();
+                }
+            }
+        }
+
+        if (isInterrupted) {
+            Thread.currentThread().interrupt();
+        }
+        if (request.error != null) {
+            throw request.error;
+        }
+        return request.result;
+    }
+
+    /**
+     * Processes the requests of a batch. Requests for adjacent ranges are
+     * merged through {@code buffer}, unless it is null.
+     */
+    private void process(List<Request> requests, boolean isWrite, ByteBuffer buffer)
+    {
+        requests.sort(BY_POSITION);
+        int maxMergedSize = (buffer == null) ? 0 : buffer.capacity();
+        int first = 0;
+        while (first < requests.size()) {
+            Request start = requests.get(first);
+            long end = start.end();
+            int last = first;
+            while (last + 1 < requests.size()) {
+                Request next = requests.get(last + 1);
+                if (next.position != end || next.end() - start.position > maxMergedSize) {
+                    break;
+                }
+                end = next.end();
+                last++;
+            }
+
+            List<Request> group = requests.subList(first, last + 1);
+            try {
+                if (group.size() == 1) {
+                    start.result = isWrite
+                            ? super.write(start.buffer, start.position)
+                            : super.read(start.buffer, start.position);
+                } else if (isWrite) {
+                    writeMerged(group, start.position, (int) (end - start.position), buffer);
+                } else {
+                    readMerged(group, start.position, (int) (end - start.position), buffer);
+                }
+            } catch (IOException e) {
+                group.forEach(r -> r.error = e);
+            } catch (RuntimeException e) {
+                group.forEach(r -> r.error = new IOException(e.getMessage(), e));
+            }
+            first = last + 1;
+        }
+    }
+
+    private void writeMerged(List<Request> group, long position, int length, ByteBuffer buffer)
+            throws IOException
+    {
+        buffer.clear().limit(length);
+        for (Request request : group) {
+            buffer.put(request.buffer.duplicate());
+        }
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            super.write(buffer, position + buffer.position());
+        }
+        for (Request request : group) {
+            request.buffer.position(request.buffer.limit());
+            request.result = request.length;
+        }
+    }
+
+    private void readMerged(List<Request> group, long position, int length, ByteBuffer buffer)
+            throws IOException
+    {
+        buffer.clear().limit(length);
+        while (buffer.hasRemaining()) {
+            if (super.read(buffer, position + buffer.position()) < 0) {
+                break;
+            }
+        }
+        int available = buffer.position();
+        for (Request request : group) {
+            int offset = (int) (request.position - position);
+            int count = Math.max(0, Math.min(request.length, available - offset));
+            if (count == 0 && request.length > 0) {
+                request.result = -1;
+            } else {
+                ByteBuffer data = buffer.duplicate();
+                data.position(offset).limit(offset + count);
+                request.buffer.put(data);
+                request.result = count;
+            }
+        }
+    }
+}
@@ -7,6 +7,7 @@ import org.slf4j.LoggerFactory;
 import java.io.IOException;
 import java.nio.file.OpenOption;
 import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
@@ -307,6 +308,15 @@ public class ConsistentReplicaStore
         _replicaStore.remove(id);
     }
 
+    /**
+     * Calls through to the wrapped meta data store.
+     */
+    @Override
+    public void remove(Collection<PnfsId> ids) throws CacheException
+    {
+        _replicaStore.remove(ids);
+    }
+
     /**
      * Calls through to the wrapped meta data store.
      */
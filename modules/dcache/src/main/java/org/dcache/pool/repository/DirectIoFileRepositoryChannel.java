@@ -0,0 +1,360 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2020 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.pool.repository;
+
+import com.sun.nio.file.ExtendedOpenOption;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.annotation.concurrent.GuardedBy;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.SyncFailedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Set;
+
+/**
+ * A {@link FileRepositoryChannel} that writes sequential data with direct IO,
+ * bypassing the page cache of the operating system.
+ *
+ * Positional writes continuing the previous write are collected in an
+ * aligned buffer. Whenever the buffer fills up, its content is written
+ * through a second file descriptor opened with {@code O_DIRECT}. Direct IO
+ * requires offsets and lengths to be multiples of the logical block size of
+ * the file system, hence an incomplete trailing block is kept in the buffer
+ * to be completed by the next write. Before any other operation, and for
+ * writes that are not sequential, the buffer is flushed and any incomplete
+ * block is written through the page cache.
+ *
+ * If the file system does not support direct IO or no buffer is available,
+ * the channel behaves like a plain {@link FileRepositoryChannel}.
+ */
+public class DirectIoFileRepositoryChannel extends FileRepositoryChannel
+{
+    private static final Logger LOGGER =
+            LoggerFactory.getLogger(DirectIoFileRepositoryChannel.class);
+
+    private final AlignedBufferPool _pool;
+
+    /**
+     * Channel opened for direct IO, or null if direct IO is not used.
+     */
+    private final FileChannel _direct;
+
+    /**
+     * Logical block size of the file system.
+     */
+    private final int _blockSize;
+
+    /**
+     * Data to be written. The content between zero and position belongs to
+     * the file starting at _bufferStart, which is block aligned.
+     */
+    @GuardedBy("this")
+    private ByteBuffer _buffer;
+
+    @GuardedBy("this")
+    private long _bufferStart;
+
+    /**
+     * Position following the last write. Starts at the end of the file, such
+     * that writing a new file or appending to an existing one is sequential
+     * from the first write.
+     */
+    @GuardedBy("this")
+    private long _nextWrite;
+
+    public DirectIoFileRepositoryChannel(Path path, Set<? extends OpenOption> openOptions,
+            AlignedBufferPool pool) throws FileNotFoundException, IOException
+    {
+        super(path, openOptions);
+        _pool = pool;
+        _direct = openOptions.contains(StandardOpenOption.WRITE) ? openDirect(path, pool) : null;
+        _blockSize = _direct == null ? 0 : (int) Files.getFileStore(path).getBlockSize();
+        _nextWrite = _direct == null ? 0 : _direct.size();
+    }
+
+    private static FileChannel openDirect(Path path, AlignedBufferPool pool)
+    {
+        try {
+            long blockSize = Files.getFileStore(path).getBlockSize();
+            if (AlignedBufferPool.ALIGNMENT % blockSize != 0
+                    || pool.getBufferSize() % blockSize != 0) {
+                LOGGER.debug("Direct IO not used for {}: unsupported block size {}",
+                             path, blockSize);
+                return null;
+            }
+            return FileChannel.open(path, StandardOpenOption.WRITE, ExtendedOpenOption.DIRECT);
+        } catch (IOException | UnsupportedOperationException e) {
+            LOGGER.debug("Direct IO not supported for {}: {}", path, e.toString());
+            return null;
+        }
+    }
+
+    @Override
+    public synchronized int write(ByteBuffer buffer, long position) throws IOException
+    {
+        if (_direct == null) {
+            return super.write(buffer, position);
+        }
+
+        boolean isSequential = position == _nextWrite;
+        _nextWrite = position + buffer.remaining();
+
+        if (_buffer == null || position != _bufferStart + _buffer.position()) {
+            discard();
+            if (!isSequential || !restart(position)) {
+                return super.write(buffer, position);
+            }
+        }
+
+        int length = buffer.remaining();
+        try {
+            while (buffer.hasRemaining()) {
+                ByteBuffer chunk = buffer.duplicate();
+                chunk.limit(chunk.position() + Math.min(chunk.remaining(), _buffer.remaining()));
+                _buffer.put(chunk);
+                buffer.position(chunk.position());
+                if (!_buffer.hasRemaining()) {
+                    flush(false);
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            release();
+            throw e;
+        }
+        return length;
+    }
+
+    /**
+     * Starts collecting data for direct IO at the given position. Returns
+     * false if no buffer is available.
+     */
+    @GuardedBy("this")
+    private boolean restart(long position) throws IOException
+    {
+        _buffer = _pool.tryAcquire();
+        if (_buffer == null) {
+            return false;
+        }
+
+        /* Direct IO has to start at a block boundary, hence the beginning of
+         * the block is read back from the file.
+         */
+        _bufferStart = position - position % _blockSize;
+        _buffer.limit((int) (position - _bufferStart));
+        try {
+            while (_buffer.hasRemaining()) {
+                if (super.read(_buffer, _bufferStart + _buffer.position()) < 0) {
+                    while (_buffer.hasRemaining()) {
+                        _buffer.put((byte) 0);
+                    }
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            release();
+            throw e;
+        }
+        _buffer.limit(_buffer.capacity());
+        return true;
+    }
+
+    /**
+     * Writes all complete blocks of the buffer with direct IO. If
+     * {@code isComplete} is true, the remaining incomplete block is written
+     * through the page cache. In either case the incomplete block is kept in
+     * the buffer.
+     */
+    @GuardedBy("this")
+    private void flush(boolean isComplete) throws IOException
+    {
+        int length = _buffer.position();
+        int aligned = length - length % _blockSize;
+
+        ByteBuffer data = _buffer.duplicate();
+        data.flip().limit(aligned);
+        while (data.hasRemaining()) {
+            _direct.write(data, _bufferStart + data.position());
+        }
+
+        if (isComplete && aligned < length) {
+            data.limit(length);
+            while (data.hasRemaining()) {
+                super.write(data, _bufferStart + data.position());
+            }
+        }
+
+        _buffer.flip().position(aligned);
+        _buffer.compact();
+        _bufferStart += aligned;
+    }
+
+    /**
+     * Writes any buffered data to the file. Afterwards the file reflects all
+     * writes to this channel.
+     */
+    @GuardedBy("this")
+    private void flush() throws IOException
+    {
+        if (_buffer != null) {
+            try {
+                flush(true);
+            } catch (IOException | RuntimeException e) {
+                release();
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * Writes any buffered data to the file and returns the buffer to the
+     * pool.
+     */
+    @GuardedBy("this")
+    private void discard() throws IOException
+    {
+        try {
+            flush();
+        } finally {
+            release();
+        }
+    }
+
+    @GuardedBy("this")
+    private void release()
+    {
+        if (_buffer != null) {
+            _pool.release(_buffer);
+            _buffer = null;
+        }
+    }
+
+    @Override
+    public int read(ByteBuffer buffer, long position) throws IOException
+    {
+        synchronized (this) {
+            if (_buffer != null && position + buffer.remaining() > _bufferStart) {
+                flush();
+            }
+        }
+        return super.read(buffer, position);
+    }
+
+    @Override
+    public synchronized int read(ByteBuffer dst) throws IOException
+    {
+        flush();
+        return super.read(dst);
+    }
+
+    @Override
+    public synchronized long read(ByteBuffer[] dsts, int offset, int length) throws IOException
+    {
+        flush();
+        return super.read(dsts, offset, length);
+    }
+
+    @Override
+    public synchronized long read(ByteBuffer[] dsts) throws IOException
+    {
+        flush();
+        return super.read(dsts);
+    }
+
+    @Override
+    public synchronized int write(ByteBuffer src) throws IOException
+    {
+        discard();
+        return super.write(src);
+    }
+
+    @Override
+    public synchronized long write(ByteBuffer[] srcs, int offset, int length) throws IOException
+    {
+        discard();
+        return super.write(srcs, offset, length);
+    }
+
+    @Override
+    public synchronized long write(ByteBuffer[] srcs) throws IOException
+    {
+        discard();
+        return super.write(srcs);
+    }
+
+    @Override
+    public synchronized long size() throws IOException
+    {
+        long size = super.size();
+        return _buffer == null ? size : Math.max(size, _bufferStart + _buffer.position());
+    }
+
+    @Override
+    public synchronized void sync() throws SyncFailedException, IOException
+    {
+        flush();
+        super.sync();
+    }
+
+    @Override
+    public synchronized RepositoryChannel truncate(long size) throws IOException
+    {
+        discard();
+        return super.truncate(size);
+    }
+
+    @Override
+    public synchronized long transferTo(long position, long count, WritableByteChannel target)
+            throws IOException
+    {
+        flush();
+        return super.transferTo(position, count, target);
+    }
+
+    @Override
+    public synchronized long transferFrom(ReadableByteChannel src, long position, long count)
+            throws IOException
+    {
+        discard();
+        return super.transferFrom(src, position, count);
+    }
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        try {
+            discard();
+        } finally {
+            try {
+                if (_direct != null) {
+                    _direct.close();
+                }
+            } finally {
+                super.close();
+            }
+        }
+    }
+}
@@ -72,7 +72,7 @@ class DummyFileStore implements FileStore
 
     @Override
     public boolean contains(PnfsId id) {
-        return true;
+        return Files.exists(file);
     }
 
     @Override
@@ -0,0 +1,121 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2020 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.pool.repository;
+
+import com.sun.jna.LastErrorException;
+import com.sun.jna.Library;
+import com.sun.jna.Native;
+import com.sun.jna.Platform;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.function.IntConsumer;
+
+/**
+ * Access to the Linux fallocate system call, which Java does not expose.
+ *
+ * Space is reserved without changing the size of the file, so readers
+ * and the space accounting of the pool never see the reserved space.
+ */
+final class Fallocate
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(Fallocate.class);
+
+    private static final int O_WRONLY = 01;
+    private static final int O_CLOEXEC = 02000000;
+
+    private static final int FALLOC_FL_KEEP_SIZE = 0x01;
+
+    private interface LibC extends Library
+    {
+        int open(String path, int flags) throws LastErrorException;
+
+        int fallocate(int fd, int mode, long offset, long length) throws LastErrorException;
+
+        int ftruncate(int fd, long length) throws LastErrorException;
+
+        int close(int fd) throws LastErrorException;
+    }
+
+    private static final LibC LIBC = load();
+
+    private Fallocate()
+    {
+    }
+
+    private static LibC load()
+    {
+        /* fallocate is Linux specific and off_t is mapped to a Java long. */
+        if (!Platform.isLinux() || Native.LONG_SIZE != 8) {
+            return null;
+        }
+        try {
+            return Native.load("c", LibC.class);
+        } catch (UnsatisfiedLinkError e) {
+            LOGGER.warn("Space preallocation is not available: {}", e.getMessage());
+            return null;
+        }
+    }
+
+    static boolean isSupported()
+    {
+        return LIBC != null;
+    }
+
+    /**
+     * Reserves disk space for the first {@code length} bytes of a file.
+     */
+    static void reserve(Path path, long length) throws IOException
+    {
+        fallocate(path, FALLOC_FL_KEEP_SIZE, 0, length);
+    }
+
+    /**
+     * Releases disk space reserved beyond the end of a file. Truncating a
+     * file to its current size releases such space on Linux, whereas
+     * Java's FileChannel#truncate does nothing in that case.
+     */
+    static void trim(Path path, long length) throws IOException
+    {
+        withFileDescriptor(path, "ftruncate", fd -> LIBC.ftruncate(fd, length));
+    }
+
+    private static void fallocate(Path path, int mode, long offset, long length) throws IOException
+    {
+        withFileDescriptor(path, "fallocate", fd -> LIBC.fallocate(fd, mode, offset, length));
+    }
+
+    private static void withFileDescriptor(Path path, String call, IntConsumer operation) throws IOException
+    {
+        if (LIBC == null) {
+            throw new UnsupportedOperationException(call + " is not supported");
+        }
+        try {
+            int fd = LIBC.open(path.toString(), O_WRONLY | O_CLOEXEC);
+            try {
+                operation.accept(fd);
+            } finally {
+                LIBC.close(fd);
+            }
+        } catch (LastErrorException e) {
+            throw new IOException(call + " failed on " + path + ": errno " + e.getErrorCode(), e);
+        }
+    }
+}
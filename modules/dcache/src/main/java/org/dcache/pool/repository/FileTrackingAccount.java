@@ -120,17 +120,19 @@ public class FileTrackingAccount extends Account
         private final long used;
         private final long precious;
         private final long removable;
+        private final long deleting;
 
         public FileSpaceUsage(PnfsId id)
         {
-            this(0L, 0L, 0L);
+            this(0L, 0L, 0L, 0L);
         }
 
-        private FileSpaceUsage(long used, long precious, long removable)
+        private FileSpaceUsage(long used, long precious, long removable, long deleting)
         {
             this.used = used;
             this.precious = precious;
             this.removable = removable;
+            this.deleting = deleting;
         }
 
         private void checkChange(PnfsId id, long newValue, long delta, String name)
@@ -179,26 +181,33 @@ public class FileTrackingAccount extends Account
         {
             long newUsed = used + delta;
             checkChange(id, newUsed, delta, "used");
-            return new FileSpaceUsage(newUsed, precious, removable);
+            return new FileSpaceUsage(newUsed, precious, removable, deleting);
         }
 
         public FileSpaceUsage withAdjustPrecious(PnfsId id, long delta)
         {
             long newPrecious = precious + delta;
             checkChange(id, newPrecious, delta, "precious");
-            return new FileSpaceUsage(used, newPrecious, removable);
+            return new FileSpaceUsage(used, newPrecious, removable, deleting);
         }
 
         public FileSpaceUsage withAdjustRemovable(PnfsId id, long delta)
         {
             long newRemovable = removable + delta;
             checkChange(id, newRemovable, delta, "removable");
-            return new FileSpaceUsage(used, precious, newRemovable);
+            return new FileSpaceUsage(used, precious, newRemovable, deleting);
+        }
+
+        public FileSpaceUsage withAdjustDeleting(PnfsId id, long delta)
+        {
+            long newDeleting = deleting + delta;
+            checkChange(id, newDeleting, delta, "deleting");
+            return new FileSpaceUsage(used, precious, removable, newDeleting);
         }
 
         public boolean isEmpty()
         {
-            return used <= 0 && precious <= 0 && removable <= 0;
+            return used <= 0 && precious <= 0 && removable <= 0 && deleting <= 0;
         }
 
         @Override
@@ -206,7 +215,8 @@ public class FileTrackingAccount extends Account
         {
             return "[used " + Strings.describeSize(used)
                     + ", precious " + Strings.describeSize(precious)
-                    + ", removable " + Strings.describeSize(removable) + "]";
+                    + ", removable " + Strings.describeSize(removable)
+                    + ", deleting " + Strings.describeSize(deleting) + "]";
         }
     }
 
@@ -298,6 +308,14 @@ public class FileTrackingAccount extends Account
         storeFileUsage(id, newUsage);
     }
 
+    private void adjustFileDeleting(PnfsId id, long delta)
+    {
+        FileSpaceUsage oldUsage = _fileSizes.computeIfAbsent(id, FileSpaceUsage::new);
+        logEvent(id, getStacktrace(), "deleting", delta, oldUsage.deleting + delta);
+        FileSpaceUsage newUsage = oldUsage.withAdjustDeleting(id, delta);
+        storeFileUsage(id, newUsage);
+    }
+
     private void logEvent(PnfsId id, List<StackTraceElement> stacktrace,
             String name, long delta, long newValue)
     {
@@ -350,4 +368,11 @@ public class FileTrackingAccount extends Account
         super.adjustPrecious(id, delta);
         adjustFilePrecious(id, delta);
     }
+
+    @Override
+    public synchronized void adjustDeleting(PnfsId id, long delta)
+    {
+        super.adjustDeleting(id, delta);
+        adjustFileDeleting(id, delta);
+    }
 }
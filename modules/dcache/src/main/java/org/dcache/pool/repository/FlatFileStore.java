@@ -5,6 +5,7 @@ import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.OpenOption;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.nio.file.attribute.BasicFileAttributeView;
 import java.net.URI;
 import java.util.Set;
@@ -22,6 +23,16 @@ public class FlatFileStore implements FileStore
 {
     private final Path _dataDir;
 
+    private boolean _isBatchedIo;
+
+    private AlignedBufferPool _batchedIoBufferPool;
+
+    private boolean _isDirectIo;
+
+    private AlignedBufferPool _directIoBufferPool;
+
+    private boolean _isPreallocation;
+
     public FlatFileStore(Path baseDir) throws IOException
     {
         if (!Files.isDirectory(baseDir)) {
@@ -36,6 +47,48 @@ public class FlatFileStore implements FileStore
         }
     }
 
+    /**
+     * Enables batching of concurrent positional reads and writes on the same
+     * file.
+     *
+     * @see BatchingFileRepositoryChannel
+     */
+    public void setBatchedIo(boolean isBatchedIo)
+    {
+        _isBatchedIo = isBatchedIo;
+    }
+
+    public void setBatchedIoBufferPool(AlignedBufferPool pool)
+    {
+        _batchedIoBufferPool = pool;
+    }
+
+    /**
+     * Enables direct IO for sequential writes, bypassing the page cache.
+     *
+     * @see DirectIoFileRepositoryChannel
+     */
+    public void setDirectIo(boolean isDirectIo)
+    {
+        _isDirectIo = isDirectIo;
+    }
+
+    /**
+     * Enables reserving the disk space of new files of known size before
+     * they are written.
+     *
+     * @see PreallocatingRepositoryChannel
+     */
+    public void setPreallocation(boolean isPreallocation)
+    {
+        _isPreallocation = isPreallocation && PreallocatingRepositoryChannel.isSupported();
+    }
+
+    public void setDirectIoBufferPool(AlignedBufferPool pool)
+    {
+        _directIoBufferPool = pool;
+    }
+
     /**
      * Returns a human readable description of the file store.
      */
@@ -75,7 +128,20 @@ public class FlatFileStore implements FileStore
 
     @Override
     public RepositoryChannel openDataChannel(PnfsId id, Set<? extends OpenOption> mode) throws IOException {
-        return new FileRepositoryChannel(getPath(id), mode);
+        long expectedSize = SizeHint.getSize(mode);
+        mode = SizeHint.remove(mode);
+        RepositoryChannel channel;
+        if (_isDirectIo && mode.contains(StandardOpenOption.WRITE)) {
+            channel = new DirectIoFileRepositoryChannel(getPath(id), mode, _directIoBufferPool);
+        } else if (_isBatchedIo) {
+            channel = new BatchingFileRepositoryChannel(getPath(id), mode, _batchedIoBufferPool);
+        } else {
+            channel = new FileRepositoryChannel(getPath(id), mode);
+        }
+        if (_isPreallocation && expectedSize > 0 && mode.contains(StandardOpenOption.WRITE)) {
+            channel = new PreallocatingRepositoryChannel(channel, getPath(id), expectedSize);
+        }
+        return channel;
     }
 
     @Override
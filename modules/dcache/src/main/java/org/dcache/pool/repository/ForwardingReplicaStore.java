@@ -18,6 +18,7 @@
 package org.dcache.pool.repository;
 
 import java.nio.file.OpenOption;
+import java.util.Collection;
 import java.util.Set;
 
 import diskCacheV111.util.CacheException;
@@ -65,6 +66,12 @@ public abstract class ForwardingReplicaStore implements ReplicaStore
         delegate().remove(id);
     }
 
+    @Override
+    public void remove(Collection<PnfsId> ids) throws CacheException
+    {
+        delegate().remove(ids);
+    }
+
     @Override
     public boolean isOk()
     {
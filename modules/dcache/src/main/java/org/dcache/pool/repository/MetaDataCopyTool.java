@@ -7,9 +7,17 @@ import java.lang.reflect.Constructor;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.file.FileSystems;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.EnumSet;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import diskCacheV111.util.CacheException;
 import diskCacheV111.util.PnfsId;
 
 public class MetaDataCopyTool
@@ -17,6 +25,8 @@ public class MetaDataCopyTool
     private static final Logger _log =
         LoggerFactory.getLogger(MetaDataCopyTool.class);
 
+    private static final int COPY_THREADS = 16;
+
     static ReplicaStore createStore(Class<? extends ReplicaStore> clazz,
                                     FileStore fileStore, Path poolDir,
                                     String poolName, boolean readOnly)
@@ -28,6 +38,29 @@ public class MetaDataCopyTool
         return constructor.newInstance(fileStore, poolDir, poolName, readOnly);
     }
 
+    private static void copy(ReplicaStore fromStore, ReplicaStore toStore, PnfsId id)
+            throws CacheException
+    {
+        ReplicaRecord entry = fromStore.get(id);
+        if (entry == null) {
+            System.err.println("Failed to load " + id);
+            System.exit(1);
+        }
+        toStore.create(id, EnumSet.noneOf(Repository.OpenFlags.class)).update(
+                "copying existing entry", r -> {
+                    /* NOTE: We do not copy the last access time, as this is currently stored
+                     * as the last modification time on the data file. If we at some point move
+                     * the last access time into the meta data, this has to be updated here.
+                     */
+                    r.setFileAttributes(entry.getFileAttributes());
+                    r.setState(entry.getState());
+                    for (StickyRecord s : entry.stickyRecords()) {
+                        r.setSticky(s.owner(), s.expire(), true);
+                    }
+                    return null;
+                });
+    }
+
     public static void main(String[] args)
         throws Exception
     {
@@ -58,28 +91,29 @@ public class MetaDataCopyTool
 
             Collection<PnfsId> ids = fromStore.index(ReplicaStore.IndexOption.META_ONLY);
             int size = ids.size();
-            int count = 1;
-            for (PnfsId id : ids) {
-                _log.info("Copying {} ({} of {})", id, count, size);
-                ReplicaRecord entry = fromStore.get(id);
-                if (entry == null) {
-                    System.err.println("Failed to load " + id);
-                    System.exit(1);
+            AtomicInteger count = new AtomicInteger();
+
+            /* Entries are copied concurrently, allowing stores that commit concurrent
+             * updates together to amortize the cost of syncing to disk.
+             */
+            ExecutorService executor = Executors.newFixedThreadPool(COPY_THREADS);
+            try {
+                List<Future<?>> futures = new ArrayList<>(size);
+                for (PnfsId id : ids) {
+                    futures.add(executor.submit(() -> {
+                        _log.info("Copying {} ({} of {})", id, count.incrementAndGet(), size);
+                        copy(fromStore, toStore, id);
+                        return null;
+                    }));
                 }
-                toStore.create(id, EnumSet.noneOf(Repository.OpenFlags.class)).update(
-                        "copying existing entry", r -> {
-                            /* NOTE: We do not copy the last access time, as this is currently stored
-                             * as the last modification time on the data file. If we at some point move
-                             * the last access time into the meta data, this has to be updated here.
-                             */
-                            r.setState(entry.getState());
-                            for (StickyRecord s : entry.stickyRecords()) {
-                                r.setSticky(s.owner(), s.expire(), true);
-                            }
-                            r.setFileAttributes(entry.getFileAttributes());
-                            return null;
-                        });
-                count++;
+                for (Future<?> future : futures) {
+                    future.get();
+                }
+            } catch (ExecutionException e) {
+                System.err.println("Failed to copy meta data: " + e.getCause());
+                System.exit(1);
+            } finally {
+                executor.shutdownNow();
             }
         }
     }
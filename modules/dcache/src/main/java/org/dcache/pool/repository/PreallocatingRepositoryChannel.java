@@ -0,0 +1,87 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2020 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.pool.repository;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * A RepositoryChannel for writing a file of known size that reserves the
+ * disk space of the file when opened.
+ *
+ * Reserving the space up front allows the file system to allocate the file
+ * in few contiguous extents, even when many files are written concurrently,
+ * thus reducing fragmentation and improving later sequential reads. Space
+ * reserved beyond the end of the file, e.g. because the transfer failed, is
+ * released when the channel is closed.
+ */
+public class PreallocatingRepositoryChannel extends ForwardingRepositoryChannel
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(PreallocatingRepositoryChannel.class);
+
+    private final RepositoryChannel _inner;
+    private final Path _path;
+    private long _reserved;
+
+    public PreallocatingRepositoryChannel(RepositoryChannel inner, Path path, long size)
+    {
+        _inner = inner;
+        _path = path;
+        try {
+            Fallocate.reserve(path, size);
+            _reserved = size;
+        } catch (IOException | UnsupportedOperationException e) {
+            LOGGER.debug("Failed to preallocate {} bytes for {}: {}", size, path, e.getMessage());
+        }
+    }
+
+    /**
+     * Returns whether the platform supports preallocation.
+     */
+    public static boolean isSupported()
+    {
+        return Fallocate.isSupported();
+    }
+
+    @Override
+    protected RepositoryChannel delegate()
+    {
+        return _inner;
+    }
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        long length = _reserved;
+        if (_reserved > 0 && _inner.isOpen()) {
+            length = _inner.size();
+        }
+        _inner.close();
+        if (length < _reserved) {
+            try {
+                Fallocate.trim(_path, length);
+            } catch (IOException e) {
+                LOGGER.warn("Failed to release preallocated space of {}: {}", _path, e.getMessage());
+            }
+        }
+        _reserved = 0;
+    }
+}
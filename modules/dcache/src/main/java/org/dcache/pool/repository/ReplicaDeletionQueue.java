@@ -0,0 +1,304 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2020 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.pool.repository;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import diskCacheV111.util.PnfsId;
+
+import dmg.cells.nucleus.CellInfoProvider;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Queue of replicas waiting to be physically deleted.
+ *
+ * Removing a replica from the file system and the meta data store may
+ * take a considerable amount of time, in particular on file systems
+ * with slow metadata operations. Rather than deleting the replica in
+ * the thread that removed it, the ReplicaStoreCache submits the
+ * deletion to this queue. A bounded number of worker threads take the
+ * deletions in batches and pass each batch to its Deleter in a single
+ * call, thus limiting the number of concurrent deletions on the file
+ * system of the pool and allowing the meta data store to remove the
+ * records of a whole batch in one transaction.
+ *
+ * The space of a replica is only freed once it has been deleted. Until
+ * then the space is accounted as pending deletion in the Account, which
+ * allows the sweeper to avoid removing more replicas than necessary.
+ *
+ * With zero threads, deletions are executed synchronously by the
+ * submitting thread.
+ */
+public class ReplicaDeletionQueue implements CellInfoProvider
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReplicaDeletionQueue.class);
+
+    /**
+     * Deletes a batch of replicas and frees their space.
+     */
+    @FunctionalInterface
+    public interface Deleter
+    {
+        void delete(List<PnfsId> ids);
+    }
+
+    private final BlockingQueue<Deletion> _queue = new LinkedBlockingQueue<>();
+    private final AtomicLong _pendingBytes = new AtomicLong();
+    private final LongAdder _deleted = new LongAdder();
+    private final LongAdder _deletedBytes = new LongAdder();
+    private final LongAdder _batches = new LongAdder();
+    private final LongAdder _latency = new LongAdder();
+
+    private Account _account;
+    private int _threads;
+    private int _batchSize = 100;
+    private long _shutdownTimeout = TimeUnit.MINUTES.toMillis(1);
+
+    private ExecutorService _executor;
+    private volatile boolean _isClosed;
+
+    public void setAccount(Account account)
+    {
+        _account = account;
+    }
+
+    public void setThreads(int threads)
+    {
+        checkArgument(threads >= 0, "Number of threads must be non-negative.");
+        _threads = threads;
+    }
+
+    public void setBatchSize(int batchSize)
+    {
+        checkArgument(batchSize > 0, "Batch size must be positive.");
+        _batchSize = batchSize;
+    }
+
+    public void setShutdownTimeout(long timeout, TimeUnit unit)
+    {
+        checkArgument(timeout >= 0, "Timeout must be non-negative.");
+        _shutdownTimeout = unit.toMillis(timeout);
+    }
+
+    public synchronized void start()
+    {
+        if (_threads > 0) {
+            _executor = Executors.newFixedThreadPool(_threads,
+                    new ThreadFactoryBuilder().setNameFormat("deletion-%d").build());
+            for (int i = 0; i < _threads; i++) {
+                _executor.execute(this::run);
+            }
+        }
+    }
+
+    /**
+     * Stops the worker threads. Waits up to the shutdown timeout for the
+     * queued deletions to complete. Deletions still pending after that
+     * are abandoned: the replicas are marked DESTROYED and are deleted
+     * when the repository is loaded the next time. Deletions submitted
+     * after this call are executed synchronously.
+     */
+    public synchronized void shutdown()
+    {
+        _isClosed = true;
+        if (_executor != null) {
+            _executor.shutdown();
+            try {
+                long deadline = System.currentTimeMillis() + _shutdownTimeout;
+                long remaining = _shutdownTimeout;
+                while (!_executor.awaitTermination(Math.min(remaining, 1000), TimeUnit.MILLISECONDS)) {
+                    remaining = deadline - System.currentTimeMillis();
+                    if (remaining <= 0) {
+                        break;
+                    }
+                    LOGGER.info("Waiting for {} replicas to be deleted ({} s left).",
+                                _queue.size(), TimeUnit.MILLISECONDS.toSeconds(remaining));
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            boolean isTerminated = _executor.isTerminated();
+            _executor.shutdownNow();
+            _executor = null;
+            if (!isTerminated) {
+                abandon();
+                return;
+            }
+        }
+        List<Deletion> remaining = new ArrayList<>();
+        _queue.drainTo(remaining);
+        for (int i = 0; i < remaining.size(); i += _batchSize) {
+            delete(remaining.subList(i, Math.min(i + _batchSize, remaining.size())));
+        }
+    }
+
+    private void abandon()
+    {
+        List<Deletion> abandoned = new ArrayList<>();
+        _queue.drainTo(abandoned);
+        long bytes = 0;
+        for (Deletion deletion : abandoned) {
+            deletion.release();
+            bytes += deletion.size;
+        }
+        LOGGER.warn("Gave up waiting for deletions to complete: {} replicas ({} bytes) " +
+                    "are left to be deleted on next start; deletions in progress may " +
+                    "still be running.", abandoned.size(), bytes);
+    }
+
+    /**
+     * Submits the deletion of a replica.
+     *
+     * @param id the PNFS ID of the replica
+     * @param size the space occupied by the replica
+     * @param deleter deletes the replica and frees its space
+     */
+    public void submit(PnfsId id, long size, Deleter deleter)
+    {
+        Deletion task = new Deletion(id, size, deleter);
+        if (_threads == 0 || _isClosed) {
+            delete(List.of(task));
+        } else {
+            if (size > 0) {
+                _pendingBytes.addAndGet(size);
+                _account.adjustDeleting(id, size);
+            }
+            task.isQueued = true;
+            _queue.add(task);
+        }
+    }
+
+    public int getPendingCount()
+    {
+        return _queue.size();
+    }
+
+    public long getPendingBytes()
+    {
+        return _pendingBytes.get();
+    }
+
+    private void run()
+    {
+        List<Deletion> batch = new ArrayList<>(_batchSize);
+        try {
+            while (!_isClosed || !_queue.isEmpty()) {
+                Deletion first = _queue.poll(1, TimeUnit.SECONDS);
+                if (first != null) {
+                    batch.add(first);
+                    _queue.drainTo(batch, _batchSize - 1);
+                    delete(batch);
+                    batch.clear();
+                }
+            }
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    /**
+     * Passes a batch of deletions to their deleters, one call per deleter.
+     */
+    private void delete(List<Deletion> batch)
+    {
+        _batches.increment();
+        Map<Deleter,List<Deletion>> byDeleter = new LinkedHashMap<>();
+        for (Deletion deletion : batch) {
+            byDeleter.computeIfAbsent(deletion.deleter, d -> new ArrayList<>()).add(deletion);
+        }
+        byDeleter.forEach((deleter, deletions) -> {
+            List<PnfsId> ids = new ArrayList<>(deletions.size());
+            for (Deletion deletion : deletions) {
+                ids.add(deletion.id);
+            }
+            try {
+                deleter.delete(ids);
+            } catch (RuntimeException e) {
+                LOGGER.error("Failed to delete {}: {}", ids, e.toString());
+            } finally {
+                long now = System.currentTimeMillis();
+                for (Deletion deletion : deletions) {
+                    deletion.release();
+                    _deleted.increment();
+                    _deletedBytes.add(deletion.size);
+                    _latency.add(now - deletion.submitted);
+                }
+            }
+        });
+    }
+
+    @Override
+    public void getInfo(PrintWriter pw)
+    {
+        long deleted = _deleted.sum();
+        long batches = _batches.sum();
+        pw.println("Deletion queue:");
+        pw.println("    Threads         : " + (_threads == 0 ? "synchronous" : _threads));
+        pw.println("    Pending         : " + _queue.size() + " replicas, " + _pendingBytes.get() + " bytes");
+        pw.println("    Deleted         : " + deleted + " replicas, " + _deletedBytes.sum() + " bytes");
+        if (batches > 0) {
+            pw.println("    Batches         : " + batches
+                       + String.format(" (%.1f replicas per batch)", (double) deleted / batches));
+        }
+        if (deleted > 0) {
+            pw.println("    Mean latency    : " + (_latency.sum() / deleted) + " ms");
+        }
+    }
+
+    private class Deletion
+    {
+        private final PnfsId id;
+        private final long size;
+        private final Deleter deleter;
+        private final long submitted = System.currentTimeMillis();
+        private boolean isQueued;
+
+        private Deletion(PnfsId id, long size, Deleter deleter)
+        {
+            this.id = id;
+            this.size = size;
+            this.deleter = deleter;
+        }
+
+        /**
+         * Releases the space accounted as pending deletion.
+         */
+        private void release()
+        {
+            if (isQueued && size > 0) {
+                _account.adjustDeleting(id, -size);
+                _pendingBytes.addAndGet(-size);
+            }
+        }
+    }
+}
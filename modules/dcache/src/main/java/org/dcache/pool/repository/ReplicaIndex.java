@@ -0,0 +1,390 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2020 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.pool.repository;
+
+import com.google.common.hash.Hashing;
+import com.google.common.io.BaseEncoding;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+
+import diskCacheV111.util.PnfsId;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Compact index of the replicas of a pool.
+ *
+ * For every replica the index holds the state, the size, the last access
+ * time and whether the replica is sticky. Unlike the meta data held by
+ * the ReplicaStore, the index is stored outside the Java heap in a hash
+ * table with fixed size slots. A replica occupies about 50 bytes of
+ * direct memory and no objects on the heap, allowing components that
+ * need to inspect all replicas of large pools, such as the sweeper, to
+ * do so without producing garbage or keeping per-replica objects of their
+ * own. The index does not reduce the heap used by the repository itself:
+ * ReplicaStoreCache still holds an object for every replica.
+ *
+ * The index is maintained by the repository and is only as accurate as
+ * the state change notifications it receives. Replicas in the NEW state
+ * are not indexed.
+ */
+public class ReplicaIndex
+{
+    private static final int MAX_ID_LENGTH = 18;
+
+    /* Slot layout. A key length of zero marks a free slot. */
+    private static final int KEY_LENGTH = 0;
+    private static final int KEY = 1;
+    private static final int FLAGS = KEY + MAX_ID_LENGTH;
+    private static final int SIZE = FLAGS + 1;
+    private static final int ACCESS_TIME = SIZE + Long.BYTES;
+    private static final int SLOT_SIZE = ACCESS_TIME + Long.BYTES;
+
+    private static final byte FREE = 0;
+    private static final byte DELETED = (byte) 0xff;
+
+    private static final int STATE_MASK = 0x0f;
+    private static final int STICKY = 0x10;
+
+    private static final int SLOTS_PER_SEGMENT = 1 << 16;
+
+    /* Number of slots copied at a time when iterating over the index. */
+    private static final int SLOTS_PER_CHUNK = 1 << 12;
+    private static final double MAX_LOAD = 0.75;
+
+    private static final ReplicaState[] STATES = ReplicaState.values();
+
+    private ByteBuffer[] _segments;
+    private int _capacity;
+
+    /** Number of replicas in the index. */
+    private int _size;
+
+    /** Number of slots that are not free, including deleted slots. */
+    private int _used;
+
+    public ReplicaIndex()
+    {
+        this(SLOTS_PER_SEGMENT);
+    }
+
+    public ReplicaIndex(int capacity)
+    {
+        checkArgument(capacity > 0, "Capacity must be positive.");
+        allocate(capacity);
+    }
+
+    /**
+     * Read-only view of an indexed replica. The view is only valid
+     * during the callback it is passed to.
+     */
+    public class Entry
+    {
+        private final ByteBuffer _segment;
+        private int _offset;
+
+        private Entry(ByteBuffer segment, int offset)
+        {
+            _segment = segment;
+            _offset = offset;
+        }
+
+        public PnfsId getPnfsId()
+        {
+            return readKey(_segment, _offset);
+        }
+
+        public ReplicaState getState()
+        {
+            return STATES[_segment.get(_offset + FLAGS) & STATE_MASK];
+        }
+
+        public boolean isSticky()
+        {
+            return (_segment.get(_offset + FLAGS) & STICKY) != 0;
+        }
+
+        public long getReplicaSize()
+        {
+            return _segment.getLong(_offset + SIZE);
+        }
+
+        public long getLastAccessTime()
+        {
+            return _segment.getLong(_offset + ACCESS_TIME);
+        }
+    }
+
+    /**
+     * Adds or updates a replica.
+     */
+    public synchronized void put(PnfsId id, ReplicaState state, long size,
+                                 long lastAccessTime, boolean isSticky)
+    {
+        byte[] key = toKey(id);
+        int slot = find(key);
+        if (slot < 0) {
+            if (_used + 1 > _capacity * MAX_LOAD) {
+                allocate(_size + 1 > _capacity * MAX_LOAD / 2 ? _capacity + _capacity / 2 : _capacity);
+            }
+            slot = insertionPoint(key);
+            if (segment(slot).get(offset(slot) + KEY_LENGTH) == FREE) {
+                _used++;
+            }
+            _size++;
+            writeKey(slot, key);
+        }
+        ByteBuffer segment = segment(slot);
+        int offset = offset(slot);
+        segment.put(offset + FLAGS, (byte) (state.ordinal() | (isSticky ? STICKY : 0)));
+        segment.putLong(offset + SIZE, size);
+        segment.putLong(offset + ACCESS_TIME, lastAccessTime);
+    }
+
+    /**
+     * Adds or updates a replica from a CacheEntry.
+     */
+    public void put(CacheEntry entry)
+    {
+        put(entry.getPnfsId(), entry.getState(), entry.getReplicaSize(),
+            entry.getLastAccessTime(), entry.isSticky());
+    }
+
+    /**
+     * Removes a replica.
+     *
+     * @return true if the replica was in the index
+     */
+    public synchronized boolean remove(PnfsId id)
+    {
+        int slot = find(toKey(id));
+        if (slot < 0) {
+            return false;
+        }
+        segment(slot).put(offset(slot) + KEY_LENGTH, DELETED);
+        _size--;
+        return true;
+    }
+
+    public synchronized boolean contains(PnfsId id)
+    {
+        return find(toKey(id)) >= 0;
+    }
+
+    /**
+     * Calls {@code action} for every replica in the index.
+     *
+     * The index is copied in small chunks to a scratch buffer on the heap,
+     * and the action is called on the copy without holding the lock. Thus
+     * updates are not blocked by the iteration, but the iteration is only
+     * weakly consistent: Replicas added, removed or updated concurrently
+     * may or may not be reported, and if the index grows concurrently,
+     * replicas may be missed or reported twice.
+     */
+    public void forEach(Consumer<Entry> action)
+    {
+        ByteBuffer chunk = ByteBuffer.allocate(SLOTS_PER_CHUNK * SLOT_SIZE);
+        Entry entry = new Entry(chunk, 0);
+        for (int slot = 0; copyChunk(slot, chunk); slot += SLOTS_PER_CHUNK) {
+            for (int offset = 0; offset < chunk.limit(); offset += SLOT_SIZE) {
+                byte length = chunk.get(offset + KEY_LENGTH);
+                if (length != FREE && length != DELETED) {
+                    entry._offset = offset;
+                    action.accept(entry);
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies the slots starting at {@code slot} to {@code chunk}.
+     *
+     * @return false if {@code slot} is beyond the end of the index
+     */
+    private synchronized boolean copyChunk(int slot, ByteBuffer chunk)
+    {
+        if (slot >= _capacity) {
+            return false;
+        }
+        ByteBuffer source = segment(slot).duplicate();
+        source.position(offset(slot));
+        source.limit(source.position() + SLOTS_PER_CHUNK * SLOT_SIZE);
+        chunk.clear();
+        chunk.put(source);
+        chunk.flip();
+        return true;
+    }
+
+    /**
+     * Returns the IDs of the replicas matching {@code filter}.
+     */
+    public List<PnfsId> select(Predicate<Entry> filter)
+    {
+        List<PnfsId> ids = new ArrayList<>();
+        forEach(entry -> {
+            if (filter.test(entry)) {
+                ids.add(entry.getPnfsId());
+            }
+        });
+        return ids;
+    }
+
+    public synchronized int size()
+    {
+        return _size;
+    }
+
+    /**
+     * Returns the number of bytes of direct memory used by the index.
+     */
+    public synchronized long getMemoryUsage()
+    {
+        return (long) _capacity * SLOT_SIZE;
+    }
+
+    private static byte[] toKey(PnfsId id)
+    {
+        return BaseEncoding.base16().decode(id.toString());
+    }
+
+    private static PnfsId readKey(ByteBuffer segment, int offset)
+    {
+        byte[] key = new byte[segment.get(offset + KEY_LENGTH)];
+        for (int i = 0; i < key.length; i++) {
+            key[i] = segment.get(offset + KEY + i);
+        }
+        return new PnfsId(BaseEncoding.base16().encode(key));
+    }
+
+    private ByteBuffer segment(int slot)
+    {
+        return _segments[slot / SLOTS_PER_SEGMENT];
+    }
+
+    private static int offset(int slot)
+    {
+        return (slot % SLOTS_PER_SEGMENT) * SLOT_SIZE;
+    }
+
+    private int home(byte[] key)
+    {
+        return Math.floorMod(Hashing.murmur3_32().hashBytes(key).asInt(), _capacity);
+    }
+
+    private boolean matches(ByteBuffer segment, int offset, byte[] key)
+    {
+        if (segment.get(offset + KEY_LENGTH) != key.length) {
+            return false;
+        }
+        for (int i = 0; i < key.length; i++) {
+            if (segment.get(offset + KEY + i) != key[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the slot holding {@code key}, or -1 if the key is not in
+     * the index.
+     */
+    private int find(byte[] key)
+    {
+        int slot = home(key);
+        while (true) {
+            ByteBuffer segment = segment(slot);
+            int offset = offset(slot);
+            byte length = segment.get(offset + KEY_LENGTH);
+            if (length == FREE) {
+                return -1;
+            }
+            if (matches(segment, offset, key)) {
+                return slot;
+            }
+            slot = (slot + 1) % _capacity;
+        }
+    }
+
+    /**
+     * Returns the first free or deleted slot for a key not in the index.
+     */
+    private int insertionPoint(byte[] key)
+    {
+        int slot = home(key);
+        while (true) {
+            byte length = segment(slot).get(offset(slot) + KEY_LENGTH);
+            if (length == FREE || length == DELETED) {
+                return slot;
+            }
+            slot = (slot + 1) % _capacity;
+        }
+    }
+
+    private void writeKey(int slot, byte[] key)
+    {
+        ByteBuffer segment = segment(slot);
+        int offset = offset(slot);
+        segment.put(offset + KEY_LENGTH, (byte) key.length);
+        for (int i = 0; i < key.length; i++) {
+            segment.put(offset + KEY + i, key[i]);
+        }
+    }
+
+    /**
+     * Allocates a table with {@code capacity} slots and moves all replicas
+     * to it. Deleted slots are reclaimed in the process.
+     */
+    private void allocate(int capacity)
+    {
+        ByteBuffer[] old = _segments;
+
+        int segments = (capacity + SLOTS_PER_SEGMENT - 1) / SLOTS_PER_SEGMENT;
+        _capacity = segments * SLOTS_PER_SEGMENT;
+        _segments = new ByteBuffer[segments];
+        for (int i = 0; i < segments; i++) {
+            _segments[i] = ByteBuffer.allocateDirect(SLOTS_PER_SEGMENT * SLOT_SIZE);
+        }
+        _used = _size;
+
+        if (old != null) {
+            byte[] buffer = new byte[SLOT_SIZE];
+            for (ByteBuffer segment : old) {
+                for (int offset = 0; offset < segment.capacity(); offset += SLOT_SIZE) {
+                    byte length = segment.get(offset + KEY_LENGTH);
+                    if (length != FREE && length != DELETED) {
+                        for (int i = 0; i < SLOT_SIZE; i++) {
+                            buffer[i] = segment.get(offset + i);
+                        }
+                        byte[] key = new byte[length];
+                        System.arraycopy(buffer, KEY, key, 0, length);
+                        int slot = insertionPoint(key);
+                        ByteBuffer target = segment(slot);
+                        int targetOffset = offset(slot);
+                        for (int i = 0; i < SLOT_SIZE; i++) {
+                            target.put(targetOffset + i, buffer[i]);
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
@@ -2,6 +2,7 @@ package org.dcache.pool.repository;
 
 import java.io.Closeable;
 import java.nio.file.OpenOption;
+import java.util.Collection;
 import java.util.Set;
 
 import diskCacheV111.util.CacheException;
@@ -65,6 +66,21 @@ public interface ReplicaStore extends Closeable
     void remove(PnfsId id)
             throws CacheException;
 
+    /**
+     * Removes several meta data entries. Entries that do not exist are
+     * ignored. Implementations may remove the entries more efficiently
+     * than by removing them one at a time.
+     *
+     * @param ids PNFS ids of the entries to remove.
+     */
+    default void remove(Collection<PnfsId> ids)
+            throws CacheException
+    {
+        for (PnfsId id : ids) {
+            remove(id);
+        }
+    }
+
     /**
      * Returns whether the store appears healthy. How this is
      * determined is up to the implementation.
@@ -1,12 +1,16 @@
 package org.dcache.pool.repository;
 
+import com.google.common.collect.Lists;
+
 import javax.annotation.concurrent.GuardedBy;
 
 import java.io.IOException;
 import java.net.URI;
 import java.nio.file.OpenOption;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.List;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
@@ -35,12 +39,22 @@ import static org.dcache.pool.repository.ReplicaState.NEW;
  * using the same PNFS ID.
  *
  * The cache guarantees that it always returns the same ReplicaStore
- * instance for a given entry.
+ * instance for a given entry. As these instances also serve as locks for
+ * their entries, the cache never evicts them: it holds an object for every
+ * replica of the pool, and the record of every replica accessed since the
+ * pool started.
  *
  * The cache submits state change events to a StateChangeListener. The
  * listener is called from the thread making the modification and with
  * the ReplicaRecord locked. Care must be taken in the listener to
  * not cause deadlocks or slow down the store.
+ *
+ * If a ReplicaDeletionQueue is set, replicas are deleted asynchronously.
+ * A removed replica is marked DESTROYED right away, but it stays in the
+ * cache until it has been deleted from the inner ReplicaStore. Only then
+ * is the DESTROYED state change event submitted, thus its space is not
+ * freed before the replica is gone from disk. Replicas taken from the
+ * queue together are removed from the inner ReplicaStore in a single call.
  */
 public class ReplicaStoreCache
     implements ReplicaStore
@@ -55,6 +69,10 @@ public class ReplicaStoreCache
 
     private volatile boolean _isClosed;
 
+    private ReplicaDeletionQueue _deletionQueue;
+
+    private final ReplicaDeletionQueue.Deleter _deleter = this::completeDeletions;
+
     /**
      * Constructs a new cache.
      */
@@ -66,6 +84,16 @@ public class ReplicaStoreCache
         _entries = new ConcurrentHashMap<>();
     }
 
+    /**
+     * Sets the queue used for deleting replicas. Must be set before the
+     * cache is initialized. If not set, replicas are deleted by the thread
+     * removing them.
+     */
+    public void setDeletionQueue(ReplicaDeletionQueue deletionQueue)
+    {
+        _deletionQueue = deletionQueue;
+    }
+
     /**
      * Encapsulates operations on meta data records, ensuring sequential
      * access to any particular record. The class delegates operations to
@@ -91,12 +119,23 @@ public class ReplicaStoreCache
      *
      * The point from which the condition in item 1 is true is marked by
      * assertions in the code.
+     *
+     * Replicas deleted in a batch are removed from the inner store without
+     * holding the monitor. While that happens the monitor is marked as
+     * deleting and all methods accessing the inner store wait for the
+     * deletion to end.
      */
     private class Monitor implements ReplicaRecord
     {
         private final PnfsId _id;
         private ReplicaRecord _record;
 
+        /** State change event to submit once the replica has been deleted. */
+        private StateChangeEvent _pendingDeletion;
+
+        /** Whether the replica is being deleted as part of a batch. */
+        private boolean _isDeleting;
+
         private Monitor(PnfsId id)
         {
             _id = id;
@@ -105,6 +144,7 @@ public class ReplicaStoreCache
         private synchronized ReplicaRecord get()
                 throws CacheException
         {
+            awaitDeletion();
             if (_entries.get(_id) != this) {
                 return null;
             }
@@ -125,6 +165,14 @@ public class ReplicaStoreCache
         private synchronized ReplicaRecord create(Set<? extends OpenOption> flags)
                 throws CacheException
         {
+            awaitDeletion();
+            if (_entries.get(_id) == this && _pendingDeletion != null) {
+                /* The replica is waiting to be deleted. Delete it now and
+                 * let the caller retry with a new Monitor.
+                 */
+                completeDeletion();
+                return null;
+            }
             if (_entries.get(_id) != this || _record != null) {
                 throw new DuplicateEntryException(_id);
             }
@@ -148,10 +196,38 @@ public class ReplicaStoreCache
             try {
                 CacheEntry entry = new CacheEntryImpl(_record);
                 _record.update(why, r -> r.setState(DESTROYED));
+                _pendingDeletion = new StateChangeEvent(why, entry, entry, entry.getState(), DESTROYED);
+                ReplicaDeletionQueue queue = _deletionQueue;
+                if (queue == null) {
+                    completeDeletion();
+                } else {
+                    queue.submit(_id, entry.getReplicaSize(), _deleter);
+                }
+            } catch (DiskErrorCacheException | RuntimeException e) {
+                _faultListener.faultOccurred(
+                        new FaultEvent("repository", FaultAction.DEAD, "Internal repository error", e));
+            } catch (CacheException e) {
+                _faultListener.faultOccurred(
+                        new FaultEvent("repository", FaultAction.READONLY, "Internal repository error", e));
+            }
+        }
+
+        /**
+         * Deletes a replica previously marked DESTROYED from the inner store,
+         * unless that already happened or the cache was closed in the meantime.
+         */
+        private synchronized void completeDeletion()
+        {
+            awaitDeletion();
+            StateChangeEvent event = _pendingDeletion;
+            if (event == null || _entries.get(_id) != this) {
+                return;
+            }
+            _pendingDeletion = null;
+            try {
                 _inner.remove(_id);
                 _entries.remove(_id);
-                _stateChangeListener.stateChanged(
-                        new StateChangeEvent(why, entry, entry, entry.getState(), DESTROYED));
+                _stateChangeListener.stateChanged(event);
             } catch (DiskErrorCacheException | RuntimeException e) {
                 _faultListener.faultOccurred(
                         new FaultEvent("repository", FaultAction.DEAD, "Internal repository error", e));
@@ -161,8 +237,56 @@ public class ReplicaStoreCache
             }
         }
 
+        /**
+         * Marks the replica as being deleted, unless it is not waiting to be
+         * deleted. Must be followed by a call to endDeletion.
+         */
+        private synchronized boolean beginDeletion()
+        {
+            awaitDeletion();
+            if (_pendingDeletion == null || _entries.get(_id) != this) {
+                return false;
+            }
+            _isDeleting = true;
+            return true;
+        }
+
+        /**
+         * Ends the deletion started by beginDeletion. If the replica was
+         * removed from the inner store, the replica is removed from the
+         * cache and the DESTROYED state change event is submitted.
+         */
+        private synchronized void endDeletion(boolean isRemoved)
+        {
+            StateChangeEvent event = _pendingDeletion;
+            _pendingDeletion = null;
+            _isDeleting = false;
+            notifyAll();
+            if (isRemoved) {
+                _entries.remove(_id);
+                _stateChangeListener.stateChanged(event);
+            }
+        }
+
+        @GuardedBy("this")
+        private void awaitDeletion()
+        {
+            boolean interrupted = false;
+            while (_isDeleting) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+
         private synchronized void close()
         {
+            awaitDeletion();
             _entries.remove(_id, this);
         }
 
@@ -270,6 +394,7 @@ public class ReplicaStoreCache
         @Override
         public synchronized int decrementLinkCount()
         {
+            awaitDeletion();
             int cnt = _record.decrementLinkCount();
             if (cnt == 0 && _record.getState() == ReplicaState.REMOVED) {
                 destroy("REMOVED replica no longer being used");
@@ -316,6 +441,7 @@ public class ReplicaStoreCache
         @Override
         public synchronized Collection<StickyRecord> removeExpiredStickyFlags() throws CacheException
         {
+            awaitDeletion();
             try {
                 CacheEntry oldEntry = new CacheEntryImpl(_record);
                 Collection<StickyRecord> removed = _record.removeExpiredStickyFlags();
@@ -346,6 +472,7 @@ public class ReplicaStoreCache
         @Override
         public synchronized <T> T update(String why, Update<T> update) throws CacheException
         {
+            awaitDeletion();
             try {
                 T result = _record.update(why,
                         r -> update.apply(
@@ -417,6 +544,39 @@ public class ReplicaStoreCache
         }
     }
 
+    /**
+     * Deletes a batch of replicas previously marked DESTROYED from the inner
+     * store. Replicas that were deleted or closed in the meantime are skipped.
+     */
+    private void completeDeletions(List<PnfsId> ids)
+    {
+        List<Monitor> monitors = new ArrayList<>(ids.size());
+        for (PnfsId id : ids) {
+            Monitor monitor = _entries.get(id);
+            if (monitor != null && monitor.beginDeletion()) {
+                monitors.add(monitor);
+            }
+        }
+        if (monitors.isEmpty()) {
+            return;
+        }
+        boolean isRemoved = false;
+        try {
+            _inner.remove(Lists.transform(monitors, Monitor::getPnfsId));
+            isRemoved = true;
+        } catch (DiskErrorCacheException | RuntimeException e) {
+            _faultListener.faultOccurred(
+                    new FaultEvent("repository", FaultAction.DEAD, "Internal repository error", e));
+        } catch (CacheException e) {
+            _faultListener.faultOccurred(
+                    new FaultEvent("repository", FaultAction.READONLY, "Internal repository error", e));
+        } finally {
+            for (Monitor monitor : monitors) {
+                monitor.endDeletion(isRemoved);
+            }
+        }
+    }
+
     public ReplicaRecord get(PnfsId id)
             throws CacheException
     {
@@ -433,7 +593,11 @@ public class ReplicaStoreCache
     public ReplicaRecord create(PnfsId id, Set<? extends OpenOption> flags) throws CacheException
     {
         try {
-            return _entries.computeIfAbsent(id, Monitor::new).create(flags);
+            ReplicaRecord record;
+            do {
+                record = _entries.computeIfAbsent(id, Monitor::new).create(flags);
+            } while (record == null);
+            return record;
         } catch (RuntimeException | DiskErrorCacheException e) {
             _faultListener.faultOccurred(
                     new FaultEvent("repository", FaultAction.DEAD, "Internal repository error", e));
@@ -474,6 +638,9 @@ public class ReplicaStoreCache
     public void close()
     {
         _isClosed = true;
+        if (_deletionQueue != null) {
+            _deletionQueue.shutdown();
+        }
         for (Monitor monitor : _entries.values()) {
             monitor.close();
         }
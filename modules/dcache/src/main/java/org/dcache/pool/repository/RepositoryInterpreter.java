@@ -43,6 +43,7 @@ public class RepositoryInterpreter
             LoggerFactory.getLogger(RepositoryInterpreter.class);
 
     private Repository _repository;
+    private ReplicaIndex _index;
     private StatisticsListener _statisticsListener;
 
     @Required
@@ -51,6 +52,12 @@ public class RepositoryInterpreter
         _repository = repository;
     }
 
+    @Required
+    public void setReplicaIndex(ReplicaIndex index)
+    {
+        _index = index;
+    }
+
     @Required
     public void setStatisticsListener(StatisticsListener statisticsListener)
     {
@@ -262,8 +269,23 @@ public class RepositoryInterpreter
 
             Pattern siFilter = (si == null) ? null : si.toPattern();
 
+            /* Unless the link count is needed, the replica index is used to
+             * avoid reading the meta data of replicas that are not listed.
+             */
+            Iterable<PnfsId> ids;
+            if (format.isEmpty() || used) {
+                ids = _repository;
+            } else {
+                ids = _index.select(e ->
+                        (notcached && e.getState() != ReplicaState.CACHED) ||
+                        (precious && e.getState() == ReplicaState.PRECIOUS) ||
+                        (sticky && e.isSticky()) ||
+                        (broken && e.getState() == ReplicaState.BROKEN) ||
+                        (cached && e.getState() == ReplicaState.CACHED));
+            }
+
             StringBuilder sb = new StringBuilder();
-            for (PnfsId id: _repository) {
+            for (PnfsId id: ids) {
                 try {
                     CacheEntry entry = _repository.getEntry(id);
                     ReplicaState state = entry.getState();
@@ -0,0 +1,92 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2020 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.pool.repository;
+
+import java.nio.file.OpenOption;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Open option carrying the expected size of a replica about to be written.
+ *
+ * File stores may use the hint to reserve disk space for the replica before
+ * the data arrives. The option has no meaning to the file system and must be
+ * removed before the options are passed on to it.
+ */
+public final class SizeHint implements OpenOption
+{
+    private final long size;
+
+    public SizeHint(long size)
+    {
+        checkArgument(size >= 0, "Size must be non-negative.");
+        this.size = size;
+    }
+
+    public long getSize()
+    {
+        return size;
+    }
+
+    /**
+     * Returns the expected size in the given options, or -1 if the options
+     * do not contain a size hint.
+     */
+    public static long getSize(Set<? extends OpenOption> options)
+    {
+        for (OpenOption option : options) {
+            if (option instanceof SizeHint) {
+                return ((SizeHint) option).size;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Returns the given options without any size hint.
+     */
+    public static Set<? extends OpenOption> remove(Set<? extends OpenOption> options)
+    {
+        if (options.stream().noneMatch(SizeHint.class::isInstance)) {
+            return options;
+        }
+        return options.stream()
+                .filter(o -> !(o instanceof SizeHint))
+                .collect(Collectors.toSet());
+    }
+
+    @Override
+    public boolean equals(Object o)
+    {
+        return o instanceof SizeHint && ((SizeHint) o).size == size;
+    }
+
+    @Override
+    public int hashCode()
+    {
+        return Long.hashCode(size);
+    }
+
+    @Override
+    public String toString()
+    {
+        return "SIZE_HINT(" + size + ")";
+    }
+}
@@ -0,0 +1,95 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2020 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.pool.repository.accesstime;
+
+import diskCacheV111.util.CacheException;
+
+import org.dcache.pool.repository.ForwardingReplicaRecord;
+import org.dcache.pool.repository.ReplicaRecord;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A ReplicaRecord that keeps access time updates in memory until they are
+ * flushed by the {@link AccessTimeReplicaStore}.
+ */
+public class AccessTimeReplicaRecord extends ForwardingReplicaRecord
+{
+    private static final long NONE = Long.MIN_VALUE;
+
+    private final ReplicaRecord inner;
+
+    private final AccessTimeReplicaStore store;
+
+    /**
+     * Access time not yet written to the inner record, or NONE.
+     */
+    private long pendingAccessTime = NONE;
+
+    public AccessTimeReplicaRecord(ReplicaRecord inner, AccessTimeReplicaStore store)
+    {
+        this.inner = requireNonNull(inner);
+        this.store = requireNonNull(store);
+    }
+
+    @Override
+    protected ReplicaRecord delegate()
+    {
+        return inner;
+    }
+
+    @Override
+    public long getLastAccessTime()
+    {
+        synchronized (this) {
+            if (pendingAccessTime != NONE) {
+                return pendingAccessTime;
+            }
+        }
+        return super.getLastAccessTime();
+    }
+
+    @Override
+    public void setLastAccessTime(long time)
+    {
+        synchronized (this) {
+            pendingAccessTime = time;
+        }
+        store.markDirty(this);
+    }
+
+    /**
+     * Writes a pending access time to the inner record.
+     */
+    void flush() throws CacheException
+    {
+        long time;
+        synchronized (this) {
+            time = pendingAccessTime;
+        }
+        if (time != NONE) {
+            super.setLastAccessTime(time);
+            synchronized (this) {
+                /* A concurrent update marked the record dirty again. */
+                if (pendingAccessTime == time) {
+                    pendingAccessTime = NONE;
+                }
+            }
+        }
+    }
+}
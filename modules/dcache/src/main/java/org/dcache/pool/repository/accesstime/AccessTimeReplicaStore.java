@@ -0,0 +1,243 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2020 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.pool.repository.accesstime;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Striped;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.PrintWriter;
+import java.nio.file.OpenOption;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.Lock;
+
+import diskCacheV111.util.CacheException;
+import diskCacheV111.util.DiskErrorCacheException;
+import diskCacheV111.util.PnfsId;
+
+import dmg.cells.nucleus.CellInfoProvider;
+
+import org.dcache.pool.repository.DuplicateEntryException;
+import org.dcache.pool.repository.ForwardingReplicaStore;
+import org.dcache.pool.repository.ReplicaRecord;
+import org.dcache.pool.repository.ReplicaState;
+import org.dcache.pool.repository.ReplicaStore;
+import org.dcache.util.TimeUtils;
+
+import static java.util.Objects.requireNonNull;
+import static org.dcache.util.Exceptions.messageOrClassName;
+
+/**
+ * Wrap some existing ReplicaStore and defer writing access times to it.
+ *
+ * Every read of a replica updates its access time. On read-heavy pools
+ * writing each update to the meta data store dominates the meta data
+ * load. If a positive flush period is configured, access time updates
+ * are held in memory and written in bulk once per period, with repeated
+ * updates of a replica coalesced into a single write.
+ *
+ * The records returned by this store report the most recent access time,
+ * thus the LRU ordering of the sweeper is not affected. Only the persistent
+ * access time lags by at most one flush period; that is the amount of
+ * access time history lost if the pool crashes.
+ */
+public class AccessTimeReplicaStore extends ForwardingReplicaStore implements CellInfoProvider
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(AccessTimeReplicaStore.class);
+
+    private final ReplicaStore inner;
+
+    private final long flushPeriod;
+
+    private final TimeUnit flushPeriodUnit;
+
+    /**
+     * Records with an access time not yet written to the inner store.
+     */
+    private final Map<PnfsId, AccessTimeReplicaRecord> dirty = new ConcurrentHashMap<>();
+
+    /**
+     * Serializes flushing a record with removing it, as otherwise a flush
+     * could recreate meta data of a removed replica.
+     */
+    private final Striped<Lock> locks = Striped.lock(64);
+
+    private final LongAdder updates = new LongAdder();
+    private final LongAdder writes = new LongAdder();
+
+    private ScheduledExecutorService executor;
+
+    private volatile boolean isFailed;
+
+    private volatile long lastFlushDuration;
+
+    public AccessTimeReplicaStore(ReplicaStore inner, long flushPeriod, TimeUnit flushPeriodUnit)
+    {
+        this.inner = requireNonNull(inner);
+        this.flushPeriod = flushPeriod;
+        this.flushPeriodUnit = requireNonNull(flushPeriodUnit);
+    }
+
+    @Override
+    protected ReplicaStore delegate()
+    {
+        return inner;
+    }
+
+    private boolean isEnabled()
+    {
+        return flushPeriod > 0;
+    }
+
+    @Override
+    public void init() throws CacheException
+    {
+        super.init();
+        if (isEnabled()) {
+            executor = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("atime-flush-%d").setDaemon(true).build());
+            executor.scheduleWithFixedDelay(this::flush, flushPeriod, flushPeriod, flushPeriodUnit);
+        }
+    }
+
+    @Override
+    public ReplicaRecord get(PnfsId id) throws CacheException
+    {
+        ReplicaRecord record = super.get(id);
+        return (record == null || !isEnabled()) ? record : new AccessTimeReplicaRecord(record, this);
+    }
+
+    @Override
+    public ReplicaRecord create(PnfsId id, Set<? extends OpenOption> flags)
+            throws DuplicateEntryException, CacheException
+    {
+        ReplicaRecord record = super.create(id, flags);
+        return isEnabled() ? new AccessTimeReplicaRecord(record, this) : record;
+    }
+
+    @Override
+    public void remove(PnfsId id) throws CacheException
+    {
+        Lock lock = locks.get(id);
+        lock.lock();
+        try {
+            dirty.remove(id);
+            super.remove(id);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void remove(Collection<PnfsId> ids) throws CacheException
+    {
+        /* bulkGet returns the stripes in a consistent order, thus avoiding deadlocks. */
+        List<Lock> stripes = Lists.newArrayList(locks.bulkGet(ids));
+        stripes.forEach(Lock::lock);
+        try {
+            dirty.keySet().removeAll(ids);
+            super.remove(ids);
+        } finally {
+            Lists.reverse(stripes).forEach(Lock::unlock);
+        }
+    }
+
+    @Override
+    public boolean isOk()
+    {
+        return !isFailed && super.isOk();
+    }
+
+    @Override
+    public void close()
+    {
+        if (executor != null) {
+            executor.shutdownNow();
+            try {
+                executor.awaitTermination(1, TimeUnit.MINUTES);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            flush();
+        }
+        super.close();
+    }
+
+    void markDirty(AccessTimeReplicaRecord record)
+    {
+        updates.increment();
+        dirty.put(record.getPnfsId(), record);
+    }
+
+    /**
+     * Writes all pending access times to the inner store.
+     */
+    void flush()
+    {
+        Stopwatch watch = Stopwatch.createStarted();
+        for (PnfsId id : dirty.keySet()) {
+            Lock lock = locks.get(id);
+            lock.lock();
+            try {
+                AccessTimeReplicaRecord record = dirty.remove(id);
+                if (record != null) {
+                    ReplicaState state = record.getState();
+                    if (state != ReplicaState.REMOVED && state != ReplicaState.DESTROYED) {
+                        record.flush();
+                        writes.increment();
+                    }
+                }
+            } catch (DiskErrorCacheException e) {
+                LOGGER.error("Failed to write access time of {}: {}", id, messageOrClassName(e));
+                isFailed = true;
+            } catch (CacheException | RuntimeException e) {
+                LOGGER.warn("Failed to write access time of {}: {}", id, messageOrClassName(e));
+            } finally {
+                lock.unlock();
+            }
+        }
+        lastFlushDuration = watch.elapsed(TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public void getInfo(PrintWriter pw)
+    {
+        if (isEnabled()) {
+            long updates = this.updates.sum();
+            long writes = this.writes.sum();
+            pw.println("Access time flush:");
+            pw.println("    Period          : " + TimeUtils.duration(flushPeriod, flushPeriodUnit,
+                                                                     TimeUtils.TimeUnitFormat.SHORT));
+            pw.println("    Pending         : " + dirty.size());
+            pw.println("    Updates         : " + updates);
+            pw.println("    Writes          : " + writes);
+            pw.println("    Last flush took : " + lastFlushDuration + " ms");
+        }
+    }
+}
@@ -0,0 +1,392 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2020 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.pool.repository.blockcache;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import diskCacheV111.util.PnfsId;
+
+import dmg.cells.nucleus.CellInfoProvider;
+
+import org.dcache.pool.PoolDataBeanProvider;
+import org.dcache.pool.repository.AlignedBufferPool;
+import org.dcache.pool.repository.json.BlockCacheData;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Throwables.throwIfInstanceOf;
+import static com.google.common.base.Throwables.throwIfUnchecked;
+
+/**
+ * An in-memory cache of fixed size blocks of replicas shared by all readers
+ * of a pool.
+ *
+ * Blocks are stored in direct buffers taken from a bounded pool that is
+ * allocated on demand and never shrinks, thus the memory used by the cache
+ * never exceeds its limit, independent of when the garbage collector runs.
+ * Blocks are evicted in approximately least recently used order once the
+ * memory limit is reached. A buffer is returned to the pool when its block
+ * has been evicted and no reader is copying from it anymore. To avoid that
+ * a single large sequential read flushes the cache, blocks are only added
+ * for replicas that are currently open by several readers. Blocks that are
+ * already cached are served to any reader.
+ *
+ * Concurrent readers missing the same block wait for a single read of that
+ * block from disk.
+ */
+public class BlockCache implements CellInfoProvider, PoolDataBeanProvider<BlockCacheData>
+{
+    /**
+     * Reads a block from disk.
+     */
+    @FunctionalInterface
+    interface Loader
+    {
+        /**
+         * Fills the given cleared buffer with the block and flips it. The
+         * buffer may be larger than the block.
+         */
+        void load(ByteBuffer buffer) throws IOException;
+    }
+
+    private final int blockSize;
+    private final long maxMemory;
+    private final int minReaders;
+
+    private final AlignedBufferPool buffers;
+
+    private final Cache<Key, Block> blocks;
+
+    /**
+     * Index of the cached blocks of each replica. The sets are only
+     * accessed while computing the mapping of their replica.
+     */
+    private final ConcurrentMap<PnfsId, Set<Long>> blocksByReplica = new ConcurrentHashMap<>();
+
+    /**
+     * Number of open channels per replica.
+     */
+    private final ConcurrentMap<PnfsId, Integer> readers = new ConcurrentHashMap<>();
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder bypassed = new LongAdder();
+
+    /**
+     * @param blockSize size of the cached blocks in bytes; must be a
+     * multiple of {@link AlignedBufferPool#ALIGNMENT}
+     * @param maxMemory upper limit of memory used by all blocks in bytes;
+     * the cache is disabled if smaller than blockSize
+     * @param minReaders the number of concurrent readers of a replica at
+     * which blocks of that replica are added to the cache
+     */
+    public BlockCache(int blockSize, long maxMemory, int minReaders)
+    {
+        checkArgument(blockSize > 0, "Block size must be positive");
+        checkArgument(maxMemory >= 0, "Memory limit must not be negative");
+        checkArgument(minReaders > 0, "Minimum number of readers must be positive");
+        this.blockSize = blockSize;
+        this.maxMemory = maxMemory;
+        this.minReaders = minReaders;
+        this.buffers = new AlignedBufferPool(blockSize, maxMemory);
+
+        /* Blocks are only evicted after a new block has been loaded, and
+         * evicted blocks may still be read from. Part of the buffers is
+         * therefore reserved for blocks that are not in the cache. The
+         * remaining memory is divided between the segments of the cache,
+         * hence each segment has to hold several blocks.
+         */
+        long maxBlocks = maxMemory / blockSize;
+        long maxCachedBlocks = maxBlocks - Math.max(1, maxBlocks / 16);
+        this.blocks = CacheBuilder.newBuilder()
+                .concurrencyLevel((int) Math.max(1, Math.min(16, maxCachedBlocks / 8)))
+                .maximumWeight(Math.max(0, maxCachedBlocks) * blockSize)
+                .<Key, Block>weigher((key, block) -> blockSize)
+                .removalListener(this::removed)
+                .recordStats()
+                .build();
+    }
+
+    public boolean isEnabled()
+    {
+        return maxMemory >= blockSize;
+    }
+
+    public int getBlockSize()
+    {
+        return blockSize;
+    }
+
+    void opened(PnfsId id)
+    {
+        readers.merge(id, 1, Integer::sum);
+    }
+
+    void closed(PnfsId id)
+    {
+        readers.computeIfPresent(id, (key, count) -> count > 1 ? count - 1 : null);
+    }
+
+    /**
+     * Copies data from the given block of a replica to a buffer, starting
+     * at the given offset within the block.
+     *
+     * Returns the number of bytes copied, or -1 if the block is not cached
+     * and is not to be added to the cache, either because the replica is not
+     * popular enough or because all buffers are in use. In that case the
+     * caller has to read the data from disk itself.
+     *
+     * @param loader reads the block from disk if it is to be cached
+     */
+    int read(PnfsId id, long block, int offset, ByteBuffer dst, Loader loader)
+            throws IOException
+    {
+        Key key = new Key(id, block);
+        Block data = blocks.getIfPresent(key);
+        if (data != null && data.retain()) {
+            hits.increment();
+        } else if (readers.getOrDefault(id, 0) < minReaders) {
+            bypassed.increment();
+            return -1;
+        } else {
+            do {
+                try {
+                    data = blocks.get(key, () -> load(key, loader));
+                } catch (ExecutionException | UncheckedExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof NoBufferException) {
+                        bypassed.increment();
+                        return -1;
+                    }
+                    throwIfInstanceOf(cause, IOException.class);
+                    throwIfUnchecked(cause);
+                    throw new RuntimeException(cause);
+                }
+                /* The block may have been evicted and its buffer released
+                 * before we got hold of it.
+                 */
+            } while (!data.retain());
+        }
+        try {
+            ByteBuffer buffer = data.buffer.duplicate();
+            buffer.position(offset);
+            if (buffer.remaining() > dst.remaining()) {
+                buffer.limit(offset + dst.remaining());
+            }
+            int count = buffer.remaining();
+            dst.put(buffer);
+            return count;
+        } finally {
+            data.release();
+        }
+    }
+
+    private Block load(Key key, Loader loader) throws IOException
+    {
+        ByteBuffer buffer = buffers.tryAcquire();
+        if (buffer == null) {
+            throw new NoBufferException();
+        }
+        try {
+            loader.load(buffer);
+        } catch (IOException | RuntimeException e) {
+            buffers.release(buffer);
+            throw e;
+        }
+        misses.increment();
+        blocksByReplica.compute(key.id, (id, set) -> {
+            Set<Long> result = (set == null) ? new HashSet<>() : set;
+            result.add(key.block);
+            return result;
+        });
+        return new Block(buffer);
+    }
+
+    private void removed(RemovalNotification<Key, Block> notification)
+    {
+        Key key = notification.getKey();
+        blocksByReplica.computeIfPresent(key.id, (id, set) -> {
+            set.remove(key.block);
+            return set.isEmpty() ? null : set;
+        });
+        notification.getValue().release();
+    }
+
+    /**
+     * Removes all blocks of a replica.
+     */
+    public void invalidate(PnfsId id)
+    {
+        Set<Long> cached = blocksByReplica.remove(id);
+        if (cached != null) {
+            blocks.invalidateAll(keysOf(id, cached));
+        }
+    }
+
+    /**
+     * Removes all blocks of several replicas.
+     */
+    public void invalidateAll(Collection<PnfsId> ids)
+    {
+        List<Key> keys = new ArrayList<>();
+        for (PnfsId id : ids) {
+            Set<Long> cached = blocksByReplica.remove(id);
+            if (cached != null) {
+                keys.addAll(keysOf(id, cached));
+            }
+        }
+        if (!keys.isEmpty()) {
+            blocks.invalidateAll(keys);
+        }
+    }
+
+    private static List<Key> keysOf(PnfsId id, Set<Long> cached)
+    {
+        List<Key> keys = new ArrayList<>(cached.size());
+        for (long block : cached) {
+            keys.add(new Key(id, block));
+        }
+        return keys;
+    }
+
+    @Override
+    public void getInfo(PrintWriter pw)
+    {
+        getDataObject().print(pw);
+    }
+
+    @Override
+    public BlockCacheData getDataObject()
+    {
+        BlockCacheData info = new BlockCacheData();
+        info.setLabel("Block cache");
+        info.setEnabled(isEnabled());
+        info.setBlockSize(blockSize);
+        info.setMaxMemory(maxMemory);
+        info.setUsedMemory(blocks.size() * blockSize);
+        info.setBlocks(blocks.size());
+        info.setHotFiles(readers.values().stream().filter(count -> count >= minReaders).count());
+        info.setHits(hits.sum());
+        info.setMisses(misses.sum());
+        info.setBypassed(bypassed.sum());
+        info.setEvictions(blocks.stats().evictionCount());
+        return info;
+    }
+
+    /**
+     * A cached block. The buffer is returned to the pool once the block has
+     * been removed from the cache and all readers have released it.
+     */
+    private class Block
+    {
+        private final ByteBuffer buffer;
+
+        /**
+         * One reference held by the cache plus one for every reader.
+         */
+        private final AtomicInteger references = new AtomicInteger(1);
+
+        Block(ByteBuffer buffer)
+        {
+            this.buffer = buffer;
+        }
+
+        /**
+         * Adds a reference, unless the buffer was already released.
+         */
+        boolean retain()
+        {
+            int count;
+            do {
+                count = references.get();
+                if (count == 0) {
+                    return false;
+                }
+            } while (!references.compareAndSet(count, count + 1));
+            return true;
+        }
+
+        void release()
+        {
+            if (references.decrementAndGet() == 0) {
+                buffers.release(buffer);
+            }
+        }
+    }
+
+    /**
+     * Thrown by the loader if no buffer is available for the block.
+     */
+    private static class NoBufferException extends RuntimeException
+    {
+        private static final long serialVersionUID = 1L;
+
+        NoBufferException()
+        {
+            super(null, null, false, false);
+        }
+    }
+
+    private static class Key
+    {
+        private final PnfsId id;
+        private final long block;
+
+        Key(PnfsId id, long block)
+        {
+            this.id = id;
+            this.block = block;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return block == other.block && id.equals(other.id);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(id, block);
+        }
+    }
+}
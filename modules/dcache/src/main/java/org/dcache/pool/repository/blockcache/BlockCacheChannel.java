@@ -0,0 +1,101 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2020 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.pool.repository.blockcache;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import diskCacheV111.util.PnfsId;
+
+import org.dcache.pool.repository.ForwardingRepositoryChannel;
+import org.dcache.pool.repository.RepositoryChannel;
+
+/**
+ * A read-only RepositoryChannel serving positional reads through a
+ * {@link BlockCache}. All other operations are passed to the inner channel.
+ */
+public class BlockCacheChannel extends ForwardingRepositoryChannel
+{
+    private final RepositoryChannel inner;
+    private final BlockCache cache;
+    private final PnfsId id;
+    private final long size;
+    private final int blockSize;
+    private boolean isClosed;
+
+    public BlockCacheChannel(RepositoryChannel inner, BlockCache cache, PnfsId id)
+            throws IOException
+    {
+        this.inner = inner;
+        this.cache = cache;
+        this.id = id;
+        this.size = inner.size();
+        this.blockSize = cache.getBlockSize();
+        cache.opened(id);
+    }
+
+    @Override
+    protected RepositoryChannel delegate()
+    {
+        return inner;
+    }
+
+    @Override
+    public int read(ByteBuffer dst, long position) throws IOException
+    {
+        if (position >= size) {
+            return dst.hasRemaining() ? -1 : 0;
+        }
+
+        int total = 0;
+        while (dst.hasRemaining() && position < size) {
+            long block = position / blockSize;
+            int offset = (int) (position - block * blockSize);
+            int count = cache.read(id, block, offset, dst, buffer -> load(block, buffer));
+            if (count < 0) {
+                return total > 0 ? total : inner.read(dst, position);
+            }
+            total += count;
+            position += count;
+        }
+        return total;
+    }
+
+    private void load(long block, ByteBuffer data) throws IOException
+    {
+        long offset = block * blockSize;
+        data.limit((int) Math.min(blockSize, size - offset));
+        while (data.hasRemaining()) {
+            if (inner.read(data, offset + data.position()) < 0) {
+                throw new EOFException("Unexpected end of file at " + (offset + data.position()));
+            }
+        }
+        data.flip();
+    }
+
+    @Override
+    public synchronized void close() throws IOException
+    {
+        if (!isClosed) {
+            isClosed = true;
+            cache.closed(id);
+        }
+        inner.close();
+    }
+}
@@ -0,0 +1,85 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2020 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.pool.repository.blockcache;
+
+import java.io.IOException;
+import java.nio.file.OpenOption;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.dcache.pool.repository.ForwardingReplicaRecord;
+import org.dcache.pool.repository.ReplicaRecord;
+import org.dcache.pool.repository.RepositoryChannel;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A ReplicaRecord that delegates all activity to some inner ReplicaRecord while
+ * offering the possibility to serve reads from a shared block cache.
+ */
+public class BlockCacheReplicaRecord extends ForwardingReplicaRecord
+{
+    private final ReplicaRecord inner;
+
+    private final BlockCache cache;
+
+    public enum OpenFlags implements OpenOption
+    {
+        /**
+         * Specifying this flag results in positional reads being served
+         * through the block cache of the pool, provided the cache is enabled.
+         * Must only be used for channels of complete replicas opened for
+         * reading.
+         */
+        ENABLE_BLOCK_CACHE,
+    }
+
+    public BlockCacheReplicaRecord(ReplicaRecord inner, BlockCache cache)
+    {
+        this.inner = requireNonNull(inner);
+        this.cache = requireNonNull(cache);
+    }
+
+    @Override
+    public ReplicaRecord delegate()
+    {
+        return inner;
+    }
+
+    @Override
+    public synchronized RepositoryChannel openChannel(Set<? extends OpenOption> mode)
+            throws IOException
+    {
+        if (mode.contains(OpenFlags.ENABLE_BLOCK_CACHE)) {
+            mode = new HashSet<>(mode);
+            mode.remove(OpenFlags.ENABLE_BLOCK_CACHE);
+            RepositoryChannel channel = super.openChannel(mode);
+            if (!cache.isEnabled()) {
+                return channel;
+            }
+            try {
+                return new BlockCacheChannel(channel, cache, getPnfsId());
+            } catch (IOException | RuntimeException e) {
+                channel.close();
+                throw e;
+            }
+        } else {
+            return super.openChannel(mode);
+        }
+    }
+}
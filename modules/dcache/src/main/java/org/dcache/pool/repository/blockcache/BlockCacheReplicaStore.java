@@ -0,0 +1,83 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2020 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.pool.repository.blockcache;
+
+import java.nio.file.OpenOption;
+import java.util.Collection;
+import java.util.Set;
+
+import diskCacheV111.util.CacheException;
+import diskCacheV111.util.PnfsId;
+
+import org.dcache.pool.repository.DuplicateEntryException;
+import org.dcache.pool.repository.ForwardingReplicaStore;
+import org.dcache.pool.repository.ReplicaRecord;
+import org.dcache.pool.repository.ReplicaStore;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Wrap some existing ReplicaStore and add support for serving reads of
+ * popular replicas from memory.
+ */
+public class BlockCacheReplicaStore extends ForwardingReplicaStore
+{
+    private final ReplicaStore inner;
+
+    private final BlockCache cache;
+
+    public BlockCacheReplicaStore(ReplicaStore inner, BlockCache cache)
+    {
+        this.inner = requireNonNull(inner);
+        this.cache = requireNonNull(cache);
+    }
+
+    @Override
+    protected ReplicaStore delegate()
+    {
+        return inner;
+    }
+
+    @Override
+    public ReplicaRecord get(PnfsId id) throws CacheException
+    {
+        ReplicaRecord record = super.get(id);
+        return record == null ? null : new BlockCacheReplicaRecord(record, cache);
+    }
+
+    @Override
+    public ReplicaRecord create(PnfsId id, Set<? extends OpenOption> flags)
+            throws DuplicateEntryException, CacheException
+    {
+        return new BlockCacheReplicaRecord(super.create(id, flags), cache);
+    }
+
+    @Override
+    public void remove(PnfsId id) throws CacheException
+    {
+        cache.invalidate(id);
+        super.remove(id);
+    }
+
+    @Override
+    public void remove(Collection<PnfsId> ids) throws CacheException
+    {
+        cache.invalidateAll(ids);
+        super.remove(ids);
+    }
+}
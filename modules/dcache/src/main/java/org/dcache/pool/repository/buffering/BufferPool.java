@@ -0,0 +1,142 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2020 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.pool.repository.buffering;
+
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import dmg.cells.nucleus.CellInfoProvider;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * A bounded pool of direct buffers shared by all {@link BufferingChannel}s of
+ * a pool. Buffers are allocated on demand until the memory limit is reached
+ * and are reused afterwards. The pool also collects the statistics of the
+ * channels using it.
+ */
+public class BufferPool implements CellInfoProvider
+{
+    private final int bufferSize;
+    private final int maxBuffers;
+
+    private final Queue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger allocated = new AtomicInteger();
+    private final AtomicInteger inUse = new AtomicInteger();
+
+    private final LongAdder readHits = new LongAdder();
+    private final LongAdder readMisses = new LongAdder();
+    private final LongAdder readAheadBytes = new LongAdder();
+    private final LongAdder bufferedWrites = new LongAdder();
+    private final LongAdder flushes = new LongAdder();
+    private final LongAdder exhausted = new LongAdder();
+
+    /**
+     * @param bufferSize size of each buffer in bytes
+     * @param maxMemory upper limit of memory used by all buffers in bytes;
+     * buffering is disabled if smaller than bufferSize
+     */
+    public BufferPool(int bufferSize, long maxMemory)
+    {
+        checkArgument(bufferSize > 0, "Buffer size must be positive");
+        checkArgument(maxMemory >= 0, "Memory limit must not be negative");
+        this.bufferSize = bufferSize;
+        this.maxBuffers = (int) Math.min(Integer.MAX_VALUE, maxMemory / bufferSize);
+    }
+
+    public boolean isEnabled()
+    {
+        return maxBuffers > 0;
+    }
+
+    public int getBufferSize()
+    {
+        return bufferSize;
+    }
+
+    /**
+     * Returns a cleared buffer or null if the memory limit has been reached.
+     */
+    ByteBuffer tryAcquire()
+    {
+        ByteBuffer buffer = free.poll();
+        if (buffer == null) {
+            int count;
+            do {
+                count = allocated.get();
+                if (count >= maxBuffers) {
+                    exhausted.increment();
+                    return null;
+                }
+            } while (!allocated.compareAndSet(count, count + 1));
+            buffer = ByteBuffer.allocateDirect(bufferSize);
+        }
+        inUse.incrementAndGet();
+        buffer.clear();
+        return buffer;
+    }
+
+    void release(ByteBuffer buffer)
+    {
+        inUse.decrementAndGet();
+        free.add(buffer);
+    }
+
+    void readHit()
+    {
+        readHits.increment();
+    }
+
+    void readMiss(long bytesReadAhead)
+    {
+        readMisses.increment();
+        readAheadBytes.add(bytesReadAhead);
+    }
+
+    void bufferedWrite()
+    {
+        bufferedWrites.increment();
+    }
+
+    void flushed()
+    {
+        flushes.increment();
+    }
+
+    @Override
+    public void getInfo(PrintWriter pw)
+    {
+        pw.println("IO buffering");
+        if (!isEnabled()) {
+            pw.println("    disabled");
+            return;
+        }
+        pw.println("    Buffers in use   : " + inUse.get() + " of " + maxBuffers
+                + " (" + bufferSize + " bytes each, " + allocated.get() + " allocated)");
+        pw.println("    Pool exhausted   : " + exhausted.sum());
+        pw.println("    Read-ahead hits  : " + readHits.sum());
+        pw.println("    Read-ahead misses: " + readMisses.sum()
+                + " (" + readAheadBytes.sum() + " bytes read ahead)");
+        pw.println("    Buffered writes  : " + bufferedWrites.sum());
+        pw.println("    Write-behind     : " + flushes.sum() + " flushes");
+    }
+}
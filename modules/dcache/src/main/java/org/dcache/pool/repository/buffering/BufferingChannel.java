@@ -0,0 +1,491 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2020 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.pool.repository.buffering;
+
+import javax.annotation.concurrent.GuardedBy;
+
+import java.io.IOException;
+import java.io.SyncFailedException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+import org.dcache.pool.repository.ForwardingRepositoryChannel;
+import org.dcache.pool.repository.RepositoryChannel;
+
+import static org.dcache.util.ByteUnit.KiB;
+
+/**
+ * A RepositoryChannel decorator that performs adaptive read-ahead and
+ * write-behind for positional IO.
+ *
+ * Once a few consecutive positional reads have been sequential, small reads
+ * are served from a buffer that is filled with a single larger read. The
+ * size of that read starts small and doubles each time the buffer has been
+ * consumed sequentially, up to the buffer size of the pool. Random access
+ * resets the window and returns the buffer to the pool.
+ *
+ * Small positional writes that continue the previous write are collected in
+ * a buffer and written once it is full or before any other operation. An
+ * error writing buffered data is therefore reported by a later operation,
+ * at the latest when the channel is closed.
+ *
+ * Buffers are taken from a shared {@link BufferPool}; if none is available
+ * the channel falls back to unbuffered IO. All other operations flush
+ * pending writes and are passed to the inner channel.
+ *
+ * The read-ahead and the write-behind state are guarded by separate locks,
+ * which are only held while the respective buffer is used. Reads and writes
+ * that are not buffered are passed to the inner channel without holding
+ * either lock, thus concurrent random access is not serialized. Read-ahead
+ * data overlapping a range is discarded after that range has been written
+ * to the inner channel. If both locks are needed, writeLock is acquired
+ * before readLock.
+ */
+public class BufferingChannel extends ForwardingRepositoryChannel
+{
+    /**
+     * Initial size of the read-ahead window.
+     */
+    private static final int MIN_WINDOW = KiB.toBytes(64);
+
+    /**
+     * Number of consecutive sequential requests before buffering starts.
+     */
+    private static final int SEQUENTIAL_THRESHOLD = 2;
+
+    private final RepositoryChannel inner;
+
+    private final BufferPool pool;
+
+    private final Object readLock = new Object();
+
+    private final Object writeLock = new Object();
+
+    /**
+     * Read-ahead data. Content between zero and limit corresponds to the
+     * file starting at readStart.
+     */
+    @GuardedBy("readLock")
+    private ByteBuffer readBuffer;
+
+    @GuardedBy("readLock")
+    private long readStart;
+
+    @GuardedBy("readLock")
+    private int window = MIN_WINDOW;
+
+    @GuardedBy("readLock")
+    private long nextRead = -1;
+
+    @GuardedBy("readLock")
+    private int sequentialReads;
+
+    /**
+     * Pending writes. Content between zero and position is to be written to
+     * the file starting at writeStart.
+     */
+    @GuardedBy("writeLock")
+    private ByteBuffer writeBuffer;
+
+    @GuardedBy("writeLock")
+    private long writeStart;
+
+    @GuardedBy("writeLock")
+    private long nextWrite = -1;
+
+    @GuardedBy("writeLock")
+    private int sequentialWrites;
+
+    /**
+     * Whether writeBuffer holds data not yet written to the inner channel.
+     * Allows reads to skip acquiring writeLock in the common case.
+     */
+    private volatile boolean hasPendingWrites;
+
+    public BufferingChannel(RepositoryChannel inner, BufferPool pool)
+    {
+        this.inner = inner;
+        this.pool = pool;
+    }
+
+    @Override
+    protected RepositoryChannel delegate()
+    {
+        return inner;
+    }
+
+    @Override
+    public int read(ByteBuffer dst, long position) throws IOException
+    {
+        flushPendingWrites();
+
+        int total = 0;
+        synchronized (readLock) {
+            if (position == nextRead) {
+                sequentialReads++;
+            } else {
+                sequentialReads = 0;
+                window = MIN_WINDOW;
+            }
+
+            boolean isMiss = false;
+            boolean isUnbuffered = false;
+            while (dst.hasRemaining()) {
+                int count = copyFromReadBuffer(dst, position);
+                if (count == 0) {
+                    if (sequentialReads < SEQUENTIAL_THRESHOLD || dst.remaining() >= window) {
+                        releaseReadBuffer();
+                        isUnbuffered = true;
+                        break;
+                    }
+                    if (!fill(position)) {
+                        isUnbuffered = true;
+                        break;
+                    }
+                    isMiss = true;
+                    count = copyFromReadBuffer(dst, position);
+                    if (count == 0) {
+                        break;
+                    }
+                }
+                total += count;
+                position += count;
+            }
+
+            if (isMiss) {
+                pool.readMiss(readBuffer == null ? 0 : readBuffer.limit());
+            } else if (total > 0 && readBuffer != null) {
+                pool.readHit();
+            }
+
+            nextRead = position;
+            if (!isUnbuffered) {
+                return total == 0 && dst.hasRemaining() ? -1 : total;
+            }
+        }
+
+        int count = inner.read(dst, position);
+        if (count > 0) {
+            total += count;
+            synchronized (readLock) {
+                if (nextRead == position) {
+                    nextRead = position + count;
+                }
+            }
+        }
+        return total == 0 && dst.hasRemaining() ? -1 : total;
+    }
+
+    @GuardedBy("readLock")
+    private int copyFromReadBuffer(ByteBuffer dst, long position)
+    {
+        if (readBuffer == null || position < readStart || position >= readStart + readBuffer.limit()) {
+            return 0;
+        }
+        ByteBuffer data = readBuffer.duplicate();
+        data.position((int) (position - readStart));
+        if (data.remaining() > dst.remaining()) {
+            data.limit(data.position() + dst.remaining());
+        }
+        int count = data.remaining();
+        dst.put(data);
+        return count;
+    }
+
+    /**
+     * Fills the read-ahead buffer with data starting at position. Returns
+     * false if no buffer is available.
+     */
+    @GuardedBy("readLock")
+    private boolean fill(long position) throws IOException
+    {
+        if (readBuffer == null) {
+            readBuffer = pool.tryAcquire();
+            if (readBuffer == null) {
+                return false;
+            }
+        } else if (position == readStart + readBuffer.limit()) {
+            /* The previous buffer was consumed sequentially. */
+            window = Math.min(window * 2, readBuffer.capacity());
+        }
+
+        readBuffer.clear().limit(Math.min(window, readBuffer.capacity()));
+        readStart = position;
+        try {
+            while (readBuffer.hasRemaining()) {
+                if (inner.read(readBuffer, position + readBuffer.position()) < 0) {
+                    break;
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            releaseReadBuffer();
+            throw e;
+        }
+        readBuffer.flip();
+        return true;
+    }
+
+    @GuardedBy("readLock")
+    private void releaseReadBuffer()
+    {
+        if (readBuffer != null) {
+            pool.release(readBuffer);
+            readBuffer = null;
+        }
+    }
+
+    /**
+     * Discards read-ahead data overlapping the given range.
+     */
+    private void invalidate(long position, long length)
+    {
+        synchronized (readLock) {
+            if (readBuffer != null && position < readStart + readBuffer.limit()
+                    && readStart < position + length) {
+                releaseReadBuffer();
+            }
+        }
+    }
+
+    /**
+     * Discards all read-ahead data.
+     */
+    private void invalidate()
+    {
+        synchronized (readLock) {
+            releaseReadBuffer();
+        }
+    }
+
+    @Override
+    public int write(ByteBuffer src, long position) throws IOException
+    {
+        int length = src.remaining();
+
+        synchronized (writeLock) {
+            if (position == nextWrite) {
+                sequentialWrites++;
+            } else {
+                sequentialWrites = 0;
+            }
+            nextWrite = position + length;
+
+            if (writeBuffer != null && writeBuffer.position() > 0
+                    && position == writeStart + writeBuffer.position()
+                    && length <= writeBuffer.remaining()) {
+                writeBuffer.put(src);
+                pool.bufferedWrite();
+                if (!writeBuffer.hasRemaining()) {
+                    flush();
+                }
+                return length;
+            }
+
+            flush();
+
+            if (sequentialWrites >= SEQUENTIAL_THRESHOLD && length < pool.getBufferSize()) {
+                if (writeBuffer == null) {
+                    writeBuffer = pool.tryAcquire();
+                }
+                if (writeBuffer != null) {
+                    writeStart = position;
+                    writeBuffer.put(src);
+                    hasPendingWrites = true;
+                    pool.bufferedWrite();
+                    return length;
+                }
+            } else if (writeBuffer != null) {
+                pool.release(writeBuffer);
+                writeBuffer = null;
+            }
+        }
+
+        try {
+            return inner.write(src, position);
+        } finally {
+            invalidate(position, length);
+        }
+    }
+
+    /**
+     * Writes any pending data to the inner channel. The pending data is
+     * discarded even if writing fails.
+     */
+    @GuardedBy("writeLock")
+    private void flush() throws IOException
+    {
+        if (writeBuffer != null && writeBuffer.position() > 0) {
+            long start = writeStart;
+            int length = writeBuffer.position();
+            writeBuffer.flip();
+            try {
+                while (writeBuffer.hasRemaining()) {
+                    inner.write(writeBuffer, writeStart + writeBuffer.position());
+                }
+            } finally {
+                writeBuffer.clear();
+                hasPendingWrites = false;
+                pool.flushed();
+                invalidate(start, length);
+            }
+        }
+    }
+
+    private void flushPendingWrites() throws IOException
+    {
+        if (hasPendingWrites) {
+            synchronized (writeLock) {
+                flush();
+            }
+        }
+    }
+
+    @Override
+    public void sync() throws SyncFailedException, IOException
+    {
+        flushPendingWrites();
+        inner.sync();
+    }
+
+    @Override
+    public long transferTo(long position, long count, WritableByteChannel target)
+            throws IOException
+    {
+        flushPendingWrites();
+        return inner.transferTo(position, count, target);
+    }
+
+    @Override
+    public long transferFrom(ReadableByteChannel src, long position, long count)
+            throws IOException
+    {
+        flushPendingWrites();
+        try {
+            return inner.transferFrom(src, position, count);
+        } finally {
+            invalidate(position, count);
+        }
+    }
+
+    @Override
+    public int read(ByteBuffer dst) throws IOException
+    {
+        flushPendingWrites();
+        return inner.read(dst);
+    }
+
+    @Override
+    public int write(ByteBuffer src) throws IOException
+    {
+        flushPendingWrites();
+        try {
+            return inner.write(src);
+        } finally {
+            invalidate();
+        }
+    }
+
+    @Override
+    public long position() throws IOException
+    {
+        return inner.position();
+    }
+
+    @Override
+    public SeekableByteChannel position(long newPosition) throws IOException
+    {
+        inner.position(newPosition);
+        return this;
+    }
+
+    @Override
+    public long size() throws IOException
+    {
+        flushPendingWrites();
+        return inner.size();
+    }
+
+    @Override
+    public SeekableByteChannel truncate(long size) throws IOException
+    {
+        flushPendingWrites();
+        try {
+            inner.truncate(size);
+        } finally {
+            invalidate();
+        }
+        return this;
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs, int offset, int length) throws IOException
+    {
+        flushPendingWrites();
+        try {
+            return inner.write(srcs, offset, length);
+        } finally {
+            invalidate();
+        }
+    }
+
+    @Override
+    public long write(ByteBuffer[] srcs) throws IOException
+    {
+        flushPendingWrites();
+        try {
+            return inner.write(srcs);
+        } finally {
+            invalidate();
+        }
+    }
+
+    @Override
+    public long read(ByteBuffer[] dsts, int offset, int length) throws IOException
+    {
+        flushPendingWrites();
+        return inner.read(dsts, offset, length);
+    }
+
+    @Override
+    public long read(ByteBuffer[] dsts) throws IOException
+    {
+        flushPendingWrites();
+        return inner.read(dsts);
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        synchronized (writeLock) {
+            synchronized (readLock) {
+                try {
+                    flush();
+                } finally {
+                    releaseReadBuffer();
+                    if (writeBuffer != null) {
+                        pool.release(writeBuffer);
+                        writeBuffer = null;
+                    }
+                    inner.close();
+                }
+            }
+        }
+    }
+}
@@ -19,6 +19,7 @@ package org.dcache.pool.repository.checksums;
 
 import java.nio.file.OpenOption;
 import java.util.Set;
+import java.util.concurrent.Executor;
 
 import diskCacheV111.util.CacheException;
 import diskCacheV111.util.PnfsId;
@@ -37,6 +38,7 @@ public class ChecksumReplicaStore extends ForwardingReplicaStore
 {
     private final ReplicaStore inner;
     private final ChecksumModuleV1 csm;
+    private Executor digestExecutor;
 
     public ChecksumReplicaStore(ReplicaStore inner, ChecksumModuleV1 csm)
     {
@@ -44,6 +46,16 @@ public class ChecksumReplicaStore extends ForwardingReplicaStore
         this.csm = csm;
     }
 
+    /**
+     * Sets the executor used to compute several checksum types of a
+     * replica concurrently while the replica is being written. If not
+     * set, the writing thread computes all checksums itself.
+     */
+    public void setDigestExecutor(Executor executor)
+    {
+        digestExecutor = executor;
+    }
+
     @Override
     protected ReplicaStore delegate()
     {
@@ -54,6 +66,7 @@ public class ChecksumReplicaStore extends ForwardingReplicaStore
     public ReplicaRecord create(PnfsId id, Set<? extends OpenOption> flags)
             throws DuplicateEntryException, CacheException
     {
-        return new ChecksumReplicaRecord(super.create(id, flags), csm.getDefaultChecksumTypes());
+        return new ChecksumReplicaRecord(super.create(id, flags), csm.getDefaultChecksumTypes(),
+                                         digestExecutor);
     }
 }
@@ -0,0 +1,152 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2020 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.pool.repository.json;
+
+import java.io.PrintWriter;
+import java.io.Serializable;
+
+/**
+ * <p>Corresponds to the information delivered
+ * from the {@link org.dcache.pool.repository.blockcache.BlockCache} using
+ * {@link dmg.cells.nucleus.CellInfoProvider#getInfo(PrintWriter)}.</p>
+ */
+public class BlockCacheData implements Serializable {
+    private static final long serialVersionUID = 3181958375611394802L;
+    private String  label;
+    private boolean enabled;
+    private Integer blockSize;
+    private Long    maxMemory;
+    private Long    usedMemory;
+    private Long    blocks;
+    private Long    hotFiles;
+    private Long    hits;
+    private Long    misses;
+    private Long    bypassed;
+    private Long    evictions;
+
+    public Integer getBlockSize() {
+        return blockSize;
+    }
+
+    public Long getBlocks() {
+        return blocks;
+    }
+
+    public Long getBypassed() {
+        return bypassed;
+    }
+
+    public Long getEvictions() {
+        return evictions;
+    }
+
+    public Double getHitRatio() {
+        if (hits == null || misses == null || bypassed == null) {
+            return null;
+        }
+        long total = hits + misses + bypassed;
+        return total == 0 ? 0.0 : (double) hits / total;
+    }
+
+    public Long getHits() {
+        return hits;
+    }
+
+    public Long getHotFiles() {
+        return hotFiles;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public Long getMaxMemory() {
+        return maxMemory;
+    }
+
+    public Long getMisses() {
+        return misses;
+    }
+
+    public Long getUsedMemory() {
+        return usedMemory;
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public void print(PrintWriter pw) {
+        pw.println(label);
+        if (!enabled) {
+            pw.println("    disabled");
+            return;
+        }
+        pw.println("    Memory    : " + usedMemory + " of " + maxMemory
+                           + " (" + blocks + " blocks of " + blockSize + " bytes)");
+        pw.println("    Hot files : " + hotFiles);
+        pw.println("    Hits      : " + hits + "    [" + getHitRatio() + "]");
+        pw.println("    Misses    : " + misses);
+        pw.println("    Bypassed  : " + bypassed);
+        pw.println("    Evictions : " + evictions);
+    }
+
+    public void setBlockSize(Integer blockSize) {
+        this.blockSize = blockSize;
+    }
+
+    public void setBlocks(Long blocks) {
+        this.blocks = blocks;
+    }
+
+    public void setBypassed(Long bypassed) {
+        this.bypassed = bypassed;
+    }
+
+    public void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    public void setEvictions(Long evictions) {
+        this.evictions = evictions;
+    }
+
+    public void setHits(Long hits) {
+        this.hits = hits;
+    }
+
+    public void setHotFiles(Long hotFiles) {
+        this.hotFiles = hotFiles;
+    }
+
+    public void setLabel(String label) {
+        this.label = label;
+    }
+
+    public void setMaxMemory(Long maxMemory) {
+        this.maxMemory = maxMemory;
+    }
+
+    public void setMisses(Long misses) {
+        this.misses = misses;
+    }
+
+    public void setUsedMemory(Long usedMemory) {
+        this.usedMemory = usedMemory;
+    }
+}
@@ -73,6 +73,8 @@ public class RepositoryData implements Serializable {
     private String  state;
     private Integer initializationProgress;
     private Integer files;
+    private Integer indexedFiles;
+    private Long    indexMemory;
     private String  filesException;
     private String  totalDiskSpace;
     private Long    freeDiskSpace;
@@ -123,6 +125,14 @@ public class RepositoryData implements Serializable {
         return gap;
     }
 
+    public Long getIndexMemory() {
+        return indexMemory;
+    }
+
+    public Integer getIndexedFiles() {
+        return indexedFiles;
+    }
+
     public Integer getInitializationProgress() {
         return initializationProgress;
     }
@@ -189,6 +199,10 @@ public class RepositoryData implements Serializable {
         } else if (filesException != null) {
             pw.println("Files : " + filesException);
         }
+        if (indexedFiles != null) {
+            pw.println("Index : " + indexedFiles + " files in " + indexMemory
+                                       + " bytes of off-heap memory");
+        }
 
         pw.println("Disk space");
         pw.println("    Total    : " + totalDiskSpace);
@@ -242,6 +256,14 @@ public class RepositoryData implements Serializable {
         this.gap = gap;
     }
 
+    public void setIndexMemory(Long indexMemory) {
+        this.indexMemory = indexMemory;
+    }
+
+    public void setIndexedFiles(Integer indexedFiles) {
+        this.indexedFiles = indexedFiles;
+    }
+
     public void setInitializationProgress(Integer initializationProgress) {
         this.initializationProgress = initializationProgress;
     }
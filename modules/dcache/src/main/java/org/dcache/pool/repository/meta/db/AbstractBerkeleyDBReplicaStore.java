@@ -23,24 +23,30 @@ import com.sleepycat.collections.TransactionWorker;
 import com.sleepycat.je.DatabaseException;
 import com.sleepycat.je.EnvironmentConfig;
 import com.sleepycat.je.EnvironmentFailureException;
+import com.sleepycat.je.OperationFailureException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.net.URI;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.OpenOption;
+import java.util.List;
 import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import diskCacheV111.util.CacheException;
+import diskCacheV111.util.DiskErrorCacheException;
 import diskCacheV111.util.PnfsId;
 import diskCacheV111.vehicles.StorageInfo;
 
+import dmg.cells.nucleus.CellInfoProvider;
 import dmg.cells.nucleus.EnvironmentAware;
 
 import org.dcache.pool.repository.ReplicaStore;
@@ -58,12 +64,17 @@ import static org.dcache.util.Exceptions.messageOrClassName;
  * The cache repository entries generated by this store fetch storage
  * info from the database on demand.
  */
-public abstract class AbstractBerkeleyDBReplicaStore implements ReplicaStore, EnvironmentAware
+public abstract class AbstractBerkeleyDBReplicaStore implements ReplicaStore, EnvironmentAware, CellInfoProvider
 {
     protected static final Logger LOGGER =
         LoggerFactory.getLogger(AbstractBerkeleyDBReplicaStore.class);
     protected static final String DIRECTORY_NAME = "meta";
 
+    private static final String GROUP_COMMIT = "pool.plugins.meta.db.group-commit";
+    private static final String GROUP_COMMIT_WINDOW = "pool.plugins.meta.db.group-commit.window";
+    private static final String GROUP_COMMIT_WINDOW_UNIT = "pool.plugins.meta.db.group-commit.window.unit";
+    private static final String GROUP_COMMIT_MAX_BATCH_SIZE = "pool.plugins.meta.db.group-commit.max-batch-size";
+
     protected final boolean readOnly;
 
     /**
@@ -86,6 +97,16 @@ public abstract class AbstractBerkeleyDBReplicaStore implements ReplicaStore, En
      */
     protected ReplicaStoreView views;
 
+    /**
+     * Coalesces updates into shared transactions. Null unless group commit is enabled.
+     */
+    private GroupCommitter groupCommitter;
+
+    private boolean isGroupCommitEnabled;
+    private long groupCommitWindow = 5;
+    private TimeUnit groupCommitWindowUnit = TimeUnit.MILLISECONDS;
+    private int groupCommitMaxBatchSize = 1000;
+
 
     public AbstractBerkeleyDBReplicaStore(Path directory, boolean readOnly) throws IOException
     {
@@ -108,6 +129,13 @@ public abstract class AbstractBerkeleyDBReplicaStore implements ReplicaStore, En
         factory.buildMap();
         properties.clear();
         properties.putAll(factory.getObject());
+
+        if (environment.containsKey(GROUP_COMMIT)) {
+            isGroupCommitEnabled = Boolean.parseBoolean(String.valueOf(environment.get(GROUP_COMMIT)));
+            groupCommitWindow = Long.parseLong(String.valueOf(environment.get(GROUP_COMMIT_WINDOW)));
+            groupCommitWindowUnit = TimeUnit.valueOf(String.valueOf(environment.get(GROUP_COMMIT_WINDOW_UNIT)));
+            groupCommitMaxBatchSize = Integer.parseInt(String.valueOf(environment.get(GROUP_COMMIT_MAX_BATCH_SIZE)));
+        }
     }
 
     @Override
@@ -116,6 +144,10 @@ public abstract class AbstractBerkeleyDBReplicaStore implements ReplicaStore, En
         try {
             database = new ReplicaStoreDatabase(properties, dir.toFile(), readOnly);
             views = new ReplicaStoreView(database);
+            if (isGroupCommitEnabled && !readOnly) {
+                groupCommitter = new GroupCommitter(database.getEnvironment(), groupCommitWindow,
+                                                    groupCommitWindowUnit, groupCommitMaxBatchSize);
+            }
         } catch (EnvironmentFailureException e) {
             throw new CacheException(CacheException.PANIC, "Failed to open Berkeley DB database: " + e.getMessage() , e);
         }
@@ -148,6 +180,9 @@ public abstract class AbstractBerkeleyDBReplicaStore implements ReplicaStore, En
     @Override
     public void close()
     {
+        if (groupCommitter != null) {
+            groupCommitter.close();
+        }
         try {
             database.close();
         } catch (DatabaseException e) {
@@ -189,6 +224,38 @@ public abstract class AbstractBerkeleyDBReplicaStore implements ReplicaStore, En
         database.run(worker);
     }
 
+    public boolean isGroupCommitEnabled()
+    {
+        return groupCommitter != null;
+    }
+
+    /**
+     * Applies {@code updates} in a transaction shared with concurrent callers.
+     * Returns once the updates are durable. Must only be called if group
+     * commit is enabled.
+     */
+    public void commit(List<Runnable> updates) throws CacheException
+    {
+        try {
+            groupCommitter.commit(updates);
+        } catch (EnvironmentFailureException e) {
+            if (!isValid()) {
+                throw new DiskErrorCacheException("Meta data update failed and a pool restart is required: " + e.getMessage(), e);
+            }
+            throw new CacheException("Meta data update failed: " + e.getMessage(), e);
+        } catch (OperationFailureException | IllegalStateException e) {
+            throw new CacheException("Meta data update failed: " + e.getMessage(), e);
+        }
+    }
+
+    @Override
+    public void getInfo(PrintWriter pw)
+    {
+        if (groupCommitter != null) {
+            groupCommitter.getInfo(pw);
+        }
+    }
+
     public abstract void setLastModifiedTime(PnfsId pnfsId, long time) throws IOException;
 
     public abstract long getFileSize(PnfsId pnfsId) throws IOException;
@@ -12,6 +12,7 @@ import java.nio.file.NoSuchFileException;
 import java.nio.file.Path;
 import java.nio.file.OpenOption;
 import java.nio.file.StandardOpenOption;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -134,9 +135,13 @@ public class BerkeleyDBMetaDataRepository extends AbstractBerkeleyDBReplicaStore
             if (_fileStore.contains(id)) {
                 throw new DuplicateEntryException(id);
             }
-            views.getStorageInfoMap().remove(id.toString());
-            views.getStateMap().remove(id.toString());
-            views.getAccessTimeInfo().remove(id.toString());
+            if (!isGroupCommitEnabled()) {
+                removeMetaData(id.toString());
+            } else if (views.getStateMap().containsKey(id.toString()) ||
+                       views.getStorageInfoMap().containsKey(id.toString())) {
+                /* Lookups are cheap, thus we avoid waiting for a group commit in the common case. */
+                commit(Collections.singletonList(() -> removeMetaData(id.toString())));
+            }
             if (flags.contains(StandardOpenOption.CREATE)) {
                 _fileStore.create(id);
             }
@@ -157,12 +162,12 @@ public class BerkeleyDBMetaDataRepository extends AbstractBerkeleyDBReplicaStore
         } catch (IOException e) {
             throw new DiskErrorCacheException("Failed to delete " + id + ": " + messageOrClassName(e), e);
         }
+        if (isGroupCommitEnabled()) {
+            commit(Collections.singletonList(() -> removeMetaData(id.toString())));
+            return;
+        }
         try {
-            views.getStorageInfoMap().remove(id.toString());
-            views.getStateMap().remove(id.toString());
-            views.getAccessTimeInfo().remove(id.toString());
-
-
+            removeMetaData(id.toString());
         } catch (EnvironmentFailureException e) {
             if (!isValid()) {
                 throw new DiskErrorCacheException("Meta data update failed and a pool restart is required: " + e.getMessage(), e);
@@ -173,6 +178,13 @@ public class BerkeleyDBMetaDataRepository extends AbstractBerkeleyDBReplicaStore
         }
     }
 
+    private void removeMetaData(String id)
+    {
+        views.getStorageInfoMap().remove(id);
+        views.getStateMap().remove(id);
+        views.getAccessTimeInfo().remove(id);
+    }
+
     @Override
     public boolean isOk()
     {
@@ -8,9 +8,12 @@ import com.sleepycat.je.OperationFailureException;
 import com.sleepycat.util.RuntimeExceptionWrapper;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.URI;
 import java.nio.file.OpenOption;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicReference;
@@ -199,8 +202,19 @@ public class CacheRepositoryEntryImpl implements ReplicaRecord
     public synchronized void setLastAccessTime(long time) throws CacheException
     {
         try {
-            _repository.setLastModifiedTime(_pnfsId, time);
-
+            if (_repository.isGroupCommitEnabled()) {
+                _repository.commit(Collections.singletonList(() -> {
+                    try {
+                        _repository.setLastModifiedTime(_pnfsId, time);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                }));
+            } else {
+                _repository.setLastModifiedTime(_pnfsId, time);
+            }
+        } catch (UncheckedIOException e) {
+            throw new DiskErrorCacheException("Failed to set modification time for " + _pnfsId + ": " + e.getCause(), e);
         } catch (IOException e) {
             throw new DiskErrorCacheException("Failed to set modification time for " + _pnfsId + ": " + e.toString(), e);
         }
@@ -253,7 +267,39 @@ public class CacheRepositoryEntryImpl implements ReplicaRecord
         }
     }
 
-    private Void setFileAttributes(FileAttributes attributes) throws CacheException {
+    /**
+     * Stores the storage info and access times of {@code attributes}. If {@code deferred}
+     * is not null, the updates are added to it rather than applied.
+     */
+    private Void setFileAttributes(FileAttributes attributes, List<Runnable> deferred) throws CacheException {
+        if (deferred != null) {
+            String id = _pnfsId.toString();
+            StorageInfo storageInfo = attributes.isDefined(FileAttribute.STORAGEINFO)
+                    ? StorageInfos.extractFrom(attributes) : null;
+            AccessTimeInfo accessTimeInfo = null;
+            if (attributes.isDefined(FileAttribute.ACCESS_TIME) && attributes.isDefined(FileAttribute.CREATION_TIME)) {
+                accessTimeInfo = new AccessTimeInfo();
+                accessTimeInfo.setLastAccessTime(attributes.getAccessTime());
+                accessTimeInfo.setCreationTime(attributes.getCreationTime());
+            }
+            AccessTimeInfo newAccessTimeInfo = accessTimeInfo;
+            deferred.add(() -> {
+                if (storageInfo != null) {
+                    _repository.getStorageInfoMap().put(id, storageInfo);
+                } else {
+                    _repository.getStorageInfoMap().remove(id);
+                }
+                if (newAccessTimeInfo != null) {
+                    _repository.getAccessTimeInfo().put(id, newAccessTimeInfo);
+                } else {
+                    _repository.getAccessTimeInfo().remove(id);
+                }
+            });
+            // cache the value to be committed
+            _storageInfo = storageInfo;
+            return null;
+        }
+
         try {
             String id = _pnfsId.toString();
             // invalidate cached value
@@ -343,9 +389,28 @@ public class CacheRepositoryEntryImpl implements ReplicaRecord
         AtomicReference<T> result = new AtomicReference<>();
         ReplicaState state = _state;
         ImmutableList<StickyRecord> sticky = _sticky;
+
+        if (_repository.isGroupCommitEnabled()) {
+            try {
+                List<Runnable> updates = new ArrayList<>();
+                UpdatableRecordImpl record = new UpdatableRecordImpl(updates);
+                result.set(update.apply(record));
+                record.save();
+                if (!updates.isEmpty()) {
+                    _repository.commit(updates);
+                }
+            } catch (CacheException | RuntimeException e) {
+                _state = state;
+                _sticky = sticky;
+                _storageInfo = null;
+                throw e;
+            }
+            return result.get();
+        }
+
         try {
             _repository.run(() -> {
-                UpdatableRecordImpl record = new UpdatableRecordImpl();
+                UpdatableRecordImpl record = new UpdatableRecordImpl(null);
                 result.set(update.apply(record));
                 record.save();
             });
@@ -412,8 +477,18 @@ public class CacheRepositoryEntryImpl implements ReplicaRecord
 
     private class UpdatableRecordImpl implements UpdatableRecord
     {
+        /**
+         * Updates to commit as a group, or null if updates are applied directly.
+         */
+        private final List<Runnable> _deferred;
+
         private boolean _stateModified;
 
+        UpdatableRecordImpl(List<Runnable> deferred)
+        {
+            _deferred = deferred;
+        }
+
         @Override
         public boolean setSticky(String owner, long expire, boolean overwrite) throws CacheException
         {
@@ -454,7 +529,7 @@ public class CacheRepositoryEntryImpl implements ReplicaRecord
         @Override
         public Void setFileAttributes(FileAttributes attributes) throws CacheException
         {
-            return CacheRepositoryEntryImpl.this.setFileAttributes(attributes);
+            return CacheRepositoryEntryImpl.this.setFileAttributes(attributes, _deferred);
         }
 
         @Override
@@ -478,7 +553,13 @@ public class CacheRepositoryEntryImpl implements ReplicaRecord
         public void save() throws CacheException
         {
             if (_stateModified) {
-                storeState();
+                if (_deferred != null) {
+                    String id = _pnfsId.toString();
+                    CacheRepositoryEntryState state = new CacheRepositoryEntryState(_state, _sticky);
+                    _deferred.add(() -> _repository.getStateMap().put(id, state));
+                } else {
+                    storeState();
+                }
             }
         }
     }
@@ -0,0 +1,224 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2020 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.pool.repository.meta.db;
+
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.sleepycat.collections.CurrentTransaction;
+import com.sleepycat.je.Durability;
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.TransactionConfig;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Coalesces meta data updates into shared Berkeley DB transactions.
+ *
+ * Updates submitted within a short window are applied by a single thread
+ * in one transaction, which is committed with synchronous durability.
+ * Submitters block until that transaction has committed, thus an update
+ * is durable before it is acknowledged.
+ *
+ * Updates must only modify the database; they are executed on the commit
+ * thread and may be executed more than once, since the updates of a failed
+ * transaction are retried one submission at a time.
+ */
+class GroupCommitter
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(GroupCommitter.class);
+
+    private final CurrentTransaction _currentTransaction;
+    private final TransactionConfig _config;
+    private final long _window;
+    private final int _maxBatchSize;
+    private final BlockingQueue<Submission> _queue = new LinkedBlockingQueue<>();
+    private final Thread _thread;
+
+    /* Guarded by this. */
+    private boolean _isClosed;
+
+    private final LongAdder _commits = new LongAdder();
+    private final LongAdder _submissions = new LongAdder();
+    private final LongAdder _failures = new LongAdder();
+    private final LongAccumulator _maxBatchSizeSeen = new LongAccumulator(Math::max, 0);
+    private final LongAdder _commitTime = new LongAdder();
+    private final LongAccumulator _maxCommitTime = new LongAccumulator(Math::max, 0);
+
+    GroupCommitter(Environment env, long window, TimeUnit unit, int maxBatchSize)
+    {
+        _currentTransaction = CurrentTransaction.getInstance(env);
+        _config = new TransactionConfig().setDurability(Durability.COMMIT_SYNC);
+        _window = unit.toNanos(window);
+        _maxBatchSize = maxBatchSize;
+        _thread = new Thread(this::run, "meta-group-commit");
+        _thread.setDaemon(true);
+        _thread.start();
+    }
+
+    /**
+     * Applies {@code updates} as part of a shared transaction. Returns once
+     * the transaction has been committed. Any exception thrown by the updates
+     * or by the commit is rethrown.
+     */
+    void commit(List<Runnable> updates)
+    {
+        Submission submission = new Submission(updates);
+        synchronized (this) {
+            if (_isClosed) {
+                throw new IllegalStateException("Meta data store is closed");
+            }
+            _queue.add(submission);
+        }
+        try {
+            Uninterruptibles.getUninterruptibly(submission.result);
+        } catch (ExecutionException e) {
+            Throwables.throwIfUnchecked(e.getCause());
+            throw new RuntimeException(e.getCause());
+        }
+    }
+
+    private void run()
+    {
+        List<Submission> batch = new ArrayList<>();
+        try {
+            while (true) {
+                Submission first = _queue.poll(100, MILLISECONDS);
+                if (first == null) {
+                    synchronized (this) {
+                        if (_isClosed && _queue.isEmpty()) {
+                            break;
+                        }
+                    }
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + _window;
+                while (batch.size() < _maxBatchSize) {
+                    long remaining = deadline - System.nanoTime();
+                    Submission next = (remaining > 0) ? _queue.poll(remaining, NANOSECONDS) : _queue.poll();
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                commitBatch(batch);
+                batch.clear();
+            }
+        } catch (InterruptedException e) {
+            IllegalStateException failure = new IllegalStateException("Meta data store is closed");
+            batch.forEach(s -> s.result.completeExceptionally(failure));
+            _queue.forEach(s -> s.result.completeExceptionally(failure));
+        }
+    }
+
+    private void commitBatch(List<Submission> batch)
+    {
+        long start = System.nanoTime();
+        try {
+            _currentTransaction.beginTransaction(_config);
+            for (Submission submission : batch) {
+                submission.updates.forEach(Runnable::run);
+            }
+            _currentTransaction.commitTransaction();
+        } catch (RuntimeException e) {
+            if (_currentTransaction.getTransaction() != null) {
+                try {
+                    _currentTransaction.abortTransaction();
+                } catch (RuntimeException suppressed) {
+                    e.addSuppressed(suppressed);
+                }
+            }
+            if (batch.size() > 1) {
+                /* Prevent a single failing update from failing the others.
+                 */
+                LOGGER.debug("Retrying {} meta data updates individually: {}", batch.size(), e.toString());
+                for (Submission submission : batch) {
+                    commitBatch(Collections.singletonList(submission));
+                }
+            } else {
+                _failures.increment();
+                batch.get(0).result.completeExceptionally(e);
+            }
+            return;
+        }
+
+        long elapsed = System.nanoTime() - start;
+        _commits.increment();
+        _submissions.add(batch.size());
+        _maxBatchSizeSeen.accumulate(batch.size());
+        _commitTime.add(elapsed);
+        _maxCommitTime.accumulate(elapsed);
+        for (Submission submission : batch) {
+            submission.result.complete(null);
+        }
+    }
+
+    /**
+     * Commits pending updates and stops the commit thread.
+     */
+    void close()
+    {
+        synchronized (this) {
+            _isClosed = true;
+        }
+        Uninterruptibles.joinUninterruptibly(_thread);
+    }
+
+    void getInfo(PrintWriter pw)
+    {
+        long commits = _commits.sum();
+        long submissions = _submissions.sum();
+        pw.println("Group commit:");
+        pw.println("    Window         : " + NANOSECONDS.toMillis(_window) + " ms");
+        pw.println("    Transactions   : " + commits);
+        pw.println("    Updates        : " + submissions + " (" + _failures.sum() + " failed)");
+        pw.println("    Pending        : " + _queue.size());
+        if (commits > 0) {
+            pw.println(String.format("    Batch size     : %.1f avg, %d max",
+                                     (double) submissions / commits, _maxBatchSizeSeen.get()));
+            pw.println(String.format("    Commit latency : %.2f ms avg, %.2f ms max",
+                                     _commitTime.sum() / 1e6 / commits, _maxCommitTime.get() / 1e6));
+        }
+    }
+
+    private static class Submission
+    {
+        final List<Runnable> updates;
+        final CompletableFuture<Void> result = new CompletableFuture<>();
+
+        Submission(List<Runnable> updates)
+        {
+            this.updates = updates;
+        }
+    }
+}
@@ -0,0 +1,455 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2020 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.pool.repository.meta.lsm;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.OpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.function.Predicate;
+
+import diskCacheV111.util.CacheException;
+import diskCacheV111.util.DiskErrorCacheException;
+import diskCacheV111.util.PnfsId;
+import diskCacheV111.vehicles.StorageInfo;
+import diskCacheV111.vehicles.StorageInfos;
+
+import org.dcache.namespace.FileAttribute;
+import org.dcache.pool.repository.FileStore;
+import org.dcache.pool.repository.ReplicaRecord;
+import org.dcache.pool.repository.ReplicaState;
+import org.dcache.pool.repository.RepositoryChannel;
+import org.dcache.pool.repository.StickyRecord;
+import org.dcache.vehicles.FileAttributes;
+
+import static com.google.common.collect.Iterables.elementsEqual;
+import static com.google.common.collect.Iterables.filter;
+import static org.dcache.pool.repository.ReplicaState.*;
+import static org.dcache.pool.repository.meta.lsm.LsmMetaDataRepository.INFO_PREFIX;
+import static org.dcache.pool.repository.meta.lsm.LsmMetaDataRepository.STATE_PREFIX;
+import static org.dcache.util.Exceptions.messageOrClassName;
+
+/**
+ * Replica record of {@link LsmMetaDataRepository}.
+ *
+ * State, sticky records, size and access times are stored together in a
+ * single value. Storage info is stored separately and fetched on demand.
+ * Updates are collected in a batch and written when the update completes.
+ */
+public class CacheRepositoryEntryImpl implements ReplicaRecord
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(CacheRepositoryEntryImpl.class);
+
+    private static final int FORMAT_VERSION = 1;
+
+    // Reusable list for the common case
+    private static final ImmutableList<StickyRecord> SYSTEM_STICKY =
+            ImmutableList.of(new StickyRecord("system", -1));
+
+    private final PnfsId _pnfsId;
+    private final LsmMetaDataRepository _repository;
+    private final FileStore _fileStore;
+
+    private ReplicaState _state;
+    private ImmutableList<StickyRecord> _sticky;
+    private long _size;
+    private long _creationTime;
+    private long _lastAccess;
+    private int _linkCount;
+
+    // cached storage info
+    private boolean _isStorageInfoLoaded;
+    private StorageInfo _storageInfo;
+
+    CacheRepositoryEntryImpl(LsmMetaDataRepository repository, PnfsId pnfsId, FileStore fileStore)
+    {
+        _repository = repository;
+        _pnfsId = pnfsId;
+        _fileStore = fileStore;
+        _state = NEW;
+        _sticky = ImmutableList.of();
+        _creationTime = System.currentTimeMillis();
+        _lastAccess = _creationTime;
+        _isStorageInfoLoaded = true;
+    }
+
+    private CacheRepositoryEntryImpl(LsmMetaDataRepository repository, PnfsId pnfsId, FileStore fileStore,
+                                     byte[] value) throws IOException
+    {
+        _repository = repository;
+        _pnfsId = pnfsId;
+        _fileStore = fileStore;
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(value));
+        int version = in.readUnsignedByte();
+        if (version != FORMAT_VERSION) {
+            throw new IOException("Unsupported record version " + version);
+        }
+        _state = ReplicaState.valueOf(in.readUTF());
+        _size = in.readLong();
+        _creationTime = in.readLong();
+        _lastAccess = in.readLong();
+        int count = in.readInt();
+        List<StickyRecord> sticky = Lists.newArrayListWithCapacity(count);
+        for (int i = 0; i < count; i++) {
+            sticky.add(new StickyRecord(in.readUTF(), in.readLong()));
+        }
+        setStickyRecords(sticky);
+    }
+
+    private byte[] encode()
+    {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeByte(FORMAT_VERSION);
+            out.writeUTF(_state.name());
+            out.writeLong(_size);
+            out.writeLong(_creationTime);
+            out.writeLong(_lastAccess);
+            out.writeInt(_sticky.size());
+            for (StickyRecord record : _sticky) {
+                out.writeUTF(record.owner());
+                out.writeLong(record.expire());
+            }
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    static CacheRepositoryEntryImpl load(LsmMetaDataRepository repository, PnfsId pnfsId,
+                                         FileStore fileStore) throws IOException, CacheException
+    {
+        byte[] value = repository.read(STATE_PREFIX + pnfsId);
+        if (value != null) {
+            try {
+                return new CacheRepositoryEntryImpl(repository, pnfsId, fileStore, value);
+            } catch (IOException | IllegalArgumentException e) {
+                LOGGER.warn("Failed to decode meta data of {}: {}", pnfsId, messageOrClassName(e));
+            }
+        }
+
+        /* No state. Either the file doesn't exist or it is broken. This
+         * provokes a NoSuchFileException in the first case.
+         */
+        BasicFileAttributes attributes = fileStore.getFileAttributeView(pnfsId).readAttributes();
+        CacheRepositoryEntryImpl entry = new CacheRepositoryEntryImpl(repository, pnfsId, fileStore);
+        entry._state = BROKEN;
+        entry._size = attributes.size();
+        entry._creationTime = attributes.creationTime().toMillis();
+        entry._lastAccess = attributes.lastModifiedTime().toMillis();
+        entry._isStorageInfoLoaded = false;
+        return entry;
+    }
+
+    private void setStickyRecords(Iterable<StickyRecord> records)
+    {
+        _sticky = elementsEqual(records, SYSTEM_STICKY) ? SYSTEM_STICKY : ImmutableList.copyOf(records);
+    }
+
+    @Override
+    public synchronized int decrementLinkCount()
+    {
+        if (_linkCount <= 0) {
+            throw new IllegalStateException("Link count is already zero");
+        }
+        _linkCount--;
+        return _linkCount;
+    }
+
+    @Override
+    public synchronized int incrementLinkCount()
+    {
+        if (_state == REMOVED || _state == DESTROYED) {
+            throw new IllegalStateException("Entry is marked as removed");
+        }
+        _linkCount++;
+        return _linkCount;
+    }
+
+    @Override
+    public synchronized int getLinkCount()
+    {
+        return _linkCount;
+    }
+
+    @Override
+    public synchronized long getCreationTime()
+    {
+        return _creationTime;
+    }
+
+    @Override
+    public synchronized long getLastAccessTime()
+    {
+        return _lastAccess;
+    }
+
+    @Override
+    public synchronized void setLastAccessTime(long time) throws CacheException
+    {
+        long lastAccess = _lastAccess;
+        _lastAccess = time;
+        if (_state != NEW) {
+            try {
+                _repository.write(new LogStructuredDatabase.WriteBatch().put(STATE_PREFIX + _pnfsId, encode()));
+            } catch (CacheException e) {
+                _lastAccess = lastAccess;
+                throw e;
+            }
+        }
+    }
+
+    @Override
+    public synchronized long getReplicaSize()
+    {
+        try {
+            // use cached value only for file in 'trusted state'
+            return _state == CACHED || _state == PRECIOUS ? _size : _fileStore
+                    .getFileAttributeView(_pnfsId)
+                    .readAttributes()
+                    .size();
+        } catch (NoSuchFileException e) {
+            return 0;
+        } catch (IOException e) {
+            LOGGER.error("Failed to read file size: {}", e.toString());
+            return 0;
+        }
+    }
+
+    private synchronized StorageInfo getStorageInfo() throws CacheException
+    {
+        if (!_isStorageInfoLoaded) {
+            byte[] value = _repository.read(INFO_PREFIX + _pnfsId);
+            if (value != null) {
+                try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(value))) {
+                    _storageInfo = (StorageInfo) in.readObject();
+                } catch (IOException | ClassNotFoundException | ClassCastException e) {
+                    /* We ignore class cast and class not found exceptions, since they
+                     * are a result of us changing the layout of serialized classes.
+                     */
+                    LOGGER.warn("Failed to decode storage info of {}: {}", _pnfsId, messageOrClassName(e));
+                }
+            }
+            _isStorageInfoLoaded = true;
+        }
+        return _storageInfo;
+    }
+
+    @Override
+    public synchronized FileAttributes getFileAttributes() throws CacheException
+    {
+        FileAttributes attributes = FileAttributes.ofPnfsId(_pnfsId);
+        StorageInfo storageInfo = getStorageInfo();
+        if (storageInfo != null) {
+            StorageInfos.injectInto(storageInfo, attributes);
+        }
+        return attributes;
+    }
+
+    @Override
+    public synchronized PnfsId getPnfsId()
+    {
+        return _pnfsId;
+    }
+
+    @Override
+    public synchronized ReplicaState getState()
+    {
+        return _state;
+    }
+
+    @Override
+    public synchronized boolean isSticky()
+    {
+        return !_sticky.isEmpty();
+    }
+
+    @Override
+    public URI getReplicaUri()
+    {
+        return _fileStore.get(_pnfsId);
+    }
+
+    @Override
+    public RepositoryChannel openChannel(Set<? extends OpenOption> mode) throws IOException
+    {
+        return _fileStore.openDataChannel(_pnfsId, mode);
+    }
+
+    @Override
+    public synchronized Collection<StickyRecord> removeExpiredStickyFlags() throws CacheException
+    {
+        long now = System.currentTimeMillis();
+        List<StickyRecord> removed = Lists.newArrayList(filter(_sticky, s -> !s.isValidAt(now)));
+        if (!removed.isEmpty()) {
+            ImmutableList<StickyRecord> sticky = _sticky;
+            setStickyRecords(ImmutableList.copyOf(filter(_sticky, s -> s.isValidAt(now))));
+            try {
+                _repository.write(new LogStructuredDatabase.WriteBatch().put(STATE_PREFIX + _pnfsId, encode()));
+            } catch (CacheException e) {
+                _sticky = sticky;
+                throw e;
+            }
+        }
+        return removed;
+    }
+
+    @Override
+    public synchronized Collection<StickyRecord> stickyRecords()
+    {
+        return _sticky;
+    }
+
+    @Override
+    public synchronized <T> T update(String why, Update<T> update) throws CacheException
+    {
+        ReplicaState state = _state;
+        ImmutableList<StickyRecord> sticky = _sticky;
+        long size = _size;
+        boolean isStorageInfoLoaded = _isStorageInfoLoaded;
+        StorageInfo storageInfo = _storageInfo;
+        try {
+            UpdatableRecordImpl record = new UpdatableRecordImpl();
+            T result = update.apply(record);
+            _repository.write(record.save());
+            return result;
+        } catch (CacheException | RuntimeException e) {
+            _state = state;
+            _sticky = sticky;
+            _size = size;
+            _isStorageInfoLoaded = isStorageInfoLoaded;
+            _storageInfo = storageInfo;
+            throw e;
+        }
+    }
+
+    private class UpdatableRecordImpl implements UpdatableRecord
+    {
+        private final LogStructuredDatabase.WriteBatch _batch = new LogStructuredDatabase.WriteBatch();
+        private boolean _stateModified;
+
+        @Override
+        public boolean setSticky(String owner, long expire, boolean overwrite) throws CacheException
+        {
+            if (_state == REMOVED) {
+                throw new CacheException("Entry in removed state");
+            }
+            Predicate<StickyRecord> subsumes =
+                    r -> r.owner().equals(owner) && (r.expire() == expire || !overwrite && r.isValidAt(expire));
+            if (_sticky.stream().anyMatch(subsumes)) {
+                return false;
+            }
+            ImmutableList.Builder<StickyRecord> builder = ImmutableList.builder();
+            _sticky.stream().filter(r -> !r.owner().equals(owner)).forEach(builder::add);
+            builder.add(new StickyRecord(owner, expire));
+            setStickyRecords(builder.build());
+            _stateModified = true;
+            return true;
+        }
+
+        @Override
+        public Void setState(ReplicaState state) throws CacheException
+        {
+            if (_state != state) {
+                if (_state.isMutable() && !state.isMutable()) {
+                    try {
+                        _size = _fileStore.getFileAttributeView(_pnfsId).readAttributes().size();
+                    } catch (NoSuchFileException e) {
+                        /* Only expected when converting meta data without data files.
+                         */
+                        StorageInfo storageInfo = getStorageInfo();
+                        _size = (storageInfo == null) ? 0 : storageInfo.getLegacySize();
+                    } catch (IOException e) {
+                        throw new DiskErrorCacheException("Failed to query file size: " + e, e);
+                    }
+                }
+                _state = state;
+                _stateModified = true;
+            }
+            return null;
+        }
+
+        @Override
+        public Void setFileAttributes(FileAttributes attributes) throws CacheException
+        {
+            String key = INFO_PREFIX + _pnfsId;
+            if (attributes.isDefined(FileAttribute.STORAGEINFO)) {
+                StorageInfo storageInfo = StorageInfos.extractFrom(attributes);
+                try {
+                    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                        out.writeObject(storageInfo);
+                    }
+                    _batch.put(key, bytes.toByteArray());
+                } catch (IOException e) {
+                    throw new CacheException("Failed to serialize storage info of " + _pnfsId + ": " + messageOrClassName(e), e);
+                }
+                _storageInfo = storageInfo;
+            } else {
+                _batch.delete(key);
+                _storageInfo = null;
+            }
+            _isStorageInfoLoaded = true;
+            return null;
+        }
+
+        @Override
+        public FileAttributes getFileAttributes() throws CacheException
+        {
+            return CacheRepositoryEntryImpl.this.getFileAttributes();
+        }
+
+        @Override
+        public ReplicaState getState()
+        {
+            return CacheRepositoryEntryImpl.this.getState();
+        }
+
+        @Override
+        public int getLinkCount()
+        {
+            return CacheRepositoryEntryImpl.this.getLinkCount();
+        }
+
+        LogStructuredDatabase.WriteBatch save()
+        {
+            if (_stateModified) {
+                _batch.put(STATE_PREFIX + _pnfsId, encode());
+            }
+            return _batch;
+        }
+    }
+}
@@ -0,0 +1,827 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2020 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.pool.repository.meta.lsm;
+
+import com.google.common.base.Stopwatch;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterators;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Stream;
+import java.util.zip.CRC32;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static java.util.concurrent.TimeUnit.MINUTES;
+import static org.dcache.util.Exceptions.messageOrClassName;
+
+/**
+ * Embedded log structured key-value store.
+ *
+ * Updates are appended to a write-ahead log and applied to a sorted
+ * in-memory table. Concurrent writers are group committed: while one
+ * thread writes and forces the log, batches submitted by other threads
+ * queue up and are written by the next committer with a single write and
+ * a single force. Thus the number of disk syncs does not grow with the
+ * number of concurrent updates.
+ *
+ * Once the in-memory table grows beyond a limit it is written to an
+ * immutable {@link SortedTable} and a new log is started. Once there are
+ * more than {@value #MAX_TABLES} tables, the newest tables are merged in
+ * the background. Only tables of similar size are merged, thus a record is
+ * rewritten a logarithmic number of times rather than on every merge. The
+ * live tables and the active log are recorded in a manifest
+ * file that is replaced atomically, thus the store can always be
+ * recovered by loading the tables listed in the manifest and replaying
+ * the logs.
+ */
+class LogStructuredDatabase implements Closeable
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(LogStructuredDatabase.class);
+
+    /**
+     * Value marking a deleted key. Compared by identity.
+     */
+    static final byte[] TOMBSTONE = new byte[0];
+
+    private static final String MANIFEST = "MANIFEST";
+
+    private static final Pattern FILE_NAME = Pattern.compile("(log|table)-(\\d+)\\.(wal|sst)");
+
+    private static final int MAX_TABLES = 4;
+
+    /**
+     * Approximate memory overhead of a record in the in-memory table.
+     */
+    private static final int RECORD_OVERHEAD = 96;
+
+    private final Path _dir;
+    private final boolean _readOnly;
+    private final long _memTableLimit;
+
+    /**
+     * Held by the thread committing a group of batches.
+     */
+    private final ReentrantLock _commitLock = new ReentrantLock();
+
+    /**
+     * Batches waiting to be committed. Guarded by itself.
+     */
+    private final List<PendingBatch> _queue = new ArrayList<>();
+
+    /**
+     * Readers hold the read lock while accessing tables; the write lock is
+     * held while replacing the in-memory table or the list of tables.
+     */
+    private final ReadWriteLock _tablesLock = new ReentrantReadWriteLock();
+
+    private final AtomicLong _nextFileNumber = new AtomicLong();
+    private final AtomicBoolean _isCompacting = new AtomicBoolean();
+    private final ExecutorService _compactor;
+
+    private final LongAdder _commits = new LongAdder();
+    private final LongAdder _batches = new LongAdder();
+
+    private volatile ConcurrentSkipListMap<String, byte[]> _memTable = new ConcurrentSkipListMap<>();
+
+    /**
+     * Tables ordered from newest to oldest.
+     */
+    private volatile List<SortedTable> _tables = ImmutableList.of();
+
+    /**
+     * Guarded by _commitLock.
+     */
+    private long _memTableSize;
+
+    private FileChannel _log;
+    private long _logNumber;
+
+    private volatile IOException _failure;
+
+    LogStructuredDatabase(Path dir, boolean readOnly, long memTableLimit) throws IOException
+    {
+        _dir = dir;
+        _readOnly = readOnly;
+        _memTableLimit = memTableLimit;
+
+        List<Long> logs = new ArrayList<>();
+        List<Path> garbage = new ArrayList<>();
+        long maxFileNumber = -1;
+        try (Stream<Path> files = Files.list(dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Matcher matcher = FILE_NAME.matcher(file.getFileName().toString());
+                if (matcher.matches()) {
+                    long number = Long.parseLong(matcher.group(2));
+                    maxFileNumber = Math.max(maxFileNumber, number);
+                    if (matcher.group(1).equals("log")) {
+                        logs.add(number);
+                    } else {
+                        garbage.add(file);
+                    }
+                } else if (file.getFileName().toString().endsWith(".tmp")) {
+                    garbage.add(file);
+                }
+            }
+        }
+        _nextFileNumber.set(maxFileNumber + 1);
+
+        List<SortedTable> tables = new ArrayList<>();
+        try {
+            long logNumber = readManifest(tables);
+            for (SortedTable table : tables) {
+                garbage.remove(table.getFile());
+            }
+            _tables = ImmutableList.copyOf(tables);
+
+            logs.sort(Comparator.naturalOrder());
+            for (long number : logs) {
+                if (number >= logNumber) {
+                    replay(logFile(number));
+                }
+            }
+
+            if (readOnly) {
+                _compactor = null;
+            } else {
+                for (Path file : garbage) {
+                    LOGGER.warn("Deleting unreferenced file {}.", file);
+                    Files.delete(file);
+                }
+                _compactor = Executors.newSingleThreadExecutor(
+                        new ThreadFactoryBuilder().setNameFormat("lsm-compaction-%d").setDaemon(true).build());
+                rotate();
+            }
+        } catch (IOException | RuntimeException e) {
+            for (SortedTable table : tables) {
+                table.close();
+            }
+            throw e;
+        }
+    }
+
+    private Path logFile(long number)
+    {
+        return _dir.resolve("log-" + number + ".wal");
+    }
+
+    private Path tableFile(long number)
+    {
+        return _dir.resolve("table-" + number + ".sst");
+    }
+
+    /**
+     * Opens the tables listed in the manifest and returns the number of the
+     * oldest log that has not been written to a table.
+     */
+    private long readManifest(List<SortedTable> tables) throws IOException
+    {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(_dir.resolve(MANIFEST), US_ASCII);
+        } catch (NoSuchFileException e) {
+            return 0;
+        }
+        long logNumber = 0;
+        for (String line : lines) {
+            String[] fields = line.split(" ");
+            if (fields.length != 2) {
+                throw new IOException("Invalid manifest entry in " + _dir + ": " + line);
+            }
+            switch (fields[0]) {
+            case "log":
+                logNumber = Long.parseLong(fields[1]);
+                break;
+            case "table":
+                tables.add(SortedTable.open(tableFile(Long.parseLong(fields[1]))));
+                break;
+            default:
+                throw new IOException("Invalid manifest entry in " + _dir + ": " + line);
+            }
+        }
+        return logNumber;
+    }
+
+    private void writeManifest(long logNumber, List<SortedTable> tables) throws IOException
+    {
+        StringBuilder s = new StringBuilder();
+        s.append("log ").append(logNumber).append('\n');
+        for (SortedTable table : tables) {
+            Matcher matcher = FILE_NAME.matcher(table.getFile().getFileName().toString());
+            matcher.matches();
+            s.append("table ").append(matcher.group(2)).append('\n');
+        }
+        Path tmp = _dir.resolve(MANIFEST + ".tmp");
+        try (FileChannel channel = FileChannel.open(tmp, CREATE_NEW, WRITE)) {
+            ByteBuffer buffer = US_ASCII.encode(s.toString());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            channel.force(true);
+        }
+        Files.move(tmp, _dir.resolve(MANIFEST), ATOMIC_MOVE, REPLACE_EXISTING);
+        syncDirectory();
+    }
+
+    /**
+     * Forces the directory to disk, making renames and newly created files
+     * durable.
+     */
+    private void syncDirectory() throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(_dir, READ)) {
+            channel.force(true);
+        }
+    }
+
+    /**
+     * Applies the batches of a log to the in-memory table. A record with a
+     * bad checksum or a truncated record ends the log; such a record can only
+     * be the result of a crash while writing it, in which case the record was
+     * never acknowledged.
+     */
+    private void replay(Path file) throws IOException
+    {
+        int count = 0;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Files.newInputStream(file, READ), 65536))) {
+            while (true) {
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                try {
+                    int checksum = in.readInt();
+                    if (length < 0) {
+                        throw new IOException("invalid record length " + length);
+                    }
+                    byte[] payload = new byte[length];
+                    in.readFully(payload);
+                    CRC32 crc = new CRC32();
+                    crc.update(payload);
+                    if ((int) crc.getValue() != checksum) {
+                        throw new IOException("checksum mismatch");
+                    }
+                    apply(WriteBatch.decode(payload));
+                    count++;
+                } catch (IOException e) {
+                    LOGGER.warn("Ignoring incomplete record at the end of {}: {}", file, messageOrClassName(e));
+                    break;
+                }
+            }
+        }
+        LOGGER.debug("Replayed {} batches from {}.", count, file);
+    }
+
+    private void apply(WriteBatch batch)
+    {
+        for (int i = 0; i < batch._keys.size(); i++) {
+            String key = batch._keys.get(i);
+            byte[] value = batch._values.get(i);
+            _memTable.put(key, value);
+            _memTableSize += 2 * key.length() + value.length + RECORD_OVERHEAD;
+        }
+    }
+
+    /**
+     * Writes the in-memory table to a new sorted table and starts a new log.
+     * Must be called with the commit lock held or during initialisation.
+     */
+    private void rotate() throws IOException
+    {
+        SortedTable table = null;
+        if (!_memTable.isEmpty()) {
+            Path file = tableFile(_nextFileNumber.getAndIncrement());
+            SortedTable.write(file, _memTable.entrySet().iterator());
+            table = SortedTable.open(file);
+        }
+
+        long logNumber = _nextFileNumber.getAndIncrement();
+        FileChannel log = FileChannel.open(logFile(logNumber), CREATE_NEW, WRITE);
+        FileChannel oldLog;
+        _tablesLock.writeLock().lock();
+        try {
+            ImmutableList.Builder<SortedTable> tables = ImmutableList.builder();
+            if (table != null) {
+                tables.add(table);
+            }
+            tables.addAll(_tables);
+            writeManifest(logNumber, tables.build());
+            _tables = tables.build();
+            _memTable = new ConcurrentSkipListMap<>();
+            oldLog = _log;
+            _log = log;
+            _logNumber = logNumber;
+        } catch (IOException | RuntimeException e) {
+            log.close();
+            if (table != null) {
+                table.close();
+            }
+            throw e;
+        } finally {
+            _tablesLock.writeLock().unlock();
+        }
+        _memTableSize = 0;
+
+        if (oldLog != null) {
+            oldLog.close();
+        }
+        try (Stream<Path> files = Files.list(_dir)) {
+            for (Path file : (Iterable<Path>) files::iterator) {
+                Matcher matcher = FILE_NAME.matcher(file.getFileName().toString());
+                if (matcher.matches() && matcher.group(1).equals("log") &&
+                        Long.parseLong(matcher.group(2)) < logNumber) {
+                    Files.delete(file);
+                }
+            }
+        }
+
+        if (_tables.size() > MAX_TABLES && _isCompacting.compareAndSet(false, true)) {
+            _compactor.execute(() -> {
+                try {
+                    compact();
+                } catch (IOException e) {
+                    LOGGER.error("Failed to compact {}: {}", _dir, messageOrClassName(e));
+                } finally {
+                    _isCompacting.set(false);
+                }
+            });
+        }
+    }
+
+    /**
+     * Merges the newest tables. The newest table is merged with the next
+     * older tables as long as each of these is not larger than the tables
+     * selected before it combined. Thus each merge at least doubles the
+     * amount of data a record is part of, and a record is rewritten at most
+     * a logarithmic number of times. If this selects too few tables, the
+     * newest tables are merged such that {@value #MAX_TABLES} remain.
+     */
+    synchronized void compact() throws IOException
+    {
+        List<SortedTable> tables = _tables;
+        long size = 0;
+        int count = 0;
+        while (count < tables.size() && (count == 0 || tables.get(count).getSize() <= size)) {
+            size += tables.get(count).getSize();
+            count++;
+        }
+        count = Math.max(count, tables.size() - MAX_TABLES + 1);
+        merge(tables.subList(0, count));
+    }
+
+    /**
+     * Merges all current tables into a single table.
+     */
+    synchronized void compactAll() throws IOException
+    {
+        merge(_tables);
+    }
+
+    /**
+     * Replaces {@code inputs}, a range of the current tables starting with
+     * the newest, by a single table. If the range includes the oldest table,
+     * deleted keys are dropped. Must be called while synchronized on this
+     * database.
+     */
+    private void merge(List<SortedTable> inputs) throws IOException
+    {
+        if (inputs.size() < 2) {
+            return;
+        }
+        List<SortedTable> current = _tables;
+        boolean includesOldest = inputs.get(inputs.size() - 1) == current.get(current.size() - 1);
+
+        Stopwatch watch = Stopwatch.createStarted();
+        Path file = tableFile(_nextFileNumber.getAndIncrement());
+        SortedTable merged;
+        try {
+            try (MergingIterator records = merge(ImmutableList.of(), inputs, "")) {
+                SortedTable.write(file, includesOldest
+                                        ? Iterators.filter(records, r -> r.getValue() != TOMBSTONE)
+                                        : records);
+            }
+            merged = SortedTable.open(file);
+        } catch (IOException | RuntimeException e) {
+            Files.deleteIfExists(file);
+            throw e;
+        }
+
+        _tablesLock.writeLock().lock();
+        try {
+            /* New tables may have been added in front of the inputs in the
+             * meantime; the merged table takes the place of the inputs.
+             */
+            List<SortedTable> tables = new ArrayList<>(_tables);
+            int index = tables.indexOf(inputs.get(0));
+            tables.removeAll(inputs);
+            tables.add(index, merged);
+            writeManifest(_logNumber, tables);
+            _tables = ImmutableList.copyOf(tables);
+        } catch (IOException | RuntimeException e) {
+            merged.close();
+            Files.deleteIfExists(file);
+            throw e;
+        } finally {
+            _tablesLock.writeLock().unlock();
+        }
+
+        for (SortedTable table : inputs) {
+            table.close();
+            Files.delete(table.getFile());
+        }
+        LOGGER.info("Compacted {} tables in {} into {} with {} records in {}.",
+                    inputs.size(), _dir, merged, merged.getCount(), watch);
+    }
+
+    /**
+     * Returns the value of {@code key}, or null if the key does not exist.
+     */
+    byte[] get(String key) throws IOException
+    {
+        _tablesLock.readLock().lock();
+        try {
+            byte[] value = _memTable.get(key);
+            if (value == null) {
+                for (SortedTable table : _tables) {
+                    value = table.get(key);
+                    if (value != null) {
+                        break;
+                    }
+                }
+            }
+            return (value == TOMBSTONE) ? null : value;
+        } finally {
+            _tablesLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns all keys starting with {@code prefix} in sorted order.
+     */
+    List<String> keys(String prefix) throws IOException
+    {
+        List<String> keys = new ArrayList<>();
+        _tablesLock.readLock().lock();
+        try (MergingIterator records = merge(_memTable.tailMap(prefix).entrySet(), _tables, prefix)) {
+            while (records.hasNext()) {
+                Map.Entry<String, byte[]> record = records.next();
+                if (!record.getKey().startsWith(prefix)) {
+                    break;
+                }
+                if (record.getValue() != TOMBSTONE) {
+                    keys.add(record.getKey());
+                }
+            }
+        } finally {
+            _tablesLock.readLock().unlock();
+        }
+        return keys;
+    }
+
+    private static MergingIterator merge(Iterable<Map.Entry<String, byte[]>> memTable,
+                                         List<SortedTable> tables, String from) throws IOException
+    {
+        List<Iterator<Map.Entry<String, byte[]>>> sources = new ArrayList<>();
+        sources.add(memTable.iterator());
+        try {
+            for (SortedTable table : tables) {
+                sources.add(table.iterator(from));
+            }
+        } catch (IOException e) {
+            new MergingIterator(sources).close();
+            throw e;
+        }
+        return new MergingIterator(sources);
+    }
+
+    /**
+     * Atomically applies the updates of {@code batch}. Returns once the batch
+     * is durably stored.
+     */
+    void write(WriteBatch batch) throws IOException
+    {
+        if (_readOnly) {
+            throw new IOException("Database " + _dir + " is read-only");
+        }
+        if (batch.isEmpty()) {
+            return;
+        }
+
+        PendingBatch pending = new PendingBatch(batch);
+        synchronized (_queue) {
+            _queue.add(pending);
+        }
+        _commitLock.lock();
+        try {
+            if (!pending.isDone) {
+                List<PendingBatch> group;
+                synchronized (_queue) {
+                    group = new ArrayList<>(_queue);
+                    _queue.clear();
+                }
+                commit(group);
+            }
+        } finally {
+            _commitLock.unlock();
+        }
+        if (pending.failure != null) {
+            throw new IOException("Failed to write to " + _dir + ": " + messageOrClassName(pending.failure),
+                                  pending.failure);
+        }
+    }
+
+    private void commit(List<PendingBatch> group)
+    {
+        try {
+            if (_failure != null) {
+                throw _failure;
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            for (PendingBatch pending : group) {
+                byte[] payload = pending.batch.encode();
+                CRC32 crc = new CRC32();
+                crc.update(payload);
+                out.writeInt(payload.length);
+                out.writeInt((int) crc.getValue());
+                out.write(payload);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(bytes.toByteArray());
+            while (buffer.hasRemaining()) {
+                _log.write(buffer);
+            }
+            _log.force(false);
+        } catch (IOException e) {
+            /* The log may now end with a partial record, thus nothing more can be appended.
+             */
+            if (_failure == null) {
+                LOGGER.error("Failed to write to {}: {}", _dir, messageOrClassName(e));
+                _failure = e;
+            }
+            for (PendingBatch pending : group) {
+                pending.failure = e;
+                pending.isDone = true;
+            }
+            return;
+        }
+
+        for (PendingBatch pending : group) {
+            apply(pending.batch);
+            pending.isDone = true;
+        }
+        _commits.increment();
+        _batches.add(group.size());
+
+        if (_memTableSize > _memTableLimit) {
+            try {
+                rotate();
+            } catch (IOException e) {
+                LOGGER.error("Failed to write table in {}: {}", _dir, messageOrClassName(e));
+                _failure = e;
+            }
+        }
+    }
+
+    boolean isFailed()
+    {
+        return _failure != null;
+    }
+
+    long getCommits()
+    {
+        return _commits.sum();
+    }
+
+    long getBatches()
+    {
+        return _batches.sum();
+    }
+
+    int getTableCount()
+    {
+        return _tables.size();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (_compactor != null) {
+            MoreExecutors.shutdownAndAwaitTermination(_compactor, 1, MINUTES);
+        }
+        _commitLock.lock();
+        _tablesLock.writeLock().lock();
+        try {
+            if (_log != null) {
+                _log.close();
+            }
+            for (SortedTable table : _tables) {
+                table.close();
+            }
+        } finally {
+            _tablesLock.writeLock().unlock();
+            _commitLock.unlock();
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return _dir.toString();
+    }
+
+    /**
+     * Set of updates applied atomically.
+     */
+    static class WriteBatch
+    {
+        private final List<String> _keys = new ArrayList<>();
+        private final List<byte[]> _values = new ArrayList<>();
+
+        WriteBatch put(String key, byte[] value)
+        {
+            _keys.add(key);
+            _values.add(value);
+            return this;
+        }
+
+        WriteBatch delete(String key)
+        {
+            _keys.add(key);
+            _values.add(TOMBSTONE);
+            return this;
+        }
+
+        boolean isEmpty()
+        {
+            return _keys.isEmpty();
+        }
+
+        private byte[] encode() throws IOException
+        {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(_keys.size());
+            for (int i = 0; i < _keys.size(); i++) {
+                SortedTable.writeRecord(out, _keys.get(i), _values.get(i));
+            }
+            return bytes.toByteArray();
+        }
+
+        private static WriteBatch decode(byte[] payload) throws IOException
+        {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+            WriteBatch batch = new WriteBatch();
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                batch.put(SortedTable.readKey(in), SortedTable.readValue(in));
+            }
+            return batch;
+        }
+    }
+
+    private static class PendingBatch
+    {
+        final WriteBatch batch;
+
+        /* Guarded by _commitLock. */
+        boolean isDone;
+        IOException failure;
+
+        PendingBatch(WriteBatch batch)
+        {
+            this.batch = batch;
+        }
+    }
+
+    /**
+     * Merges sorted sources into a single sorted sequence. Sources are ordered
+     * from newest to oldest; for keys present in several sources, the record of
+     * the newest source is returned.
+     */
+    private static class MergingIterator implements Iterator<Map.Entry<String, byte[]>>, Closeable
+    {
+        private final List<Iterator<Map.Entry<String, byte[]>>> _sources;
+        private final PriorityQueue<Head> _heads = new PriorityQueue<>();
+
+        MergingIterator(List<Iterator<Map.Entry<String, byte[]>>> sources)
+        {
+            _sources = sources;
+            for (int i = 0; i < sources.size(); i++) {
+                advance(i);
+            }
+        }
+
+        private void advance(int source)
+        {
+            Iterator<Map.Entry<String, byte[]>> iterator = _sources.get(source);
+            if (iterator.hasNext()) {
+                _heads.add(new Head(iterator.next(), source));
+            }
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return !_heads.isEmpty();
+        }
+
+        @Override
+        public Map.Entry<String, byte[]> next()
+        {
+            Head head = _heads.poll();
+            if (head == null) {
+                throw new NoSuchElementException();
+            }
+            advance(head.source);
+            while (!_heads.isEmpty() && _heads.peek().record.getKey().equals(head.record.getKey())) {
+                advance(_heads.poll().source);
+            }
+            return head.record;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            for (Iterator<?> source : _sources) {
+                if (source instanceof Closeable) {
+                    ((Closeable) source).close();
+                }
+            }
+        }
+
+        private static class Head implements Comparable<Head>
+        {
+            final Map.Entry<String, byte[]> record;
+            final int source;
+
+            Head(Map.Entry<String, byte[]> record, int source)
+            {
+                this.record = record;
+                this.source = source;
+            }
+
+            @Override
+            public int compareTo(Head other)
+            {
+                int cmp = record.getKey().compareTo(other.record.getKey());
+                return (cmp != 0) ? cmp : Integer.compare(source, other.source);
+            }
+        }
+    }
+}
@@ -0,0 +1,325 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2020 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.pool.repository.meta.lsm;
+
+import com.google.common.base.Stopwatch;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+import diskCacheV111.util.CacheException;
+import diskCacheV111.util.DiskErrorCacheException;
+import diskCacheV111.util.PnfsId;
+
+import org.dcache.pool.repository.DuplicateEntryException;
+import org.dcache.pool.repository.FileStore;
+import org.dcache.pool.repository.ReplicaRecord;
+import org.dcache.pool.repository.ReplicaStore;
+
+import static java.util.Arrays.asList;
+import static java.util.stream.Collectors.toSet;
+import static org.dcache.util.Exceptions.messageOrClassName;
+
+/**
+ * ReplicaStore backed by an embedded log structured key-value store.
+ *
+ * The store is kept in a subdirectory of the pool directory called 'lsm'.
+ * State and sticky records of a replica are stored under the key
+ * {@code state/<pnfsid>}, the storage info under {@code info/<pnfsid>}. All
+ * updates of a record are written as a single batch, and batches of
+ * concurrent updates are group committed. The store can thus absorb a
+ * high rate of file creations and deletions without a disk sync per
+ * update.
+ *
+ * Existing pools can be migrated using {@code dcache pool convert}.
+ */
+public class LsmMetaDataRepository implements ReplicaStore
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(LsmMetaDataRepository.class);
+
+    private static final String DIRECTORY_NAME = "lsm";
+
+    static final String STATE_PREFIX = "state/";
+    static final String INFO_PREFIX = "info/";
+
+    /**
+     * Size of the in-memory table after which it is written to disk. This
+     * bounds the amount of log to replay on startup.
+     */
+    private static final long MEMTABLE_LIMIT = 32 << 20;
+
+    private final FileStore _fileStore;
+    private final Path _dir;
+    private final boolean _readOnly;
+    private LogStructuredDatabase _database;
+
+    public LsmMetaDataRepository(FileStore fileStore, Path directory, String poolName)
+            throws IOException
+    {
+        this(fileStore, directory, poolName, false);
+    }
+
+    public LsmMetaDataRepository(FileStore fileStore, Path directory, String poolName, boolean readOnly)
+            throws IOException
+    {
+        _fileStore = fileStore;
+        _readOnly = readOnly;
+        _dir = directory.resolve(DIRECTORY_NAME);
+        if (!Files.exists(_dir)) {
+            if (readOnly) {
+                throw new FileNotFoundException("No such directory and not allowed to create it: " + _dir);
+            }
+            Files.createDirectory(_dir);
+        } else if (!Files.isDirectory(_dir)) {
+            throw new FileNotFoundException("No such directory: " + _dir);
+        }
+    }
+
+    @Override
+    public void init() throws CacheException
+    {
+        try {
+            _database = new LogStructuredDatabase(_dir, _readOnly, MEMTABLE_LIMIT);
+        } catch (IOException e) {
+            throw new CacheException(CacheException.PANIC,
+                                     "Failed to open meta data store " + _dir + ": " + messageOrClassName(e), e);
+        }
+    }
+
+    @Override
+    public Set<PnfsId> index(IndexOption... options) throws CacheException
+    {
+        try {
+            List<IndexOption> indexOptions = asList(options);
+
+            if (indexOptions.contains(IndexOption.META_ONLY)) {
+                return _database.keys(STATE_PREFIX).stream()
+                        .map(key -> new PnfsId(key.substring(STATE_PREFIX.length())))
+                        .collect(toSet());
+            }
+
+            Stopwatch watch = Stopwatch.createStarted();
+            Set<PnfsId> files = _fileStore.index();
+            LOGGER.info("Indexed {} entries in {} in {}.", files.size(), _fileStore, watch);
+
+            watch.reset().start();
+            List<String> records = _database.keys(STATE_PREFIX);
+            LOGGER.info("Indexed {} entries in {} in {}.", records.size(), _dir, watch);
+
+            if (indexOptions.contains(IndexOption.ALLOW_REPAIR)) {
+                LogStructuredDatabase.WriteBatch batch = new LogStructuredDatabase.WriteBatch();
+                for (String key : records) {
+                    String id = key.substring(STATE_PREFIX.length());
+                    if (!files.contains(new PnfsId(id))) {
+                        LOGGER.warn("Removing redundant meta data for {}.", id);
+                        batch.delete(STATE_PREFIX + id).delete(INFO_PREFIX + id);
+                    }
+                }
+                _database.write(batch);
+            }
+
+            return files;
+        } catch (IOException e) {
+            throw new DiskErrorCacheException("Meta data lookup failed and a pool restart is required: " + messageOrClassName(e), e);
+        }
+    }
+
+    @Override
+    public ReplicaRecord get(PnfsId id) throws CacheException
+    {
+        try {
+            return CacheRepositoryEntryImpl.load(this, id, _fileStore);
+        } catch (NoSuchFileException | FileNotFoundException e) {
+            return null;
+        } catch (IOException e) {
+            throw new CacheException("Failed to read " + id + ": " + messageOrClassName(e), e);
+        }
+    }
+
+    /**
+     * The entry is not persistent until it is updated.
+     */
+    @Override
+    public ReplicaRecord create(PnfsId id, Set<? extends OpenOption> flags)
+            throws CacheException
+    {
+        try {
+            if (_fileStore.contains(id)) {
+                throw new DuplicateEntryException(id);
+            }
+            /* In case of left over meta data, we delete it before creating a new entry.
+             * Lookups are cheap, thus we avoid the commit in the common case.
+             */
+            if (read(STATE_PREFIX + id) != null || read(INFO_PREFIX + id) != null) {
+                write(new LogStructuredDatabase.WriteBatch()
+                              .delete(STATE_PREFIX + id)
+                              .delete(INFO_PREFIX + id));
+            }
+            if (flags.contains(StandardOpenOption.CREATE)) {
+                _fileStore.create(id);
+            }
+            return new CacheRepositoryEntryImpl(this, id, _fileStore);
+        } catch (IOException e) {
+            throw new DiskErrorCacheException(
+                    "Failed to create new entry " + id + ": " + messageOrClassName(e), e);
+        }
+    }
+
+    @Override
+    public void remove(PnfsId id) throws CacheException
+    {
+        try {
+            _fileStore.remove(id);
+        } catch (IOException e) {
+            throw new DiskErrorCacheException("Failed to delete " + id + ": " + messageOrClassName(e), e);
+        }
+        write(new LogStructuredDatabase.WriteBatch()
+                      .delete(STATE_PREFIX + id)
+                      .delete(INFO_PREFIX + id));
+    }
+
+    /**
+     * Deletes the data files and writes the removal of all meta data
+     * records as a single batch, thus sharing one commit. Records of
+     * files deleted before a failure are removed too.
+     */
+    @Override
+    public void remove(Collection<PnfsId> ids) throws CacheException
+    {
+        LogStructuredDatabase.WriteBatch batch = new LogStructuredDatabase.WriteBatch();
+        try {
+            for (PnfsId id : ids) {
+                try {
+                    _fileStore.remove(id);
+                } catch (IOException e) {
+                    throw new DiskErrorCacheException("Failed to delete " + id + ": " + messageOrClassName(e), e);
+                }
+                batch.delete(STATE_PREFIX + id).delete(INFO_PREFIX + id);
+            }
+        } finally {
+            if (!batch.isEmpty()) {
+                write(batch);
+            }
+        }
+    }
+
+    /**
+     * Returns the value stored under {@code key}, or null if there is none.
+     */
+    byte[] read(String key) throws CacheException
+    {
+        try {
+            return _database.get(key);
+        } catch (IOException e) {
+            throw new DiskErrorCacheException("Meta data lookup failed and a pool restart is required: " + messageOrClassName(e), e);
+        }
+    }
+
+    /**
+     * Durably applies the updates of {@code batch}. Concurrent calls are
+     * committed together.
+     */
+    void write(LogStructuredDatabase.WriteBatch batch) throws CacheException
+    {
+        try {
+            _database.write(batch);
+        } catch (IOException e) {
+            throw new DiskErrorCacheException("Meta data update failed and a pool restart is required: " + messageOrClassName(e), e);
+        }
+    }
+
+    @Override
+    public synchronized boolean isOk()
+    {
+        if (!_fileStore.isOk() || _database.isFailed()) {
+            return false;
+        }
+        Path tmp = _dir.resolve(".repository_is_ok");
+        try {
+            Files.deleteIfExists(tmp);
+            Files.createFile(tmp);
+            return true;
+        } catch (IOException e) {
+            LOGGER.error("Failed to touch {}: {}", tmp, messageOrClassName(e));
+            return false;
+        }
+    }
+
+    @Override
+    public void close()
+    {
+        if (_database != null) {
+            try {
+                LOGGER.debug("Closing {} after {} commits of {} batches.",
+                             _dir, _database.getCommits(), _database.getBatches());
+                _database.close();
+            } catch (IOException e) {
+                LOGGER.error("Ignored: Could not close meta data store: {}", messageOrClassName(e));
+            }
+        }
+    }
+
+    /**
+     * Returns the path
+     */
+    @Override
+    public String toString()
+    {
+        return String.format("[data=%s;meta=%s]", _fileStore, _dir);
+    }
+
+    /**
+     * Provides the amount of free space on the file system containing
+     * the data files.
+     */
+    @Override
+    public long getFreeSpace()
+    {
+        try {
+            return _fileStore.getFreeSpace();
+        } catch (IOException e) {
+            LOGGER.warn("Failed to query free space: {}", e.toString());
+            return 0;
+        }
+    }
+
+    /**
+     * Provides the total amount of space on the file system
+     * containing the data files.
+     */
+    @Override
+    public long getTotalSpace()
+    {
+        try {
+            return _fileStore.getTotalSpace();
+        } catch (IOException e) {
+            LOGGER.warn("Failed to query total space: {}", e.toString());
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,414 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2020 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.pool.repository.meta.lsm;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.CREATE_NEW;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Immutable file of key-value records sorted by key.
+ *
+ * A table consists of a sequence of records followed by a footer. Each
+ * record holds the UTF-8 encoded key and either a value or a tombstone.
+ * The footer holds the number of records, a CRC32 checksum over all
+ * records and a magic number. The checksum is verified when the table
+ * is opened, at which point a sparse index of every {@value #INDEX_INTERVAL}th
+ * key is built in memory. A point lookup thus reads a single small block
+ * of the file.
+ */
+class SortedTable implements Closeable
+{
+    private static final int MAGIC = 0x64435354;
+
+    private static final int FOOTER_SIZE = Integer.BYTES + Long.BYTES + Integer.BYTES;
+
+    private static final int INDEX_INTERVAL = 32;
+
+    private static final int TOMBSTONE_LENGTH = -1;
+
+    private final Path _file;
+    private final FileChannel _channel;
+    private final long _dataEnd;
+    private final int _count;
+    private final String[] _indexKeys;
+    private final long[] _indexOffsets;
+
+    private SortedTable(Path file, FileChannel channel, long dataEnd, int count,
+                        String[] indexKeys, long[] indexOffsets)
+    {
+        _file = file;
+        _channel = channel;
+        _dataEnd = dataEnd;
+        _count = count;
+        _indexKeys = indexKeys;
+        _indexOffsets = indexOffsets;
+    }
+
+    /**
+     * Writes a new table with the given records. The records must be sorted by key.
+     * The file is forced to disk before this method returns.
+     */
+    static void write(Path file, Iterator<Map.Entry<String, byte[]>> records) throws IOException
+    {
+        try (FileChannel channel = FileChannel.open(file, CREATE_NEW, WRITE)) {
+            CRC32 crc = new CRC32();
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                    new CheckedOutputStream(Channels.newOutputStream(channel), crc), 65536));
+            int count = 0;
+            String last = null;
+            while (records.hasNext()) {
+                Map.Entry<String, byte[]> record = records.next();
+                if (last != null && last.compareTo(record.getKey()) >= 0) {
+                    throw new IllegalArgumentException("Records are not sorted: " + record.getKey());
+                }
+                writeRecord(out, record.getKey(), record.getValue());
+                last = record.getKey();
+                count++;
+            }
+            out.flush();
+            long checksum = crc.getValue();
+            ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+            footer.putInt(count).putLong(checksum).putInt(MAGIC).flip();
+            while (footer.hasRemaining()) {
+                channel.write(footer);
+            }
+            channel.force(true);
+        }
+    }
+
+    static void writeRecord(DataOutputStream out, String key, byte[] value) throws IOException
+    {
+        byte[] bytes = key.getBytes(UTF_8);
+        out.writeShort(bytes.length);
+        out.write(bytes);
+        if (value == LogStructuredDatabase.TOMBSTONE) {
+            out.writeInt(TOMBSTONE_LENGTH);
+        } else {
+            out.writeInt(value.length);
+            out.write(value);
+        }
+    }
+
+    static String readKey(DataInputStream in) throws IOException
+    {
+        byte[] bytes = new byte[in.readUnsignedShort()];
+        in.readFully(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    static byte[] readValue(DataInputStream in) throws IOException
+    {
+        int length = in.readInt();
+        if (length == TOMBSTONE_LENGTH) {
+            return LogStructuredDatabase.TOMBSTONE;
+        }
+        if (length < 0) {
+            throw new IOException("Invalid record length: " + length);
+        }
+        byte[] value = new byte[length];
+        in.readFully(value);
+        return value;
+    }
+
+    /**
+     * Opens an existing table, verifying its checksum.
+     */
+    static SortedTable open(Path file) throws IOException
+    {
+        FileChannel channel = FileChannel.open(file, READ);
+        try {
+            long size = channel.size();
+            if (size < FOOTER_SIZE) {
+                throw new IOException("Table " + file + " is truncated");
+            }
+            ByteBuffer footer = ByteBuffer.allocate(FOOTER_SIZE);
+            readFully(channel, footer, size - FOOTER_SIZE);
+            footer.flip();
+            int count = footer.getInt();
+            long checksum = footer.getLong();
+            if (footer.getInt() != MAGIC) {
+                throw new IOException("Table " + file + " has an invalid footer");
+            }
+
+            long dataEnd = size - FOOTER_SIZE;
+            List<String> indexKeys = new ArrayList<>(count / INDEX_INTERVAL + 1);
+            long[] indexOffsets = new long[count / INDEX_INTERVAL + 1];
+            CRC32 crc = new CRC32();
+            try (CountingInputStream counter = new CountingInputStream(
+                    new CheckedInputStream(limit(channel, 0, dataEnd), crc))) {
+                DataInputStream in = new DataInputStream(counter);
+                for (int i = 0; i < count; i++) {
+                    long offset = counter.getCount();
+                    String key = readKey(in);
+                    readValue(in);
+                    if (i % INDEX_INTERVAL == 0) {
+                        indexOffsets[indexKeys.size()] = offset;
+                        indexKeys.add(key);
+                    }
+                }
+                if (counter.getCount() != dataEnd || crc.getValue() != checksum) {
+                    throw new IOException("Table " + file + " is corrupted");
+                }
+            } catch (EOFException e) {
+                throw new IOException("Table " + file + " is truncated", e);
+            }
+            return new SortedTable(file, channel, dataEnd, count,
+                                   indexKeys.toArray(new String[0]),
+                                   Arrays.copyOf(indexOffsets, indexKeys.size()));
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    Path getFile()
+    {
+        return _file;
+    }
+
+    int getCount()
+    {
+        return _count;
+    }
+
+    long getSize()
+    {
+        return _dataEnd + FOOTER_SIZE;
+    }
+
+    /**
+     * Returns the value of {@code key}, {@link LogStructuredDatabase#TOMBSTONE} if
+     * the table records the key as deleted, or null if the table does not hold
+     * the key.
+     */
+    byte[] get(String key) throws IOException
+    {
+        int block = floorBlock(key);
+        if (block < 0) {
+            return null;
+        }
+        long start = _indexOffsets[block];
+        long end = (block + 1 < _indexOffsets.length) ? _indexOffsets[block + 1] : _dataEnd;
+        ByteBuffer buffer = ByteBuffer.allocate((int) (end - start));
+        readFully(_channel, buffer, start);
+        DataInputStream in = new DataInputStream(
+                new ByteArrayInputStream(buffer.array()));
+        while (in.available() > 0) {
+            String k = readKey(in);
+            int cmp = k.compareTo(key);
+            if (cmp == 0) {
+                return readValue(in);
+            }
+            if (cmp > 0) {
+                break;
+            }
+            in.skipBytes(Math.max(in.readInt(), 0));
+        }
+        return null;
+    }
+
+    /**
+     * Returns an iterator over all records with a key equal or larger than
+     * {@code from}. The iterator must be closed after use.
+     */
+    RecordIterator iterator(String from) throws IOException
+    {
+        int block = Math.max(floorBlock(from), 0);
+        long start = _indexOffsets.length == 0 ? _dataEnd : _indexOffsets[block];
+        return new RecordIterator(limit(_channel, start, _dataEnd), from);
+    }
+
+    private int floorBlock(String key)
+    {
+        int i = Arrays.binarySearch(_indexKeys, key);
+        return (i >= 0) ? i : -i - 2;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        _channel.close();
+    }
+
+    @Override
+    public String toString()
+    {
+        return _file.getFileName().toString();
+    }
+
+    private static void readFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException
+    {
+        while (buffer.hasRemaining()) {
+            int n = channel.read(buffer, position);
+            if (n < 0) {
+                throw new EOFException("Unexpected end of " + channel);
+            }
+            position += n;
+        }
+    }
+
+    /**
+     * Returns a buffered stream reading the given range of the channel using
+     * positional reads, thus not affecting concurrent users of the channel.
+     */
+    private static InputStream limit(FileChannel channel, long start, long end)
+    {
+        return new BufferedInputStream(new InputStream()
+        {
+            private long _position = start;
+
+            @Override
+            public int read() throws IOException
+            {
+                byte[] b = new byte[1];
+                return (read(b, 0, 1) < 0) ? -1 : (b[0] & 0xff);
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException
+            {
+                if (_position >= end) {
+                    return -1;
+                }
+                int n = channel.read(ByteBuffer.wrap(b, off, (int) Math.min(len, end - _position)), _position);
+                if (n > 0) {
+                    _position += n;
+                }
+                return n;
+            }
+        }, 65536);
+    }
+
+    /**
+     * Sorted iterator over the records of a table.
+     */
+    static class RecordIterator implements Iterator<Map.Entry<String, byte[]>>, Closeable
+    {
+        private final DataInputStream _in;
+        private Map.Entry<String, byte[]> _next;
+
+        RecordIterator(InputStream in, String from) throws IOException
+        {
+            _in = new DataInputStream(in);
+            do {
+                _next = readNext();
+            } while (_next != null && _next.getKey().compareTo(from) < 0);
+        }
+
+        private Map.Entry<String, byte[]> readNext() throws IOException
+        {
+            try {
+                String key = readKey(_in);
+                return new AbstractMap.SimpleImmutableEntry<>(key, readValue(_in));
+            } catch (EOFException e) {
+                return null;
+            }
+        }
+
+        @Override
+        public boolean hasNext()
+        {
+            return _next != null;
+        }
+
+        @Override
+        public Map.Entry<String, byte[]> next()
+        {
+            if (_next == null) {
+                throw new NoSuchElementException();
+            }
+            Map.Entry<String, byte[]> next = _next;
+            try {
+                _next = readNext();
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+            return next;
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            _in.close();
+        }
+    }
+
+    private static class CountingInputStream extends FilterInputStream
+    {
+        private long _count;
+
+        CountingInputStream(InputStream in)
+        {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException
+        {
+            int b = super.read();
+            if (b >= 0) {
+                _count++;
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException
+        {
+            int n = super.read(b, off, len);
+            if (n > 0) {
+                _count += n;
+            }
+            return n;
+        }
+
+        long getCount()
+        {
+            return _count;
+        }
+    }
+}
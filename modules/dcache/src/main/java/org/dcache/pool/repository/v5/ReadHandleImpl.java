@@ -19,6 +19,8 @@ import org.dcache.pool.repository.ReplicaRecord;
 import org.dcache.pool.repository.ReplicaState;
 import org.dcache.pool.repository.ReplicaDescriptor;
 import org.dcache.pool.repository.RepositoryChannel;
+import org.dcache.pool.repository.blockcache.BlockCacheReplicaRecord;
+import org.dcache.pool.repository.buffering.BufferingReplicaRecord;
 import org.dcache.pool.repository.inotify.InotifyReplicaRecord;
 import org.dcache.pool.statistics.IoStatisticsReplicaRecord;
 import org.dcache.util.Checksum;
@@ -33,6 +35,8 @@ class ReadHandleImpl implements ReplicaDescriptor
     private static final Set<OpenOption> OPEN_OPTIONS = ImmutableSet.<OpenOption>builder()
             .addAll(FileStore.O_READ)
             .add(IoStatisticsReplicaRecord.OpenFlags.ENABLE_IO_STATISTICS)
+            .add(BufferingReplicaRecord.OpenFlags.ENABLE_BUFFERING)
+            .add(BlockCacheReplicaRecord.OpenFlags.ENABLE_BLOCK_CACHE)
             .build();
 
     private static final Set<OpenOption> OPEN_OPTIONS_WITH_INOTIFY = ImmutableSet.<OpenOption>builder()
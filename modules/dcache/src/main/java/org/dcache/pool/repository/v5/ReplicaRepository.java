@@ -6,8 +6,12 @@ import org.slf4j.LoggerFactory;
 
 import javax.annotation.concurrent.GuardedBy;
 
+import java.io.File;
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.OpenOption;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
@@ -68,7 +72,9 @@ import org.dcache.pool.repository.DuplicateEntryException;
 import org.dcache.pool.repository.EntryChangeEvent;
 import org.dcache.pool.repository.IllegalTransitionException;
 import org.dcache.pool.repository.LimitedAllocator;
+import org.dcache.pool.repository.ReplicaDeletionQueue;
 import org.dcache.pool.repository.ReplicaDescriptor;
+import org.dcache.pool.repository.ReplicaIndex;
 import org.dcache.pool.repository.ReplicaRecord;
 import org.dcache.pool.repository.ReplicaState;
 import org.dcache.pool.repository.ReplicaStore;
@@ -89,6 +95,7 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkState;
 import static org.dcache.namespace.FileAttribute.PNFSID;
 import static org.dcache.namespace.FileAttribute.STORAGEINFO;
+import static org.dcache.pool.repository.ReplicaState.DESTROYED;
 import static org.dcache.pool.repository.ReplicaState.NEW;
 import static org.dcache.pool.repository.ReplicaState.PRECIOUS;
 import static org.dcache.pool.repository.ReplicaState.REMOVED;
@@ -167,7 +174,14 @@ public class ReplicaRepository
      * Meta data about files in the pool.
      */
     @GuardedBy("_stateLock")
-    private ReplicaStore _store;
+    private ReplicaStoreCache _store;
+
+    /**
+     * Queue for deleting replicas asynchronously, or null to delete
+     * replicas synchronously.
+     */
+    @GuardedBy("_stateLock")
+    private ReplicaDeletionQueue _deletionQueue;
 
     @GuardedBy("_stateLock")
     private String _poolName;
@@ -203,6 +217,12 @@ public class ReplicaRepository
     @GuardedBy("_stateLock")
     private Account _account;
 
+    /**
+     * Compact index of the replicas, shared with other components.
+     */
+    @GuardedBy("_stateLock")
+    private ReplicaIndex _index = new ReplicaIndex();
+
     /**
      * Policy defining which files may be garbage collected.
      */
@@ -233,6 +253,46 @@ public class ReplicaRepository
     @GuardedBy("_stateLock")
     private DiskSpace _gap = DiskSpace.UNSPECIFIED;
 
+    /**
+     * File to which the repository snapshot is written, or null if
+     * snapshots are disabled.
+     */
+    @GuardedBy("_stateLock")
+    private Path _snapshotFile;
+
+    @GuardedBy("_stateLock")
+    private long _snapshotPeriod = 15;
+
+    @GuardedBy("_stateLock")
+    private TimeUnit _snapshotPeriodUnit = TimeUnit.MINUTES;
+
+    @GuardedBy("_stateLock")
+    private ScheduledFuture<?> _snapshotTask;
+
+    /**
+     * Serializes writing the snapshot.
+     */
+    private final Object _snapshotLock = new Object();
+
+    /**
+     * Whether replicas changed since the snapshot was last written.
+     */
+    private volatile boolean _isSnapshotStale = true;
+
+    /**
+     * Replicas loaded from the snapshot for which the meta data has not
+     * been read yet. The space of these replicas is accounted for based
+     * on the snapshot.
+     */
+    private final Map<PnfsId,RepositorySnapshot.Entry> _unverified =
+            new ConcurrentHashMap<>();
+
+    /**
+     * Thread verifying the snapshot against the replica store.
+     */
+    @GuardedBy("_stateLock")
+    private Thread _verifier;
+
     /**
      * Throws an IllegalStateException if the repository has been
      * initialized.
@@ -307,6 +367,46 @@ public class ReplicaRepository
         }
     }
 
+    /**
+     * Sets the file used for the repository snapshot. If set, the
+     * repository is loaded from the snapshot on startup and the meta
+     * data of the replicas is verified in the background. The snapshot
+     * is rewritten periodically and on shutdown.
+     */
+    public void setSnapshotFile(File file)
+    {
+        _stateLock.readLock().lock();
+        try {
+            checkUninitialized();
+            _snapshotFile = (file == null) ? null : file.toPath();
+        } finally {
+            _stateLock.readLock().unlock();
+        }
+    }
+
+    public void setSnapshotPeriod(long period)
+    {
+        checkArgument(period > 0, "Snapshot period must be positive.");
+        _stateLock.readLock().lock();
+        try {
+            checkUninitialized();
+            _snapshotPeriod = period;
+        } finally {
+            _stateLock.readLock().unlock();
+        }
+    }
+
+    public void setSnapshotPeriodUnit(TimeUnit unit)
+    {
+        _stateLock.readLock().lock();
+        try {
+            checkUninitialized();
+            _snapshotPeriodUnit = requireNonNull(unit);
+        } finally {
+            _stateLock.readLock().unlock();
+        }
+    }
+
     /**
      * The executor is used for periodic background checks and sticky
      * flag expiration.
@@ -388,6 +488,19 @@ public class ReplicaRepository
                 public void stateChanged(StateChangeEvent event)
                 {
                     PnfsId id = event.getPnfsId();
+                    long accounted = 0;
+                    if (event.getOldState() == NEW) {
+                        /* Replicas loaded from the snapshot have already been accounted
+                         * for. The snapshot is superseded by the meta data just read.
+                         */
+                        RepositorySnapshot.Entry preloaded = _unverified.remove(id);
+                        if (preloaded != null) {
+                            accounted = preloaded.getReplicaSize();
+                            if (preloaded.getState() == PRECIOUS) {
+                                _account.adjustPrecious(id, -accounted);
+                            }
+                        }
+                    }
                     if (event.getOldState() != NEW || event.getNewState() != REMOVED) {
                         if (event.getOldState() == NEW) {
                             long size = event.getNewEntry().getReplicaSize();
@@ -396,8 +509,10 @@ public class ReplicaRepository
                              * about "new" files that already consume space, so we
                              * adjust the allocation here.
                              */
-                            if (size > 0) {
-                                _account.growTotalAndUsed(id, size);
+                            if (size > accounted) {
+                                _account.growTotalAndUsed(id, size - accounted);
+                            } else if (size < accounted) {
+                                _account.free(id, accounted - size);
                             }
                             scheduleExpirationTask(event.getNewEntry());
                         }
@@ -411,7 +526,16 @@ public class ReplicaRepository
                         }
 
                         _stateChangeListeners.stateChanged(event);
+                    } else if (accounted > 0) {
+                        _account.free(id, accounted);
+                    }
+                    if (event.getNewState() == DESTROYED ||
+                        event.getOldState() == NEW && event.getNewState() == REMOVED) {
+                        _index.remove(id);
+                    } else {
+                        _index.put(event.getNewEntry());
                     }
+                    _isSnapshotStale = true;
                     switch (event.getNewState()) {
                     case REMOVED:
                         if (event.getOldState() != NEW) {
@@ -442,6 +566,8 @@ public class ReplicaRepository
                 @Override
                 public void accessTimeChanged(EntryChangeEvent event)
                 {
+                    _index.put(event.getNewEntry());
+                    _isSnapshotStale = true;
                     updateRemovable(event.getNewEntry());
                     _stateChangeListeners.accessTimeChanged(event);
                 }
@@ -449,6 +575,8 @@ public class ReplicaRepository
                 @Override
                 public void stickyChanged(StickyChangeEvent event)
                 {
+                    _index.put(event.getNewEntry());
+                    _isSnapshotStale = true;
                     updateRemovable(event.getNewEntry());
                     _stateChangeListeners.stickyChanged(event);
                     scheduleExpirationTask(event.getNewEntry());
@@ -468,6 +596,32 @@ public class ReplicaRepository
         }
     }
 
+    /**
+     * The replica index is kept up to date with the state, size, access
+     * time and sticky flag of all replicas in the repository.
+     */
+    public void setReplicaIndex(ReplicaIndex index)
+    {
+        _stateLock.readLock().lock();
+        try {
+            checkUninitialized();
+            _index = requireNonNull(index);
+        } finally {
+            _stateLock.readLock().unlock();
+        }
+    }
+
+    public void setDeletionQueue(ReplicaDeletionQueue deletionQueue)
+    {
+        _stateLock.readLock().lock();
+        try {
+            checkUninitialized();
+            _deletionQueue = deletionQueue;
+        } finally {
+            _stateLock.readLock().unlock();
+        }
+    }
+
     public void setSpaceSweeperPolicy(SpaceSweeperPolicy sweeper)
     {
         _stateLock.readLock().lock();
@@ -560,75 +714,251 @@ public class ReplicaRepository
         Stopwatch watch = Stopwatch.createStarted();
         try {
             LOGGER.warn("Reading inventory from {}.", _store);
+            _store.setDeletionQueue(_deletionQueue);
             _store.init();
 
-            Collection<PnfsId> ids = _store.index();
-            int fileCount = ids.size();
+            boolean isLoadedFromSnapshot = _snapshotFile != null && loadSnapshot();
+            if (!isLoadedFromSnapshot) {
+                scanReplicaStore();
+            }
 
-            LOGGER.info("Checking meta data for {} files with {} threads.", fileCount, scanThreads);
-            int cnt = 0;
+            _stateLock.writeLock().lock();
+            try {
+                updateAccountSize();
+                if (!compareAndSetState(State.LOADING, State.OPEN)) {
+                    throw new IllegalStateException("Repository was closed during loading.");
+                }
+                if (_snapshotFile != null) {
+                    if (isLoadedFromSnapshot) {
+                        _verifier = new Thread(this::verifySnapshot, "snapshot-verifier");
+                        _verifier.start();
+                    }
+                    _snapshotTask = _executor.scheduleWithFixedDelay(this::writeSnapshot,
+                            _snapshotPeriod, _snapshotPeriod, _snapshotPeriodUnit);
+                }
+            } finally {
+                _stateLock.writeLock().unlock();
+            }
+        } finally {
+            compareAndSetState(State.LOADING, State.FAILED);
+        }
 
-            if (scanThreads == 1) {
-                for (PnfsId id : ids) {
-                    loadRecord(id);
-                    _initializationProgress = ((float) ++cnt) / fileCount;
+        LOGGER.info("Done generating inventory in {}", watch);
+    }
+
+    /**
+     * Reads the meta data of all replicas in the replica store.
+     */
+    private void scanReplicaStore()
+            throws CacheException, IllegalStateException, InterruptedException
+    {
+        Collection<PnfsId> ids = _store.index();
+        int fileCount = ids.size();
+
+        LOGGER.info("Checking meta data for {} files with {} threads.", fileCount, scanThreads);
+        int cnt = 0;
+
+        if (scanThreads == 1) {
+            for (PnfsId id : ids) {
+                loadRecord(id);
+                _initializationProgress = ((float) ++cnt) / fileCount;
+            }
+        } else {
+            BlockingQueue<Runnable> workQueue = new ArrayBlockingQueue<Runnable>(_workQueueCapacity);
+            ThreadPoolExecutor scanExecutor = new ThreadPoolExecutor(1, scanThreads, _workQueuekeepAliveTime, _workQueueTimeUnit, workQueue);
+            CompletionService<PnfsId> completionService = new ExecutorCompletionService<PnfsId>(scanExecutor);
+            Set<Future<PnfsId>> futures = new HashSet<Future<PnfsId>>();
+
+            for (PnfsId id : ids) {
+
+                ArrayList<Future<PnfsId>> completedFutures = new ArrayList<Future<PnfsId>>();
+                while (true) {
+                    try {
+                        futures.add(completionService.submit(() -> {
+                            return loadRecord(id);
+                        }));
+                        break;
+                    } catch (RejectedExecutionException e) {
+                        completedFutures.add(completionService.take());
+                    }
                 }
-            } else {
-                BlockingQueue<Runnable> workQueue = new ArrayBlockingQueue<Runnable>(_workQueueCapacity);
-                ThreadPoolExecutor scanExecutor = new ThreadPoolExecutor(1, scanThreads, _workQueuekeepAliveTime, _workQueueTimeUnit, workQueue);
-                CompletionService<PnfsId> completionService = new ExecutorCompletionService<PnfsId>(scanExecutor);
-                Set<Future<PnfsId>> futures = new HashSet<Future<PnfsId>>();
 
-                for (PnfsId id : ids) {
+                while (completedFutures.size() > 0 || (futures.size() + cnt == fileCount && futures.size() > 0)) {
 
-                    ArrayList<Future<PnfsId>> completedFutures = new ArrayList<Future<PnfsId>>();
-                    while (true) {
+                    Future<PnfsId> future = completionService.poll();
+                    if (future != null) {
+                        completedFutures.add(future);
+                    }
+                    if (completedFutures.size() > 0) {
+                        future = completedFutures.remove(0);
+                        futures.remove(future);
                         try {
-                            futures.add(completionService.submit(() -> {
-                                return loadRecord(id);
-                            }));
-                            break;
-                        } catch (RejectedExecutionException e) {
-                            completedFutures.add(completionService.take());
+                            future.get();
+                            _initializationProgress = ((float) ++cnt) / fileCount;
+                        } catch (ExecutionException e) {
+                            throw new RuntimeException(e);
                         }
                     }
+                }
+            }
+            scanExecutor.shutdown();
+        }
+        LOGGER.debug("Checked meta data for {} % of the files.", _initializationProgress);
+    }
+
+    /**
+     * Accounts for the replicas in the repository snapshot without reading
+     * their meta data. The meta data is read by {@link #verifySnapshot}
+     * once the repository is open.
+     *
+     * @return true if the snapshot was loaded, false otherwise
+     */
+    private boolean loadSnapshot()
+    {
+        Map<PnfsId,RepositorySnapshot.Entry> entries;
+        try {
+            entries = RepositorySnapshot.read(_snapshotFile);
+        } catch (NoSuchFileException e) {
+            LOGGER.info("No repository snapshot found, reading meta data of all files.");
+            return false;
+        } catch (IOException e) {
+            LOGGER.warn("Ignoring repository snapshot {}: {}", _snapshotFile, e.getMessage());
+            return false;
+        }
 
-                    while (completedFutures.size() > 0 || (futures.size() + cnt == fileCount && futures.size() > 0)) {
+        for (RepositorySnapshot.Entry entry : entries.values()) {
+            PnfsId id = entry.getPnfsId();
+            long size = entry.getReplicaSize();
+            _unverified.put(id, entry);
+            if (size > 0) {
+                _account.growTotalAndUsed(id, size);
+            }
+            if (entry.getState() == PRECIOUS) {
+                _account.adjustPrecious(id, size);
+            }
+        }
+        _initializationProgress = 1;
+        LOGGER.info("Loaded {} files from repository snapshot; meta data will be verified in the background.",
+                    entries.size());
+        return true;
+    }
 
-                        Future<PnfsId> future = completionService.poll();
-                        if (future != null) {
-                            completedFutures.add(future);
+    /**
+     * Reads the meta data of all replicas, thereby replacing the information
+     * loaded from the snapshot. Replicas in the snapshot that no longer exist
+     * in the replica store are removed from the account.
+     */
+    private void verifySnapshot()
+    {
+        Stopwatch watch = Stopwatch.createStarted();
+        try {
+            for (PnfsId id : _store.index()) {
+                if (_state != State.OPEN) {
+                    return;
+                }
+                readReplicaRecord(id);
+            }
+            for (PnfsId id : _unverified.keySet()) {
+                if (readReplicaRecord(id) == null) {
+                    RepositorySnapshot.Entry stale = _unverified.remove(id);
+                    if (stale != null) {
+                        LOGGER.warn("{} was in the repository snapshot, but no longer exists.", id);
+                        if (stale.getState() == PRECIOUS) {
+                            _account.adjustPrecious(id, -stale.getReplicaSize());
                         }
-                        if (completedFutures.size() > 0) {
-                            future = completedFutures.remove(0);
-                            futures.remove(future);
-                            try {
-                                future.get();
-                                _initializationProgress = ((float) ++cnt) / fileCount;
-                            } catch (ExecutionException e) {
-                                throw new RuntimeException(e);
-                            }
+                        if (stale.getReplicaSize() > 0) {
+                            _account.free(id, stale.getReplicaSize());
                         }
                     }
                 }
-                scanExecutor.shutdown();
             }
-            LOGGER.debug("Checked meta data for {} % of the files.", _initializationProgress);
+            LOGGER.info("Verified repository snapshot in {}", watch);
+        } catch (InterruptedException e) {
+            LOGGER.info("Verification of repository snapshot was interrupted.");
+        } catch (CacheException e) {
+            fail(FaultAction.DEAD, "Failed to verify repository snapshot: " + e.getMessage());
+        }
+    }
 
-            _stateLock.writeLock().lock();
-            try {
-                updateAccountSize();
-                if (!compareAndSetState(State.LOADING, State.OPEN)) {
-                    throw new IllegalStateException("Repository was closed during loading.");
-                }
-            } finally {
-                _stateLock.writeLock().unlock();
+    /**
+     * Periodically writes the repository snapshot, unless nothing changed
+     * since the previous snapshot.
+     */
+    private void writeSnapshot()
+    {
+        Path file;
+        _stateLock.readLock().lock();
+        try {
+            if (_state != State.OPEN || !_isSnapshotStale) {
+                return;
             }
+            file = _snapshotFile;
         } finally {
-            compareAndSetState(State.LOADING, State.FAILED);
+            _stateLock.readLock().unlock();
         }
+        saveSnapshot(file);
+    }
 
-        LOGGER.info("Done generating inventory in {}", watch);
+    /**
+     * Writes the repository snapshot from the replica index. Nothing is
+     * written until the previous snapshot has been verified, as the previous
+     * snapshot is still more accurate than what is known about the
+     * unverified replicas.
+     *
+     * The snapshot is written without holding the state lock or any record
+     * lock. Replicas changing while the snapshot is written may be recorded
+     * in either state, and replicas added while the index grows may be
+     * missed; both are corrected when the snapshot is verified after the
+     * next restart.
+     */
+    private void saveSnapshot(Path file)
+    {
+        synchronized (_snapshotLock) {
+            if (!_unverified.isEmpty()) {
+                LOGGER.debug("Not writing repository snapshot while the previous snapshot is being verified.");
+                return;
+            }
+
+            Stopwatch watch = Stopwatch.createStarted();
+            _isSnapshotStale = false;
+            try (RepositorySnapshot.Writer writer = new RepositorySnapshot.Writer(file)) {
+                IOException[] error = new IOException[1];
+                _index.forEach(entry -> {
+                    if (error[0] != null) {
+                        return;
+                    }
+                    ReplicaState state = entry.getState();
+                    try {
+                        switch (state) {
+                        case REMOVED:
+                        case DESTROYED:
+                            break;
+                        case FROM_STORE:
+                            writer.add(new RepositorySnapshot.Entry(entry.getPnfsId(), state, 0,
+                                                                    entry.isSticky(),
+                                                                    entry.getLastAccessTime()));
+                            break;
+                        default:
+                            writer.add(new RepositorySnapshot.Entry(entry.getPnfsId(), state,
+                                                                    entry.getReplicaSize(),
+                                                                    entry.isSticky(),
+                                                                    entry.getLastAccessTime()));
+                            break;
+                        }
+                    } catch (IOException e) {
+                        error[0] = e;
+                    }
+                });
+                if (error[0] != null) {
+                    throw error[0];
+                }
+                writer.commit();
+                LOGGER.debug("Wrote repository snapshot of {} files in {}", writer.getCount(), watch);
+            } catch (IOException e) {
+                _isSnapshotStale = true;
+                LOGGER.warn("Failed to write repository snapshot {}: {}", file, e.getMessage());
+            }
+        }
     }
 
     @Override
@@ -984,6 +1314,9 @@ public class ReplicaRepository
     public void getInfo(PrintWriter pw)
     {
        getDataObject().print(pw);
+       if (!_unverified.isEmpty()) {
+           pw.println("Unverified files from snapshot : " + _unverified.size());
+       }
        pw.println("Sweeper Policy");
        pw.println("    lru   : " + _sweeper.getLru());
        pw.println("    margin: " + _sweeper.getMargin());
@@ -1009,6 +1342,8 @@ public class ReplicaRepository
             } catch (CacheException e) {
                 info.setFilesException(e.getMessage());
             }
+            info.setIndexedFiles(_index.size());
+            info.setIndexMemory(_index.getMemoryUsage());
 
             SpaceRecord space = getSpaceRecord();
 
@@ -1047,6 +1382,15 @@ public class ReplicaRepository
         _stateLock.writeLock().lock();
         try {
             _stateChangeListeners.stop();
+            if (_snapshotTask != null) {
+                _snapshotTask.cancel(false);
+            }
+            if (_verifier != null) {
+                _verifier.interrupt();
+            }
+            if (_snapshotFile != null && _state == State.OPEN) {
+                saveSnapshot(_snapshotFile);
+            }
             _state = State.CLOSED;
             _store.close();
         } finally {
@@ -0,0 +1,567 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2020 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.pool.repository.v5;
+
+import com.google.common.collect.Iterables;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import diskCacheV111.util.CacheException;
+import diskCacheV111.util.FileCorruptedCacheException;
+import diskCacheV111.util.FileNotInCacheException;
+import diskCacheV111.util.NotInTrashCacheException;
+import diskCacheV111.util.PnfsId;
+
+import dmg.cells.nucleus.CellInfoProvider;
+import dmg.cells.nucleus.CellLifeCycleAware;
+
+import org.dcache.alarms.AlarmMarkerFactory;
+import org.dcache.alarms.PredefinedAlarm;
+import org.dcache.pool.classic.ChecksumModuleV1;
+import org.dcache.pool.movers.TokenBucket;
+import org.dcache.pool.repository.CacheEntry;
+import org.dcache.pool.repository.FileStore;
+import org.dcache.pool.repository.ReplicaDescriptor;
+import org.dcache.pool.repository.ReplicaState;
+import org.dcache.pool.repository.Repository.OpenFlags;
+import org.dcache.util.TimeUtils;
+import org.dcache.vehicles.FileAttributes;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.dcache.namespace.FileAttribute.SIZE;
+import static org.dcache.util.ByteUnit.BYTES;
+import static org.dcache.util.Exceptions.messageOrClassName;
+
+/**
+ * Incrementally verifies the replicas of a pool.
+ *
+ * Rather than checking all replicas at once, the scrubber walks the
+ * repository in small slices and pauses between slices. For every
+ * replica it compares the size of the data file with the size recorded
+ * in the meta data and, optionally, verifies the checksums of the
+ * replica. Checksum verification reads the replica and is charged to a
+ * bandwidth budget, thus a pass over a large pool spreads its IO over
+ * time rather than causing a load spike. Inconsistent replicas are
+ * marked broken.
+ *
+ * Replicas are visited in PNFS ID order. The position of the scrubber
+ * is written to a state file after every slice, allowing an interrupted
+ * pass to resume after a restart. A new pass starts once the configured
+ * period has passed since the start of the previous pass.
+ */
+public class ReplicaScrubber implements CellLifeCycleAware, CellInfoProvider
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(ReplicaScrubber.class);
+
+    private ReplicaRepository _repository;
+
+    private FileStore _fileStore;
+
+    private ChecksumModuleV1 _checksumModule;
+
+    private String _poolName;
+
+    /**
+     * File holding the start time of the current pass and the last
+     * replica checked.
+     */
+    private Path _stateFile;
+
+    private boolean _isEnabled;
+
+    private boolean _isChecksumVerificationEnabled;
+
+    private int _sliceSize = 100;
+
+    private long _sliceDelay = 10;
+
+    private TimeUnit _sliceDelayUnit = TimeUnit.SECONDS;
+
+    private long _period = 7;
+
+    private TimeUnit _periodUnit = TimeUnit.DAYS;
+
+    /**
+     * Bandwidth budget for reading replicas.
+     */
+    private final TokenBucket _budget = new TokenBucket(0);
+
+    private ScheduledExecutorService _executor;
+
+    /**
+     * Maximum number of replicas selected at a time.
+     */
+    private int _batchSize = 10000;
+
+    /**
+     * Next replicas of the current pass in PNFS ID order, or null if no
+     * pass is in progress. Only accessed by the scrubber thread.
+     */
+    private Deque<PnfsId> _batch;
+
+    /**
+     * Whether the current batch holds all replicas that were left in the
+     * pass when it was selected.
+     */
+    private boolean _isLastBatch;
+
+    /**
+     * The replica checked last. The pass continues with the replicas
+     * following it in PNFS ID order.
+     */
+    private PnfsId _lastChecked;
+
+    private volatile boolean _isScanning;
+
+    private volatile long _passStart;
+
+    private volatile long _resumed;
+
+    private volatile int _total;
+
+    private volatile int _checked;
+
+    private volatile int _broken;
+
+    private volatile int _unable;
+
+    private volatile long _bytesVerified;
+
+    public void setRepository(ReplicaRepository repository)
+    {
+        _repository = repository;
+    }
+
+    public void setFileStore(FileStore fileStore)
+    {
+        _fileStore = fileStore;
+    }
+
+    public void setChecksumModule(ChecksumModuleV1 checksumModule)
+    {
+        _checksumModule = checksumModule;
+    }
+
+    public void setPoolName(String poolName)
+    {
+        _poolName = poolName;
+    }
+
+    public void setStateFile(File stateFile)
+    {
+        _stateFile = stateFile.toPath();
+    }
+
+    public void setEnabled(boolean isEnabled)
+    {
+        _isEnabled = isEnabled;
+    }
+
+    public void setChecksumVerificationEnabled(boolean isEnabled)
+    {
+        _isChecksumVerificationEnabled = isEnabled;
+    }
+
+    /**
+     * Sets the number of replicas checked in one slice.
+     */
+    public void setSliceSize(int sliceSize)
+    {
+        _sliceSize = sliceSize;
+    }
+
+    /**
+     * Limits the number of replicas selected at a time.
+     */
+    void setBatchSize(int batchSize)
+    {
+        checkArgument(batchSize > 0, "Batch size must be positive");
+        _batchSize = batchSize;
+    }
+
+    /**
+     * Sets the pause between two slices.
+     */
+    public void setSliceDelay(long delay)
+    {
+        _sliceDelay = delay;
+    }
+
+    public void setSliceDelayUnit(TimeUnit unit)
+    {
+        _sliceDelayUnit = unit;
+    }
+
+    /**
+     * Sets the minimum time between the start of two passes.
+     */
+    public void setPeriod(long period)
+    {
+        _period = period;
+    }
+
+    public void setPeriodUnit(TimeUnit unit)
+    {
+        _periodUnit = unit;
+    }
+
+    /**
+     * Sets the bandwidth budget in bytes per second, or zero for no limit.
+     */
+    public void setBandwidth(long bandwidth)
+    {
+        _budget.setRate(bandwidth);
+    }
+
+    @Override
+    public void afterStart()
+    {
+        if (_isEnabled) {
+            loadState();
+            _executor = Executors.newSingleThreadScheduledExecutor(
+                    new ThreadFactoryBuilder().setNameFormat("scrubber-%d").setDaemon(true).build());
+            _executor.scheduleWithFixedDelay(this::run, _sliceDelay, _sliceDelay, _sliceDelayUnit);
+        }
+    }
+
+    @Override
+    public void beforeStop()
+    {
+        if (_executor != null) {
+            _executor.shutdownNow();
+            try {
+                if (_executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                    saveState();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void run()
+    {
+        try {
+            runSlice();
+        } catch (RuntimeException e) {
+            /* Propagating the exception would cancel all further slices.
+             */
+            LOGGER.error("Scrubber slice failed. This is a bug. Please report it to support@dcache.org.", e);
+        }
+    }
+
+    /**
+     * Checks the next slice of replicas, starting a new pass if the
+     * previous pass has finished and the period has passed.
+     */
+    void runSlice()
+    {
+        if (_repository.getState() != ReplicaRepository.State.OPEN) {
+            return;
+        }
+
+        if (_batch == null) {
+            if (_lastChecked == null && System.currentTimeMillis() < _passStart + _periodUnit.toMillis(_period)) {
+                return;
+            }
+            startPass();
+        }
+
+        try {
+            int count = 0;
+            while (count < _sliceSize) {
+                if (_batch.isEmpty()) {
+                    if (_isLastBatch) {
+                        break;
+                    }
+                    nextBatch();
+                    continue;
+                }
+                PnfsId id = _batch.peek();
+                try {
+                    check(id);
+                } catch (InterruptedIOException e) {
+                    throw e;
+                } catch (IOException e) {
+                    /* Retrying would stall the pass on a replica with a
+                     * persistent read error.
+                     */
+                    LOGGER.error("Scrubber failed to read {}: {}", id, messageOrClassName(e));
+                    _unable++;
+                }
+                _batch.poll();
+                _lastChecked = id;
+                _checked++;
+                count++;
+            }
+        } catch (InterruptedIOException e) {
+            Thread.currentThread().interrupt();
+            return;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+
+        if (_batch.isEmpty() && _isLastBatch) {
+            finishPass();
+        }
+        saveState();
+    }
+
+    private void startPass()
+    {
+        if (_lastChecked == null) {
+            _passStart = System.currentTimeMillis();
+            LOGGER.debug("Starting scrubber pass");
+        } else {
+            LOGGER.debug("Resuming scrubber pass from the first replica after {}", _lastChecked);
+        }
+
+        _isScanning = true;
+        _resumed = System.currentTimeMillis();
+        _total = nextBatch();
+        _checked = 0;
+        _broken = 0;
+        _unable = 0;
+        _bytesVerified = 0;
+    }
+
+    /**
+     * Selects the next replicas after the last replica checked, in PNFS ID
+     * order. Only a bounded number of replicas is held at a time. Replicas
+     * added after the last batch of a pass was selected are left to the
+     * next pass.
+     *
+     * @return the number of replicas following the last replica checked
+     */
+    private int nextBatch()
+    {
+        PriorityQueue<PnfsId> selected = new PriorityQueue<>(Comparator.reverseOrder());
+        int remaining = 0;
+        for (PnfsId id : _repository) {
+            if (_lastChecked == null || id.compareTo(_lastChecked) > 0) {
+                remaining++;
+                if (selected.size() < _batchSize) {
+                    selected.add(id);
+                } else if (id.compareTo(selected.peek()) < 0) {
+                    selected.poll();
+                    selected.add(id);
+                }
+            }
+        }
+        PnfsId[] ids = selected.toArray(new PnfsId[0]);
+        Arrays.sort(ids);
+        _batch = new ArrayDeque<>(Arrays.asList(ids));
+        _isLastBatch = remaining == ids.length;
+        return remaining;
+    }
+
+    private void finishPass()
+    {
+        if (_broken > 0 || _unable > 0) {
+            LOGGER.warn("Scrubber pass finished: {} of {} replicas broken, {} could not be checked.",
+                        _broken, _total, _unable);
+        } else {
+            LOGGER.info("Scrubber pass finished: checked {} replicas.", _total);
+        }
+        _batch = null;
+        _lastChecked = null;
+        _isScanning = false;
+    }
+
+    private void check(PnfsId id) throws IOException, InterruptedException
+    {
+        try {
+            CacheEntry entry = _repository.getEntry(id);
+            ReplicaState state = entry.getState();
+            if (state != ReplicaState.CACHED && state != ReplicaState.PRECIOUS) {
+                return;
+            }
+
+            long size;
+            try {
+                size = _fileStore.getFileAttributeView(id).readAttributes().size();
+            } catch (NoSuchFileException e) {
+                markBroken(id, PredefinedAlarm.BROKEN_FILE, "data file is missing");
+                return;
+            }
+
+            FileAttributes attributes = entry.getFileAttributes();
+            if (size != entry.getReplicaSize()) {
+                markBroken(id, PredefinedAlarm.BROKEN_FILE,
+                           String.format("data file has %d bytes, but meta data records %d bytes",
+                                         size, entry.getReplicaSize()));
+            } else if (attributes.isDefined(SIZE) && attributes.getSize() != size) {
+                markBroken(id, PredefinedAlarm.BROKEN_FILE,
+                           String.format("data file has %d bytes, but file size is %d bytes",
+                                         size, attributes.getSize()));
+            } else if (_isChecksumVerificationEnabled) {
+                verifyChecksums(id, size);
+            }
+        } catch (FileNotInCacheException | NotInTrashCacheException e) {
+            /* It was removed before we could get it. No problem.
+             */
+        } catch (CacheException | NoSuchAlgorithmException e) {
+            LOGGER.warn("Scrubber unable to verify {}: {}", id, e.getMessage());
+            _unable++;
+        }
+    }
+
+    private void verifyChecksums(PnfsId id, long size)
+            throws CacheException, IOException, InterruptedException, NoSuchAlgorithmException
+    {
+        ReplicaDescriptor handle = _repository.openEntry(id, EnumSet.of(OpenFlags.NOATIME));
+        try {
+            if (Iterables.isEmpty(handle.getChecksums())) {
+                LOGGER.debug("Scrubber skips checksum verification of {} as no checksum is known.", id);
+                return;
+            }
+            _checksumModule.verifyChecksum(handle, _budget);
+            _bytesVerified += size;
+        } catch (FileCorruptedCacheException e) {
+            markBroken(id, PredefinedAlarm.CHECKSUM, e.getMessage());
+        } finally {
+            handle.close();
+        }
+    }
+
+    private void markBroken(PnfsId id, PredefinedAlarm alarm, String reason) throws InterruptedException
+    {
+        _broken++;
+        LOGGER.error(AlarmMarkerFactory.getMarker(alarm, id.toString(), _poolName),
+                     "Marking {} on {} as BROKEN: {}", id, _poolName, reason);
+        try {
+            _repository.setState(id, ReplicaState.BROKEN, "scrubber found inconsistency: " + reason);
+        } catch (CacheException e) {
+            LOGGER.warn("Failed to mark {} as BROKEN: {}", id, e.getMessage());
+        }
+    }
+
+    /**
+     * Saves the start time of the current pass followed by the PNFS ID of
+     * the last replica checked, or a dash if no pass is in progress. The
+     * state is written to a temporary file that atomically replaces the
+     * previous state, such that a crash never leaves a truncated state.
+     */
+    private void saveState()
+    {
+        String line = _passStart + " " + ((_lastChecked == null) ? "-" : _lastChecked);
+        Path tmp = _stateFile.resolveSibling(_stateFile.getFileName() + ".tmp");
+        try {
+            try (FileChannel channel = FileChannel.open(tmp, CREATE, WRITE, TRUNCATE_EXISTING)) {
+                ByteBuffer buffer = ByteBuffer.wrap(line.getBytes(StandardCharsets.US_ASCII));
+                while (buffer.hasRemaining()) {
+                    channel.write(buffer);
+                }
+                channel.force(true);
+            }
+            Files.move(tmp, _stateFile, ATOMIC_MOVE, REPLACE_EXISTING);
+        } catch (IOException e) {
+            LOGGER.error("Failed to save scrubber state to {}: {}", _stateFile, messageOrClassName(e));
+        }
+    }
+
+    private void loadState()
+    {
+        String line;
+        try {
+            line = new String(Files.readAllBytes(_stateFile), StandardCharsets.US_ASCII).trim();
+        } catch (NoSuchFileException e) {
+            /* Start immediately and check the whole pool.
+             */
+            return;
+        } catch (IOException e) {
+            LOGGER.error("Failed to read scrubber state from {}: {}", _stateFile, messageOrClassName(e));
+            return;
+        }
+
+        String[] fields = line.split(" ");
+        try {
+            if (fields.length != 2) {
+                throw new IllegalArgumentException("invalid format");
+            }
+            _passStart = Long.parseLong(fields[0]);
+            _lastChecked = fields[1].equals("-") ? null : new PnfsId(fields[1]);
+        } catch (IllegalArgumentException e) {
+            LOGGER.error("Ignoring invalid scrubber state in {}: {}", _stateFile, line);
+            _passStart = 0;
+            _lastChecked = null;
+        }
+    }
+
+    @Override
+    public void getInfo(PrintWriter pw)
+    {
+        if (_isEnabled) {
+            long total = _total;
+            long checked = _checked;
+            long passStart = _passStart;
+            long elapsed = System.currentTimeMillis() - _resumed;
+            pw.println("Scrubber:");
+            if (passStart == 0) {
+                pw.println("    State           : Waiting for the repository");
+            } else if (_isScanning) {
+                pw.println("    State           : Scanning since " + new Date(passStart));
+            } else {
+                pw.println("    State           : Idle until " + new Date(passStart + _periodUnit.toMillis(_period)));
+            }
+            pw.println("    Progress        : " + checked + " of " + total + " replicas"
+                       + ((total > 0) ? String.format(" (%.1f%%)", 100.0 * checked / total) : ""));
+            pw.println("    Broken          : " + _broken);
+            pw.println("    Unable to check : " + _unable);
+            pw.println("    Bytes verified  : " + _bytesVerified);
+            pw.println("    Replica rate    : "
+                       + ((elapsed > 0) ? String.format("%.1f", checked * 1000.0 / elapsed) : "-") + " /s");
+            pw.println("    Throughput      : "
+                       + String.format("%.1f", BYTES.toMiB((double) _budget.getThroughput())) + " MiB/s"
+                       + ((_budget.getRate() > 0)
+                          ? String.format(" (limit %.1f MiB/s)", BYTES.toMiB((double) _budget.getRate()))
+                          : ""));
+            pw.println("    Slice           : " + _sliceSize + " replicas every "
+                       + TimeUtils.duration(_sliceDelay, _sliceDelayUnit, TimeUtils.TimeUnitFormat.SHORT));
+        }
+    }
+}
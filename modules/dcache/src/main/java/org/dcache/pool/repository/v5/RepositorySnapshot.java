@@ -0,0 +1,254 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2020 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.pool.repository.v5;
+
+import com.google.common.io.BaseEncoding;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import diskCacheV111.util.PnfsId;
+
+import org.dcache.pool.repository.ReplicaState;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.TRUNCATE_EXISTING;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Compact snapshot of the replicas of a repository.
+ *
+ * The snapshot holds just enough information about each replica to
+ * account for the space used by the pool: the PNFS ID, the state, the
+ * size, whether the replica is sticky and when it was last accessed.
+ * Reading it is much cheaper than reading the meta data of every
+ * replica from the ReplicaStore, which allows the repository to be
+ * brought online before the meta data has been verified.
+ *
+ * The snapshot is protected by a CRC32 checksum. It is written to a
+ * temporary file that atomically replaces the previous snapshot, hence
+ * a crash while writing leaves the previous snapshot intact. Both the
+ * file and the rename are forced to disk before a commit returns.
+ */
+class RepositorySnapshot
+{
+    private static final int MAGIC = 0x64435253;
+    private static final int VERSION = 1;
+
+    private static final ReplicaState[] STATES = ReplicaState.values();
+
+    /**
+     * Information about a single replica in a snapshot.
+     */
+    static class Entry
+    {
+        private final PnfsId _id;
+        private final ReplicaState _state;
+        private final long _size;
+        private final boolean _isSticky;
+        private final long _lastAccessTime;
+
+        Entry(PnfsId id, ReplicaState state, long size, boolean isSticky, long lastAccessTime)
+        {
+            _id = id;
+            _state = state;
+            _size = size;
+            _isSticky = isSticky;
+            _lastAccessTime = lastAccessTime;
+        }
+
+        PnfsId getPnfsId()
+        {
+            return _id;
+        }
+
+        ReplicaState getState()
+        {
+            return _state;
+        }
+
+        long getReplicaSize()
+        {
+            return _size;
+        }
+
+        boolean isSticky()
+        {
+            return _isSticky;
+        }
+
+        long getLastAccessTime()
+        {
+            return _lastAccessTime;
+        }
+    }
+
+    private RepositorySnapshot()
+    {
+    }
+
+    /**
+     * Writes a new snapshot. The snapshot replaces the previous snapshot
+     * when committed; closing an uncommitted writer discards the new
+     * snapshot.
+     */
+    static class Writer implements Closeable
+    {
+        private final Path _path;
+        private final Path _tmp;
+        private final FileChannel _channel;
+        private final CRC32 _crc = new CRC32();
+        private final DataOutputStream _out;
+        private int _count;
+        private boolean _isCommitted;
+
+        Writer(Path path) throws IOException
+        {
+            _path = path;
+            _tmp = path.resolveSibling(path.getFileName() + ".tmp");
+            _channel = FileChannel.open(_tmp, CREATE, WRITE, TRUNCATE_EXISTING);
+            _out = new DataOutputStream(new BufferedOutputStream(
+                    new CheckedOutputStream(Channels.newOutputStream(_channel), _crc)));
+            _out.writeInt(MAGIC);
+            _out.writeInt(VERSION);
+            _out.writeLong(System.currentTimeMillis());
+        }
+
+        void add(Entry entry) throws IOException
+        {
+            byte[] id = BaseEncoding.base16().decode(entry.getPnfsId().toString());
+            _out.writeByte(id.length);
+            _out.write(id);
+            _out.writeByte(entry.getState().ordinal());
+            _out.writeLong(entry.getReplicaSize());
+            _out.writeBoolean(entry.isSticky());
+            _out.writeLong(entry.getLastAccessTime());
+            _count++;
+        }
+
+        int getCount()
+        {
+            return _count;
+        }
+
+        void commit() throws IOException
+        {
+            _out.writeByte(0);
+            _out.writeInt(_count);
+            _out.flush();
+            ByteBuffer checksum = ByteBuffer.allocate(Long.BYTES).putLong(_crc.getValue());
+            checksum.flip();
+            while (checksum.hasRemaining()) {
+                _channel.write(checksum);
+            }
+            _channel.force(true);
+            _channel.close();
+            Files.move(_tmp, _path, ATOMIC_MOVE, REPLACE_EXISTING);
+            _isCommitted = true;
+            syncDirectory();
+        }
+
+        /**
+         * Forces the directory to disk, making the rename durable.
+         */
+        private void syncDirectory() throws IOException
+        {
+            try (FileChannel channel = FileChannel.open(_path.toAbsolutePath().getParent(), READ)) {
+                channel.force(true);
+            }
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            if (!_isCommitted) {
+                _channel.close();
+                Files.deleteIfExists(_tmp);
+            }
+        }
+    }
+
+    /**
+     * Reads the snapshot stored in {@code path}. If a replica was recorded
+     * more than once, the last record wins.
+     *
+     * @throws java.nio.file.NoSuchFileException if there is no snapshot
+     * @throws IOException if the snapshot cannot be read or is corrupted
+     */
+    static Map<PnfsId,Entry> read(Path path) throws IOException
+    {
+        CRC32 crc = new CRC32();
+        try (DataInputStream in = new DataInputStream(new CheckedInputStream(
+                new BufferedInputStream(Files.newInputStream(path)), crc))) {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Not a repository snapshot");
+            }
+            int version = in.readInt();
+            if (version != VERSION) {
+                throw new IOException("Unsupported snapshot version " + version);
+            }
+            in.readLong();
+            Map<PnfsId,Entry> entries = new HashMap<>();
+            int records = 0;
+            int length;
+            while ((length = in.readUnsignedByte()) != 0) {
+                records++;
+                byte[] id = new byte[length];
+                in.readFully(id);
+                int state = in.readUnsignedByte();
+                if (state >= STATES.length) {
+                    throw new IOException("Invalid replica state " + state);
+                }
+                PnfsId pnfsId;
+                try {
+                    pnfsId = new PnfsId(BaseEncoding.base16().encode(id));
+                } catch (IllegalArgumentException e) {
+                    throw new IOException("Invalid PNFS ID: " + e.getMessage());
+                }
+                entries.put(pnfsId, new Entry(pnfsId, STATES[state], in.readLong(),
+                                              in.readBoolean(), in.readLong()));
+            }
+            int count = in.readInt();
+            long checksum = crc.getValue();
+            if (in.readLong() != checksum) {
+                throw new IOException("Snapshot checksum mismatch");
+            }
+            if (count != records) {
+                throw new IOException("Snapshot contains " + records + " entries, expected " + count);
+            }
+            return entries;
+        }
+    }
+}
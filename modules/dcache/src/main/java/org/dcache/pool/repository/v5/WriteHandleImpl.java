@@ -28,7 +28,9 @@ import org.dcache.pool.repository.ReplicaState;
 import org.dcache.pool.repository.ReplicaRecord;
 import org.dcache.pool.repository.ReplicaDescriptor;
 import org.dcache.pool.repository.RepositoryChannel;
+import org.dcache.pool.repository.SizeHint;
 import org.dcache.pool.repository.StickyRecord;
+import org.dcache.pool.repository.buffering.BufferingReplicaRecord;
 import org.dcache.pool.repository.checksums.ChecksumReplicaRecord;
 import org.dcache.pool.repository.inotify.InotifyReplicaRecord;
 import org.dcache.pool.statistics.IoStatisticsReplicaRecord;
@@ -53,6 +55,7 @@ class WriteHandleImpl implements ReplicaDescriptor
     private static final Set<OpenOption> OPEN_OPTIONS = ImmutableSet.<OpenOption>builder()
             .addAll(FileStore.O_RW)
             .add(IoStatisticsReplicaRecord.OpenFlags.ENABLE_IO_STATISTICS)
+            .add(BufferingReplicaRecord.OpenFlags.ENABLE_BUFFERING)
             .add(ChecksumReplicaRecord.OpenFlags.ENABLE_CHECKSUM_CALCULATION)
             .build();
 
@@ -149,6 +152,16 @@ class WriteHandleImpl implements ReplicaDescriptor
                 ? OPEN_OPTIONS_WITH_INOTIFY
                 : OPEN_OPTIONS;
 
+        /* Let the file store reserve space for the new replica, if its
+         * size is known.
+         */
+        if (!hasChannelBeenCreated && _fileAttributes.isDefined(SIZE) && _fileAttributes.getSize() > 0) {
+            options = ImmutableSet.<OpenOption>builder()
+                    .addAll(options)
+                    .add(new SizeHint(_fileAttributes.getSize()))
+                    .build();
+        }
+
         RepositoryChannel channel = new AllocatorAwareRepositoryChannel(_entry.openChannel(options),
                 _repository, _fileAttributes.getPnfsId(), _allocator);
         hasChannelBeenCreated = true;
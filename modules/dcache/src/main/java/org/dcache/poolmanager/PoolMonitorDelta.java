@@ -0,0 +1,116 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2020 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.poolmanager;
+
+import com.google.common.collect.ImmutableList;
+
+import java.io.Serializable;
+import java.util.List;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * Incremental update of a published pool monitor.
+ *
+ * Pool manager publishes a full {@link SerializablePoolMonitor} whenever the pool
+ * selection configuration or the set of pools changes. In between, only the pool
+ * heartbeats received since the previous publication are published as deltas.
+ *
+ * A delta can only be applied to the pool monitor of the same epoch (that is, as
+ * published by the same pool manager instance) whose version is the base version
+ * of the delta. Subscribers that missed an update have to fetch a full snapshot.
+ */
+public class PoolMonitorDelta implements Serializable
+{
+    private static final long serialVersionUID = 3917626839542371052L;
+
+    private final long _epoch;
+    private final long _baseVersion;
+    private final long _version;
+    private final ImmutableList<PoolUpdate> _updates;
+
+    public PoolMonitorDelta(long epoch, long baseVersion, long version, List<PoolUpdate> updates)
+    {
+        _epoch = epoch;
+        _baseVersion = baseVersion;
+        _version = version;
+        _updates = ImmutableList.copyOf(updates);
+    }
+
+    public long getEpoch()
+    {
+        return _epoch;
+    }
+
+    public long getBaseVersion()
+    {
+        return _baseVersion;
+    }
+
+    public long getVersion()
+    {
+        return _version;
+    }
+
+    public ImmutableList<PoolUpdate> getUpdates()
+    {
+        return _updates;
+    }
+
+    @Override
+    public String toString()
+    {
+        return "PoolMonitorDelta[epoch=" + _epoch + ";base=" + _baseVersion +
+               ";version=" + _version + ";pools=" + _updates.size() + "]";
+    }
+
+    /**
+     * Cost information of a single pool as received with a heartbeat.
+     */
+    public static class PoolUpdate implements Serializable
+    {
+        private static final long serialVersionUID = -6071549287093946016L;
+
+        private final PoolInfo _info;
+        private final long _timestamp;
+
+        public PoolUpdate(PoolInfo info, long timestamp)
+        {
+            _info = requireNonNull(info);
+            _timestamp = timestamp;
+        }
+
+        public String getName()
+        {
+            return _info.getName();
+        }
+
+        public PoolInfo getPoolInfo()
+        {
+            return _info;
+        }
+
+        /**
+         * Time at which pool manager received the heartbeat, in milliseconds since the epoch.
+         */
+        public long getTimestamp()
+        {
+            return _timestamp;
+        }
+    }
+}
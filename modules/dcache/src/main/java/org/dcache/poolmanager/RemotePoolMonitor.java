@@ -65,8 +65,10 @@ public class RemotePoolMonitor
 
     private long lastRefreshTime;
     private CellStub poolManagerStub;
-    private PoolMonitor poolMonitor;
+    private SerializablePoolMonitor poolMonitor;
     private long refreshCount;
+    private long deltaCount;
+    private boolean isFetching;
     private CellAddressCore previousMonitorSource;
 
     @Required
@@ -84,13 +86,23 @@ public class RemotePoolMonitor
 
         }
         pw.println("refresh count = " + refreshCount);
+        pw.println("delta updates = " + deltaCount);
         pw.println("active refresh target = " + poolManagerStub);
     }
 
 
     @Override
-    public synchronized void afterStart()
+    public void afterStart()
     {
+        fetchPoolMonitor();
+    }
+
+    /**
+     * Requests a full snapshot of the pool monitor from pool manager.
+     */
+    private synchronized void fetchPoolMonitor()
+    {
+        isFetching = true;
         CellStub.addCallback(poolManagerStub.send(new PoolManagerGetPoolMonitor(), CellEndpoint.SendFlag.RETRY_ON_NO_ROUTE_TO_CELL),
                              new AbstractMessageCallback<PoolManagerGetPoolMonitor>()
                              {
@@ -98,17 +110,19 @@ public class RemotePoolMonitor
                                  public void success(PoolManagerGetPoolMonitor message)
                                  {
                                      acceptMonitor(message.getPoolMonitor());
+                                     fetched();
                                  }
 
                                  @Override
                                  public void timeout(String message)
                                  {
-                                     afterStart();
+                                     fetchPoolMonitor();
                                  }
 
                                  @Override
                                  public void failure(int rc, Object error)
                                  {
+                                     fetched();
                                  }
                              },
                              MoreExecutors.directExecutor());
@@ -187,8 +201,70 @@ public class RemotePoolMonitor
         acceptMonitor(monitor);
     }
 
+    public void messageArrived(PoolMonitorDelta delta)
+    {
+        while (true) {
+            SerializablePoolMonitor current;
+            synchronized (this) {
+                current = poolMonitor;
+                if (current == null || current.getEpoch() != delta.getEpoch()) {
+                    /* The delta is relative to a pool monitor published by another
+                     * pool manager instance; we keep the one we have until the next
+                     * full snapshot.
+                     */
+                    return;
+                }
+                if (delta.getVersion() <= current.getVersion()) {
+                    return;
+                }
+            }
+
+            /* Published pool monitors are never modified, as callers may still
+             * be using them; the delta is applied to a copy instead.
+             */
+            SerializablePoolMonitor updated = null;
+            if (delta.getBaseVersion() == current.getVersion()) {
+                updated = current.copy();
+                if (!updated.apply(delta)) {
+                    updated = null;
+                }
+            }
+
+            synchronized (this) {
+                if (poolMonitor != current) {
+                    /* Replaced while applying the delta; try again with the new one. */
+                    continue;
+                }
+                if (updated != null) {
+                    poolMonitor = updated;
+                    lastRefreshTime = System.currentTimeMillis();
+                    refreshCount++;
+                    deltaCount++;
+                    return;
+                }
+                if (isFetching) {
+                    return;
+                }
+                LOGGER.debug("Unable to apply {} to version {}; fetching full pool monitor.",
+                             delta, current.getVersion());
+            }
+            fetchPoolMonitor();
+            return;
+        }
+    }
+
+    private synchronized void fetched()
+    {
+        isFetching = false;
+    }
+
     private synchronized void acceptMonitor(SerializablePoolMonitor monitor)
     {
+        if (poolMonitor != null && poolMonitor.getEpoch() == monitor.getEpoch()
+                && monitor.getVersion() < poolMonitor.getVersion()) {
+            /* Reordered delivery of an older snapshot. */
+            return;
+        }
         poolMonitor = monitor;
         lastRefreshTime = System.currentTimeMillis();
         refreshCount++;
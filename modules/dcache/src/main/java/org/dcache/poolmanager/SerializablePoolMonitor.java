@@ -18,9 +18,88 @@
  */
 package org.dcache.poolmanager;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
+import java.util.List;
 
 public abstract class SerializablePoolMonitor implements PoolMonitor, Serializable
 {
     private static final long serialVersionUID = -3568502579459711629L;
+
+    private volatile long _epoch;
+    private volatile long _version;
+
+    /**
+     * Identifies the pool manager instance that published this pool monitor.
+     * Zero if the pool monitor was never published.
+     */
+    public long getEpoch()
+    {
+        return _epoch;
+    }
+
+    /**
+     * The version of the last update published or applied.
+     */
+    public long getVersion()
+    {
+        return _version;
+    }
+
+    public void setVersion(long epoch, long version)
+    {
+        _epoch = epoch;
+        _version = version;
+    }
+
+    /**
+     * Returns the cost information of all pools that sent a heartbeat at or
+     * after the given time.
+     */
+    public abstract List<PoolMonitorDelta.PoolUpdate> getPoolUpdatesSince(long time);
+
+    /**
+     * Applies a delta to this pool monitor. The caller must have checked that the
+     * delta is based on the current version.
+     *
+     * The version is only advanced if the delta applied completely.
+     *
+     * @return false if the delta refers to pools unknown to this pool monitor, in which
+     * case a full snapshot is needed
+     */
+    public boolean apply(PoolMonitorDelta delta)
+    {
+        boolean isComplete = true;
+        for (PoolMonitorDelta.PoolUpdate update : delta.getUpdates()) {
+            isComplete &= apply(update);
+        }
+        if (isComplete) {
+            setVersion(delta.getEpoch(), delta.getVersion());
+        }
+        return isComplete;
+    }
+
+    protected abstract boolean apply(PoolMonitorDelta.PoolUpdate update);
+
+    /**
+     * Returns a deep copy of this pool monitor.
+     */
+    public SerializablePoolMonitor copy()
+    {
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                out.writeObject(this);
+            }
+            try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+                return (SerializablePoolMonitor) in.readObject();
+            }
+        } catch (IOException | ClassNotFoundException e) {
+            throw new RuntimeException("Failed to copy pool monitor: " + e, e);
+        }
+    }
 }
@@ -0,0 +1,280 @@
+/* dCache - http://www.dcache.org/
+ *
+ * Copyright (C) 2020 Deutsches Elektronen-Synchrotron
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU Affero General Public License as
+ * published by the Free Software Foundation, either version 3 of the
+ * License, or (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU Affero General Public License for more details.
+ *
+ * You should have received a copy of the GNU Affero General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package org.dcache.poolmanager;
+
+import com.google.common.collect.ImmutableMap;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+import diskCacheV111.poolManager.CostModule;
+import diskCacheV111.pools.PoolCostInfo;
+import diskCacheV111.pools.PoolCostInfo.PoolSpaceInfo;
+import diskCacheV111.util.CacheException;
+import diskCacheV111.util.CostException;
+
+import org.dcache.pool.assumption.AvailableSpaceAssumption;
+import org.dcache.vehicles.FileAttributes;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static java.util.stream.Collectors.toList;
+
+/**
+ * Partition that selects pools by the power of two choices.
+ *
+ * For every selection two distinct candidate pools are picked at random and the
+ * one with the lower score is selected. The score of a pool is its mover load,
+ * i.e. the number of active and queued movers relative to the maximum number of
+ * active movers, multiplied by the cpucostfactor. For writes the fraction of
+ * space in use, multiplied by the spacecostfactor, is added.
+ *
+ * Pool cost information is only updated with heartbeats. To avoid herding onto
+ * the pool that was least loaded at the last heartbeat, every selection is
+ * counted as an additional mover of the selected pool. These assignments decay
+ * exponentially with the configured half-life (inflight-half-life, in seconds),
+ * which should be in the order of the pool heartbeat period. Assignments are
+ * tracked by each instance of the partition and are not shared between pool
+ * manager and other services.
+ *
+ * The partition does not support hot spot replication, cost based link
+ * fallbacks, replication limits, nor same host replication protection. Pool to
+ * pool transfers and stage from tape are supported.
+ */
+public class TwoChoicesPartition extends Partition
+{
+    private static final long serialVersionUID = -1785298340261582738L;
+
+    static final String TYPE = "two-choices";
+
+    private static final Map<String,String> DEFAULTS =
+            ImmutableMap.of("cpucostfactor", "1.0",
+                            "spacecostfactor", "1.0",
+                            "inflight-half-life", "10");
+
+    private final double _performanceCostFactor;
+    private final double _spaceCostFactor;
+    private final long _halfLife;
+
+    /**
+     * Locally made assignments by pool name.
+     */
+    private transient Map<String,Assignments> _assignments = new ConcurrentHashMap<>();
+
+    public TwoChoicesPartition(Map<String,String> inherited)
+    {
+        this(inherited, NO_PROPERTIES);
+    }
+
+    public TwoChoicesPartition(Map<String,String> inherited,
+                               Map<String,String> defined)
+    {
+        super(DEFAULTS, inherited, defined);
+        _performanceCostFactor = getDouble("cpucostfactor");
+        _spaceCostFactor = getDouble("spacecostfactor");
+        _halfLife = TimeUnit.SECONDS.toNanos(getLong("inflight-half-life"));
+        checkArgument(_halfLife > 0, "inflight-half-life must be positive");
+    }
+
+    @Override
+    protected Partition create(Map<String,String> inherited,
+                               Map<String,String> defined)
+    {
+        return new TwoChoicesPartition(inherited, defined);
+    }
+
+    @Override
+    public String getType()
+    {
+        return TYPE;
+    }
+
+    /**
+     * Number of assignments to a pool, decayed over time.
+     */
+    private static class Assignments
+    {
+        final double count;
+        final long time;
+
+        Assignments(double count, long time)
+        {
+            this.count = count;
+            this.time = time;
+        }
+
+        double decayed(long now, long halfLife)
+        {
+            return count * Math.pow(0.5, (double) (now - time) / halfLife);
+        }
+    }
+
+    private double getAssignments(PoolInfo pool, long now)
+    {
+        Assignments assignments = _assignments.get(pool.getName());
+        return (assignments == null) ? 0.0 : assignments.decayed(now, _halfLife);
+    }
+
+    private void assign(PoolInfo pool)
+    {
+        long now = System.nanoTime();
+        _assignments.compute(pool.getName(),
+                             (name, assignments) -> new Assignments(
+                                     (assignments == null) ? 1.0 : assignments.decayed(now, _halfLife) + 1.0,
+                                     now));
+    }
+
+    private double getLoad(PoolInfo pool, long now)
+    {
+        int movers = 0;
+        int maxActive = 0;
+        for (PoolCostInfo.NamedPoolQueueInfo queue : pool.getCostInfo().getExtendedMoverHash().values()) {
+            movers += queue.getActive() + queue.getQueued();
+            maxActive += queue.getMaxActive();
+        }
+        return (movers + getAssignments(pool, now)) / Math.max(maxActive, 1);
+    }
+
+    private double getReadScore(PoolInfo pool, long now)
+    {
+        return _performanceCostFactor * getLoad(pool, now);
+    }
+
+    private double getWriteScore(PoolInfo pool, long now)
+    {
+        PoolSpaceInfo space = pool.getCostInfo().getSpaceInfo();
+        double used = (space.getTotalSpace() > 0)
+                      ? 1.0 - (double) getAvailable(space) / space.getTotalSpace()
+                      : 1.0;
+        return _performanceCostFactor * getLoad(pool, now) + _spaceCostFactor * used;
+    }
+
+    private static long getAvailable(PoolSpaceInfo space)
+    {
+        return space.getFreeSpace() + space.getRemovableSpace();
+    }
+
+    private static boolean canHoldFile(PoolInfo pool, long size)
+    {
+        PoolSpaceInfo space = pool.getCostInfo().getSpaceInfo();
+        return getAvailable(space) - size > space.getGap();
+    }
+
+    /**
+     * Selects the better of two random pools and counts the selection as an
+     * assignment to that pool.
+     */
+    private PoolInfo select(List<PoolInfo> pools, ToDoubleFunction<PoolInfo> score)
+    {
+        PoolInfo pool;
+        int size = pools.size();
+        if (size == 1) {
+            pool = pools.get(0);
+        } else {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            int first = random.nextInt(size);
+            int second = random.nextInt(size - 1);
+            if (second >= first) {
+                second++;
+            }
+            PoolInfo a = pools.get(first);
+            PoolInfo b = pools.get(second);
+            pool = (score.applyAsDouble(b) < score.applyAsDouble(a)) ? b : a;
+        }
+        assign(pool);
+        return pool;
+    }
+
+    private PoolInfo selectForWrite(List<PoolInfo> pools, long size) throws CostException
+    {
+        List<PoolInfo> freePools =
+                pools.stream().filter(pool -> canHoldFile(pool, size)).collect(toList());
+        if (freePools.isEmpty()) {
+            throw new CostException("All pools are full", null, false, false);
+        }
+        long now = System.nanoTime();
+        return select(freePools, pool -> getWriteScore(pool, now));
+    }
+
+    @Override
+    public SelectedPool selectWritePool(CostModule cm,
+                                        List<PoolInfo> pools,
+                                        FileAttributes attributes,
+                                        long preallocated)
+        throws CacheException
+    {
+        return new SelectedPool(selectForWrite(pools, preallocated),
+                                new AvailableSpaceAssumption(preallocated));
+    }
+
+    @Override
+    public SelectedPool selectReadPool(CostModule cm,
+                                       List<PoolInfo> pools,
+                                       FileAttributes attributes)
+        throws CacheException
+    {
+        checkState(!pools.isEmpty());
+        long now = System.nanoTime();
+        return new SelectedPool(select(pools, pool -> getReadScore(pool, now)));
+    }
+
+    @Override
+    public P2pPair selectPool2Pool(CostModule cm,
+                                   List<PoolInfo> src,
+                                   List<PoolInfo> dst,
+                                   FileAttributes attributes,
+                                   boolean force)
+        throws CacheException
+    {
+        return new P2pPair(selectReadPool(cm, src, attributes),
+                           selectWritePool(cm, dst, attributes, attributes.getSize()));
+    }
+
+    @Override
+    public SelectedPool selectStagePool(CostModule cm,
+                                        List<PoolInfo> pools,
+                                        Optional<PoolInfo> previous,
+                                        FileAttributes attributes)
+        throws CacheException
+    {
+        if (previous.isPresent() && pools.size() > 1) {
+            String name = previous.get().getName();
+            List<PoolInfo> others =
+                    pools.stream().filter(pool -> !Objects.equals(pool.getName(), name)).collect(toList());
+            if (others.stream().anyMatch(pool -> canHoldFile(pool, attributes.getSize()))) {
+                pools = others;
+            }
+        }
+        return selectWritePool(cm, pools, attributes, attributes.getSize());
+    }
+
+    private void readObject(ObjectInputStream stream)
+        throws IOException, ClassNotFoundException
+    {
+        stream.defaultReadObject();
+        _assignments = new ConcurrentHashMap<>();
+    }
+}
@@ -24,6 +24,7 @@ import io.netty.handler.codec.http.LastHttpContent;
 import io.netty.util.CharsetUtil;
 import org.hamcrest.BaseMatcher;
 import org.hamcrest.Description;
+import org.hamcrest.Matcher;
 import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
@@ -302,6 +303,43 @@ public class HttpPoolRequestHandlerTests
         assertThat(_additionalWrites.get(1), instanceOf(LastHttpContent.class));
     }
 
+    @Test
+    public void shouldDeliverFileRegionIfFileIsStoredLocally() throws Exception
+    {
+        givenPoolHas(file("/path/to/file").withSize(100));
+        givenDoorHasOrganisedReadOf(file("/path/to/file").with(SOME_UUID));
+        givenFileIsStoredLocally(SOME_UUID);
+
+        whenClientMakes(a(GET).
+                forUri("/path/to/file?dcache-http-uuid="+SOME_UUID));
+
+        assertThat(_response.getStatus(), is(OK));
+        assertThat(_response, hasHeader(CONTENT_LENGTH, "100"));
+
+        assertThat(_additionalWrites, hasSize(2));
+        assertThat(_additionalWrites.get(0), isFileRegion(0, 100));
+        assertThat(_additionalWrites.get(1), instanceOf(LastHttpContent.class));
+    }
+
+    @Test
+    public void shouldDeliverFileRegionIfReceivesRequestWithSingleRangeForFileStoredLocally()
+            throws Exception
+    {
+        givenPoolHas(file("/path/to/file").withSize(1024));
+        givenDoorHasOrganisedReadOf(file("/path/to/file").with(SOME_UUID));
+        givenFileIsStoredLocally(SOME_UUID);
+
+        whenClientMakes(a(GET).withHeader("Range", "bytes=100-499").
+                forUri("/path/to/file?dcache-http-uuid="+SOME_UUID));
+
+        assertThat(_response.getStatus(), is(PARTIAL_CONTENT));
+        assertThat(_response, hasHeader(CONTENT_LENGTH, "400"));
+
+        assertThat(_additionalWrites, hasSize(2));
+        assertThat(_additionalWrites.get(0), isFileRegion(100, 400));
+        assertThat(_additionalWrites.get(1), instanceOf(LastHttpContent.class));
+    }
+
     @Test
     public void shouldDeliverPartialFileIfReceivesRequestWithSingleRangeForFileWithChecksum()
             throws Exception
@@ -538,6 +576,14 @@ public class HttpPoolRequestHandlerTests
         given(_server.openFile(eq(file.getUuid()), anyBoolean())).willReturn(channel);
     }
 
+    private void givenFileIsStoredLocally(UUID uuid)
+    {
+        NettyTransferService<HttpProtocolInfo>.NettyMoverChannel channel =
+                _server.openFile(uuid, false);
+        given(channel.optionallyAs(FileRepositoryChannel.class))
+                .willReturn(Optional.of(mock(FileRepositoryChannel.class)));
+    }
+
     private void givenDoorHasOrganisedWriteOf(final FileInfo file)
             throws URISyntaxException, IOException
     {
@@ -846,6 +892,29 @@ public class HttpPoolRequestHandlerTests
         }
     }
 
+    private static Matcher<Object> isFileRegion(long position, long count)
+    {
+        return new BaseMatcher<Object>()
+        {
+            @Override
+            public boolean matches(Object o)
+            {
+                return o instanceof RepositoryFileRegion
+                        && ((RepositoryFileRegion) o).position() == position
+                        && ((RepositoryFileRegion) o).count() == count;
+            }
+
+            @Override
+            public void describeTo(Description d)
+            {
+                d.appendText("a file region of ");
+                d.appendValue(count);
+                d.appendText(" bytes from ");
+                d.appendValue(position);
+            }
+        };
+    }
+
     private FileReadSizeMatcher isCompleteRead(String path)
     {
         return new FileReadSizeMatcher(path, 0, sizeOfFile(file(path)) - 1);
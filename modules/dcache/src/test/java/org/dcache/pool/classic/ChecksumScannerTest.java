@@ -0,0 +1,196 @@
+package org.dcache.pool.classic;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import diskCacheV111.util.PnfsId;
+
+import org.dcache.pool.movers.TokenBucket;
+import org.dcache.pool.repository.ReplicaDescriptor;
+import org.dcache.pool.repository.ReplicaState;
+import org.dcache.pool.repository.Repository;
+
+import static org.hamcrest.Matchers.arrayContaining;
+import static org.hamcrest.Matchers.endsWith;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.timeout;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ChecksumScannerTest
+{
+    private Path dir;
+    private File stateFile;
+    private List<PnfsId> files;
+    private Repository repository;
+    private ChecksumModuleV1 csm;
+    private MoverRequestScheduler queue;
+    private ChecksumScanner scanner;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        dir = Files.createTempDirectory("ChecksumScannerTest");
+        stateFile = dir.resolve("scrubber.state").toFile();
+        files = new ArrayList<>();
+
+        repository = mock(Repository.class);
+        when(repository.iterator()).thenAnswer(invocation -> files.iterator());
+        when(repository.getState(any(PnfsId.class))).thenReturn(ReplicaState.CACHED);
+        when(repository.openEntry(any(PnfsId.class), any(Set.class))).thenAnswer(invocation -> {
+            ReplicaDescriptor handle = mock(ReplicaDescriptor.class);
+            when(handle.getReplicaSize()).thenReturn(1L);
+            return handle;
+        });
+
+        csm = mock(ChecksumModuleV1.class);
+        when(csm.isScrubEnabled()).thenReturn(true);
+        when(csm.getScrubPeriod()).thenReturn(TimeUnit.DAYS.toMillis(1));
+        when(csm.getThroughputLimit()).thenReturn(Double.POSITIVE_INFINITY);
+
+        queue = mock(MoverRequestScheduler.class);
+        when(queue.getMaxActiveJobs()).thenReturn(10);
+        IoQueueManager ioQueueManager = mock(IoQueueManager.class);
+        when(ioQueueManager.queues()).thenReturn(List.of(queue));
+
+        scanner = new ChecksumScanner();
+        scanner.setPoolName("pool");
+        scanner.setRepository(repository);
+        scanner.setChecksumModule(csm);
+        scanner.setScrubberStateFile(stateFile);
+        scanner.setIoQueueManager(ioQueueManager);
+    }
+
+    @After
+    public void tearDown() throws Exception
+    {
+        scanner.beforeStop();
+        awaitScrubberStopped();
+        Files.deleteIfExists(stateFile.toPath());
+        Files.delete(dir);
+    }
+
+    private static PnfsId id(int i)
+    {
+        return new PnfsId(String.format("%036X", i));
+    }
+
+    private void givenFiles(int count)
+    {
+        for (int i = 0; i < count; i++) {
+            files.add(id(i));
+        }
+    }
+
+    private void awaitScrubberStopped() throws Exception
+    {
+        long deadline = System.currentTimeMillis() + 10_000;
+        while (scanner.new CsmStatusCommand().call().contains("Scrubber Active")) {
+            assertTrue("Scrubber did not stop", System.currentTimeMillis() < deadline);
+            Thread.sleep(10);
+        }
+    }
+
+    @Test
+    public void shouldOrderFilesByInode()
+    {
+        Map<PnfsId,Long> inodes = Map.of(id(1), 30L, id(2), 10L, id(3), 0L, id(4), 20L, id(5), 0L);
+
+        PnfsId[] sorted = ChecksumScanner.inDiskOrder(
+                new PnfsId[] { id(1), id(2), id(3), id(4), id(5) }, inodes::get);
+
+        assertThat(sorted, arrayContaining(id(3), id(5), id(2), id(4), id(1)));
+    }
+
+    @Test
+    public void shouldVerifyAllFilesAcrossBatches() throws Exception
+    {
+        givenFiles(2500);
+
+        scanner.afterStart();
+
+        verify(csm, timeout(10_000).times(2500))
+                .verifyChecksum(any(ReplicaDescriptor.class), any(TokenBucket.class));
+    }
+
+    @Test
+    public void shouldOnlyCheckpointCompletedBatches() throws Exception
+    {
+        givenFiles(1500);
+        PnfsId[] sorted = files.toArray(PnfsId[]::new);
+        Arrays.sort(sorted);
+        ReplicaDescriptor broken = mock(ReplicaDescriptor.class);
+        when(repository.openEntry(eq(sorted[1499]), any(Set.class))).thenReturn(broken);
+        when(csm.verifyChecksum(eq(broken), any(TokenBucket.class)))
+                .thenThrow(new IOException("Input/output error"));
+
+        scanner.afterStart();
+        verify(csm, timeout(10_000).times(1500))
+                .verifyChecksum(any(ReplicaDescriptor.class), any(TokenBucket.class));
+        scanner.beforeStop();
+        awaitScrubberStopped();
+
+        String state = Files.readAllLines(stateFile.toPath(), Charset.defaultCharset()).get(0);
+        assertThat(state, endsWith(" " + sorted[999]));
+    }
+
+    @Test(timeout = 10000)
+    public void shouldVerifyFilesConcurrently() throws Exception
+    {
+        givenFiles(8);
+        scanner.setScrubberThreads(4);
+        CountDownLatch concurrent = new CountDownLatch(4);
+        when(csm.verifyChecksum(any(ReplicaDescriptor.class), any(TokenBucket.class))).thenAnswer(invocation -> {
+            concurrent.countDown();
+            concurrent.await();
+            return List.of();
+        });
+
+        scanner.afterStart();
+
+        assertTrue(concurrent.await(10, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void shouldBackOffWhileMoversAreBusy() throws Exception
+    {
+        givenFiles(8);
+        scanner.setScrubberThreads(4);
+        when(queue.getActiveJobs()).thenReturn(10);
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        when(csm.verifyChecksum(any(ReplicaDescriptor.class), any(TokenBucket.class))).thenAnswer(invocation -> {
+            maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+            Thread.sleep(20);
+            running.decrementAndGet();
+            return List.of();
+        });
+
+        scanner.afterStart();
+        verify(csm, timeout(10_000).times(8))
+                .verifyChecksum(any(ReplicaDescriptor.class), any(TokenBucket.class));
+
+        assertThat(maxRunning.get(), is(1));
+    }
+}
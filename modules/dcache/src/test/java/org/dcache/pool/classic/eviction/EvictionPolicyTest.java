@@ -0,0 +1,185 @@
+package org.dcache.pool.classic.eviction;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import diskCacheV111.util.PnfsId;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class EvictionPolicyTest
+{
+    private Path trace;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        trace = Files.createTempFile("EvictionPolicyTest", ".trace");
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        Files.delete(trace);
+    }
+
+    private static PnfsId id(int i)
+    {
+        return new PnfsId(String.format("%036X", i));
+    }
+
+    private static List<PnfsId> ids(List<EvictionCandidate> candidates)
+    {
+        return candidates.stream().map(EvictionCandidate::getPnfsId).collect(Collectors.toList());
+    }
+
+    /**
+     * Writes a trace in which a small set of hot files is read
+     * repeatedly, interrupted by scans over files that are read once.
+     */
+    private void givenTraceWithScans() throws IOException
+    {
+        try (BufferedWriter writer = Files.newBufferedWriter(trace, StandardCharsets.US_ASCII)) {
+            long time = 0;
+            int scanned = 1000;
+            for (int round = 0; round < 50; round++) {
+                for (int i = 0; i < 10; i++) {
+                    writer.write(time++ + " " + id(i) + " 100\n");
+                }
+                for (int i = 0; i < 20; i++) {
+                    writer.write(time++ + " " + id(scanned++) + " 100\n");
+                }
+            }
+        }
+    }
+
+    @Test
+    public void shouldSelectLeastRecentlyUsedFirst()
+    {
+        List<EvictionCandidate> candidates = List.of(
+                new EvictionCandidate(id(1), 100, 30),
+                new EvictionCandidate(id(2), 100, 10),
+                new EvictionCandidate(id(3), 100, 20));
+
+        List<EvictionCandidate> selected = new LruEvictionPolicy().select(candidates::forEach, 150);
+
+        assertThat(ids(selected), contains(id(2), id(3)));
+    }
+
+    @Test
+    public void shouldSelectLeastFrequentlyUsedFirst()
+    {
+        EvictionPolicy policy = new TinyLfuEvictionPolicy(1024);
+        policy.added(id(1), 100);
+        policy.accessed(id(1), 100);
+        policy.added(id(2), 100);
+        List<EvictionCandidate> candidates = List.of(
+                new EvictionCandidate(id(1), 100, 10),
+                new EvictionCandidate(id(2), 100, 20));
+
+        List<EvictionCandidate> selected = policy.select(candidates::forEach, 100);
+
+        assertThat(ids(selected), contains(id(2)));
+    }
+
+    @Test
+    public void shouldPreferToEvictLargeFilesWithGdsf()
+    {
+        EvictionPolicy policy = new GdsfEvictionPolicy(1024);
+        policy.added(id(1), 1000);
+        policy.added(id(2), 10);
+        List<EvictionCandidate> candidates = List.of(
+                new EvictionCandidate(id(1), 1000, 20),
+                new EvictionCandidate(id(2), 10, 10));
+
+        List<EvictionCandidate> selected = policy.select(candidates::forEach, 1);
+
+        assertThat(ids(selected), contains(id(1)));
+    }
+
+    @Test
+    public void shouldEvictFilesReadOnceFirstWithArc()
+    {
+        EvictionPolicy policy = new ArcEvictionPolicy(1024);
+        policy.added(id(1), 100);
+        policy.accessed(id(1), 100);
+        policy.added(id(2), 100);
+        List<EvictionCandidate> candidates = new ArrayList<>();
+        candidates.add(new EvictionCandidate(id(1), 100, 10));
+        candidates.add(new EvictionCandidate(id(2), 100, 20));
+
+        List<EvictionCandidate> selected = policy.select(candidates::forEach, 100);
+
+        assertThat(ids(selected), contains(id(2)));
+    }
+
+    @Test
+    public void shouldSelectAllIfNotEnoughSpace()
+    {
+        List<EvictionCandidate> candidates = List.of(
+                new EvictionCandidate(id(1), 100, 10),
+                new EvictionCandidate(id(2), 100, 20));
+
+        for (String name : EvictionPolicies.NAMES) {
+            List<EvictionCandidate> selected =
+                    EvictionPolicies.create(name).select(candidates::forEach, Long.MAX_VALUE);
+            assertThat(name, selected.size(), is(2));
+        }
+    }
+
+    @Test
+    public void shouldContinueSelectionAfterCursor()
+    {
+        List<EvictionCandidate> candidates = List.of(
+                new EvictionCandidate(id(1), 100, 30),
+                new EvictionCandidate(id(2), 100, 10),
+                new EvictionCandidate(id(3), 100, 20),
+                new EvictionCandidate(id(4), 100, 40));
+
+        for (String name : EvictionPolicies.NAMES) {
+            EvictionPolicy policy = EvictionPolicies.create(name);
+            for (EvictionCandidate candidate : candidates) {
+                policy.added(candidate.getPnfsId(), candidate.getSize());
+            }
+            List<PnfsId> all = ids(policy.select(candidates::forEach, Long.MAX_VALUE));
+
+            List<PnfsId> continued = new ArrayList<>();
+            EvictionCandidate cursor = null;
+            List<EvictionCandidate> batch;
+            while (!(batch = policy.select(candidates::forEach, 150, cursor)).isEmpty()) {
+                continued.addAll(ids(batch));
+                cursor = batch.get(batch.size() - 1);
+            }
+
+            assertThat(name, continued, is(all));
+        }
+    }
+
+    @Test
+    public void shouldResistScansInSimulation() throws IOException
+    {
+        givenTraceWithScans();
+        EvictionSimulator simulator = new EvictionSimulator(2000);
+
+        EvictionSimulator.Result lru = simulator.run(new LruEvictionPolicy(), trace);
+        EvictionSimulator.Result arc = simulator.run(new ArcEvictionPolicy(1024), trace);
+        EvictionSimulator.Result lfu = simulator.run(new TinyLfuEvictionPolicy(1024), trace);
+
+        assertThat(lru.getRequests(), is(1500L));
+        assertThat(arc.getHits(), greaterThan(lru.getHits()));
+        assertThat(lfu.getHits(), greaterThan(lru.getHits()));
+    }
+}
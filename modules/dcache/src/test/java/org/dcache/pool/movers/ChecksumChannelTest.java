@@ -15,7 +15,10 @@ import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Random;
 import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import org.dcache.pool.repository.FileRepositoryChannel;
 import org.dcache.pool.repository.FileStore;
@@ -26,9 +29,13 @@ import org.dcache.util.ChecksumType;
 import static com.google.common.collect.Lists.newArrayList;
 import static org.dcache.util.ByteUnit.KiB;
 import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.containsInAnyOrder;
 import static org.junit.Assert.assertThat;
 import static org.junit.Assert.fail;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 import static org.hamcrest.CoreMatchers.*;
 import static org.hamcrest.collection.IsEmptyCollection.empty;
@@ -247,6 +254,138 @@ public class ChecksumChannelTest {
         assertThat(chksumChannel.getChecksums(), contains(expectedChecksum));
     }
 
+    @Test
+    public void shouldComputeMultipleChecksumsConcurrently() throws IOException {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            ChecksumChannel channel = new ChecksumChannel(chksumChannel._channel,
+                    EnumSet.of(ChecksumType.MD5_TYPE, ChecksumType.ADLER32), executor);
+            for (int b = 0; b < blockcount; b++) {
+                channel.write(buffers[b], b * blocksize);
+            }
+
+            assertThat(channel.getChecksums(), containsInAnyOrder(expectedChecksum,
+                    ChecksumType.ADLER32.calculate(data)));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldComputeMultipleChecksumsConcurrentlyForLargeOutOfOrderWrites() throws IOException {
+        byte[] large = new byte[KiB.toBytes(4096) + 17];
+        new Random(42).nextBytes(large);
+        int half = large.length / 2;
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            ChecksumChannel channel = new ChecksumChannel(chksumChannel._channel,
+                    EnumSet.of(ChecksumType.MD5_TYPE, ChecksumType.ADLER32), executor);
+            channel._readBackBuffer = ByteBuffer.allocate(KiB.toBytes(64));
+            channel.write(ByteBuffer.wrap(large, half, large.length - half), half);
+            channel.write(ByteBuffer.wrap(large, 0, half), 0);
+
+            assertThat(channel.getChecksums(), containsInAnyOrder(
+                    ChecksumType.MD5_TYPE.calculate(large), ChecksumType.ADLER32.calculate(large)));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldComputeAddedTypeConcurrently() throws IOException {
+        ExecutorService executor = Executors.newCachedThreadPool();
+        try {
+            ChecksumChannel channel = new ChecksumChannel(chksumChannel._channel,
+                    EnumSet.of(ChecksumType.MD5_TYPE), executor);
+            channel._readBackBuffer = ByteBuffer.allocate(2);
+            int b = 0;
+            for (; b < blockcount / 2; b++) {
+                channel.write(buffers[b], b * blocksize);
+            }
+            channel.addType(ChecksumType.ADLER32);
+            for (; b < blockcount; b++) {
+                channel.write(buffers[b], b * blocksize);
+            }
+
+            assertThat(channel.getChecksums(), containsInAnyOrder(expectedChecksum,
+                    ChecksumType.ADLER32.calculate(data)));
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void shouldComputeAdler32WithoutReadingBackIfWrittenOutOfOrder() throws IOException {
+        RepositoryChannel inner = spy(chksumChannel._channel);
+        ChecksumChannel channel = new ChecksumChannel(inner, EnumSet.of(ChecksumType.ADLER32));
+        int[] blockorder = getRandomPermutationOfBlockOrder();
+        for (int i = 0; i < blockcount; i++) {
+            channel.write(buffers[blockorder[i]], blockorder[i] * blocksize);
+        }
+
+        assertThat(channel.getChecksums(), contains(ChecksumType.ADLER32.calculate(data)));
+        verify(inner, never()).read(any(), anyLong());
+    }
+
+    @Test
+    public void shouldComputeAdler32AndMd5IfWrittenOutOfOrder() throws IOException {
+        ChecksumChannel channel = new ChecksumChannel(chksumChannel._channel,
+                EnumSet.of(ChecksumType.ADLER32, ChecksumType.MD5_TYPE));
+        channel._readBackBuffer = ByteBuffer.allocate(2);
+        int[] blockorder = getRandomPermutationOfBlockOrder();
+        for (int i = 0; i < blockcount; i++) {
+            channel.write(buffers[blockorder[i]], blockorder[i] * blocksize);
+        }
+
+        assertThat(channel.getChecksums(), containsInAnyOrder(expectedChecksum,
+                ChecksumType.ADLER32.calculate(data)));
+    }
+
+    @Test
+    public void shouldFillUpRangeGapsWithZerosForAdler32() throws IOException {
+        ChecksumChannel channel = new ChecksumChannel(chksumChannel._channel, EnumSet.of(ChecksumType.ADLER32));
+        Map<Long, ByteBuffer> nonZeroBlocksFromByteArray = getNonZeroBlocksFromByteArray(data);
+        for (Long position : nonZeroBlocksFromByteArray.keySet()) {
+            channel.write(nonZeroBlocksFromByteArray.get(position), position);
+        }
+
+        assertThat(channel.getChecksums(), contains(ChecksumType.ADLER32.calculate(data)));
+    }
+
+    @Test
+    public void shouldComputeAdler32IfAddedAfterOutOfOrderWrites() throws IOException {
+        int[] blockorder = getRandomPermutationOfBlockOrder();
+        int i = 0;
+        for (; i < blockcount / 2; i++) {
+            chksumChannel.write(buffers[blockorder[i]], blockorder[i] * blocksize);
+        }
+        chksumChannel.addType(ChecksumType.ADLER32);
+        for (; i < blockcount; i++) {
+            chksumChannel.write(buffers[blockorder[i]], blockorder[i] * blocksize);
+        }
+
+        assertThat(chksumChannel.getChecksums(), containsInAnyOrder(expectedChecksum,
+                ChecksumType.ADLER32.calculate(data)));
+    }
+
+    @Test
+    public void shouldComputeMd5IfAddedAfterOutOfOrderWritesWithAdler32() throws IOException {
+        ChecksumChannel channel = new ChecksumChannel(chksumChannel._channel, EnumSet.of(ChecksumType.ADLER32));
+        channel._readBackBuffer = ByteBuffer.allocate(2);
+        int[] blockorder = getRandomPermutationOfBlockOrder();
+        int i = 0;
+        for (; i < blockcount / 2; i++) {
+            channel.write(buffers[blockorder[i]], blockorder[i] * blocksize);
+        }
+        channel.addType(ChecksumType.MD5_TYPE);
+        for (; i < blockcount; i++) {
+            channel.write(buffers[blockorder[i]], blockorder[i] * blocksize);
+        }
+
+        assertThat(channel.getChecksums(), containsInAnyOrder(expectedChecksum,
+                ChecksumType.ADLER32.calculate(data)));
+    }
+
     @Test(expected = IllegalStateException.class)
     public void shouldThrowIllegalStateExceptionOnWritesAfterGetChecksum() throws IOException {
         chksumChannel.getChecksums();
@@ -0,0 +1,45 @@
+package org.dcache.pool.movers;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.dcache.pool.repository.RepositoryChannel;
+
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ThrottledRepositoryChannelTest
+{
+    private static RepositoryChannel channelReading(int bytes) throws Exception
+    {
+        RepositoryChannel inner = mock(RepositoryChannel.class);
+        when(inner.read(any(ByteBuffer.class), anyLong())).thenReturn(bytes);
+        return inner;
+    }
+
+    @Test(timeout = 10000)
+    public void shouldDelayToRateOfMostRestrictiveBucket() throws Exception
+    {
+        TokenBucket queue = new TokenBucket(0);
+        TokenBucket mover = new TokenBucket(1_000_000);
+        ThrottledRepositoryChannel channel =
+                new ThrottledRepositoryChannel(channelReading(1_500_000), List.of(queue, mover));
+
+        long start = System.nanoTime();
+        channel.read(ByteBuffer.allocate(0), 0);
+        long elapsed = System.nanoTime() - start;
+
+        assertThat(elapsed, is(greaterThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(400))));
+        assertThat(elapsed, is(lessThan(TimeUnit.SECONDS.toNanos(2))));
+        assertThat(queue.getTotal(), is(1_500_000L));
+    }
+}
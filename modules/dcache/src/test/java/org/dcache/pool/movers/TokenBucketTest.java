@@ -0,0 +1,65 @@
+package org.dcache.pool.movers;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+public class TokenBucketTest
+{
+    @Test
+    public void shouldNotDelayWithoutLimit()
+    {
+        TokenBucket bucket = new TokenBucket(0);
+
+        assertThat(bucket.take(1_000_000_000L), is(0L));
+        assertThat(bucket.getTotal(), is(1_000_000_000L));
+    }
+
+    @Test
+    public void shouldDelayWhenLimitIsExceeded()
+    {
+        TokenBucket bucket = new TokenBucket(1000);
+
+        long delay = bucket.take(2000);
+
+        assertThat(delay, is(greaterThan(TimeUnit.MILLISECONDS.toNanos(1900))));
+        assertThat(delay, is(lessThanOrEqualTo(TimeUnit.SECONDS.toNanos(2))));
+    }
+
+    @Test
+    public void shouldAccumulateDebt()
+    {
+        TokenBucket bucket = new TokenBucket(1000);
+
+        bucket.take(1000);
+        long delay = bucket.take(1000);
+
+        assertThat(delay, is(greaterThan(TimeUnit.MILLISECONDS.toNanos(1900))));
+    }
+
+    @Test
+    public void shouldApplyNewRate()
+    {
+        TokenBucket bucket = new TokenBucket(1000);
+        bucket.setRate(1_000_000);
+
+        long delay = bucket.take(2000);
+
+        assertThat(delay, is(lessThanOrEqualTo(TimeUnit.MILLISECONDS.toNanos(2))));
+    }
+
+    @Test
+    public void shouldLiftLimitWhenRateIsZero()
+    {
+        TokenBucket bucket = new TokenBucket(1000);
+        bucket.take(10_000);
+        bucket.setRate(0);
+
+        assertThat(bucket.take(10_000), is(0L));
+    }
+}
@@ -0,0 +1,138 @@
+package org.dcache.pool.repository;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.junit.Assert.assertThat;
+
+public class BatchingFileRepositoryChannelTest
+{
+    private static final int BLOCK_SIZE = 4096;
+    private static final int BLOCK_COUNT = 512;
+    private static final int THREADS = 16;
+
+    private Path file;
+    private ExecutorService executor;
+    private byte[] data;
+    private AlignedBufferPool pool;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        file = Files.createTempFile("BatchingFileRepositoryChannelTest", ".tmp");
+        executor = Executors.newFixedThreadPool(THREADS);
+        data = new byte[BLOCK_SIZE * BLOCK_COUNT];
+        new Random(1).nextBytes(data);
+        pool = new AlignedBufferPool(64 * BLOCK_SIZE, 4 * 64 * BLOCK_SIZE);
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        executor.shutdownNow();
+        Files.delete(file);
+    }
+
+    @Test
+    public void shouldWriteConcurrentBlocks() throws Exception
+    {
+        writeConcurrently();
+
+        assertThat(Files.readAllBytes(file), equalTo(data));
+    }
+
+    @Test
+    public void shouldWriteConcurrentBlocksWhenBufferPoolIsExhausted() throws Exception
+    {
+        pool = new AlignedBufferPool(64 * BLOCK_SIZE, 0);
+
+        writeConcurrently();
+
+        assertThat(Files.readAllBytes(file), equalTo(data));
+    }
+
+    @Test
+    public void shouldReturnBuffersToPool() throws Exception
+    {
+        writeConcurrently();
+
+        for (int i = 0; i < 4; i++) {
+            assertThat(pool.tryAcquire(), is(notNullValue()));
+        }
+    }
+
+    @Test
+    public void shouldReadConcurrentBlocks() throws Exception
+    {
+        Files.write(file, data);
+
+        try (RepositoryChannel channel = new BatchingFileRepositoryChannel(file, FileStore.O_READ, pool)) {
+            List<Future<ByteBuffer>> results = new ArrayList<>();
+            for (int i = 0; i < BLOCK_COUNT; i++) {
+                int block = i;
+                results.add(executor.submit(() -> {
+                    ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE);
+                    channel.read(buffer, (long) block * BLOCK_SIZE);
+                    return buffer;
+                }));
+            }
+            for (int i = 0; i < BLOCK_COUNT; i++) {
+                ByteBuffer buffer = results.get(i).get();
+                buffer.flip();
+                assertThat(buffer, equalTo(ByteBuffer.wrap(data, i * BLOCK_SIZE, BLOCK_SIZE)));
+            }
+        }
+    }
+
+    private void writeConcurrently() throws Exception
+    {
+        try (RepositoryChannel channel = new BatchingFileRepositoryChannel(file, FileStore.O_RW, pool)) {
+            List<Future<Integer>> results = new ArrayList<>();
+            for (int i = 0; i < BLOCK_COUNT; i++) {
+                int block = i;
+                results.add(executor.submit(() ->
+                        channel.write(ByteBuffer.wrap(data, block * BLOCK_SIZE, BLOCK_SIZE),
+                                      (long) block * BLOCK_SIZE)));
+            }
+            for (Future<Integer> result : results) {
+                assertThat(result.get(), is(BLOCK_SIZE));
+            }
+        }
+    }
+
+    @Test
+    public void shouldReturnMinusOneWhenReadingPastEndOfFile() throws Exception
+    {
+        Files.write(file, data);
+
+        try (RepositoryChannel channel = new BatchingFileRepositoryChannel(file, FileStore.O_READ, pool)) {
+            assertThat(channel.read(ByteBuffer.allocate(BLOCK_SIZE), data.length), is(-1));
+        }
+    }
+
+    @Test
+    public void shouldReturnPartialReadAtEndOfFile() throws Exception
+    {
+        Files.write(file, data);
+
+        try (RepositoryChannel channel = new BatchingFileRepositoryChannel(file, FileStore.O_READ, pool)) {
+            ByteBuffer buffer = ByteBuffer.allocate(BLOCK_SIZE);
+            assertThat(channel.read(buffer, data.length - 10), is(10));
+        }
+    }
+}
@@ -0,0 +1,129 @@
+package org.dcache.pool.repository;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class DirectIoFileRepositoryChannelTest
+{
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private Path file;
+    private byte[] data;
+    private AlignedBufferPool pool;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        file = Files.createTempFile("DirectIoFileRepositoryChannelTest", ".tmp");
+        data = new byte[20 * BUFFER_SIZE + 1234];
+        new Random(1).nextBytes(data);
+        pool = new AlignedBufferPool(BUFFER_SIZE, 2 * BUFFER_SIZE);
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        Files.delete(file);
+    }
+
+    @Test
+    public void shouldWriteSequentialData() throws IOException
+    {
+        try (RepositoryChannel channel = new DirectIoFileRepositoryChannel(file, FileStore.O_RW, pool)) {
+            writeInChunks(channel, 0, data.length, 1000);
+            assertThat(channel.size(), is((long) data.length));
+        }
+
+        assertThat(Files.readAllBytes(file), equalTo(data));
+    }
+
+    @Test
+    public void shouldWriteSequentialDataWithRandomChunkSizes() throws IOException
+    {
+        Random random = new Random(2);
+        try (RepositoryChannel channel = new DirectIoFileRepositoryChannel(file, FileStore.O_RW, pool)) {
+            int position = 0;
+            while (position < data.length) {
+                int length = Math.min(1 + random.nextInt(3 * BUFFER_SIZE), data.length - position);
+                channel.write(ByteBuffer.wrap(data, position, length), position);
+                position += length;
+            }
+        }
+
+        assertThat(Files.readAllBytes(file), equalTo(data));
+    }
+
+    @Test
+    public void shouldWriteOutOfOrderData() throws IOException
+    {
+        int half = data.length / 2 + 17;
+        try (RepositoryChannel channel = new DirectIoFileRepositoryChannel(file, FileStore.O_RW, pool)) {
+            writeInChunks(channel, half, data.length, 5000);
+            writeInChunks(channel, 0, half, 3000);
+        }
+
+        assertThat(Files.readAllBytes(file), equalTo(data));
+    }
+
+    @Test
+    public void shouldReadWhatWasWritten() throws IOException
+    {
+        try (RepositoryChannel channel = new DirectIoFileRepositoryChannel(file, FileStore.O_RW, pool)) {
+            writeInChunks(channel, 0, 3 * BUFFER_SIZE + 100, 1000);
+
+            ByteBuffer buffer = ByteBuffer.allocate(1100);
+            channel.read(buffer, 3 * BUFFER_SIZE - 1000);
+            assertThat(buffer.array(), equalTo(Arrays.copyOfRange(data, 3 * BUFFER_SIZE - 1000,
+                                                                  3 * BUFFER_SIZE + 100)));
+
+            writeInChunks(channel, 3 * BUFFER_SIZE + 100, data.length, 1000);
+        }
+
+        assertThat(Files.readAllBytes(file), equalTo(data));
+    }
+
+    @Test
+    public void shouldAppendToExistingFile() throws IOException
+    {
+        int existing = 3 * BUFFER_SIZE + 100;
+        Files.write(file, Arrays.copyOf(data, existing));
+        try (RepositoryChannel channel = new DirectIoFileRepositoryChannel(file, FileStore.O_RW, pool)) {
+            writeInChunks(channel, existing, data.length, 1000);
+            assertThat(channel.size(), is((long) data.length));
+        }
+
+        assertThat(Files.readAllBytes(file), equalTo(data));
+    }
+
+    @Test
+    public void shouldWriteWhenPoolIsExhausted() throws IOException
+    {
+        AlignedBufferPool empty = new AlignedBufferPool(BUFFER_SIZE, 0);
+        try (RepositoryChannel channel = new DirectIoFileRepositoryChannel(file, FileStore.O_RW, empty)) {
+            writeInChunks(channel, 0, data.length, 1000);
+        }
+
+        assertThat(Files.readAllBytes(file), equalTo(data));
+    }
+
+    private void writeInChunks(RepositoryChannel channel, int from, int to, int chunkSize)
+            throws IOException
+    {
+        for (int position = from; position < to; position += chunkSize) {
+            int length = Math.min(chunkSize, to - position);
+            channel.write(ByteBuffer.wrap(data, position, length), position);
+        }
+    }
+}
@@ -0,0 +1,94 @@
+package org.dcache.pool.repository;
+
+import com.google.common.collect.ImmutableSet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.OpenOption;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.Set;
+
+import diskCacheV111.util.PnfsId;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+public class PreallocatingRepositoryChannelTest
+{
+    private static final PnfsId ID = new PnfsId("000000000000000000000000000000000001");
+
+    private Path dir;
+    private byte[] data;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        dir = Files.createTempDirectory("PreallocatingRepositoryChannelTest");
+        data = new byte[1024 * 1024];
+        new Random(1).nextBytes(data);
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        try (var files = Files.walk(dir)) {
+            files.sorted((a, b) -> b.compareTo(a)).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    @Test
+    public void shouldNotChangeFileSize() throws IOException
+    {
+        assumeTrue(PreallocatingRepositoryChannel.isSupported());
+        Path file = Files.createFile(dir.resolve("file"));
+
+        try (RepositoryChannel channel =
+                     new PreallocatingRepositoryChannel(new FileRepositoryChannel(file, FileStore.O_RW), file, data.length)) {
+            assertThat(channel.size(), is(0L));
+            channel.write(ByteBuffer.wrap(data), 0);
+            assertThat(channel.size(), is((long) data.length));
+        }
+
+        assertThat(Files.readAllBytes(file), equalTo(data));
+    }
+
+    @Test
+    public void shouldKeepDataOfShortFileOnClose() throws IOException
+    {
+        assumeTrue(PreallocatingRepositoryChannel.isSupported());
+        Path file = Files.createFile(dir.resolve("file"));
+
+        try (RepositoryChannel channel =
+                     new PreallocatingRepositoryChannel(new FileRepositoryChannel(file, FileStore.O_RW), file, 4 * data.length)) {
+            channel.write(ByteBuffer.wrap(data), 0);
+        }
+
+        assertThat(Files.size(file), is((long) data.length));
+        assertThat(Files.readAllBytes(file), equalTo(data));
+    }
+
+    @Test
+    public void shouldAcceptSizeHintInFlatFileStore() throws IOException
+    {
+        FlatFileStore store = new FlatFileStore(dir);
+        store.setPreallocation(true);
+        store.create(ID);
+        Set<OpenOption> options = ImmutableSet.<OpenOption>builder()
+                .addAll(FileStore.O_RW)
+                .add(new SizeHint(data.length))
+                .build();
+
+        try (RepositoryChannel channel = store.openDataChannel(ID, options)) {
+            channel.write(ByteBuffer.wrap(data), 0);
+        }
+
+        assertThat(Files.readAllBytes(dir.resolve("data").resolve(ID.toString())), equalTo(data));
+    }
+}
@@ -0,0 +1,159 @@
+package org.dcache.pool.repository;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import diskCacheV111.util.PnfsId;
+
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+
+public class ReplicaDeletionQueueTest
+{
+    private static final PnfsId ID1 = new PnfsId("000000000000000000000000000000000001");
+    private static final PnfsId ID2 = new PnfsId("000000000000000000000000000000000002");
+
+    private Account account;
+    private ReplicaDeletionQueue queue;
+
+    @Before
+    public void setUp()
+    {
+        account = new Account();
+        account.setTotal(1000);
+        queue = new ReplicaDeletionQueue();
+        queue.setAccount(account);
+    }
+
+    @After
+    public void tearDown()
+    {
+        queue.shutdown();
+    }
+
+    @Test
+    public void shouldDeleteSynchronouslyWithoutThreads()
+    {
+        queue.setThreads(0);
+        queue.start();
+        boolean[] deleted = new boolean[1];
+
+        queue.submit(ID1, 100, ids -> deleted[0] = true);
+
+        assertTrue(deleted[0]);
+        assertThat(account.getDeleting(), is(0L));
+    }
+
+    @Test
+    public void shouldAccountSpaceUntilDeleted() throws Exception
+    {
+        queue.setThreads(1);
+        queue.start();
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(2);
+
+        queue.submit(ID1, 100, ids -> {
+            blocked.countDown();
+            await(release);
+            done.countDown();
+        });
+        queue.submit(ID2, 50, ids -> done.countDown());
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+
+        assertThat(account.getDeleting(), is(150L));
+
+        release.countDown();
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        queue.shutdown();
+
+        assertThat(account.getDeleting(), is(0L));
+        assertThat(queue.getPendingCount(), is(0));
+    }
+
+    @Test
+    public void shouldCompletePendingDeletionsOnShutdown()
+    {
+        queue.setThreads(1);
+        queue.setBatchSize(10);
+        queue.start();
+        int[] deleted = new int[1];
+
+        for (int i = 0; i < 100; i++) {
+            queue.submit(ID1, 1, ids -> deleted[0] += ids.size());
+        }
+        queue.shutdown();
+
+        assertThat(deleted[0], is(100));
+        assertThat(account.getDeleting(), is(0L));
+    }
+
+    @Test
+    public void shouldDeleteBatchInSingleCall() throws Exception
+    {
+        queue.setThreads(1);
+        queue.setBatchSize(10);
+        queue.start();
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<List<PnfsId>> calls = new CopyOnWriteArrayList<>();
+        ReplicaDeletionQueue.Deleter deleter = ids -> {
+            calls.add(ids);
+            blocked.countDown();
+            await(release);
+        };
+
+        queue.submit(ID1, 1, deleter);
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+        for (int i = 0; i < 5; i++) {
+            queue.submit(ID2, 1, deleter);
+        }
+        release.countDown();
+        queue.shutdown();
+
+        assertThat(calls, contains(List.of(ID1), List.of(ID2, ID2, ID2, ID2, ID2)));
+    }
+
+    @Test(timeout = 10000)
+    public void shouldGiveUpPendingDeletionsAfterShutdownTimeout() throws Exception
+    {
+        queue.setThreads(1);
+        queue.setShutdownTimeout(100, TimeUnit.MILLISECONDS);
+        queue.start();
+        CountDownLatch blocked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        int[] deleted = new int[1];
+
+        queue.submit(ID1, 100, ids -> {
+            blocked.countDown();
+            Uninterruptibles.awaitUninterruptibly(release, 5, TimeUnit.SECONDS);
+        });
+        assertTrue(blocked.await(5, TimeUnit.SECONDS));
+        queue.submit(ID2, 50, ids -> deleted[0]++);
+        queue.shutdown();
+
+        assertThat(deleted[0], is(0));
+        assertThat(queue.getPendingCount(), is(0));
+        assertThat(account.getDeleting(), is(100L));
+
+        release.countDown();
+    }
+
+    private static void await(CountDownLatch latch)
+    {
+        try {
+            latch.await(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+package org.dcache.pool.repository;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import diskCacheV111.util.PnfsId;
+
+import static org.hamcrest.Matchers.containsInAnyOrder;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class ReplicaIndexTest
+{
+    private static final PnfsId CHIMERA_ID = new PnfsId("0000A1B2C3D4E5F60718293A4B5C6D7E8F90");
+    private static final PnfsId PNFS_ID = new PnfsId("000100000000000000001060");
+
+    private ReplicaIndex index;
+
+    @Before
+    public void setUp()
+    {
+        index = new ReplicaIndex();
+    }
+
+    @Test
+    public void shouldStoreReplicaAttributes()
+    {
+        index.put(CHIMERA_ID, ReplicaState.PRECIOUS, 1L << 40, 1000, true);
+        index.put(PNFS_ID, ReplicaState.CACHED, 42, 2000, false);
+
+        Map<PnfsId,String> entries = new HashMap<>();
+        index.forEach(e -> entries.put(e.getPnfsId(),
+                e.getState() + " " + e.getReplicaSize() + " " + e.getLastAccessTime() + " " + e.isSticky()));
+
+        assertThat(index.size(), is(2));
+        assertThat(entries.get(CHIMERA_ID), is("PRECIOUS 1099511627776 1000 true"));
+        assertThat(entries.get(PNFS_ID), is("CACHED 42 2000 false"));
+    }
+
+    @Test
+    public void shouldUpdateExistingReplica()
+    {
+        index.put(PNFS_ID, ReplicaState.FROM_CLIENT, 0, 1000, false);
+        index.put(PNFS_ID, ReplicaState.CACHED, 42, 2000, true);
+
+        List<PnfsId> sticky = index.select(e -> e.isSticky() && e.getReplicaSize() == 42);
+
+        assertThat(index.size(), is(1));
+        assertThat(sticky, containsInAnyOrder(PNFS_ID));
+    }
+
+    @Test
+    public void shouldRemoveReplica()
+    {
+        index.put(CHIMERA_ID, ReplicaState.CACHED, 1, 0, false);
+        index.put(PNFS_ID, ReplicaState.CACHED, 1, 0, false);
+
+        assertThat(index.remove(PNFS_ID), is(true));
+        assertThat(index.remove(PNFS_ID), is(false));
+
+        assertThat(index.size(), is(1));
+        assertThat(index.contains(PNFS_ID), is(false));
+        assertThat(index.contains(CHIMERA_ID), is(true));
+    }
+
+    @Test
+    public void shouldGrowBeyondInitialCapacity()
+    {
+        long initialMemory = index.getMemoryUsage();
+        for (int i = 1; i <= 200_000; i++) {
+            index.put(id(i), ReplicaState.CACHED, i, i, false);
+        }
+        for (int i = 1; i <= 200_000; i += 2) {
+            index.remove(id(i));
+        }
+
+        long[] total = { 0 };
+        index.forEach(e -> total[0] += e.getReplicaSize());
+
+        assertThat(index.size(), is(100_000));
+        assertThat(index.getMemoryUsage(), is(greaterThan(initialMemory)));
+        assertThat(index.contains(id(2)), is(true));
+        assertThat(index.contains(id(3)), is(false));
+        assertThat(total[0], is(100_000L * 100_001L));
+    }
+
+    @Test
+    public void shouldReuseDeletedSlots()
+    {
+        for (int i = 1; i <= 200_000; i++) {
+            index.put(id(i), ReplicaState.CACHED, i, i, false);
+            index.remove(id(i));
+        }
+
+        assertThat(index.size(), is(0));
+        assertThat(index.getMemoryUsage(), is(new ReplicaIndex().getMemoryUsage()));
+    }
+
+    @Test(timeout = 10000)
+    public void shouldNotBlockUpdatesWhileIterating() throws Exception
+    {
+        for (int i = 1; i <= 10; i++) {
+            index.put(id(i), ReplicaState.CACHED, i, i, false);
+        }
+
+        int[] count = { 0 };
+        index.forEach(e -> {
+            if (count[0]++ == 0) {
+                Thread updater = new Thread(() -> index.put(id(11), ReplicaState.CACHED, 11, 11, false));
+                updater.start();
+                try {
+                    updater.join();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+
+        assertThat(index.contains(id(11)), is(true));
+        assertThat(count[0], is(greaterThanOrEqualTo(10)));
+    }
+
+    private static PnfsId id(int i)
+    {
+        return new PnfsId(String.format("%036X", i));
+    }
+}
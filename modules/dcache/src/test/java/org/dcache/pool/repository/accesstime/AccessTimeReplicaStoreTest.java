@@ -0,0 +1,105 @@
+package org.dcache.pool.repository.accesstime;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import diskCacheV111.util.CacheException;
+import diskCacheV111.util.DiskErrorCacheException;
+import diskCacheV111.util.PnfsId;
+
+import org.dcache.pool.repository.ReplicaRecord;
+import org.dcache.pool.repository.ReplicaState;
+import org.dcache.pool.repository.ReplicaStore;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.Mockito.doThrow;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class AccessTimeReplicaStoreTest
+{
+    private static final PnfsId ID = new PnfsId("000100000000000000001060");
+
+    private ReplicaStore inner;
+    private ReplicaRecord innerRecord;
+    private AccessTimeReplicaStore store;
+
+    @Before
+    public void setUp() throws CacheException
+    {
+        inner = mock(ReplicaStore.class);
+        innerRecord = mock(ReplicaRecord.class);
+        when(innerRecord.getPnfsId()).thenReturn(ID);
+        when(innerRecord.getState()).thenReturn(ReplicaState.CACHED);
+        when(innerRecord.getLastAccessTime()).thenReturn(1000L);
+        when(inner.get(ID)).thenReturn(innerRecord);
+        when(inner.isOk()).thenReturn(true);
+        store = new AccessTimeReplicaStore(inner, 1, TimeUnit.HOURS);
+    }
+
+    @Test
+    public void shouldDeferAccessTimeUpdatesUntilFlush() throws CacheException
+    {
+        ReplicaRecord record = store.get(ID);
+
+        record.setLastAccessTime(2000);
+        record.setLastAccessTime(3000);
+
+        assertThat(record.getLastAccessTime(), is(3000L));
+        verify(innerRecord, never()).setLastAccessTime(anyLong());
+
+        store.flush();
+
+        verify(innerRecord).setLastAccessTime(3000L);
+    }
+
+    @Test
+    public void shouldNotWriteAccessTimeOfRemovedReplica() throws CacheException
+    {
+        ReplicaRecord record = store.get(ID);
+        record.setLastAccessTime(2000);
+
+        store.remove(ID);
+        store.flush();
+
+        verify(inner).remove(ID);
+        verify(innerRecord, never()).setLastAccessTime(anyLong());
+    }
+
+    @Test
+    public void shouldReadAccessTimeFromInnerRecordWhenNothingIsPending() throws CacheException
+    {
+        ReplicaRecord record = store.get(ID);
+
+        assertThat(record.getLastAccessTime(), is(1000L));
+    }
+
+    @Test
+    public void shouldFailOnDiskErrorDuringFlush() throws CacheException
+    {
+        doThrow(new DiskErrorCacheException("disk is gone")).when(innerRecord).setLastAccessTime(anyLong());
+        ReplicaRecord record = store.get(ID);
+        record.setLastAccessTime(2000);
+
+        store.flush();
+
+        assertThat(store.isOk(), is(false));
+    }
+
+    @Test
+    public void shouldWriteThroughWhenDisabled() throws CacheException
+    {
+        store = new AccessTimeReplicaStore(inner, 0, TimeUnit.SECONDS);
+        ReplicaRecord record = store.get(ID);
+
+        record.setLastAccessTime(2000);
+
+        verify(innerRecord).setLastAccessTime(2000L);
+    }
+}
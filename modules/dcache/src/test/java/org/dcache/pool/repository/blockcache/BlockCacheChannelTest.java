@@ -0,0 +1,195 @@
+package org.dcache.pool.repository.blockcache;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import diskCacheV111.util.PnfsId;
+
+import org.dcache.pool.repository.FileRepositoryChannel;
+import org.dcache.pool.repository.FileStore;
+import org.dcache.pool.repository.ForwardingRepositoryChannel;
+import org.dcache.pool.repository.RepositoryChannel;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+public class BlockCacheChannelTest
+{
+    private static final PnfsId ID = new PnfsId("000000000000000000000000000000000001");
+    private static final int BLOCK_SIZE = 64 * 1024;
+
+    private Path file;
+    private byte[] data;
+    private BlockCache cache;
+    private AtomicInteger diskReads;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        file = Files.createTempFile("BlockCacheChannelTest", ".tmp");
+        data = new byte[10 * BLOCK_SIZE + 123];
+        new Random(1).nextBytes(data);
+        Files.write(file, data);
+        cache = new BlockCache(BLOCK_SIZE, 64 * BLOCK_SIZE, 2);
+        diskReads = new AtomicInteger();
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        Files.delete(file);
+    }
+
+    @Test
+    public void shouldNotCacheFileWithSingleReader() throws IOException
+    {
+        try (RepositoryChannel channel = open()) {
+            assertThat(readAll(channel), equalTo(data));
+            assertThat(readAll(channel), equalTo(data));
+        }
+
+        assertThat(cache.getDataObject().getBlocks(), is(0L));
+    }
+
+    @Test
+    public void shouldServeConcurrentReadersFromCache() throws IOException
+    {
+        try (RepositoryChannel first = open(); RepositoryChannel second = open()) {
+            assertThat(readAll(first), equalTo(data));
+            int reads = diskReads.get();
+
+            assertThat(readAll(second), equalTo(data));
+            assertThat(diskReads.get(), is(reads));
+        }
+
+        assertThat(cache.getDataObject().getBlocks(), is(11L));
+        assertThat(cache.getDataObject().getMisses(), is(11L));
+    }
+
+    @Test
+    public void shouldServeCachedBlocksToLaterReaders() throws IOException
+    {
+        try (RepositoryChannel first = open(); RepositoryChannel second = open()) {
+            readAll(first);
+        }
+
+        int reads = diskReads.get();
+        try (RepositoryChannel channel = open()) {
+            assertThat(readAll(channel), equalTo(data));
+        }
+        assertThat(diskReads.get(), is(reads));
+    }
+
+    @Test
+    public void shouldReadUnalignedRanges() throws IOException
+    {
+        try (RepositoryChannel first = open(); RepositoryChannel second = open()) {
+            Random random = new Random(2);
+            for (int i = 0; i < 200; i++) {
+                int position = random.nextInt(data.length);
+                int length = random.nextInt(3 * BLOCK_SIZE);
+                ByteBuffer buffer = ByteBuffer.allocate(length);
+                int count = first.read(buffer, position);
+                int expected = Math.min(length, data.length - position);
+                assertThat(count, is(expected));
+                assertThat(Arrays.copyOf(buffer.array(), count),
+                           equalTo(Arrays.copyOfRange(data, position, position + expected)));
+            }
+            assertThat(first.read(ByteBuffer.allocate(1), data.length), is(-1));
+        }
+    }
+
+    @Test
+    public void shouldDropBlocksOnInvalidate() throws IOException
+    {
+        try (RepositoryChannel first = open(); RepositoryChannel second = open()) {
+            readAll(first);
+        }
+
+        cache.invalidate(ID);
+
+        assertThat(cache.getDataObject().getBlocks(), is(0L));
+    }
+
+    @Test
+    public void shouldKeepBlocksOfOtherReplicasOnInvalidate() throws IOException
+    {
+        PnfsId other = new PnfsId("000000000000000000000000000000000002");
+        try (RepositoryChannel first = open(); RepositoryChannel second = open();
+             RepositoryChannel third = open(other); RepositoryChannel fourth = open(other)) {
+            readAll(first);
+            readAll(third);
+        }
+
+        cache.invalidate(ID);
+
+        assertThat(cache.getDataObject().getBlocks(), is(11L));
+    }
+
+    @Test
+    public void shouldReuseBuffersOfEvictedBlocks() throws IOException
+    {
+        cache = new BlockCache(BLOCK_SIZE, 2 * BLOCK_SIZE, 2);
+
+        try (RepositoryChannel first = open(); RepositoryChannel second = open()) {
+            for (int i = 0; i < 3; i++) {
+                assertThat(readAll(first), equalTo(data));
+                assertThat(readAll(second), equalTo(data));
+            }
+        }
+
+        assertThat(cache.getDataObject().getBlocks(), is(lessThanOrEqualTo(2L)));
+        assertThat(cache.getDataObject().getEvictions(), is(greaterThan(0L)));
+    }
+
+    private RepositoryChannel open() throws IOException
+    {
+        return open(ID);
+    }
+
+    private RepositoryChannel open(PnfsId id) throws IOException
+    {
+        RepositoryChannel channel = new FileRepositoryChannel(file, FileStore.O_READ);
+        return new BlockCacheChannel(new ForwardingRepositoryChannel() {
+            @Override
+            protected RepositoryChannel delegate()
+            {
+                return channel;
+            }
+
+            @Override
+            public int read(ByteBuffer buffer, long position) throws IOException
+            {
+                diskReads.incrementAndGet();
+                return super.read(buffer, position);
+            }
+        }, cache, id);
+    }
+
+    private byte[] readAll(RepositoryChannel channel) throws IOException
+    {
+        ByteBuffer content = ByteBuffer.allocate(data.length);
+        ByteBuffer block = ByteBuffer.allocate(4096);
+        long position = 0;
+        int count;
+        while ((count = channel.read(block, position)) > 0) {
+            position += count;
+            block.flip();
+            content.put(block);
+            block.clear();
+        }
+        return content.array();
+    }
+}
@@ -0,0 +1,233 @@
+package org.dcache.pool.repository.buffering;
+
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.dcache.pool.repository.FileRepositoryChannel;
+import org.dcache.pool.repository.FileStore;
+import org.dcache.pool.repository.ForwardingRepositoryChannel;
+import org.dcache.pool.repository.RepositoryChannel;
+
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertThat;
+
+public class BufferingChannelTest
+{
+    private static final int BLOCK_SIZE = 4096;
+    private static final int BLOCK_COUNT = 1024;
+    private static final int BUFFER_SIZE = 1024 * 1024;
+
+    private Path file;
+    private byte[] data;
+    private BufferPool pool;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        file = Files.createTempFile("BufferingChannelTest", ".tmp");
+        data = new byte[BLOCK_SIZE * BLOCK_COUNT + 100];
+        new Random(1).nextBytes(data);
+        pool = new BufferPool(BUFFER_SIZE, 4 * BUFFER_SIZE);
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        Files.delete(file);
+    }
+
+    @Test
+    public void shouldReadSequentialBlocksWithFewerReads() throws IOException
+    {
+        Files.write(file, data);
+
+        try (CountingChannel inner = new CountingChannel(new FileRepositoryChannel(file, FileStore.O_READ));
+             RepositoryChannel channel = new BufferingChannel(inner, pool)) {
+            ByteBuffer content = ByteBuffer.allocate(data.length);
+            ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+            long position = 0;
+            int count;
+            while ((count = channel.read(block, position)) > 0) {
+                position += count;
+                block.flip();
+                content.put(block);
+                block.clear();
+            }
+
+            assertThat(content.array(), equalTo(data));
+            assertThat(inner.reads, is(lessThan(BLOCK_COUNT / 4)));
+        }
+    }
+
+    @Test
+    public void shouldReadRandomBlocks() throws IOException
+    {
+        Files.write(file, data);
+
+        try (RepositoryChannel channel = new BufferingChannel(
+                new FileRepositoryChannel(file, FileStore.O_READ), pool)) {
+            Random random = new Random(2);
+            for (int i = 0; i < 100; i++) {
+                /* A random jump followed by a sequential run. */
+                int position = random.nextInt(data.length);
+                for (int j = 0; j < 8 && position < data.length; j++) {
+                    int length = Math.min(1 + random.nextInt(2 * BLOCK_SIZE), data.length - position);
+                    ByteBuffer buffer = ByteBuffer.allocate(length);
+                    while (buffer.hasRemaining()) {
+                        channel.read(buffer, position + buffer.position());
+                    }
+                    assertThat(buffer.array(), equalTo(Arrays.copyOfRange(data, position, position + length)));
+                    position += length;
+                }
+            }
+        }
+    }
+
+    @Test
+    public void shouldWriteSequentialBlocksWithFewerWrites() throws IOException
+    {
+        try (CountingChannel inner = new CountingChannel(new FileRepositoryChannel(file, FileStore.O_RW));
+             RepositoryChannel channel = new BufferingChannel(inner, pool)) {
+            for (int position = 0; position < data.length; position += BLOCK_SIZE) {
+                int length = Math.min(BLOCK_SIZE, data.length - position);
+                channel.write(ByteBuffer.wrap(data, position, length), position);
+            }
+            assertThat(channel.size(), is((long) data.length));
+            assertThat(inner.writes, is(lessThan(BLOCK_COUNT / 4)));
+        }
+
+        assertThat(Files.readAllBytes(file), equalTo(data));
+    }
+
+    @Test
+    public void shouldReadWhatWasWritten() throws IOException
+    {
+        Files.write(file, data);
+
+        try (RepositoryChannel channel = new BufferingChannel(
+                new FileRepositoryChannel(file, FileStore.O_RW), pool)) {
+            ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+            for (int i = 0; i < 4; i++) {
+                block.clear();
+                channel.read(block, i * BLOCK_SIZE);
+            }
+
+            byte[] update = new byte[BLOCK_SIZE];
+            new Random(3).nextBytes(update);
+            for (int i = 0; i < 4; i++) {
+                channel.write(ByteBuffer.wrap(update), 4 * BLOCK_SIZE + i * BLOCK_SIZE);
+                System.arraycopy(update, 0, data, 4 * BLOCK_SIZE + i * BLOCK_SIZE, BLOCK_SIZE);
+            }
+
+            for (int i = 4; i < 8; i++) {
+                block.clear();
+                channel.read(block, i * BLOCK_SIZE);
+                assertThat(block.array(), equalTo(update));
+            }
+        }
+
+        assertThat(Files.readAllBytes(file), equalTo(data));
+    }
+
+    @Test
+    public void shouldNotBufferWhenPoolIsExhausted() throws IOException
+    {
+        Files.write(file, data);
+        BufferPool empty = new BufferPool(BUFFER_SIZE, 0);
+
+        try (CountingChannel inner = new CountingChannel(new FileRepositoryChannel(file, FileStore.O_READ));
+             RepositoryChannel channel = new BufferingChannel(inner, empty)) {
+            ByteBuffer block = ByteBuffer.allocate(BLOCK_SIZE);
+            for (int i = 0; i < 16; i++) {
+                block.clear();
+                channel.read(block, i * BLOCK_SIZE);
+                assertThat(block.array(), 
+                        equalTo(Arrays.copyOfRange(data, i * BLOCK_SIZE, (i + 1) * BLOCK_SIZE)));
+            }
+            assertThat(inner.reads, is(16));
+        }
+    }
+
+    @Test(timeout = 10000)
+    public void shouldNotSerializeConcurrentRandomReads() throws Exception
+    {
+        Files.write(file, data);
+        CountDownLatch concurrent = new CountDownLatch(2);
+
+        try (RepositoryChannel inner = new FileRepositoryChannel(file, FileStore.O_READ);
+             RepositoryChannel channel = new BufferingChannel(new ForwardingRepositoryChannel()
+             {
+                 @Override
+                 protected RepositoryChannel delegate()
+                 {
+                     return inner;
+                 }
+
+                 @Override
+                 public int read(ByteBuffer buffer, long position) throws IOException
+                 {
+                     concurrent.countDown();
+                     Uninterruptibles.awaitUninterruptibly(concurrent);
+                     return super.read(buffer, position);
+                 }
+             }, pool)) {
+            ExecutorService executor = Executors.newFixedThreadPool(2);
+            try {
+                Future<Integer> first = executor.submit(() -> channel.read(ByteBuffer.allocate(BLOCK_SIZE), 0));
+                Future<Integer> second = executor.submit(() -> channel.read(ByteBuffer.allocate(BLOCK_SIZE), 8 * BLOCK_SIZE));
+
+                assertThat(first.get(), is(BLOCK_SIZE));
+                assertThat(second.get(), is(BLOCK_SIZE));
+            } finally {
+                executor.shutdown();
+            }
+        }
+    }
+
+    private static class CountingChannel extends ForwardingRepositoryChannel
+    {
+        private final RepositoryChannel inner;
+        private int reads;
+        private int writes;
+
+        CountingChannel(RepositoryChannel inner)
+        {
+            this.inner = inner;
+        }
+
+        @Override
+        protected RepositoryChannel delegate()
+        {
+            return inner;
+        }
+
+        @Override
+        public int read(ByteBuffer buffer, long position) throws IOException
+        {
+            reads++;
+            return super.read(buffer, position);
+        }
+
+        @Override
+        public int write(ByteBuffer buffer, long position) throws IOException
+        {
+            writes++;
+            return super.write(buffer, position);
+        }
+    }
+}
@@ -0,0 +1,175 @@
+package org.dcache.pool.repository.meta.db;
+
+import com.sleepycat.bind.tuple.StringBinding;
+import com.sleepycat.collections.CurrentTransaction;
+import com.sleepycat.collections.StoredMap;
+import com.sleepycat.je.Database;
+import com.sleepycat.je.DatabaseConfig;
+import com.sleepycat.je.Environment;
+import com.sleepycat.je.EnvironmentConfig;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.Matchers.hasSize;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class GroupCommitterTest
+{
+    private static final int THREADS = 8;
+
+    private Path dir;
+    private Environment env;
+    private Database database;
+    private StoredMap<String,String> map;
+    private GroupCommitter committer;
+    private ExecutorService executor;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        dir = Files.createTempDirectory("GroupCommitterTest");
+        EnvironmentConfig envConfig = new EnvironmentConfig();
+        envConfig.setAllowCreate(true);
+        envConfig.setTransactional(true);
+        env = new Environment(dir.toFile(), envConfig);
+        DatabaseConfig dbConfig = new DatabaseConfig();
+        dbConfig.setAllowCreate(true);
+        dbConfig.setTransactional(true);
+        database = env.openDatabase(null, "test", dbConfig);
+        map = new StoredMap<>(database, new StringBinding(), new StringBinding(), true);
+        committer = new GroupCommitter(env, 5, TimeUnit.SECONDS, THREADS);
+        executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        executor.shutdownNow();
+        committer.close();
+        database.close();
+        env.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(toList())) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    /**
+     * Submits one update per thread, all at the same time, and returns the
+     * futures of the submitting threads.
+     */
+    private List<Future<?>> commitConcurrently(List<Runnable> updates)
+    {
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> results = new ArrayList<>();
+        for (Runnable update : updates) {
+            results.add(executor.submit(() -> {
+                start.await();
+                committer.commit(List.of(update));
+                return null;
+            }));
+        }
+        start.countDown();
+        return results;
+    }
+
+    @Test(timeout = 10000)
+    public void shouldCommitConcurrentUpdatesInOneTransaction() throws Exception
+    {
+        CurrentTransaction current = CurrentTransaction.getInstance(env);
+        Set<Long> transactions = ConcurrentHashMap.newKeySet();
+        long fsyncs = env.getStats(null).getNFSyncs();
+
+        List<Runnable> updates = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            String key = "key" + i;
+            updates.add(() -> {
+                transactions.add(current.getTransaction().getId());
+                map.put(key, "value");
+            });
+        }
+        for (Future<?> result : commitConcurrently(updates)) {
+            result.get();
+        }
+
+        assertThat(transactions, hasSize(1));
+        assertThat(env.getStats(null).getNFSyncs() - fsyncs, is(1L));
+        assertThat(map.size(), is(THREADS));
+    }
+
+    @Test(timeout = 10000)
+    public void shouldReportFailedTransactionToAllSubmitters() throws Exception
+    {
+        List<Runnable> updates = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            updates.add(() -> {
+                throw new IllegalStateException("Database is not open");
+            });
+        }
+
+        for (Future<?> result : commitConcurrently(updates)) {
+            try {
+                result.get();
+                fail("Failed update was acknowledged");
+            } catch (ExecutionException e) {
+                assertThat(e.getCause(), instanceOf(IllegalStateException.class));
+            }
+        }
+        assertThat(map.size(), is(0));
+    }
+
+    @Test(timeout = 10000)
+    public void shouldNotFailOtherSubmittersOfFailedTransaction() throws Exception
+    {
+        List<Runnable> updates = new ArrayList<>();
+        updates.add(() -> {
+            throw new IllegalArgumentException("Bad update");
+        });
+        for (int i = 1; i < THREADS; i++) {
+            String key = "key" + i;
+            updates.add(() -> map.put(key, "value"));
+        }
+
+        List<Future<?>> results = commitConcurrently(updates);
+
+        try {
+            results.get(0).get();
+            fail("Failed update was acknowledged");
+        } catch (ExecutionException e) {
+            assertThat(e.getCause(), instanceOf(IllegalArgumentException.class));
+        }
+        for (Future<?> result : results.subList(1, THREADS)) {
+            result.get();
+        }
+        assertThat(map.size(), is(THREADS - 1));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void shouldRejectCommitAfterClose()
+    {
+        committer.close();
+        committer.commit(List.of(() -> map.put("key", "value")));
+    }
+}
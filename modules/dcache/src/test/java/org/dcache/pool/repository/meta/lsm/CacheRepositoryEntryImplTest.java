@@ -0,0 +1,144 @@
+package org.dcache.pool.repository.meta.lsm;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Comparator;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import diskCacheV111.util.CacheException;
+import diskCacheV111.util.PnfsId;
+
+import org.dcache.pool.repository.FlatFileStore;
+import org.dcache.pool.repository.ReplicaRecord;
+import org.dcache.pool.repository.ReplicaState;
+import org.dcache.pool.repository.StickyRecord;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+public class CacheRepositoryEntryImplTest
+{
+    private static final PnfsId ID = new PnfsId("0000A1B2C3D4E5F60718293A4B5C6D7E8F90");
+
+    private Path dir;
+    private FlatFileStore fileStore;
+    private LsmMetaDataRepository repository;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        dir = Files.createTempDirectory("CacheRepositoryEntryImplTest");
+        fileStore = new FlatFileStore(dir);
+        open();
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        repository.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(toList())) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private void open() throws Exception
+    {
+        if (repository != null) {
+            repository.close();
+        }
+        repository = new LsmMetaDataRepository(fileStore, dir, "pool");
+        repository.init();
+    }
+
+    private ReplicaRecord reload() throws Exception
+    {
+        open();
+        return repository.get(ID);
+    }
+
+    private ReplicaRecord givenReplica(ReplicaState state) throws Exception
+    {
+        ReplicaRecord record = repository.create(ID, Set.of(CREATE));
+        record.update("test", r -> r.setState(state));
+        return record;
+    }
+
+    @Test
+    public void shouldRecordSizeWhenReplicaBecomesImmutable() throws Exception
+    {
+        ReplicaRecord record = givenReplica(ReplicaState.FROM_CLIENT);
+        Files.write(Paths.get(record.getReplicaUri()), new byte[42]);
+
+        record.update("test", r -> r.setState(ReplicaState.CACHED));
+
+        assertThat(record.getReplicaSize(), is(42L));
+        assertThat(reload().getReplicaSize(), is(42L));
+    }
+
+    @Test
+    public void shouldRollBackFailedUpdate() throws Exception
+    {
+        ReplicaRecord record = givenReplica(ReplicaState.CACHED);
+
+        try {
+            record.update("test", r -> {
+                r.setState(ReplicaState.PRECIOUS);
+                r.setSticky("owner", StickyRecord.NON_EXPIRING, true);
+                throw new CacheException("failure");
+            });
+            fail("Expected CacheException");
+        } catch (CacheException expected) {
+        }
+
+        assertThat(record.getState(), is(ReplicaState.CACHED));
+        assertThat(record.isSticky(), is(false));
+        assertThat(reload().getState(), is(ReplicaState.CACHED));
+    }
+
+    @Test
+    public void shouldPersistLastAccessTime() throws Exception
+    {
+        ReplicaRecord record = givenReplica(ReplicaState.CACHED);
+
+        record.setLastAccessTime(1234);
+
+        assertThat(reload().getLastAccessTime(), is(1234L));
+    }
+
+    @Test
+    public void shouldReplaceStickyRecordOfSameOwner() throws Exception
+    {
+        ReplicaRecord record = givenReplica(ReplicaState.CACHED);
+        long expire = System.currentTimeMillis() + 60_000;
+
+        record.update("test", r -> r.setSticky("owner", StickyRecord.NON_EXPIRING, true));
+        record.update("test", r -> r.setSticky("owner", expire, true));
+
+        assertThat(reload().stickyRecords(), contains(new StickyRecord("owner", expire)));
+    }
+
+    @Test
+    public void shouldRemoveExpiredStickyRecords() throws Exception
+    {
+        ReplicaRecord record = givenReplica(ReplicaState.CACHED);
+        StickyRecord expired = new StickyRecord("owner", System.currentTimeMillis() - 1000);
+        record.update("test", r -> r.setSticky(expired.owner(), expired.expire(), true));
+
+        assertThat(record.removeExpiredStickyFlags(), contains(expired));
+        assertThat(reload().stickyRecords(), is(empty()));
+    }
+}
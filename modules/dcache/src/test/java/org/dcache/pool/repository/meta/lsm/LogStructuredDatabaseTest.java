@@ -0,0 +1,210 @@
+package org.dcache.pool.repository.meta.lsm;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.stream.Stream;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.util.stream.Collectors.toList;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class LogStructuredDatabaseTest
+{
+    private Path dir;
+    private LogStructuredDatabase database;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        dir = Files.createTempDirectory("LogStructuredDatabaseTest");
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        if (database != null) {
+            database.close();
+        }
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(toList())) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private void open(long memTableLimit) throws IOException
+    {
+        if (database != null) {
+            database.close();
+        }
+        database = new LogStructuredDatabase(dir, false, memTableLimit);
+    }
+
+    private void put(String key, String value) throws IOException
+    {
+        database.write(new LogStructuredDatabase.WriteBatch().put(key, value.getBytes(UTF_8)));
+    }
+
+    private String get(String key) throws IOException
+    {
+        byte[] value = database.get(key);
+        return (value == null) ? null : new String(value, UTF_8);
+    }
+
+    @Test
+    public void shouldRecoverFromLogAfterReopen() throws IOException
+    {
+        open(1 << 20);
+        put("state/a", "1");
+        put("state/b", "2");
+        database.write(new LogStructuredDatabase.WriteBatch().delete("state/a").put("info/b", "3".getBytes(UTF_8)));
+
+        open(1 << 20);
+
+        assertThat(get("state/a"), is(nullValue()));
+        assertThat(get("state/b"), is("2"));
+        assertThat(get("info/b"), is("3"));
+    }
+
+    @Test
+    public void shouldListKeysWithPrefixAcrossTables() throws IOException
+    {
+        open(1024);
+        for (int i = 0; i < 1000; i++) {
+            put(String.format("state/%04d", i), "value");
+            put(String.format("info/%04d", i), "value");
+        }
+        for (int i = 0; i < 1000; i += 2) {
+            database.write(new LogStructuredDatabase.WriteBatch().delete(String.format("state/%04d", i)));
+        }
+
+        List<String> keys = database.keys("state/");
+
+        assertThat(keys.size(), is(500));
+        assertThat(keys.get(0), is("state/0001"));
+        assertThat(keys.get(499), is("state/0999"));
+        assertThat(get("state/0998"), is(nullValue()));
+        assertThat(get("state/0999"), is("value"));
+    }
+
+    @Test
+    public void shouldCompactTables() throws Exception
+    {
+        open(1024);
+        for (int i = 0; i < 2000; i++) {
+            put(String.format("state/%04d", i % 100), Integer.toString(i));
+        }
+        database.compactAll();
+
+        assertThat(database.getTableCount(), is(1));
+        assertThat(get("state/0042"), is("1942"));
+
+        open(1024);
+
+        assertThat(get("state/0042"), is("1942"));
+        assertThat(database.keys("state/").size(), is(100));
+    }
+
+    @Test
+    public void shouldNotRewriteLargeTableWhenCompactingSmallTables() throws Exception
+    {
+        open(1024);
+        for (int i = 0; i < 2000; i++) {
+            put(String.format("state/%04d", i), "value");
+        }
+        database.compactAll();
+        List<Path> large = tableFiles();
+
+        for (int i = 0; i < 100; i++) {
+            put(String.format("info/%04d", i), "value");
+        }
+        database.write(new LogStructuredDatabase.WriteBatch().delete("state/0042"));
+        database.compact();
+
+        assertThat(large.size(), is(1));
+        assertThat(Files.exists(large.get(0)), is(true));
+        assertThat(database.getTableCount(), is(lessThanOrEqualTo(5)));
+        assertThat(get("state/0042"), is(nullValue()));
+        assertThat(get("state/0043"), is("value"));
+        assertThat(database.keys("info/").size(), is(100));
+
+        open(1024);
+
+        assertThat(get("state/0042"), is(nullValue()));
+        assertThat(database.keys("state/").size(), is(1999));
+    }
+
+    private List<Path> tableFiles() throws IOException
+    {
+        try (Stream<Path> files = Files.list(dir)) {
+            return files.filter(f -> f.toString().endsWith(".sst")).collect(toList());
+        }
+    }
+
+    @Test
+    public void shouldIgnoreTornRecordAtEndOfLog() throws IOException
+    {
+        open(1 << 20);
+        put("state/a", "1");
+        database.close();
+        database = null;
+
+        try (Stream<Path> files = Files.list(dir)) {
+            Path log = files.filter(f -> f.toString().endsWith(".wal")).findFirst().get();
+            try (FileChannel channel = FileChannel.open(log, APPEND)) {
+                channel.write(ByteBuffer.wrap(new byte[] { 0, 0, 0, 42, 1, 2 }));
+            }
+        }
+
+        open(1 << 20);
+
+        assertThat(get("state/a"), is("1"));
+        assertThat(database.keys(""), contains("state/a"));
+    }
+
+    @Test
+    public void shouldCommitConcurrentWritesTogether() throws Exception
+    {
+        open(1 << 20);
+        ExecutorService executor = Executors.newFixedThreadPool(16);
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (int i = 0; i < 1600; i++) {
+                String key = "state/" + i;
+                futures.add(executor.submit(() -> {
+                    put(key, key);
+                    return null;
+                }));
+            }
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertThat(database.getBatches(), is(1600L));
+        assertThat(database.getCommits(), is(lessThan(1600L)));
+        assertThat(database.keys("state/").size(), is(1600));
+        assertThat(get("state/1234"), is("state/1234"));
+    }
+}
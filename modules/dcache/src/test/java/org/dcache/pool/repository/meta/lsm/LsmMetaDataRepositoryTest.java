@@ -0,0 +1,183 @@
+package org.dcache.pool.repository.meta.lsm;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Stream;
+
+import diskCacheV111.util.PnfsId;
+import diskCacheV111.vehicles.GenericStorageInfo;
+import diskCacheV111.vehicles.StorageInfos;
+
+import org.dcache.pool.repository.DuplicateEntryException;
+import org.dcache.pool.repository.FlatFileStore;
+import org.dcache.pool.repository.ReplicaRecord;
+import org.dcache.pool.repository.ReplicaState;
+import org.dcache.pool.repository.StickyRecord;
+import org.dcache.vehicles.FileAttributes;
+
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.util.stream.Collectors.toList;
+import static org.dcache.pool.repository.ReplicaStore.IndexOption.ALLOW_REPAIR;
+import static org.dcache.pool.repository.ReplicaStore.IndexOption.META_ONLY;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class LsmMetaDataRepositoryTest
+{
+    private static final PnfsId ID = new PnfsId("0000A1B2C3D4E5F60718293A4B5C6D7E8F90");
+    private static final PnfsId ID2 = new PnfsId("0000A1B2C3D4E5F60718293A4B5C6D7E8F91");
+    private static final PnfsId ID3 = new PnfsId("0000A1B2C3D4E5F60718293A4B5C6D7E8F92");
+
+    private Path dir;
+    private FlatFileStore fileStore;
+    private LsmMetaDataRepository repository;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        dir = Files.createTempDirectory("LsmMetaDataRepositoryTest");
+        fileStore = new FlatFileStore(dir);
+        open();
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        repository.close();
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : files.sorted(Comparator.reverseOrder()).collect(toList())) {
+                Files.delete(file);
+            }
+        }
+    }
+
+    private void open() throws Exception
+    {
+        if (repository != null) {
+            repository.close();
+        }
+        repository = new LsmMetaDataRepository(fileStore, dir, "pool");
+        repository.init();
+    }
+
+    private ReplicaRecord givenCachedReplica() throws Exception
+    {
+        return givenCachedReplica(ID);
+    }
+
+    private ReplicaRecord givenCachedReplica(PnfsId id) throws Exception
+    {
+        ReplicaRecord record = repository.create(id, Set.of(CREATE));
+        FileAttributes attributes = FileAttributes.ofPnfsId(id);
+        attributes.setStorageInfo(new GenericStorageInfo("osm", "test:disk"));
+        record.update("test", r -> {
+            r.setFileAttributes(attributes);
+            r.setSticky("system", StickyRecord.NON_EXPIRING, true);
+            return r.setState(ReplicaState.CACHED);
+        });
+        return record;
+    }
+
+    @Test
+    public void shouldPersistRecordAcrossRestart() throws Exception
+    {
+        givenCachedReplica();
+
+        open();
+        ReplicaRecord record = repository.get(ID);
+
+        assertThat(record.getState(), is(ReplicaState.CACHED));
+        assertThat(record.isSticky(), is(true));
+        assertThat(StorageInfos.extractFrom(record.getFileAttributes()).getHsm(), is("osm"));
+        assertThat(repository.index(META_ONLY), contains(ID));
+    }
+
+    @Test
+    public void shouldNotPersistRecordBeforeFirstUpdate() throws Exception
+    {
+        repository.create(ID, Set.of(CREATE));
+
+        assertThat(repository.index(META_ONLY), is(empty()));
+        assertThat(repository.index(), contains(ID));
+    }
+
+    @Test
+    public void shouldReportReplicaWithoutMetaDataAsBroken() throws Exception
+    {
+        fileStore.create(ID);
+
+        assertThat(repository.get(ID).getState(), is(ReplicaState.BROKEN));
+    }
+
+    @Test
+    public void shouldReturnNullForUnknownReplica() throws Exception
+    {
+        assertThat(repository.get(ID), is(nullValue()));
+    }
+
+    @Test(expected = DuplicateEntryException.class)
+    public void shouldRejectDuplicateReplica() throws Exception
+    {
+        repository.create(ID, Set.of(CREATE));
+        repository.create(ID, Set.of(CREATE));
+    }
+
+    @Test
+    public void shouldRemoveMetaDataWithReplica() throws Exception
+    {
+        givenCachedReplica();
+
+        repository.remove(ID);
+        open();
+
+        assertThat(repository.get(ID), is(nullValue()));
+        assertThat(repository.index(META_ONLY), is(empty()));
+    }
+
+    @Test
+    public void shouldRemoveSeveralReplicas() throws Exception
+    {
+        givenCachedReplica(ID);
+        givenCachedReplica(ID2);
+        givenCachedReplica(ID3);
+
+        repository.remove(List.of(ID, ID2));
+        open();
+
+        assertThat(repository.index(META_ONLY), contains(ID3));
+        assertThat(repository.index(), contains(ID3));
+    }
+
+    @Test
+    public void shouldRemoveRedundantMetaDataOnRepair() throws Exception
+    {
+        givenCachedReplica();
+        fileStore.remove(ID);
+
+        assertThat(repository.index(ALLOW_REPAIR), is(empty()));
+        assertThat(repository.index(META_ONLY), is(empty()));
+    }
+
+    @Test
+    public void shouldDiscardLeftOverMetaDataOnCreate() throws Exception
+    {
+        givenCachedReplica();
+        fileStore.remove(ID);
+
+        ReplicaRecord record = repository.create(ID, Set.of(CREATE));
+
+        assertThat(record.getState(), is(ReplicaState.NEW));
+        assertThat(repository.index(META_ONLY), is(empty()));
+    }
+}
@@ -0,0 +1,202 @@
+package org.dcache.pool.repository.v5;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.InOrder;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import diskCacheV111.util.PnfsId;
+
+import org.dcache.pool.repository.CacheEntry;
+import org.dcache.pool.repository.FileStore;
+import org.dcache.pool.repository.ReplicaState;
+import org.dcache.vehicles.FileAttributes;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyString;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.inOrder;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class ReplicaScrubberTest
+{
+    private static final PnfsId ID1 = new PnfsId("000000000000000000000000000000000001");
+    private static final PnfsId ID2 = new PnfsId("000000000000000000000000000000000002");
+    private static final PnfsId ID3 = new PnfsId("000000000000000000000000000000000003");
+
+    private Path dir;
+    private Path stateFile;
+    private ReplicaRepository repository;
+    private FileStore fileStore;
+    private ReplicaScrubber scrubber;
+
+    @Before
+    public void setUp() throws Exception
+    {
+        dir = Files.createTempDirectory("ReplicaScrubberTest");
+        stateFile = dir.resolve("replica-scrubber.state");
+        repository = mock(ReplicaRepository.class);
+        fileStore = mock(FileStore.class);
+        when(repository.getState()).thenReturn(ReplicaRepository.State.OPEN);
+        when(repository.iterator()).then(i -> List.of(ID3, ID1, ID2).iterator());
+
+        scrubber = new ReplicaScrubber();
+        scrubber.setRepository(repository);
+        scrubber.setFileStore(fileStore);
+        scrubber.setPoolName("pool");
+        scrubber.setStateFile(stateFile.toFile());
+        scrubber.setEnabled(true);
+        scrubber.setSliceSize(2);
+        scrubber.setSliceDelay(1);
+        scrubber.setSliceDelayUnit(TimeUnit.DAYS);
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        scrubber.beforeStop();
+        Files.deleteIfExists(stateFile);
+        Files.delete(dir);
+    }
+
+    private void givenReplica(PnfsId id, long recordedSize, long actualSize) throws Exception
+    {
+        CacheEntry entry = mock(CacheEntry.class);
+        when(entry.getState()).thenReturn(ReplicaState.CACHED);
+        when(entry.getReplicaSize()).thenReturn(recordedSize);
+        when(entry.getFileAttributes()).thenReturn(FileAttributes.ofSize(recordedSize));
+        when(repository.getEntry(id)).thenReturn(entry);
+
+        BasicFileAttributes attributes = mock(BasicFileAttributes.class);
+        when(attributes.size()).thenReturn(actualSize);
+        BasicFileAttributeView view = mock(BasicFileAttributeView.class);
+        when(view.readAttributes()).thenReturn(attributes);
+        when(fileStore.getFileAttributeView(id)).thenReturn(view);
+    }
+
+    private String state() throws IOException
+    {
+        return new String(Files.readAllBytes(stateFile), StandardCharsets.US_ASCII);
+    }
+
+    @Test
+    public void shouldCheckOneSliceAtATime() throws Exception
+    {
+        givenReplica(ID1, 10, 10);
+        givenReplica(ID2, 20, 20);
+        givenReplica(ID3, 30, 30);
+        scrubber.afterStart();
+
+        scrubber.runSlice();
+
+        verify(repository).getEntry(ID1);
+        verify(repository).getEntry(ID2);
+        verify(repository, never()).getEntry(ID3);
+        assertThat(state().endsWith(" " + ID2), is(true));
+
+        scrubber.runSlice();
+
+        verify(repository).getEntry(ID3);
+        assertThat(state().endsWith(" -"), is(true));
+    }
+
+    @Test
+    public void shouldCheckReplicasAcrossBatches() throws Exception
+    {
+        givenReplica(ID1, 10, 10);
+        givenReplica(ID2, 20, 20);
+        givenReplica(ID3, 30, 30);
+        scrubber.setBatchSize(1);
+        scrubber.setSliceSize(3);
+        scrubber.afterStart();
+
+        scrubber.runSlice();
+
+        InOrder inOrder = inOrder(repository);
+        inOrder.verify(repository).getEntry(ID1);
+        inOrder.verify(repository).getEntry(ID2);
+        inOrder.verify(repository).getEntry(ID3);
+        assertThat(state().endsWith(" -"), is(true));
+        assertThat(Files.exists(dir.resolve("replica-scrubber.state.tmp")), is(false));
+    }
+
+    @Test
+    public void shouldMarkReplicaWithWrongSizeBroken() throws Exception
+    {
+        givenReplica(ID1, 10, 10);
+        givenReplica(ID2, 20, 19);
+        givenReplica(ID3, 30, 30);
+        scrubber.afterStart();
+
+        scrubber.runSlice();
+
+        verify(repository, never()).setState(eq(ID1), any(), anyString());
+        verify(repository).setState(eq(ID2), eq(ReplicaState.BROKEN), anyString());
+    }
+
+    @Test
+    public void shouldSkipReplicaThatCannotBeRead() throws Exception
+    {
+        givenReplica(ID1, 10, 10);
+        givenReplica(ID2, 20, 20);
+        givenReplica(ID3, 30, 30);
+        BasicFileAttributeView view = mock(BasicFileAttributeView.class);
+        when(view.readAttributes()).thenThrow(new IOException("Input/output error"));
+        when(fileStore.getFileAttributeView(ID1)).thenReturn(view);
+        scrubber.afterStart();
+
+        scrubber.runSlice();
+        scrubber.runSlice();
+
+        verify(repository, times(1)).getEntry(ID1);
+        verify(repository).getEntry(ID3);
+        verify(repository, never()).setState(eq(ID1), any(), anyString());
+        assertThat(state().endsWith(" -"), is(true));
+    }
+
+    @Test
+    public void shouldResumeFromSavedState() throws Exception
+    {
+        givenReplica(ID3, 30, 30);
+        Files.write(stateFile, ("1000 " + ID2).getBytes(StandardCharsets.US_ASCII));
+        scrubber.afterStart();
+
+        scrubber.runSlice();
+
+        verify(repository, never()).getEntry(ID1);
+        verify(repository, never()).getEntry(ID2);
+        verify(repository).getEntry(ID3);
+        assertThat(state(), is("1000 -"));
+    }
+
+    @Test
+    public void shouldNotStartNewPassBeforePeriodHasPassed() throws Exception
+    {
+        givenReplica(ID1, 10, 10);
+        givenReplica(ID2, 20, 20);
+        givenReplica(ID3, 30, 30);
+        scrubber.afterStart();
+
+        scrubber.runSlice();
+        scrubber.runSlice();
+        scrubber.runSlice();
+
+        verify(repository, times(1)).iterator();
+        verify(repository, times(1)).getEntry(ID1);
+    }
+}
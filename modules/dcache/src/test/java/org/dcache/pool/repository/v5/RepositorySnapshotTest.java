@@ -0,0 +1,131 @@
+package org.dcache.pool.repository.v5;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.Map;
+
+import diskCacheV111.util.PnfsId;
+
+import org.dcache.pool.repository.ReplicaState;
+
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.hamcrest.Matchers.aMapWithSize;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class RepositorySnapshotTest
+{
+    private static final PnfsId CHIMERA_ID = new PnfsId("0000A1B2C3D4E5F60718293A4B5C6D7E8F90");
+    private static final PnfsId PNFS_ID = new PnfsId("000100000000000000001060");
+
+    private Path dir;
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        dir = Files.createTempDirectory("RepositorySnapshotTest");
+        file = dir.resolve("repository.snapshot");
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(file.resolveSibling("repository.snapshot.tmp"));
+        Files.delete(dir);
+    }
+
+    @Test
+    public void shouldReadWhatWasWritten() throws IOException
+    {
+        writeSnapshot();
+
+        Map<PnfsId,RepositorySnapshot.Entry> entries = RepositorySnapshot.read(file);
+
+        assertThat(entries, is(aMapWithSize(2)));
+        RepositorySnapshot.Entry precious = entries.get(CHIMERA_ID);
+        assertThat(precious.getState(), is(ReplicaState.PRECIOUS));
+        assertThat(precious.getReplicaSize(), is(1L << 40));
+        assertThat(precious.isSticky(), is(true));
+        assertThat(precious.getLastAccessTime(), is(1000L));
+        RepositorySnapshot.Entry cached = entries.get(PNFS_ID);
+        assertThat(cached.getState(), is(ReplicaState.CACHED));
+        assertThat(cached.getReplicaSize(), is(42L));
+        assertThat(cached.isSticky(), is(false));
+        assertThat(cached.getLastAccessTime(), is(2000L));
+    }
+
+    @Test(expected = NoSuchFileException.class)
+    public void shouldFailWithoutSnapshot() throws IOException
+    {
+        RepositorySnapshot.read(file);
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldRejectCorruptedSnapshot() throws IOException
+    {
+        writeSnapshot();
+        try (FileChannel channel = FileChannel.open(file, WRITE)) {
+            channel.write(ByteBuffer.wrap(new byte[] { 1 }), 30);
+        }
+
+        RepositorySnapshot.read(file);
+    }
+
+    @Test(expected = IOException.class)
+    public void shouldRejectTruncatedSnapshot() throws IOException
+    {
+        writeSnapshot();
+        try (FileChannel channel = FileChannel.open(file, WRITE)) {
+            channel.truncate(channel.size() - 1);
+        }
+
+        RepositorySnapshot.read(file);
+    }
+
+    @Test
+    public void shouldKeepPreviousSnapshotIfNotCommitted() throws IOException
+    {
+        writeSnapshot();
+
+        try (RepositorySnapshot.Writer writer = new RepositorySnapshot.Writer(file)) {
+            writer.add(new RepositorySnapshot.Entry(PNFS_ID, ReplicaState.CACHED, 1, false, 0));
+        }
+
+        assertThat(RepositorySnapshot.read(file), is(aMapWithSize(2)));
+        assertThat(Files.exists(file.resolveSibling("repository.snapshot.tmp")), is(false));
+    }
+
+    @Test
+    public void shouldAcceptReplicaRecordedTwice() throws IOException
+    {
+        try (RepositorySnapshot.Writer writer = new RepositorySnapshot.Writer(file)) {
+            writer.add(new RepositorySnapshot.Entry(PNFS_ID, ReplicaState.CACHED, 42, false, 2000));
+            writer.add(new RepositorySnapshot.Entry(PNFS_ID, ReplicaState.CACHED, 42, false, 3000));
+            writer.commit();
+        }
+
+        Map<PnfsId,RepositorySnapshot.Entry> entries = RepositorySnapshot.read(file);
+
+        assertThat(entries, is(aMapWithSize(1)));
+        assertThat(entries.get(PNFS_ID).getLastAccessTime(), is(3000L));
+    }
+
+    private void writeSnapshot() throws IOException
+    {
+        try (RepositorySnapshot.Writer writer = new RepositorySnapshot.Writer(file)) {
+            writer.add(new RepositorySnapshot.Entry(CHIMERA_ID, ReplicaState.PRECIOUS, 1L << 40, true, 1000));
+            writer.add(new RepositorySnapshot.Entry(PNFS_ID, ReplicaState.CACHED, 42, false, 2000));
+            writer.commit();
+        }
+    }
+}
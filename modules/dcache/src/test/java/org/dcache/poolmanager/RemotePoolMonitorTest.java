@@ -0,0 +1,199 @@
+package org.dcache.poolmanager;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.SettableFuture;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import diskCacheV111.poolManager.CostModule;
+import diskCacheV111.poolManager.CostModuleV1;
+import diskCacheV111.poolManager.PoolMonitorV5;
+import diskCacheV111.poolManager.PoolSelectionUnitV2;
+import diskCacheV111.pools.PoolCostInfo;
+import diskCacheV111.pools.PoolV2Mode;
+import diskCacheV111.vehicles.PoolManagerGetPoolMonitor;
+import diskCacheV111.vehicles.PoolManagerPoolUpMessage;
+
+import dmg.cells.nucleus.CellAddressCore;
+import dmg.cells.nucleus.CellEndpoint;
+import dmg.cells.nucleus.CellMessage;
+
+import org.dcache.cells.CellStub;
+import org.dcache.pool.classic.IoQueueManager;
+import org.dcache.tests.poolmanager.PoolMonitorHelper;
+
+import static org.junit.Assert.assertEquals;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class RemotePoolMonitorTest
+{
+    private static final long EPOCH = 42;
+
+    private PoolMonitorV5 _published;
+    private RemotePoolMonitor _monitor;
+    private final List<SettableFuture<PoolManagerGetPoolMonitor>> _fetches = new ArrayList<>();
+
+    @Before
+    public void setUp() throws Exception
+    {
+        PoolSelectionUnitV2 psu = new PoolSelectionUnitV2();
+        PoolMonitorHelper.prepareSelectionUnit(psu, psu, Arrays.asList("pool1", "pool2"));
+        CostModuleV1 costModule = new CostModuleV1();
+        _published = new PoolMonitorV5();
+        _published.setPoolSelectionUnit(psu);
+        _published.setCostModule(costModule);
+        _published.setPartitionManager(new PartitionManager());
+        poolUp(costModule, "pool1");
+        poolUp(costModule, "pool2");
+
+        CellStub stub = mock(CellStub.class);
+        when(stub.send(any(PoolManagerGetPoolMonitor.class), any(CellEndpoint.SendFlag.class))).thenAnswer(invocation -> {
+            SettableFuture<PoolManagerGetPoolMonitor> future = SettableFuture.create();
+            _fetches.add(future);
+            return future;
+        });
+        _monitor = new RemotePoolMonitor();
+        _monitor.setPoolManagerStub(stub);
+        _monitor.afterStart();
+        completeFetch(1);
+    }
+
+    @Test
+    public void shouldApplyDeltaBasedOnCurrentVersion() throws Exception
+    {
+        _monitor.messageArrived(delta(EPOCH, 1, 2, "pool1", 90));
+
+        assertEquals(90, freeSpace("pool1"));
+        assertEquals(1, _fetches.size());
+    }
+
+    @Test
+    public void shouldNotModifyPublishedSnapshot() throws Exception
+    {
+        CostModule before = _monitor.getCostModule();
+
+        _monitor.messageArrived(delta(EPOCH, 1, 2, "pool1", 90));
+
+        assertEquals(20, before.getPoolCostInfo("pool1").getSpaceInfo().getFreeSpace());
+        assertEquals(90, freeSpace("pool1"));
+    }
+
+    @Test
+    public void shouldIgnoreDeltaFromOtherEpoch() throws Exception
+    {
+        _monitor.messageArrived(delta(EPOCH + 1, 1, 2, "pool1", 90));
+
+        assertEquals(20, freeSpace("pool1"));
+        assertEquals(1, _fetches.size());
+    }
+
+    @Test
+    public void shouldFetchSnapshotOnGap() throws Exception
+    {
+        _monitor.messageArrived(delta(EPOCH, 2, 3, "pool1", 90));
+
+        assertEquals(20, freeSpace("pool1"));
+        assertEquals(2, _fetches.size());
+    }
+
+    @Test
+    public void shouldFetchSnapshotOnlyOnceWhileFetching() throws Exception
+    {
+        _monitor.messageArrived(delta(EPOCH, 2, 3, "pool1", 90));
+        _monitor.messageArrived(delta(EPOCH, 3, 4, "pool1", 80));
+
+        assertEquals(2, _fetches.size());
+    }
+
+    @Test
+    public void shouldFetchSnapshotOnUnknownPool() throws Exception
+    {
+        _monitor.messageArrived(delta(EPOCH, 1, 2, "pool3", 90));
+        assertEquals(2, _fetches.size());
+
+        /* The incomplete delta was not recorded as applied. */
+        _monitor.messageArrived(delta(EPOCH, 2, 3, "pool1", 90));
+        assertEquals(20, freeSpace("pool1"));
+    }
+
+    @Test
+    public void shouldApplyDeltasAfterFetchedSnapshot() throws Exception
+    {
+        _monitor.messageArrived(delta(EPOCH, 2, 3, "pool1", 90));
+        completeFetch(3);
+
+        _monitor.messageArrived(delta(EPOCH, 3, 4, "pool1", 80));
+        _monitor.messageArrived(delta(EPOCH, 4, 5, "pool1", 70));
+
+        assertEquals(70, freeSpace("pool1"));
+        assertEquals(2, _fetches.size());
+    }
+
+    @Test
+    public void shouldIgnoreLateSnapshot() throws Exception
+    {
+        SerializablePoolMonitor late = snapshot(1);
+        _monitor.messageArrived(delta(EPOCH, 1, 2, "pool1", 90));
+
+        CellMessage envelope = new CellMessage(new CellAddressCore("irrelevant"), null);
+        envelope.addSourceAddress(new CellAddressCore("PoolManager"));
+        _monitor.messageArrived(envelope, late);
+
+        assertEquals(90, freeSpace("pool1"));
+    }
+
+    private long freeSpace(String pool)
+    {
+        return _monitor.getCostModule().getPoolCostInfo(pool).getSpaceInfo().getFreeSpace();
+    }
+
+    private void completeFetch(long version) throws Exception
+    {
+        PoolManagerGetPoolMonitor reply = new PoolManagerGetPoolMonitor();
+        reply.setPoolMonitor(snapshot(version));
+        _fetches.get(_fetches.size() - 1).set(reply);
+    }
+
+    private SerializablePoolMonitor snapshot(long version) throws Exception
+    {
+        _published.setVersion(EPOCH, version);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(_published);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return (SerializablePoolMonitor) in.readObject();
+        }
+    }
+
+    private static PoolMonitorDelta delta(long epoch, long baseVersion, long version, String pool, long free)
+    {
+        PoolCostInfo cost = new PoolCostInfo(pool, IoQueueManager.DEFAULT_QUEUE);
+        cost.setSpaceUsage(100, free, 5, 100 - free - 5);
+        PoolMonitorDelta.PoolUpdate update = new PoolMonitorDelta.PoolUpdate(
+                new PoolInfo(new CellAddressCore(pool), cost, ImmutableMap.of()),
+                System.currentTimeMillis() + version);
+        return new PoolMonitorDelta(epoch, baseVersion, version, Collections.singletonList(update));
+    }
+
+    private static void poolUp(CostModuleV1 costModule, String pool)
+    {
+        PoolCostInfo cost = new PoolCostInfo(pool, IoQueueManager.DEFAULT_QUEUE);
+        cost.setSpaceUsage(100, 20, 30, 50);
+        CellMessage envelope = new CellMessage(new CellAddressCore("PoolManager"), null);
+        envelope.addSourceAddress(new CellAddressCore(pool));
+        costModule.messageArrived(envelope, new PoolManagerPoolUpMessage(pool, 1L,
+                new PoolV2Mode(PoolV2Mode.ENABLED), cost));
+    }
+}
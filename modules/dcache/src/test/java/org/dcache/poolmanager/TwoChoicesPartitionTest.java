@@ -0,0 +1,87 @@
+package org.dcache.poolmanager;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import diskCacheV111.pools.PoolCostInfo;
+import diskCacheV111.util.CostException;
+
+import dmg.cells.nucleus.CellAddressCore;
+
+import org.dcache.pool.classic.IoQueueManager;
+import org.dcache.vehicles.FileAttributes;
+
+import static java.util.Arrays.asList;
+import static org.hamcrest.Matchers.allOf;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.lessThan;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
+
+public class TwoChoicesPartitionTest
+{
+    private final TwoChoicesPartition partition =
+            new TwoChoicesPartition(Partition.NO_PROPERTIES);
+
+    private static PoolInfo pool(String name, long free, int active, int maxActive, int queued)
+    {
+        PoolCostInfo cost = new PoolCostInfo(name, IoQueueManager.DEFAULT_QUEUE);
+        cost.setSpaceUsage(1000000, free, 0, 0);
+        cost.addExtendedMoverQueueSizes(IoQueueManager.DEFAULT_QUEUE, active, maxActive, queued, 0, 0);
+        return new PoolInfo(new CellAddressCore(name), cost, ImmutableMap.of());
+    }
+
+    @Test
+    public void shouldSpreadBurstOfWritesOverEqualPools() throws Exception
+    {
+        List<PoolInfo> pools = asList(pool("pool1", 500000, 0, 100, 0),
+                                      pool("pool2", 500000, 0, 100, 0),
+                                      pool("pool3", 500000, 0, 100, 0),
+                                      pool("pool4", 500000, 0, 100, 0));
+
+        Map<String,Integer> selections = new HashMap<>();
+        for (int i = 0; i < 400; i++) {
+            SelectedPool selected = partition.selectWritePool(null, pools, FileAttributes.ofSize(10), 10);
+            selections.merge(selected.name(), 1, Integer::sum);
+        }
+
+        for (PoolInfo pool : pools) {
+            assertThat(selections.get(pool.getName()), allOf(greaterThan(80), lessThan(120)));
+        }
+    }
+
+    @Test
+    public void shouldAvoidBusyPoolForReads() throws Exception
+    {
+        List<PoolInfo> pools = asList(pool("busy", 500000, 100, 100, 10),
+                                      pool("idle", 500000, 0, 100, 0));
+
+        for (int i = 0; i < 50; i++) {
+            assertEquals("idle", partition.selectReadPool(null, pools, FileAttributes.ofSize(10)).name());
+        }
+    }
+
+    @Test
+    public void shouldNotWriteToFullPools() throws Exception
+    {
+        List<PoolInfo> pools = asList(pool("full", 0, 0, 100, 0),
+                                      pool("free", 500000, 50, 100, 0));
+
+        for (int i = 0; i < 20; i++) {
+            assertEquals("free", partition.selectWritePool(null, pools, FileAttributes.ofSize(10), 10).name());
+        }
+    }
+
+    @Test(expected = CostException.class)
+    public void shouldFailWhenAllPoolsAreFull() throws Exception
+    {
+        List<PoolInfo> pools = asList(pool("full1", 0, 0, 100, 0),
+                                      pool("full2", 5, 0, 100, 0));
+
+        partition.selectWritePool(null, pools, FileAttributes.ofSize(10), 10);
+    }
+}
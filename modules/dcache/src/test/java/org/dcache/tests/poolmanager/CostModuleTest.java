@@ -3,6 +3,10 @@ package org.dcache.tests.poolmanager;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.util.Arrays;
 
 import diskCacheV111.poolManager.CostModuleV1;
@@ -240,6 +244,91 @@ public class CostModuleTest {
         assertPercentileCost( FRACTION_JUST_BELOW_ONE, perfCost [2]);
     }
 
+    @Test
+    public void testPercentileFollowsUpdates() {
+
+        _costModule.messageArrived(
+                buildEnvelope(POOL_ADDRESS),
+                buildPoolUpMessageWithCostAndQueue(
+                        POOL_NAME,
+                        100, 20, 30, 50,
+                        0, 100, 0,
+                        0, 0, 0,
+                        0, 0, 0));
+        _costModule.messageArrived(
+                buildEnvelope(POOL_ADDRESS_2),
+                buildPoolUpMessageWithCostAndQueue(
+                        POOL_NAME_2,
+                        100, 20, 30, 50,
+                        20, 100, 0,
+                        0, 0, 0,
+                        0, 0, 0));
+        _costModule.messageArrived(
+                buildEnvelope(POOL_ADDRESS_3),
+                buildPoolUpMessageWithCostAndQueue(
+                        POOL_NAME_3,
+                        100, 20, 30, 50,
+                        40, 100, 0,
+                        0, 0, 0,
+                        0, 0, 0));
+
+        double idleCost = getPerformanceCostOfPercentileFile( POOL_NAME);
+        double busyCost = getPerformanceCostOfPercentileFile( POOL_NAME_3);
+        assertPercentileCost( FRACTION_JUST_BELOW_ONE, busyCost);
+
+        // The busy pool becomes idle and the idle pool goes down
+        _costModule.messageArrived(
+                buildEnvelope(POOL_ADDRESS_3),
+                buildPoolUpMessageWithCostAndQueue(
+                        POOL_NAME_3,
+                        100, 20, 30, 50,
+                        0, 100, 0,
+                        0, 0, 0,
+                        0, 0, 0));
+        _costModule.messageArrived(
+                buildEnvelope(POOL_ADDRESS), buildEmptyPoolUpMessage( POOL_NAME, PoolV2Mode.DISABLED_DEAD));
+
+        double pool2PerfCost = getPerformanceCostOfPercentileFile( POOL_NAME_2);
+        assertPercentileCost( FRACTION_JUST_BELOW_HALF, idleCost);
+        assertPercentileCost( FRACTION_HALF, pool2PerfCost);
+        assertPercentileCost( FRACTION_JUST_BELOW_ONE, pool2PerfCost);
+    }
+
+    @Test
+    public void testPercentileOfCopy() throws Exception {
+
+        _costModule.messageArrived(
+                buildEnvelope(POOL_ADDRESS),
+                buildPoolUpMessageWithCostAndQueue(
+                        POOL_NAME,
+                        100, 20, 30, 50,
+                        0, 100, 0,
+                        0, 0, 0,
+                        0, 0, 0));
+        _costModule.messageArrived(
+                buildEnvelope(POOL_ADDRESS_2),
+                buildPoolUpMessageWithCostAndQueue(
+                        POOL_NAME_2,
+                        100, 20, 30, 50,
+                        20, 100, 0,
+                        0, 0, 0,
+                        0, 0, 0));
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(_costModule);
+        }
+        CostModuleV1 copy;
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            copy = (CostModuleV1) in.readObject();
+        }
+
+        assertEquals(_costModule.getPoolsPercentilePerformanceCost(FRACTION_JUST_BELOW_HALF),
+                     copy.getPoolsPercentilePerformanceCost(FRACTION_JUST_BELOW_HALF), 0);
+        assertEquals(_costModule.getPoolsPercentilePerformanceCost(FRACTION_JUST_BELOW_ONE),
+                     copy.getPoolsPercentilePerformanceCost(FRACTION_JUST_BELOW_ONE), 0);
+    }
+
     /*
      *  SUPPORT METHODS FOR BUILDING MESSAGES AND ASSERTING
      */
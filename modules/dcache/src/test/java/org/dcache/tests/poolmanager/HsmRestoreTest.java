@@ -6,6 +6,8 @@ import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.net.InetSocketAddress;
 import java.net.URI;
 import java.util.ArrayList;
@@ -46,7 +48,9 @@ import org.dcache.util.Args;
 import org.dcache.vehicles.FileAttributes;
 import org.dcache.vehicles.PnfsGetFileAttributes;
 
+import static org.hamcrest.Matchers.containsString;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertThat;
 import static org.junit.Assert.assertTrue;
 
 public class HsmRestoreTest {
@@ -189,6 +193,146 @@ public class HsmRestoreTest {
     }
 
 
+    @Test
+    public void testPendingRestoresAreCountedByState() throws Exception {
+
+        PnfsId pnfsId = new PnfsId("000000000000000000000000000000000001");
+
+
+        /*
+         * pre-configure pool selection unit
+         */
+        List<String> pools = new ArrayList<>(3);
+        pools.add("pool1");
+        pools.add("pool2");
+        PoolMonitorHelper.prepareSelectionUnit(_selectionUnit, _access, pools);
+
+        /*
+         * prepare reply for GetStorageInfo
+         */
+
+        _storageInfo.addLocation(new URI("osm://osm?"));
+        _storageInfo.setIsNew(false);
+
+        PnfsGetFileAttributes fileAttributesMessage =
+            new PnfsGetFileAttributes(pnfsId, EnumSet.noneOf(FileAttribute.class));
+        FileAttributes attributes = new FileAttributes();
+        StorageInfos.injectInto(_storageInfo, attributes);
+        attributes.setPnfsId(pnfsId);
+        attributes.setLocations(Collections.<String>emptyList());
+        attributes.setSize(5);
+        attributes.setAccessLatency(StorageInfo.DEFAULT_ACCESS_LATENCY);
+        attributes.setRetentionPolicy(StorageInfo.DEFAULT_RETENTION_POLICY);
+        attributes.setChecksums(Collections.emptySet());
+        fileAttributesMessage.setFileAttributes(attributes);
+        _cell.prepareMessage(new CellPath("PnfsManager"), fileAttributesMessage, true);
+
+
+        /*
+         * make pools know to 'PoolManager'
+         */
+
+        long serialId = System.currentTimeMillis();
+        PoolV2Mode poolMode = new PoolV2Mode(PoolV2Mode.ENABLED);
+        Set<String> connectedHSM = new HashSet<>(1);
+        connectedHSM.add("osm");
+
+        for( String pool : pools) {
+
+            PoolCostInfo poolCostInfo = new PoolCostInfo(pool, IoQueueManager.DEFAULT_QUEUE);
+            poolCostInfo.setSpaceUsage(100, 20, 30, 50);
+            poolCostInfo.setQueueSizes(0, 10, 0, 0, 10, 0);
+            poolCostInfo.addExtendedMoverQueueSizes(IoQueueManager.DEFAULT_QUEUE, 0, 10, 0, 0, 0);
+
+            CellMessage envelope = new CellMessage(new CellAddressCore("irrelevant"), null);
+            envelope.addSourceAddress(new CellAddressCore(pool));
+            PoolManagerPoolUpMessage poolUpMessage = new PoolManagerPoolUpMessage(pool, serialId, poolMode, poolCostInfo);
+
+            prepareSelectionUnit(pool, poolMode, connectedHSM);
+            _costModule.messageArrived(envelope, poolUpMessage);
+
+        }
+
+
+        final AtomicInteger stageRequests = new AtomicInteger(0);
+
+        MessageAction messageAction = new StageMessageAction(stageRequests);
+
+        _cell.registerAction("pool1", PoolFetchFileMessage.class, messageAction);
+        _cell.registerAction("pool2", PoolFetchFileMessage.class, messageAction);
+
+        PoolMgrSelectReadPoolMsg selectReadPool = new PoolMgrSelectReadPoolMsg(attributes, _protocolInfo, null);
+        CellMessage cellMessage = new CellMessage( new CellAddressCore("PoolManager"), selectReadPool);
+
+        _rc.messageArrived(cellMessage, selectReadPool);
+
+        PoolMgrSelectReadPoolMsg secondSelectReadPool = new PoolMgrSelectReadPoolMsg(attributes, _protocolInfo, null);
+        _rc.messageArrived(new CellMessage(new CellAddressCore("PoolManager"), secondSelectReadPool),
+                           secondSelectReadPool);
+
+        assertEquals("Second request not joined to pending restore", 1, stageRequests.get());
+        assertEquals(1, _rc.getRestoreHandlerInfo().size());
+        assertEquals(2, _rc.getRestoreHandlerInfo().get(0).getClientCount());
+
+        StringWriter info = new StringWriter();
+        _rc.getInfo(new PrintWriter(info));
+        assertThat(info.toString(), containsString("ST_WAITING_FOR_STAGING : 1 handlers, 2 requests"));
+    }
+
+
+    @Test(timeout = 10000)
+    public void testReadOfCachedFileIsAnsweredImmediately() throws Exception {
+
+        PnfsId pnfsId = new PnfsId("000000000000000000000000000000000001");
+
+        List<String> pools = new ArrayList<>(3);
+        pools.add("pool1");
+        pools.add("pool2");
+        PoolMonitorHelper.prepareSelectionUnit(_selectionUnit, _access, pools);
+
+        FileAttributes attributes = new FileAttributes();
+        StorageInfos.injectInto(_storageInfo, attributes);
+        attributes.setPnfsId(pnfsId);
+        attributes.setLocations(Collections.singletonList("pool1"));
+        attributes.setSize(5);
+        attributes.setAccessLatency(StorageInfo.DEFAULT_ACCESS_LATENCY);
+        attributes.setRetentionPolicy(StorageInfo.DEFAULT_RETENTION_POLICY);
+        attributes.setChecksums(Collections.emptySet());
+
+        long serialId = System.currentTimeMillis();
+        PoolV2Mode poolMode = new PoolV2Mode(PoolV2Mode.ENABLED);
+
+        for( String pool : pools) {
+
+            PoolCostInfo poolCostInfo = new PoolCostInfo(pool, IoQueueManager.DEFAULT_QUEUE);
+            poolCostInfo.setSpaceUsage(100, 20, 30, 50);
+            poolCostInfo.setQueueSizes(0, 10, 0, 0, 10, 0);
+            poolCostInfo.addExtendedMoverQueueSizes(IoQueueManager.DEFAULT_QUEUE, 0, 10, 0, 0, 0);
+
+            CellMessage envelope = new CellMessage(new CellAddressCore("irrelevant"), null);
+            envelope.addSourceAddress(new CellAddressCore(pool));
+            PoolManagerPoolUpMessage poolUpMessage = new PoolManagerPoolUpMessage(pool, serialId, poolMode, poolCostInfo);
+
+            prepareSelectionUnit(pool, poolMode, Collections.emptySet());
+            _costModule.messageArrived(envelope, poolUpMessage);
+        }
+
+        List<PoolMgrSelectReadPoolMsg> replies = new ArrayList<>();
+        _cell.registerAction("door", PoolMgrSelectReadPoolMsg.class,
+                             m -> replies.add((PoolMgrSelectReadPoolMsg) m.getMessageObject()));
+
+        PoolMgrSelectReadPoolMsg selectReadPool = new PoolMgrSelectReadPoolMsg(attributes, _protocolInfo, null);
+        CellMessage cellMessage = new CellMessage( new CellAddressCore("PoolManager"), selectReadPool);
+        cellMessage.addSourceAddress(new CellAddressCore("door"));
+
+        _rc.messageArrived(cellMessage, selectReadPool);
+
+        assertEquals(1, replies.size());
+        assertEquals(0, replies.get(0).getReturnCode());
+        assertEquals("pool1", replies.get(0).getPool().getName());
+        assertTrue(_rc.getRestoreHandlerInfo().isEmpty());
+    }
+
     @Test
     public void testRestoreNoLocationsOnePoolCantStage() throws Exception {
 
@@ -1,8 +1,13 @@
 package org.dcache.tests.poolmanager;
 
+import com.google.common.collect.ImmutableMap;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
 import java.net.InetAddress;
 import java.net.InetSocketAddress;
 import java.util.Arrays;
@@ -34,10 +39,13 @@ import dmg.cells.nucleus.CellMessage;
 
 import org.dcache.pool.classic.IoQueueManager;
 import org.dcache.poolmanager.PartitionManager;
+import org.dcache.poolmanager.PoolInfo;
+import org.dcache.poolmanager.PoolMonitorDelta;
 import org.dcache.poolmanager.PoolSelector;
 import org.dcache.vehicles.FileAttributes;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
 public class PoolMonitorTest
@@ -145,6 +153,71 @@ public class PoolMonitorTest
         prepareHostExclusion().selectWritePool(0);
     }
 
+    @Test
+    public void testPoolUpdatesSince() throws Exception {
+        prepareCostModule(false);
+
+        assertEquals(2, _poolMonitor.getPoolUpdatesSince(0).size());
+        assertTrue(_poolMonitor.getPoolUpdatesSince(Long.MAX_VALUE).isEmpty());
+    }
+
+    @Test
+    public void testDeltaUpdatesCopyOfPoolMonitor() throws Exception {
+        prepareCostModule(false);
+        PoolMonitorV5 copy = copyOf(_poolMonitor);
+
+        PoolCostInfo cost = new PoolCostInfo("pool1", IoQueueManager.DEFAULT_QUEUE);
+        cost.setSpaceUsage(100, 90, 5, 5);
+        PoolMonitorDelta delta = new PoolMonitorDelta(1, 0, 1, Collections.singletonList(
+                poolUpdate(cost, System.currentTimeMillis() + 1000)));
+
+        assertTrue(copy.apply(delta));
+        assertEquals(1, copy.getVersion());
+        assertEquals(90, copy.getCostModule().getPoolCostInfo("pool1").getSpaceInfo().getFreeSpace());
+        assertEquals(20, copy.getCostModule().getPoolCostInfo("pool2").getSpaceInfo().getFreeSpace());
+        assertEquals(20, _costModule.getPoolCostInfo("pool1").getSpaceInfo().getFreeSpace());
+    }
+
+    @Test
+    public void testDeltaDoesNotOverwriteNewerInformation() throws Exception {
+        prepareCostModule(false);
+
+        PoolCostInfo cost = new PoolCostInfo("pool1", IoQueueManager.DEFAULT_QUEUE);
+        cost.setSpaceUsage(100, 90, 5, 5);
+        PoolMonitorDelta delta = new PoolMonitorDelta(1, 0, 1, Collections.singletonList(
+                poolUpdate(cost, 0)));
+
+        assertTrue(_poolMonitor.apply(delta));
+        assertEquals(20, _costModule.getPoolCostInfo("pool1").getSpaceInfo().getFreeSpace());
+    }
+
+    @Test
+    public void testDeltaWithUnknownPoolIsIncomplete() throws Exception {
+        prepareCostModule(false);
+
+        PoolCostInfo cost = new PoolCostInfo("pool3", IoQueueManager.DEFAULT_QUEUE);
+        cost.setSpaceUsage(100, 90, 5, 5);
+        PoolMonitorDelta delta = new PoolMonitorDelta(1, 0, 1, Collections.singletonList(
+                poolUpdate(cost, System.currentTimeMillis())));
+
+        assertFalse(_poolMonitor.apply(delta));
+    }
+
+    private static PoolMonitorDelta.PoolUpdate poolUpdate(PoolCostInfo cost, long timestamp) {
+        return new PoolMonitorDelta.PoolUpdate(
+                new PoolInfo(new CellAddressCore(cost.getPoolName()), cost, ImmutableMap.of()), timestamp);
+    }
+
+    private static PoolMonitorV5 copyOf(PoolMonitorV5 monitor) throws Exception {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(monitor);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray()))) {
+            return (PoolMonitorV5) in.readObject();
+        }
+    }
+
     private void prepareCostModule(boolean linkPerPool) throws Exception {
         if (linkPerPool) {
             PoolMonitorHelper.prepareLinkPerPool(_selectionUnit, _access, _pools);
@@ -26,6 +26,7 @@ import org.dcache.util.Args;
 import org.dcache.vehicles.FileAttributes;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertTrue;
 
@@ -849,4 +850,92 @@ public class PoolSelectionUnitTest {
                       defaultExclude);
         assertEquals(0, preference.length);
    }
+
+    @Test
+    public void testMatchSeesConfigurationChanges()
+        throws CommandException
+    {
+        PoolSelectionUnitV2 psu = new PoolSelectionUnitV2();
+        CommandInterpreter ci = new CommandInterpreter(psu);
+
+        ci.command(new Args("psu create unit -store *@*"));
+        ci.command(new Args("psu create unit -net 0.0.0.0/0.0.0.0"));
+        ci.command(new Args("psu create ugroup world"));
+        ci.command(new Args("psu addto ugroup world 0.0.0.0/0.0.0.0"));
+        ci.command(new Args("psu create pool pool-a"));
+        psu.getPool("pool-a").setPoolMode(new PoolV2Mode(PoolV2Mode.ENABLED));
+        ci.command(new Args("psu create pgroup pools"));
+        ci.command(new Args("psu addto pgroup pools pool-a"));
+        ci.command(new Args("psu create link world-link world"));
+        ci.command(new Args("psu set link world-link -readpref=10 -writepref=10 -cachepref=10"));
+        ci.command(new Args("psu addto link world-link pools"));
+        ci.command("psu set allpoolsactive on");
+
+        FileAttributes fileAttributes = new FileAttributes();
+        StorageInfos.injectInto(GenericStorageInfo.valueOf("*", "*"), fileAttributes);
+        PoolPreferenceLevel[] preference =
+            psu.match(DirectionType.READ, "10.0.0.1", null, fileAttributes, null, defaultExclude);
+        assertEquals(1, preference.length);
+        assertEquals(1, preference[0].getPoolList().size());
+
+        /* A repeated match must not be served from a stale snapshot.
+         */
+        ci.command(new Args("psu create pool pool-b"));
+        psu.getPool("pool-b").setPoolMode(new PoolV2Mode(PoolV2Mode.ENABLED));
+        ci.command(new Args("psu addto pgroup pools pool-b"));
+        preference =
+            psu.match(DirectionType.READ, "10.0.0.1", null, fileAttributes, null, defaultExclude);
+        assertEquals(1, preference.length);
+        assertEquals(2, preference[0].getPoolList().size());
+
+        ci.command(new Args("psu set link world-link -readpref=0"));
+        preference =
+            psu.match(DirectionType.READ, "10.0.0.1", null, fileAttributes, null, defaultExclude);
+        assertEquals(0, preference.length);
+    }
+
+    @Test
+    public void testMatchSeesRegexChanges()
+        throws CommandException
+    {
+        PoolSelectionUnitV2 psu = new PoolSelectionUnitV2();
+        CommandInterpreter ci = new CommandInterpreter(psu);
+
+        ci.command(new Args("psu create unit -store exp-.*@osm"));
+        ci.command(new Args("psu create ugroup exp"));
+        ci.command(new Args("psu addto ugroup exp exp-.*@osm"));
+        ci.command(new Args("psu create pool pool-a"));
+        psu.getPool("pool-a").setPoolMode(new PoolV2Mode(PoolV2Mode.ENABLED));
+        ci.command(new Args("psu create pgroup pools"));
+        ci.command(new Args("psu addto pgroup pools pool-a"));
+        ci.command(new Args("psu create link exp-link exp"));
+        ci.command(new Args("psu set link exp-link -readpref=10 -writepref=10 -cachepref=10"));
+        ci.command(new Args("psu addto link exp-link pools"));
+        ci.command("psu set allpoolsactive on");
+
+        FileAttributes fileAttributes = new FileAttributes();
+        StorageInfos.injectInto(GenericStorageInfo.valueOf("exp-1:raw@osm", "*"), fileAttributes);
+        assertFalse(matchesStoreUnit(psu, fileAttributes));
+
+        ci.command("psu set regex on");
+        PoolPreferenceLevel[] preference =
+            psu.match(DirectionType.READ, null, null, fileAttributes, null, defaultExclude);
+        assertEquals(1, preference.length);
+        assertEquals(1, preference[0].getPoolList().size());
+
+        /* The snapshot compiled in regex mode must not be used any longer.
+         */
+        ci.command("psu set regex off");
+        assertFalse(matchesStoreUnit(psu, fileAttributes));
+    }
+
+    private boolean matchesStoreUnit(PoolSelectionUnitV2 psu, FileAttributes fileAttributes)
+    {
+        try {
+            psu.match(DirectionType.READ, null, null, fileAttributes, null, defaultExclude);
+            return true;
+        } catch (IllegalArgumentException e) {
+            return false;
+        }
+    }
 }
@@ -48,6 +48,7 @@ import org.dcache.pool.repository.FileStore;
 import org.dcache.pool.repository.FlatFileStore;
 import org.dcache.pool.repository.IllegalTransitionException;
 import org.dcache.pool.repository.ReplicaDescriptor;
+import org.dcache.pool.repository.ReplicaIndex;
 import org.dcache.pool.repository.ReplicaState;
 import org.dcache.pool.repository.ReplicaStore;
 import org.dcache.pool.repository.Repository.OpenFlags;
@@ -196,8 +197,11 @@ public class RepositorySubsystemTest
             new FileMetaDataRepository(fileStore, metaRoot, "pool");
 
         account = new Account();
+        ReplicaIndex index = new ReplicaIndex();
         sweeper = new SpaceSweeper2();
+        sweeper.setReplicaIndex(index);
         repository = new ReplicaRepository();
+        repository.setReplicaIndex(index);
 
         repository.setCellAddress(address);
         repository.setPnfsHandler(pnfs);
@@ -75,6 +75,10 @@ printPoolConfig() # $1 = path, $2 = name, $3 = domain, $4 = optional size, $5 =
             echo "pool.plugins.meta=org.dcache.pool.repository.meta.db.BerkeleyDBMetaDataRepository"
             echo "pool.wait-for-files=\${pool.path}/data:\${pool.path}/meta"
             ;;
+        lsm)
+            echo "pool.plugins.meta=org.dcache.pool.repository.meta.lsm.LsmMetaDataRepository"
+            echo "pool.wait-for-files=\${pool.path}/data:\${pool.path}/lsm"
+            ;;
         *)
             echo "pool.wait-for-files=\${pool.path}/data"
             ;;
@@ -142,6 +146,10 @@ createPool() # $1 = path, $2 = name, $3 = domain, $4 = optional size, $5 = optio
             mkdir "${path}/meta" ||
             fail 1 "Failed to create directory tree"
             ;;
+        lsm)
+            mkdir "${path}/lsm" ||
+            fail 1 "Failed to create directory tree"
+            ;;
         ?*)
             fail 1 "Unknown meta data format: $meta"
             ;;